@@ -0,0 +1,46 @@
+/*
+ * Copyright 2014-2016 Key Bridge LLC.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ftdichip.usb;
+
+import com.ftdichip.usb.enumerated.ChipType;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * FTDI baud rate divisor calculation: a precomputed standard rate and a
+ * non-standard rate that is calculated on request.
+ *
+ * @author Jesse Caulfield
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class BaudRateBenchmark {
+
+  @Param({"TYPE_R", "TYPE_2232H"})
+  public ChipType chipType;
+
+  @Param({"115200", "921600", "490000"})
+  public int baudRate;
+
+  @Benchmark
+  public FTDIBaudRate getInstance() {
+    return FTDIBaudRate.getInstance(chipType, baudRate);
+  }
+}
@@ -0,0 +1,77 @@
+/*
+ * Copyright 2014-2016 Key Bridge LLC.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ftdichip.usb;
+
+import com.ftdichip.usb.enumerated.FlowControl;
+import com.ftdichip.usb.enumerated.LineDatabit;
+import com.ftdichip.usb.enumerated.LineParity;
+import com.ftdichip.usb.enumerated.LineStopbit;
+import com.ftdichip.usb.miocard.MiocardCommand;
+import com.ftdichip.usb.simulator.SimulatorServices;
+import java.util.concurrent.TimeUnit;
+import javax.usb.UsbDevice;
+import javax.usb.UsbException;
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * End to end synchronous reads from an unthrottled simulated Miocard-12
+ * stream (see {@link SimulatorServices}).
+ * <p>
+ * {@code readInto} reads a multi-packet transfer into a caller buffer;
+ * {@code readArray} is the single packet, allocating {@link FTDI#read()}.
+ *
+ * @author Jesse Caulfield
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = {"-Djavax.usb.services=com.ftdichip.usb.simulator.SimulatorServices",
+                                  "-D" + SimulatorServices.SPEED_PROPERTY + "=0"})
+public class FTDIReadBenchmark {
+
+  @Param({"64", "4096"})
+  public int transferSize;
+
+  private FTDI ftdi;
+  private byte[] buffer;
+
+  @Setup
+  public void setup() throws UsbException {
+    UsbDevice device = FTDIUtility.findFTDIDevices().iterator().next();
+    ftdi = new FTDI(device);
+    ftdi.configureSerialPort(230400, LineDatabit.BITS_8, LineStopbit.STOP_BIT_1, LineParity.NONE, FlowControl.DISABLE_FLOW_CTRL);
+    ftdi.write(MiocardCommand.START.toBytes());
+    buffer = new byte[transferSize];
+  }
+
+  @TearDown
+  public void tearDown() throws UsbException {
+    ftdi.write(MiocardCommand.STOP.toBytes());
+    ftdi.close();
+  }
+
+  @Benchmark
+  public int readInto() throws UsbException {
+    return ftdi.read(buffer, 0, transferSize);
+  }
+
+  @Benchmark
+  public byte[] readArray() throws UsbException {
+    return ftdi.read();
+  }
+}
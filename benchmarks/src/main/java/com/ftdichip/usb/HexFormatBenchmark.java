@@ -0,0 +1,62 @@
+/*
+ * Copyright 2014-2016 Key Bridge LLC.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ftdichip.usb;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * The {@link gui} console hex formatting of received data.
+ *
+ * @author Jesse Caulfield
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class HexFormatBenchmark {
+
+  @Param({"62", "4096"})
+  public int length;
+
+  private byte[] data;
+  private String hex;
+
+  @Setup
+  public void setup() {
+    data = new byte[length];
+    new Random(1).nextBytes(data);
+    hex = gui.bytesToHex(data);
+  }
+
+  @Benchmark
+  public String bytesToHex() {
+    return gui.bytesToHex(data);
+  }
+
+  @Benchmark
+  public String stringWithSpaces() {
+    return gui.StringWithSpaces(hex);
+  }
+
+  @Benchmark
+  public String consoleLine() {
+    return gui.StringWithSpaces(gui.bytesToHex(data));
+  }
+}
@@ -0,0 +1,60 @@
+/*
+ * Copyright 2014-2016 Key Bridge LLC.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ftdichip.usb;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * The cost of recording one transfer in the {@link FTDIMetrics}: the
+ * synchronous read path takes two {@link System#nanoTime()} readings, records
+ * the latency and adds the transfer and byte counts.
+ * <p>
+ * {@code recordRead} is run by one thread and by four threads sharing one
+ * metrics instance (the striped counters must not contend);
+ * {@code nanoTimeOnly} is the cost of the clock readings alone.
+ *
+ * @author Jesse Caulfield
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MetricsBenchmark {
+
+  private final FTDIMetrics metrics = new FTDIMetrics();
+
+  @Benchmark
+  public long nanoTimeOnly() {
+    long start = System.nanoTime();
+    return System.nanoTime() - start;
+  }
+
+  @Benchmark
+  public void recordRead() {
+    long start = System.nanoTime();
+    metrics.readCompleted(System.nanoTime() - start, 62);
+  }
+
+  @Benchmark
+  @Threads(4)
+  public void recordReadContended() {
+    long start = System.nanoTime();
+    metrics.readCompleted(System.nanoTime() - start, 62);
+  }
+}
@@ -0,0 +1,90 @@
+/*
+ * Copyright 2014-2016 Key Bridge LLC.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ftdichip.usb;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Modem status header stripping of a multi-packet bulk read.
+ * <p>
+ * {@code stripInPlace} is the single pass compaction used by
+ * {@link FTDI#read(byte[], int, int)} and the asynchronous read engine;
+ * {@code copyPerPacket} is the former approach of copying every packet
+ * payload into a new array. {@code copyOnly} is the cost of restoring the
+ * source buffer, included in {@code stripInPlace}. {@code stripAndTrack} also
+ * decodes every header with a {@link FTDIModemStatusTracker}, as the read
+ * paths do.
+ *
+ * @author Jesse Caulfield
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ReadHeaderBenchmark {
+
+  @Param({"64", "512"})
+  public int packetSize;
+  @Param({"4096", "65536"})
+  public int transferSize;
+
+  private byte[] source;
+  private byte[] work;
+  private final FTDIModemStatusTracker tracker = new FTDIModemStatusTracker();
+
+  @Setup
+  public void setup() {
+    source = new byte[transferSize];
+    for (int n = 0; n < transferSize; n++) {
+      source[n] = (byte) n;
+    }
+    for (int p = 0; p < transferSize; p += packetSize) {
+      source[p] = 0x31;
+      source[p + 1] = 0x60;
+    }
+    work = new byte[transferSize];
+  }
+
+  @Benchmark
+  public byte[] copyOnly() {
+    System.arraycopy(source, 0, work, 0, transferSize);
+    return work;
+  }
+
+  @Benchmark
+  public int stripInPlace() {
+    System.arraycopy(source, 0, work, 0, transferSize);
+    return FTDIUtility.stripModemStatus(work, 0, transferSize, packetSize, 0);
+  }
+
+  @Benchmark
+  public int stripAndTrack() {
+    System.arraycopy(source, 0, work, 0, transferSize);
+    return FTDIUtility.stripModemStatus(work, 0, transferSize, packetSize, 0, tracker);
+  }
+
+  @Benchmark
+  public void copyPerPacket(Blackhole blackhole) {
+    for (int p = 0; p < transferSize; p += packetSize) {
+      blackhole.consume(Arrays.copyOfRange(source, p + FTDIUtility.MODEM_STATUS_HEADER_LENGTH, Math.min(p + packetSize, transferSize)));
+    }
+  }
+}
@@ -0,0 +1,115 @@
+/*
+ * Copyright 2014-2016 Key Bridge LLC.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ftdichip.usb;
+
+import com.ftdichip.usb.enumerated.PortInterfaceType;
+import com.ftdichip.usb.simulator.SimulatedFTDIDevice;
+import com.ftdichip.usb.simulator.SimulatorServices;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import javax.usb.UsbException;
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * Synchronous FIFO mode streaming from port A of a simulated FT2232H, whose
+ * FIFO is always full (see {@link SimulatedFTDIDevice}), so the host side read
+ * path is the limit.
+ * <p>
+ * One operation is one received transfer, handed from the read engine to the
+ * benchmark thread without copying. The {@code bytes} counter reports the
+ * data throughput (bytes per second).
+ * <p>
+ * Developer note: The simulator fills a whole request at once, so the result
+ * measures this library's read path only and is no estimate of hardware
+ * throughput. The usb4java backend transfers each packet of a request
+ * separately (see {@link FTDI#read(byte[], int, int)}).
+ *
+ * @author Jesse Caulfield
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = {"-Djavax.usb.services=com.ftdichip.usb.simulator.SimulatorServices",
+                                  "-D" + SimulatorServices.DEVICES_PROPERTY + "=0"})
+public class SyncFifoBenchmark {
+
+  @Param({"4", "32"})
+  public int irpCount;
+
+  @Param({"16384", "65536"})
+  public int transferSize;
+
+  private final BlockingQueue<FTDIBuffer> received = new ArrayBlockingQueue<>(256);
+  private FTDI ftdi;
+
+  @Setup
+  public void setup() throws UsbException {
+    SimulatedFTDIDevice device = ((SimulatorServices) UsbHostManager.getUsbServices()).attachMiocards(2);
+    ftdi = new FTDI(device, PortInterfaceType.INTERFACE_A);
+    ftdi.addDataListener(new FTDIDataListener() {
+      @Override
+      public void dataReceived(FTDIBuffer buffer) {
+        buffer.retain();
+        if (!received.offer(buffer)) {
+          buffer.release();
+        }
+      }
+
+      @Override
+      public void errorOccurred(UsbException exception) {
+      }
+    });
+    ftdi.startSyncFifo(irpCount, transferSize);
+  }
+
+  @TearDown
+  public void tearDown() throws UsbException {
+    ftdi.stopSyncFifo();
+    ftdi.close();
+    for (FTDIBuffer buffer = received.poll(); buffer != null; buffer = received.poll()) {
+      buffer.release();
+    }
+  }
+
+  /**
+   * The received data volume, reported as a rate.
+   */
+  @State(Scope.Thread)
+  @AuxCounters(AuxCounters.Type.OPERATIONS)
+  public static class Counters {
+
+    public long bytes;
+
+    @Setup(Level.Iteration)
+    public void reset() {
+      bytes = 0;
+    }
+  }
+
+  @Benchmark
+  public int read(Counters counters) throws InterruptedException {
+    FTDIBuffer buffer = received.take();
+    try {
+      counters.bytes += buffer.getLength();
+      return buffer.getLength();
+    } finally {
+      buffer.release();
+    }
+  }
+}
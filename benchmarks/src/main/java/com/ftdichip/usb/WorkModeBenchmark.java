@@ -0,0 +1,114 @@
+/*
+ * Copyright 2014-2016 Key Bridge LLC.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ftdichip.usb;
+
+import com.ftdichip.usb.miocard.MiocardWorkMode;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * Work mode (mode info response) decoding.
+ * <p>
+ * {@link #baseline()} is the original signed-byte decoder of
+ * {@link gui#DecodeWorkMode(byte[])}, which now delegates to
+ * {@link MiocardWorkMode}: compare it with {@link #decodeWorkMode()} for the
+ * GUI text, and with {@link #fromResponse()} for the decoding alone.
+ *
+ * @author Jesse Caulfield
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class WorkModeBenchmark {
+
+  private final byte[] response = {0x02, (byte) 0x93, 0x0A};
+
+  @Benchmark
+  public String baseline() {
+    return decodeWorkModeBaseline(response);
+  }
+
+  @Benchmark
+  public String decodeWorkMode() {
+    return gui.DecodeWorkMode(response);
+  }
+
+  @Benchmark
+  public int fromResponse() {
+    return MiocardWorkMode.fromResponse(response).getSampleRate();
+  }
+
+  /**
+   * The original gui.DecodeWorkMode, kept as the benchmark baseline. Its
+   * arithmetic on signed bytes decodes the 2000 Hz rate (bit 7) incorrectly.
+   */
+  private static String decodeWorkModeBaseline(byte[] arr) {
+    String result[] = new String[6];
+    byte HighByte = arr[2];
+    byte LowByte = arr[1];
+    if (HighByte - 0x08 >= 0x00) {
+      result[0] = "Wide (+/- 20.46 mV)\n";
+      HighByte -= 0x08;
+    } else {
+      result[0] = "Narrow (+/- 10,23 mV)\n";
+      HighByte -= 0x04;
+    }
+    if (HighByte - 0x02 == 0x00) {
+      result[1] = "High\n";
+    } else {
+      result[1] = "Normal\n";
+    }
+    if (LowByte - 0x80 >= 0x00) {
+      result[2] = "2000Hz\n";
+      LowByte -= 0x80;
+    } else if (LowByte - 0x40 >= 0x00) {
+      result[2] = "1000Hz\n";
+      LowByte -= 0x40;
+    } else {
+      result[2] = "500Hz\n";
+      LowByte -= 0x20;
+    }
+    if (LowByte - 0x10 >= 0x00) {
+      result[3] = "ADS1298 (24 bits)\n";
+      LowByte -= 0x10;
+    } else {
+      result[3] = "ADS1198 (16 bits)\n";
+      LowByte -= 0x08;
+    }
+    if (LowByte - 0x04 >= 0x00) {
+      result[4] = "On\n";
+      LowByte -= 0x04;
+    } else {
+      result[4] = "Off\n";
+    }
+    if (LowByte - 0x02 == 0x01) {
+      result[5] = "On\n";
+    } else {
+      result[5] = "Off\n";
+    }
+    return "Miocard-12 works in mode:\n"
+           + "Electrode break monitoring range: " + result[0]
+           + "Isoline alignment speed: " + result[1]
+           + "Frequency: " + result[2]
+           + "ADS model: " + result[3]
+           + "Control mode: " + result[4]
+           + "Isoline output to zero: " + result[5]
+           + "Electrode break monitoring: On\n";
+  }
+}
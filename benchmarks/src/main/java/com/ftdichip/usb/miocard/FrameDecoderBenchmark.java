@@ -0,0 +1,83 @@
+/*
+ * Copyright 2014-2016 Key Bridge LLC.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ftdichip.usb.miocard;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * Sample frame decoding and stream framing of one read transfer.
+ *
+ * @author Jesse Caulfield
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class FrameDecoderBenchmark {
+
+  /**
+   * Frames per transfer.
+   */
+  private static final int FRAMES = 1024;
+
+  @Param({"3", "2"})
+  public int sampleBytes;
+  @Param({"12", "8"})
+  public int columnCount;
+
+  private byte[] data;
+  private int[][] columns;
+  private MiocardFrameDecoder decoder;
+  private MiocardFramer framer;
+  private int row;
+
+  @Setup
+  public void setup() {
+    decoder = new MiocardFrameDecoder(sampleBytes);
+    int frameLength = decoder.getFrameLength();
+    data = new byte[FRAMES * frameLength];
+    new Random(1).nextBytes(data);
+    for (int f = 0; f < FRAMES; f++) {
+      data[f * frameLength] = (byte) MiocardProtocol.STATUS_SYNC;
+    }
+    columns = new int[columnCount][FRAMES];
+    framer = new MiocardFramer(frameLength, (buffer, offset) -> {
+      decoder.decode(buffer, offset, columns, row);
+      row = (row + 1) % FRAMES;
+    });
+  }
+
+  @Benchmark
+  public int decode() {
+    return decoder.decode(data, 0, data.length, columns, 0);
+  }
+
+  /**
+   * Frame and decode the transfer delivered in 4 kB chunks, so that frames
+   * straddle the chunk boundaries.
+   */
+  @Benchmark
+  public long frameAndDecode() {
+    for (int offset = 0; offset < data.length; offset += 4096) {
+      framer.process(data, offset, Math.min(4096, data.length - offset));
+    }
+    return framer.getFrameCount();
+  }
+}
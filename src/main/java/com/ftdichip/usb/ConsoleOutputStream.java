@@ -0,0 +1,254 @@
+/*
+ * Copyright 2014-2016 Key Bridge LLC.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ftdichip.usb;
+
+import java.awt.event.ActionEvent;
+import java.awt.event.ActionListener;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import javax.swing.JTextArea;
+import javax.swing.SwingUtilities;
+import javax.swing.Timer;
+import javax.swing.text.BadLocationException;
+import javax.swing.text.Document;
+import javax.swing.text.Element;
+
+/**
+ * Batched, bounded console output stream writing to a text area.
+ * <p>
+ * Bytes written by any thread are only appended to a bounded buffer. A Swing
+ * timer drains the buffer on the event dispatch thread at a fixed rate and
+ * appends everything written since the previous flush to the text area in a
+ * single document insert, so the number of document mutations and repaints is
+ * independent of how much (or how often) the application prints.
+ * <p>
+ * The text area is capped at a maximum number of lines. When the cap is
+ * exceeded, lines are removed from the top of the document in one remove
+ * operation, located from the document root element (whose child elements are
+ * the lines), down to three quarters of the cap. The remove itself moves the
+ * remaining text and so costs time proportional to the document length; the
+ * hysteresis makes it happen once per quarter of the cap printed instead of on
+ * every flush.
+ * <p>
+ * Developer note: When the application prints faster than the text area can
+ * usefully display, the oldest unflushed output is dropped (at a line
+ * boundary) and a marker reporting the number of dropped bytes is written in
+ * its place.
+ *
+ * @author Jesse Caulfield
+ */
+public class ConsoleOutputStream extends OutputStream {
+
+  /**
+   * The default maximum number of lines kept in the text area.
+   */
+  public static final int DEFAULT_MAX_LINES = 2000;
+  /**
+   * The default flush interval (milliseconds): 10 updates per second.
+   */
+  public static final int DEFAULT_FLUSH_INTERVAL = 100;
+  /**
+   * The default pending output buffer capacity (bytes).
+   */
+  public static final int DEFAULT_BUFFER_CAPACITY = 256 * 1024;
+
+  private final JTextArea textArea;
+  private final int maxLines;
+  /**
+   * The number of lines kept when the text area is trimmed.
+   */
+  private final int trimLines;
+  private final Charset charset;
+  private final Timer timer;
+  /**
+   * The pending (unflushed) output. Guarded by this object.
+   */
+  private final byte[] buffer;
+  private int count;
+  /**
+   * The number of bytes dropped since the last flush. Guarded by this object.
+   */
+  private long droppedBytes;
+
+  /**
+   * Construct a new console output stream with the default line limit and
+   * flush interval.
+   *
+   * @param textArea the text area
+   */
+  public ConsoleOutputStream(JTextArea textArea) {
+    this(textArea, DEFAULT_MAX_LINES, DEFAULT_FLUSH_INTERVAL, DEFAULT_BUFFER_CAPACITY);
+  }
+
+  /**
+   * Construct a new console output stream. Flushing to the text area starts
+   * immediately.
+   *
+   * @param textArea       the text area
+   * @param maxLines       the maximum number of lines kept in the text area
+   * @param flushInterval  the interval between text area updates
+   *                       (milliseconds)
+   * @param bufferCapacity the maximum number of bytes buffered between
+   *                       updates
+   */
+  public ConsoleOutputStream(JTextArea textArea, int maxLines, int flushInterval, int bufferCapacity) {
+    if (maxLines < 1 || flushInterval < 1 || bufferCapacity < 2) {
+      throw new IllegalArgumentException("Line limit, flush interval and buffer capacity must be positive.");
+    }
+    this.textArea = textArea;
+    this.maxLines = maxLines;
+    this.trimLines = Math.max(1, maxLines - maxLines / 4);
+    this.charset = Charset.defaultCharset();
+    this.buffer = new byte[bufferCapacity];
+    this.timer = new Timer(flushInterval, new ActionListener() {
+      @Override
+      public void actionPerformed(ActionEvent e) {
+        flushToTextArea();
+      }
+    });
+    this.timer.setCoalesce(true);
+    this.timer.start();
+  }
+
+  /**
+   * @return the maximum number of lines kept in the text area
+   */
+  public int getMaxLines() {
+    return maxLines;
+  }
+
+  @Override
+  public void write(int b) {
+    synchronized (this) {
+      if (count == buffer.length) {
+        drop(1);
+      }
+      buffer[count++] = (byte) b;
+    }
+  }
+
+  @Override
+  public void write(byte[] data, int offset, int length) {
+    if (offset < 0 || length < 0 || offset + length > data.length) {
+      throw new IndexOutOfBoundsException();
+    }
+    synchronized (this) {
+      if (length > buffer.length) {
+        /**
+         * Only the tail of an oversized write can be kept.
+         */
+        droppedBytes += count + length - buffer.length;
+        count = 0;
+        offset += length - buffer.length;
+        length = buffer.length;
+      } else if (count + length > buffer.length) {
+        drop(count + length - buffer.length);
+      }
+      System.arraycopy(data, offset, buffer, count, length);
+      count += length;
+    }
+  }
+
+  /**
+   * Drop the oldest pending output to make room. At least the required number
+   * of bytes is dropped, extended to the next line boundary, and at least half
+   * of the buffer so that a sustained overload does not compact the buffer on
+   * every write.
+   *
+   * @param required the number of bytes that must be dropped
+   */
+  private void drop(int required) {
+    int n = Math.max(required, buffer.length / 2);
+    while (n < count && buffer[n - 1] != '\n') {
+      n++;
+    }
+    n = Math.min(n, count);
+    System.arraycopy(buffer, n, buffer, 0, count - n);
+    count -= n;
+    droppedBytes += n;
+  }
+
+  /**
+   * Take the pending output.
+   *
+   * @return the pending output as text, or null if there is none
+   */
+  private synchronized String drain() {
+    if (count == 0 && droppedBytes == 0) {
+      return null;
+    }
+    String text = new String(buffer, 0, count, charset);
+    if (droppedBytes > 0) {
+      text = "[... " + droppedBytes + " bytes dropped ...]\n" + text;
+      droppedBytes = 0;
+    }
+    count = 0;
+    return text;
+  }
+
+  /**
+   * Append the pending output to the text area and trim the excess lines.
+   * Developer note: Must be called on the event dispatch thread.
+   */
+  private void flushToTextArea() {
+    String text = drain();
+    if (text == null) {
+      return;
+    }
+    Document document = textArea.getDocument();
+    try {
+      document.insertString(document.getLength(), text, null);
+      Element root = document.getDefaultRootElement();
+      /**
+       * The last line is empty when the text ends with a newline; it does not
+       * count against the limit.
+       */
+      int lines = root.getElementCount();
+      if (document.getLength() > 0 && root.getElement(lines - 1).getStartOffset() == document.getLength()) {
+        lines--;
+      }
+      if (lines > maxLines) {
+        document.remove(0, root.getElement(lines - trimLines - 1).getEndOffset());
+      }
+    } catch (BadLocationException ex) {
+      throw new IllegalStateException(ex);
+    }
+    textArea.setCaretPosition(document.getLength());
+  }
+
+  /**
+   * Schedule an immediate text area update.
+   */
+  @Override
+  public void flush() {
+    SwingUtilities.invokeLater(new Runnable() {
+      @Override
+      public void run() {
+        flushToTextArea();
+      }
+    });
+  }
+
+  /**
+   * Stop the periodic updates after writing the pending output to the text
+   * area.
+   */
+  @Override
+  public void close() {
+    timer.stop();
+    flush();
+  }
+}
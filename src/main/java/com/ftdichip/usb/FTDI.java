@@ -21,8 +21,17 @@ import com.ftdichip.usb.enumerated.LineParity;
 import com.ftdichip.usb.enumerated.LineStopbit;
 
 import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.text.SimpleDateFormat;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import static com.ftdichip.usb.FTDIUtility.MODEM_STATUS_HEADER_LENGTH;
 
@@ -32,6 +41,7 @@ import com.ftdichip.usb.enumerated.*;
 import java.util.Arrays;
 import javax.usb.UsbDevice;
 import javax.usb.UsbException;
+import javax.usb.util.DefaultUsbIrp;
 
 /**
  * FTDI UART read/write utility.
@@ -40,14 +50,14 @@ import javax.usb.UsbException;
  * {@code FT2232} and {@code FT232B} chips from Future Technology Devices
  * International Ltd.
  * <p>
- * Developer note: There is an synchronous and asynchronous WRITE method but no
- * asynchronous READ method. This class wraps the USB I/O read transaction to
- * post-process returned USB packets and to strip FTDI-specific header
- * information before passing data to the reader. This strategy provides a clean
- * READ transaction but would require adding (yet another layer of) event
- * listener/notifier logic to support asynchronous reads. If you really need
- * ASYNC read then you should directly access the {@code UsbPipe}, which already
- * has a listener interface.
+ * Developer note: There is an synchronous and asynchronous WRITE method and a
+ * synchronous and asynchronous READ method. This class wraps the USB I/O read
+ * transaction to post-process returned USB packets and to strip FTDI-specific
+ * header information before passing data to the reader. For sustained
+ * streaming use the asynchronous read engine: register one or more
+ * {@link FTDIDataListener} instances then call {@link #startAsyncRead(int)}.
+ * The engine keeps several read requests queued on the bulk-IN endpoint so the
+ * chip buffer is drained continuously between application reads.
  *
  * @author Jesse Caulfield
  * @since v1.0.0 May 06, 2014
@@ -145,6 +155,30 @@ public final class FTDI {
 //    }
 
     private final UsbDevice usbDevice;
+    /**
+     * The chip port (interface) of this instance. INTERFACE_ANY for single
+     * port chips.
+     */
+    private final PortInterfaceType port;
+    /**
+     * The chip type, identified from the device descriptor. This selects the
+     * baud rate divisor encoding.
+     */
+    private final ChipType chipType;
+    /**
+     * The baud rate last set by {@link #configureSerialPort}. Null until the
+     * serial port is configured.
+     */
+    private volatile FTDIBaudRate baudRate;
+    /**
+     * The shadow registers of the port serial configuration. Shared by all
+     * instances opened on the port.
+     */
+    private final FTDIPortRegisters registers;
+    /**
+     * The bit mode last set. The chip powers up in its normal (RESET) mode.
+     */
+    private volatile BitMode bitMode = BitMode.RESET;
     /**
      * The USB interface (within the IUsbDevice) through which this device
      * communicates. This is extracted from the IUsbDevice and stored here (at
@@ -162,6 +196,82 @@ public final class FTDI {
      * The USB Pipe used to WRITE data from the connected device.
      */
     private UsbPipe usbPipeWrite;
+    /**
+     * The default number of read requests kept queued on the READ pipe by the
+     * asynchronous read engine.
+     */
+    public static final int DEFAULT_READ_IRP_COUNT = 8;
+    /**
+     * The default number of read requests kept queued in synchronous FIFO
+     * mode.
+     */
+    public static final int SYNC_FIFO_IRP_COUNT = 32;
+    /**
+     * The default read request size in synchronous FIFO mode (bytes).
+     */
+    public static final int SYNC_FIFO_TRANSFER_SIZE = 65536;
+    /**
+     * The latency timer in synchronous FIFO mode (ms), as recommended by
+     * AN_130.
+     */
+    public static final int SYNC_FIFO_LATENCY_TIMER = 2;
+    /**
+     * Listeners to receive data from the asynchronous read engine.
+     */
+    private final List<FTDIDataListener> dataListeners = new CopyOnWriteArrayList<>();
+    /**
+     * The I/O metrics of this port.
+     */
+    private final FTDIMetrics metrics;
+    /**
+     * The decoder of the modem status header of every packet read, by both
+     * the synchronous and the asynchronous read paths.
+     */
+    private final FTDIModemStatusTracker modemStatusTracker = new FTDIModemStatusTracker();
+    /**
+     * The asynchronous read engine. Null if not running.
+     */
+    private FTDIAsyncReader asyncReader;
+    /**
+     * The re-usable USB request for synchronous reads. Access is synchronized
+     * on this object.
+     */
+    private final DefaultUsbIrp readIrp = new DefaultUsbIrp();
+    /**
+     * The re-usable frame buffer for synchronous reads into a direct (non-array)
+     * ByteBuffer or a new byte array. Guarded by the readIrp lock.
+     */
+    private byte[] readFrame;
+    /**
+     * The adaptive latency timer controller. Null if adaptive latency is not
+     * enabled.
+     */
+    private volatile FTDILatencyTuner latencyTuner;
+    /**
+     * The default maximum number of outstanding asynchronous writes.
+     */
+    public static final int DEFAULT_MAX_OUTSTANDING_WRITES = 64;
+    /**
+     * The number of asynchronous writes submitted and not yet completed.
+     */
+    private final AtomicInteger outstandingWrites = new AtomicInteger();
+    /**
+     * The asynchronous writes submitted and not yet completed, so that close()
+     * can fail those the pipe never completes.
+     */
+    private final Set<WriteIrp> pendingWrites = ConcurrentHashMap.newKeySet();
+    /**
+     * The time close() waits for outstanding asynchronous writes (ms).
+     */
+    private static final int CLOSE_WRITE_TIMEOUT = 1000;
+    /**
+     * The maximum number of outstanding asynchronous writes.
+     */
+    private volatile int maxOutstandingWrites = DEFAULT_MAX_OUTSTANDING_WRITES;
+    /**
+     * The coalescing write queue. Null until first used.
+     */
+    private FTDIWriteQueue writeQueue;
 
     /**
      * Construct a new FTDI (read, write) instance.
@@ -179,26 +289,104 @@ public final class FTDI {
      * current user (permission error)
      */
     public static FTDI getInstance(UsbDevice usbDevice) throws UsbException {
+        return getInstance(usbDevice, PortInterfaceType.INTERFACE_ANY);
+    }
+
+    /**
+     * Construct a new FTDI (read, write) instance on one port of a multi-port
+     * FTDI chip (FT2232, FT4232).
+     * <p>
+     * The serial port is automatically configured for default operation at
+     * 115200 bps, 8 data bits, no parity, 1 stop bit, no flow control.
+     *
+     * @param usbDevice the specific UsbDevice instance to communicate with
+     * @param port the chip port (interface) to open
+     * @return a new instance
+     * @throws UsbException if the USB device is not readable/writable by the
+     * current user (permission error)
+     */
+    public static FTDI getInstance(UsbDevice usbDevice, PortInterfaceType port) throws UsbException {
         /**
          * Claim the USB device.
          */
-        FTDI ftdi = new FTDI(usbDevice);
+        FTDI ftdi = new FTDI(usbDevice, port);
         /**
-         * Set the serial line configuration: 115200 bps, 8, N, 1, no flow
-         * control.
+         * Stage the DTR and RTS lines, then set them together with the serial
+         * line configuration: 115200 bps, 8, N, 1, no flow control. Registers
+         * that already hold these values are not sent again.
          */
+        ftdi.registers.setDtr(false).setRts(true);
         ftdi.configureSerialPort(FTDIUtility.DEFAULT_BAUD_RATE,
                 LineDatabit.BITS_8,
                 LineStopbit.STOP_BIT_1,
                 LineParity.NONE,
                 FlowControl.DISABLE_FLOW_CTRL);
-        /**
-         * Set the DTR and RTS lines.
-         */
-        FTDIUtility.setDTRRTS(usbDevice, false, true);
         return ftdi;
     }
 
+    /**
+     * Open every port of an FTDI chip as an independent FTDI instance. A
+     * single port chip returns one instance; an FT2232 two and an FT4232 four.
+     * Each instance claims its own USB interface and uses its own bulk pipes,
+     * so the ports may be read and written concurrently.
+     * <p>
+     * The serial ports are configured as by {@link #getInstance(UsbDevice)}.
+     *
+     * @param usbDevice the specific UsbDevice instance to communicate with
+     * @return the ports, in port order
+     * @throws UsbException if a port cannot be opened. Ports already opened
+     * are closed.
+     */
+    public static List<FTDI> openPorts(UsbDevice usbDevice) throws UsbException {
+        int count = getPortCount(usbDevice);
+        List<FTDI> ports = new ArrayList<>(count);
+        try {
+            if (count == 1) {
+                ports.add(getInstance(usbDevice, PortInterfaceType.INTERFACE_ANY));
+            } else {
+                for (int index = 1; index <= count; index++) {
+                    ports.add(getInstance(usbDevice, PortInterfaceType.values()[index]));
+                }
+            }
+        } catch (UsbException | RuntimeException ex) {
+            for (FTDI ftdi : ports) {
+                ftdi.close();
+            }
+            throw ex;
+        }
+        return ports;
+    }
+
+    /**
+     * Get the number of serial ports of an FTDI chip: the number of interfaces
+     * of its active configuration.
+     *
+     * @param usbDevice the FTDI USB device
+     * @return the number of ports (1, 2 or 4)
+     */
+    public static int getPortCount(UsbDevice usbDevice) {
+        return usbDevice.getActiveUsbConfiguration().getUsbInterfaces().size();
+    }
+
+    /**
+     * Get the port that a port interface type actually addresses.
+     * {@link PortInterfaceType#INTERFACE_ANY} addresses the only port of a
+     * single port chip and port A of a multi-port chip, and the only port of a
+     * single port chip may also be addressed as port A. Per-port state is
+     * indexed by this value so that both names share it.
+     *
+     * @param usbDevice the FTDI USB device
+     * @param port      the chip port (interface)
+     * @return {@link PortInterfaceType#INTERFACE_ANY} for a single port chip,
+     *         otherwise the addressed port
+     */
+    static PortInterfaceType getPortKey(UsbDevice usbDevice, PortInterfaceType port) {
+        if (getPortCount(usbDevice) == 1) {
+            return PortInterfaceType.INTERFACE_ANY;
+        }
+        return port == PortInterfaceType.INTERFACE_ANY ? PortInterfaceType.INTERFACE_A : port;
+    }
+
     /**
      * Construct a new FTDI (read, write) instance.
      * <p>
@@ -214,10 +402,35 @@ public final class FTDI {
      * current user (permission error)
      */
     public FTDI(UsbDevice usbDevice) throws UsbException {
+        this(usbDevice, PortInterfaceType.INTERFACE_ANY);
+    }
+
+    /**
+     * Construct a new FTDI (read, write) instance on one port of a multi-port
+     * FTDI chip (FT2232, FT4232).
+     * <p>
+     * Each port of a multi-port chip is a separate USB interface with its own
+     * pair of bulk endpoints. This instance claims only the interface of the
+     * given port; control requests are addressed to the port through the
+     * request wIndex. Several instances may therefore use the ports of one chip
+     * independently.
+     * <p>
+     * Important: The serial port is NOT CONFIGURED when using this constructor.
+     *
+     * @param usbDevice the specific UsbDevice instance to communicate with
+     * @param port the chip port (interface) to open. INTERFACE_ANY opens the
+     * first interface, which is the only one of a single port chip.
+     * @throws UsbException if the USB device is not readable/writable by the
+     * current user (permission error)
+     */
+    public FTDI(UsbDevice usbDevice, PortInterfaceType port) throws UsbException {
         /**
          * Set the USB Device.
          */
         this.usbDevice = usbDevice;
+        this.port = port;
+        this.chipType = ChipType.fromDescriptor(usbDevice.getUsbDeviceDescriptor());
+        this.registers = FTDIPortRegisters.getInstance(usbDevice, port);
         /**
          * USB Interfaces: When you want to communicate with an interface or
          * with endpoints of this interface then you have to claim it before
@@ -225,18 +438,30 @@ public final class FTDI {
          */
         UsbConfiguration configuration = usbDevice.getActiveUsbConfiguration();
         /**
-         * Developer note: FTDI devices have only ONE IUsbInterface (Interface
-         * #0). Therefore always get and use the first available IUsbInterface
-         * from the list.
+         * Developer note: Single port FTDI devices have only ONE IUsbInterface
+         * (Interface #0), which is used for INTERFACE_ANY. Multi-port devices
+         * have one interface per port: interface #0 is port A, #1 port B etc.
          * <p>
          * The returned interface setting will be the current active alternate
          * setting if this configuration (and thus the contained interface) is
          * active. If this configuration is not active, the returned interface
          * setting will be an implementation-dependent alternate setting.
          */
-        usbInterface = (UsbInterface) configuration.getUsbInterfaces().iterator().next();
+        if (port == PortInterfaceType.INTERFACE_ANY) {
+            usbInterface = (UsbInterface) configuration.getUsbInterfaces().iterator().next();
+        } else {
+            usbInterface = configuration.getUsbInterface((byte) (port.getIndex() - 1));
+            if (usbInterface == null) {
+                throw new UsbException("Device has no " + port);
+            }
+        }
         //.
         usbInterface.claim((UsbInterface usbInterface1) -> false);
+        /**
+         * The metrics are registered once the port is open and unregistered by
+         * close().
+         */
+        this.metrics = FTDIMetrics.getInstance(usbDevice, port);
         /**
          * Scan the interface UsbEndPoint list to set the READ and WRITE USB
          * pipes.
@@ -277,8 +502,22 @@ public final class FTDI {
      * native release fails, this will fail. This should be done after the
      * interface is no longer being used. All pipes must be closed before this
      * can be released.
+     * <p>
+     * Outstanding asynchronous writes (including those flushed from the write
+     * queue) are given a short time to complete; the futures of any that do
+     * not are completed exceptionally.
      */
     public void close() {
+        FTDIWriteQueue queue;
+        synchronized (this) {
+            queue = writeQueue;
+            if (queue != null) {
+                queue.close();
+            }
+        }
+        awaitPendingWrites(queue);
+        stopAsyncRead();
+        FTDIMetrics.remove(usbDevice, port);
         try {
             usbInterface.release();
             Thread.sleep(250); // wait a quarter second for stuff to settle
@@ -286,10 +525,65 @@ public final class FTDI {
         }
     }
 
+    /**
+     * Wait (up to {@link #CLOSE_WRITE_TIMEOUT}) for the outstanding
+     * asynchronous writes and the write queue backlog to complete, then abort
+     * those that have not.
+     *
+     * @param queue the write queue, null if none
+     */
+    private void awaitPendingWrites(FTDIWriteQueue queue) {
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(CLOSE_WRITE_TIMEOUT);
+        boolean timedOut = false;
+        try {
+            while (!pendingWrites.isEmpty() || queue != null && queue.hasBacklog()) {
+                long remaining = deadline - System.nanoTime();
+                if (remaining <= 0) {
+                    timedOut = true;
+                    break;
+                }
+                /**
+                 * Wait for every write, whether it succeeds or fails. Their
+                 * completion submits the write queue backlog, if any.
+                 */
+                CompletableFuture<?>[] futures = pendingWrites.stream()
+                        .map(irp -> irp.future.handle((result, error) -> null))
+                        .toArray(CompletableFuture<?>[]::new);
+                if (futures.length == 0) {
+                    Thread.sleep(1);
+                    continue;
+                }
+                CompletableFuture.allOf(futures).get(remaining, TimeUnit.NANOSECONDS);
+            }
+        } catch (ExecutionException ex) {
+            // not thrown: the failures are handled above
+        } catch (TimeoutException ex) {
+            timedOut = true;
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+        UsbException closed = new UsbException("Port closed before the write completed.");
+        if (queue != null) {
+            queue.abort(closed);
+        }
+        if (timedOut && !pendingWrites.isEmpty()) {
+            try {
+                usbPipeWrite.abortAllSubmissions();
+            } catch (UsbNotActiveException | UsbNotOpenException | UsbDisconnectedException ex) {
+            }
+        }
+        for (WriteIrp irp : pendingWrites) {
+            irp.abort(closed);
+        }
+    }
+
     /**
      * Set the serial port configuration. This is a convenience method to send
-     * multiple USB control messages to the FTDI device. It is a shortcut to the
-     * same method in {@link FTDIUtility}.
+     * multiple USB control messages to the FTDI device.
+     * <p>
+     * Only the registers that differ from the port configuration last written
+     * are sent (see {@link FTDIPortRegisters}): reconfiguring a port with an
+     * unchanged configuration sends no control transfers.
      *
      * @param requestedBaudRate the requested baud rate (bits per second). e.g.
      * 115200.
@@ -299,15 +593,126 @@ public final class FTDI {
      * @param flowControl flow control to use.
      * @throws UsbException if the FTDI UART cannot be configured or control
      * messages cannot be sent (e.g. insufficient permissions)
+     * @throws IllegalArgumentException if the chip cannot achieve the requested
+     * baud rate within +/- 3%
      */
     public void configureSerialPort(int requestedBaudRate,
             LineDatabit bits,
             LineStopbit stopbits,
             LineParity parity,
             FlowControl flowControl) throws UsbException {
-        FTDIUtility.setBaudRate(usbDevice, requestedBaudRate);
-        FTDIUtility.setLineProperty(usbDevice, bits, stopbits, parity);
-        FTDIUtility.setFlowControl(usbDevice, flowControl);
+        try {
+            registers.setBaudRate(requestedBaudRate)
+                    .setLineProperty(bits, stopbits, parity, LineBreak.BREAK_OFF)
+                    .setFlowControl(flowControl);
+        } catch (IllegalArgumentException ex) {
+            registers.clearStaged();
+            throw ex;
+        }
+        registers.apply(usbDevice);
+        baudRate = registers.getBaudRate();
+    }
+
+    /**
+     * Get the shadow registers of this port: the serial configuration last
+     * written to the chip. Configuration staged on the registers is sent by
+     * {@link FTDIPortRegisters#apply(UsbDevice)}.
+     *
+     * @return the shadow registers
+     */
+    public FTDIPortRegisters getRegisters() {
+        return registers;
+    }
+
+    /**
+     * Set the latency timer. This disables adaptive latency control.
+     *
+     * @param latency the latency timer value in milliseconds (1 to 255)
+     * @throws UsbException if the device command message fails to set
+     * @see FTDIUtility#setLatencyTimer(javax.usb.UsbDevice, int)
+     */
+    public void setLatencyTimer(int latency) throws UsbException {
+        disableAdaptiveLatency();
+        FTDIUtility.setLatencyTimer(usbDevice, port, latency);
+    }
+
+    /**
+     * Get the latency timer value from the device.
+     *
+     * @return the latency timer value in milliseconds (1 to 255)
+     * @throws UsbException if the device command message fails
+     */
+    public int getLatencyTimer() throws UsbException {
+        return FTDIUtility.getLatencyTimer(usbDevice, port);
+    }
+
+    /**
+     * Enable adaptive latency control.
+     * <p>
+     * The latency timer is set to {@code minLatency} whenever a command is
+     * written to the device, so command responses are returned quickly. While
+     * no commands are being written the latency timer is increased, up to
+     * {@code maxLatency}, as long as the read path receives mostly short
+     * (partially filled) packets. See {@link FTDILatencyTuner} for details.
+     *
+     * @param minLatency the latency timer value used for command/response
+     * exchanges (ms)
+     * @param maxLatency the maximum latency timer value used when streaming
+     * (ms)
+     * @throws UsbException if the device command message fails to set
+     */
+    public synchronized void enableAdaptiveLatency(int minLatency, int maxLatency) throws UsbException {
+        FTDILatencyTuner tuner = new FTDILatencyTuner(usbDevice, port, minLatency, maxLatency);
+        tuner.start();
+        latencyTuner = tuner;
+        if (asyncReader != null) {
+            asyncReader.setLatencyTuner(tuner);
+        }
+    }
+
+    /**
+     * Disable adaptive latency control. The latency timer keeps its current
+     * value.
+     */
+    public synchronized void disableAdaptiveLatency() {
+        latencyTuner = null;
+        if (asyncReader != null) {
+            asyncReader.setLatencyTuner(null);
+        }
+    }
+
+    /**
+     * @return the adaptive latency timer controller, or null if adaptive
+     * latency is not enabled
+     */
+    public FTDILatencyTuner getLatencyTuner() {
+        return latencyTuner;
+    }
+
+    /**
+     * Inform the adaptive latency controller (if enabled) that a command is
+     * about to be written.
+     *
+     * @throws UsbException if the latency timer fails to set
+     */
+    private void commandSent() throws UsbException {
+        FTDILatencyTuner tuner = latencyTuner;
+        if (tuner != null) {
+            tuner.commandSent();
+        }
+    }
+
+    /**
+     * Inform the adaptive latency controller (if enabled) that a command is
+     * about to be written, without waiting for the latency timer request. A
+     * failed request is recorded in the metrics and retried with the next
+     * command.
+     */
+    private void commandSentAsync() {
+        FTDILatencyTuner tuner = latencyTuner;
+        if (tuner != null) {
+            tuner.commandSentAsync();
+        }
     }
 
     /**
@@ -318,15 +723,150 @@ public final class FTDI {
      * value) to write data to the USB pipe.
      *
      * @param data A byte array containing the data to write to the device.
-     * @exception UsbException If an error occurs.
+     * @return a future completed with the number of bytes actually transferred
+     * to the device, or with the UsbException if the transfer fails
+     * @exception UsbException If the request cannot be submitted.
+     * @throws RejectedExecutionException if the
+     * {@link #setMaxOutstandingWrites(int) maximum number} of asynchronous
+     * writes is already outstanding
      */
-    public void writeAsync(byte[] data) throws UsbException {
-        if (!usbPipeWrite.isOpen()) {
-            usbPipeWrite.open();
+    public CompletableFuture<Integer> writeAsync(byte[] data) throws UsbException {
+        return writeAsync(data, 0, data.length);
+    }
+
+    /**
+     * Asynchronously write part of a byte[] array to the FTDI port input
+     * buffer. The data is not copied: the array must not be modified until the
+     * returned future completes.
+     * <p>
+     * Writes are transferred in the order submitted. Dependent actions
+     * registered on the returned future run on the USB event thread and must
+     * not block. This method does not block: with adaptive latency enabled,
+     * the latency timer reset is submitted asynchronously ahead of the
+     * write.
+     *
+     * @param data   A byte array containing the data to write to the device.
+     * @param offset the index of the first byte to write
+     * @param length the number of bytes to write
+     * @return a future completed with the number of bytes actually transferred
+     * to the device, or with the UsbException if the transfer fails
+     * @exception UsbException If the request cannot be submitted.
+     * @throws RejectedExecutionException if the
+     * {@link #setMaxOutstandingWrites(int) maximum number} of asynchronous
+     * writes is already outstanding
+     */
+    public CompletableFuture<Integer> writeAsync(byte[] data, int offset, int length) throws UsbException {
+        if (outstandingWrites.incrementAndGet() > maxOutstandingWrites) {
+            outstandingWrites.decrementAndGet();
+            throw new RejectedExecutionException("Too many outstanding writes (" + maxOutstandingWrites + ").");
+        }
+        WriteIrp usbIrp = new WriteIrp(metrics, outstandingWrites, pendingWrites);
+        usbIrp.setData(data, offset, length);
+        pendingWrites.add(usbIrp);
+        try {
+            commandSentAsync();
+            if (!usbPipeWrite.isOpen()) {
+                usbPipeWrite.open();
+            }
+            usbPipeWrite.asyncSubmit(usbIrp);
+        } catch (UsbException | RuntimeException ex) {
+            pendingWrites.remove(usbIrp);
+            outstandingWrites.decrementAndGet();
+            metrics.writeFailed();
+            throw ex;
+        }
+        return usbIrp.future;
+    }
+
+    /**
+     * @return the number of asynchronous writes submitted and not yet
+     * completed
+     */
+    public int getOutstandingWrites() {
+        return outstandingWrites.get();
+    }
+
+    /**
+     * @return the maximum number of outstanding asynchronous writes
+     */
+    public int getMaxOutstandingWrites() {
+        return maxOutstandingWrites;
+    }
+
+    /**
+     * Set the maximum number of outstanding asynchronous writes. Further
+     * writes are rejected until earlier writes complete. This bounds the
+     * memory held by (and the latency queued behind) pipelined writes.
+     *
+     * @param maxOutstandingWrites the maximum (at least one)
+     */
+    public void setMaxOutstandingWrites(int maxOutstandingWrites) {
+        if (maxOutstandingWrites < 1) {
+            throw new IllegalArgumentException("Maximum outstanding writes must be at least one.");
+        }
+        this.maxOutstandingWrites = maxOutstandingWrites;
+    }
+
+    /**
+     * An asynchronous write request that records its completion (or failure)
+     * in the port metrics and completes its future.
+     * <p>
+     * Developer note: The pipe calls {@link #complete()} for every submitted
+     * request it transfers, just before it notifies its UsbPipeListeners, so
+     * completing here needs no listener registration or request lookup.
+     * Requests dropped from the pipe queue (abortAllSubmissions) are never
+     * completed by the pipe; close() {@link #abort(UsbException) aborts}
+     * them.
+     */
+    private static final class WriteIrp extends DefaultUsbIrp {
+
+        private final FTDIMetrics metrics;
+        private final AtomicInteger outstanding;
+        private final Set<WriteIrp> pending;
+        private final CompletableFuture<Integer> future = new CompletableFuture<>();
+        private final long submitted = System.nanoTime();
+
+        WriteIrp(FTDIMetrics metrics, AtomicInteger outstanding, Set<WriteIrp> pending) {
+            this.metrics = metrics;
+            this.outstanding = outstanding;
+            this.pending = pending;
+        }
+
+        /**
+         * Fail the request if it has not completed.
+         *
+         * @param ex the failure
+         */
+        void abort(UsbException ex) {
+            if (pending.remove(this)) {
+                outstanding.decrementAndGet();
+                metrics.writeFailed();
+                future.completeExceptionally(ex);
+            }
+        }
+
+        @Override
+        public void complete() {
+            if (!pending.remove(this)) {
+                /**
+                 * Already aborted by close().
+                 */
+                super.complete();
+                return;
+            }
+            outstanding.decrementAndGet();
+            if (isUsbException()) {
+                metrics.writeFailed();
+            } else {
+                metrics.writeCompleted(System.nanoTime() - submitted, getActualLength());
+            }
+            super.complete();
+            if (isUsbException()) {
+                future.completeExceptionally(getUsbException());
+            } else {
+                future.complete(getActualLength());
+            }
         }
-        UsbIrp usbIrp = usbPipeWrite.createUsbIrp();
-        usbIrp.setData(data);
-        usbPipeWrite.asyncSubmit(usbIrp);
     }
 
     /**
@@ -348,10 +888,51 @@ public final class FTDI {
      * @exception UsbException If an error occurs.
      */
     public int write(byte[] data) throws UsbException {
+        commandSent();
+        if (!usbPipeWrite.isOpen()) {
+            usbPipeWrite.open();
+        }
+        long start = System.nanoTime();
+        int length;
+        try {
+            length = usbPipeWrite.syncSubmit(data);
+        } catch (UsbException | RuntimeException ex) {
+            metrics.writeFailed();
+            throw ex;
+        }
+        metrics.writeCompleted(System.nanoTime() - start, length);
+        return length;
+    }
+
+    /**
+     * Synchronously write part of a byte[] array to the FTDI port input buffer.
+     * <p>
+     * The data is transferred directly from the array (it is not copied), so
+     * large blocks may be streamed from a re-used buffer, e.g. in synchronous
+     * FIFO mode.
+     *
+     * @param data   A byte array containing the data to write to the device.
+     * @param offset the index of the first byte to write
+     * @param length the number of bytes to write
+     * @return The number of bytes actually transferred to the device.
+     * @exception UsbException If an error occurs.
+     */
+    public int write(byte[] data, int offset, int length) throws UsbException {
+        commandSent();
         if (!usbPipeWrite.isOpen()) {
             usbPipeWrite.open();
         }
-        return usbPipeWrite.syncSubmit(data);
+        UsbIrp usbIrp = usbPipeWrite.createUsbIrp();
+        usbIrp.setData(data, offset, length);
+        long start = System.nanoTime();
+        try {
+            usbPipeWrite.syncSubmit(usbIrp);
+        } catch (UsbException | RuntimeException ex) {
+            metrics.writeFailed();
+            throw ex;
+        }
+        metrics.writeCompleted(System.nanoTime() - start, usbIrp.getActualLength());
+        return usbIrp.getActualLength();
     }
 
     /**
@@ -370,6 +951,10 @@ public final class FTDI {
      * depends upon the query speed: e.g. slower HOST polling results in longer
      * data arrays as the device is able to stuff more data into its output
      * buffer between each request.
+     * <p>
+     * This method allocates a new array for every frame. High rate readers
+     * should use {@link #read(byte[], int)} or the asynchronous read engine
+     * instead.
      *
      * @return a non-null, variable length byte array containing the actual data
      * produced by the device. The length of the byte array ranges between 0
@@ -377,33 +962,560 @@ public final class FTDI {
      * @throws UsbException if the USB Port fails to read
      */
     public byte[] read() throws UsbException {
-        if (!usbPipeRead.isOpen()) {
-            usbPipeRead.open();
+        synchronized (readIrp) {
+            byte[] usbFrame = getReadFrame();
+            int length = read(usbFrame, 0);
+            return length == 0
+                    ? new byte[0]
+                    : Arrays.copyOfRange(usbFrame, 0, length);
         }
+    }
+
+    /**
+     * Read a USB frame into a caller supplied array: Synchronously read
+     * available data from the FTDI port output buffer.
+     * <p>
+     * The FTDI modem status header bytes are stripped and the device data is
+     * placed in the array starting at {@code offset}. The array must have room
+     * for at least one full USB frame ({@code wMaxPacketSize} bytes, including
+     * the header) after the offset. This method does not allocate.
+     * <p>
+     * Developer note: The USB transfer does not clear the array - it merely
+     * writes bytes into it. Only the returned number of bytes following the
+     * offset are valid; any bytes beyond are stale and must be ignored.
+     *
+     * @param buffer the array to receive the device data
+     * @param offset the index at which to place the first data byte
+     * @return the number of data bytes read (zero if there is no data on the
+     * device)
+     * @throws UsbException if the USB Port fails to read
+     */
+    public int read(byte[] buffer, int offset) throws UsbException {
+        return read(buffer, offset, getReadPacketSize());
+    }
+
+    /**
+     * Read a (multi-packet) bulk transfer into a caller supplied array:
+     * Synchronously read available data from the FTDI port output buffer.
+     * <p>
+     * Up to {@code length} bytes, rounded down to a whole number of
+     * {@code wMaxPacketSize} packets, are requested from the device in a single
+     * request (IRP). The request ends early when the device sends a short
+     * packet (i.e. it has no more data or its latency timer expired).
+     * <p>
+     * The FTDI modem status header at the start of EVERY packet is stripped in
+     * a single pass and the device data is placed contiguously in the array
+     * starting at {@code offset}. This method does not allocate. Only the
+     * returned number of bytes following the offset are valid.
+     * <p>
+     * Developer note: A large request saves the per-request work of this
+     * library (one submission, one header stripping pass, one metrics record)
+     * but NOT the per-packet USB cost. The usb4java javax.usb backend (1.3.0)
+     * executes every IRP as one synchronous libusb bulk transfer per
+     * {@code wMaxPacketSize} packet, each into a newly allocated direct
+     * buffer. On real hardware a 64 KiB request therefore still costs 128 (high
+     * speed) or 1024 (full speed) USB transfers and as many allocations.
+     *
+     * @param buffer the array to receive the device data
+     * @param offset the index at which to place the first data byte
+     * @param length the maximum transfer size (bytes, including headers). Must
+     * be at least {@code wMaxPacketSize}.
+     * @return the number of data bytes read (zero if there is no data on the
+     * device)
+     * @throws UsbException if the USB Port fails to read
+     */
+    public int read(byte[] buffer, int offset, int length) throws UsbException {
+        int packetSize = getReadPacketSize();
+        int transferSize = length - length % packetSize;
+        if (offset < 0 || transferSize < packetSize || buffer.length - offset < transferSize) {
+            throw new IllegalArgumentException("Read buffer requires at least " + packetSize + " bytes after offset " + offset);
+        }
+        synchronized (readIrp) {
+            checkNoAsyncRead();
+            if (!usbPipeRead.isOpen()) {
+                usbPipeRead.open();
+            }
+            readIrp.setData(buffer, offset, transferSize);
+            readIrp.setActualLength(0);
+            readIrp.setComplete(false);
+            readIrp.setUsbException(null);
+            long start = System.nanoTime();
+            try {
+                usbPipeRead.syncSubmit(readIrp);
+            } catch (UsbException | RuntimeException ex) {
+                metrics.readFailed();
+                throw ex;
+            }
+            long nanos = System.nanoTime() - start;
+            /**
+             * Strip the MODEM_STATUS_HEADER from each packet by shifting the
+             * device data down over it.
+             */
+            int payloadLength = FTDIUtility.stripModemStatus(buffer, offset, readIrp.getActualLength(), packetSize, offset, modemStatusTracker);
+            metrics.readCompleted(nanos, payloadLength);
+            FTDILatencyTuner tuner = latencyTuner;
+            if (tuner != null) {
+                tuner.transferCompleted(readIrp.getActualLength(), payloadLength, packetSize);
+            }
+            return payloadLength;
+        }
+    }
+
+    /**
+     * Read a USB frame into a caller supplied buffer: Synchronously read
+     * available data from the FTDI port output buffer.
+     * <p>
+     * The FTDI modem status header bytes are stripped and the device data is
+     * put into the buffer at its current position; the position is advanced by
+     * the number of bytes read. The buffer must have at least
+     * {@code wMaxPacketSize} bytes remaining. If the buffer is backed by an
+     * array then as many whole packets as fit in the remaining space are
+     * requested in one transfer. This method does not allocate.
+     *
+     * @param buffer the buffer to receive the device data
+     * @return the number of data bytes read (zero if there is no data on the
+     * device)
+     * @throws UsbException if the USB Port fails to read
+     */
+    public int read(ByteBuffer buffer) throws UsbException {
+        int packetSize = getReadPacketSize();
+        if (buffer.remaining() < packetSize) {
+            throw new IllegalArgumentException("Read buffer requires " + packetSize + " bytes remaining");
+        }
+        if (buffer.hasArray()) {
+            int length = read(buffer.array(), buffer.arrayOffset() + buffer.position(), buffer.remaining());
+            buffer.position(buffer.position() + length);
+            return length;
+        }
+        synchronized (readIrp) {
+            byte[] usbFrame = getReadFrame();
+            int length = read(usbFrame, 0);
+            buffer.put(usbFrame, 0, length);
+            return length;
+        }
+    }
+
+    /**
+     * @return the READ endpoint maximum packet size (bytes): 64 for full speed,
+     * 512 for high speed chips. Every read packet starts with the two modem
+     * status bytes.
+     */
+    public int getReadPacketSize() {
+        return usbPipeRead.getUsbEndpoint().getUsbEndpointDescriptor().wMaxPacketSize() & 0xffff;
+    }
+
+    /**
+     * @return the WRITE endpoint maximum packet size (bytes): 64 for full
+     * speed, 512 for high speed chips
+     */
+    public int getWritePacketSize() {
+        return usbPipeWrite.getUsbEndpoint().getUsbEndpointDescriptor().wMaxPacketSize() & 0xffff;
+    }
+
+    /**
+     * Get the coalescing write queue of this port, which merges small writes
+     * (e.g. device commands) into one bulk-OUT transfer of up to
+     * {@link #getWritePacketSize()} bytes. See {@link FTDIWriteQueue}.
+     *
+     * @return the write queue
+     */
+    public synchronized FTDIWriteQueue getWriteQueue() {
+        if (writeQueue == null) {
+            writeQueue = new FTDIWriteQueue(this, getWritePacketSize());
+        }
+        return writeQueue;
+    }
+
+    /**
+     * Get the re-usable frame buffer for synchronous reads. The caller must
+     * hold the readIrp lock.
+     *
+     * @return the frame buffer
+     */
+    private byte[] getReadFrame() {
+        if (readFrame == null) {
+            readFrame = new byte[getReadPacketSize()];
+        }
+        return readFrame;
+    }
+
+    /**
+     * Add a listener to receive data from the asynchronous read engine.
+     *
+     * @param listener the listener to add
+     */
+    public void addDataListener(FTDIDataListener listener) {
+        dataListeners.add(listener);
+    }
+
+    /**
+     * Remove a listener from the asynchronous read engine.
+     *
+     * @param listener the listener to remove
+     */
+    public void removeDataListener(FTDIDataListener listener) {
+        dataListeners.remove(listener);
+    }
+
+    /**
+     * Get the I/O metrics of this port: byte and transfer counters and latency
+     * histograms of the reads, writes and control requests. The metrics are
+     * also published over JMX (see {@link FTDIMetrics}).
+     *
+     * @return the metrics of this port
+     */
+    public FTDIMetrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * Get the modem and line status decoded from the packets read. The status
+     * is updated by every read (synchronous or asynchronous); no control
+     * request is made.
+     *
+     * @return the modem status tracker of this port
+     */
+    public FTDIModemStatusTracker getModemStatusTracker() {
+        return modemStatusTracker;
+    }
+
+    /**
+     * @return the modem and line status of the last status transition, null
+     * if nothing has been read
+     */
+    public FTDIModemStatus getModemStatus() {
+        return modemStatusTracker.getStatus();
+    }
+
+    /**
+     * Add a listener to be notified of modem status line and line error
+     * transitions, as decoded from the packets read.
+     *
+     * @param listener the listener to add
+     */
+    public void addModemStatusListener(FTDIModemStatusListener listener) {
+        modemStatusTracker.addListener(listener);
+    }
+
+    /**
+     * Remove a modem status listener.
+     *
+     * @param listener the listener to remove
+     */
+    public void removeModemStatusListener(FTDIModemStatusListener listener) {
+        modemStatusTracker.removeListener(listener);
+    }
+
+    /**
+     * Start the asynchronous read engine with the
+     * {@link #DEFAULT_READ_IRP_COUNT default} number of read requests.
+     *
+     * @throws UsbException if the USB Port fails to read
+     */
+    public void startAsyncRead() throws UsbException {
+        startAsyncRead(DEFAULT_READ_IRP_COUNT);
+    }
+
+    /**
+     * Start the asynchronous read engine.
+     * <p>
+     * The engine keeps {@code irpCount} read requests queued on the READ pipe.
+     * Each completed request is immediately re-submitted so the bulk-IN
+     * endpoint is never idle. Received data is stripped of the FTDI modem
+     * status header and passed to all registered {@link FTDIDataListener}s.
+     * <p>
+     * Developer note: The synchronous {@link #read()} method may not be used
+     * while the asynchronous read engine is running.
+     *
+     * @param irpCount the number of read requests to keep queued (at least
+     * one)
+     * @throws UsbException if the USB Port fails to read
+     */
+    public void startAsyncRead(int irpCount) throws UsbException {
+        startAsyncRead(irpCount, getReadPacketSize());
+    }
+
+    /**
+     * Start the asynchronous read engine with (multi-packet) bulk transfers.
+     * <p>
+     * Each read request transfers up to {@code transferSize} bytes, rounded
+     * down to a whole number of {@code wMaxPacketSize} packets. The modem
+     * status header is stripped from every packet before the data is passed to
+     * the listeners. Large requests (e.g. 4 to 64 KiB) reduce the
+     * per-request work of this library; single packet requests minimize
+     * latency. The usb4java backend still transfers (and allocates a direct
+     * buffer for) each packet separately: see
+     * {@link #read(byte[], int, int)}.
+     *
+     * @param irpCount     the number of read requests to keep queued (at least
+     * one)
+     * @param transferSize the maximum size of each read request (bytes,
+     * including headers)
+     * @throws UsbException if the USB Port fails to read
+     */
+    public void startAsyncRead(int irpCount, int transferSize) throws UsbException {
+        int packetSize = getReadPacketSize();
+        int bufferSize = Math.max(packetSize, transferSize - transferSize % packetSize);
+        startAsyncRead(irpCount, new FTDIBufferPool(bufferSize, irpCount * 4));
+    }
+
+    /**
+     * Start the asynchronous read engine using buffers from the given pool.
+     * <p>
+     * Each queued read request holds one pooled buffer, as does each buffer
+     * retained by a listener. Size the pool accordingly: when the pool is empty
+     * new buffers are allocated and counted by
+     * {@link FTDIBufferPool#getAllocationCount()}. Each read request transfers
+     * as many whole packets as fit in one pooled buffer.
+     *
+     * @param irpCount   the number of read requests to keep queued (at least
+     * one)
+     * @param bufferPool the pool supplying the read buffers. The buffer size
+     * must be at least the READ endpoint {@code wMaxPacketSize}.
+     * @throws UsbException if the USB Port fails to read
+     */
+    public synchronized void startAsyncRead(int irpCount, FTDIBufferPool bufferPool) throws UsbException {
+        if (bufferPool.getBufferSize() < getReadPacketSize()) {
+            throw new IllegalArgumentException("Buffer size must be at least " + getReadPacketSize() + " bytes.");
+        }
+        if (asyncReader != null) {
+            if (asyncReader.isRunning()) {
+                throw new IllegalStateException("Asynchronous read is already running.");
+            }
+            /**
+             * The previous engine stopped itself after all its read requests
+             * failed. Release it before starting a new one.
+             */
+            asyncReader.stop();
+            asyncReader = null;
+        }
+        FTDIAsyncReader reader = new FTDIAsyncReader(usbPipeRead,
+                dataListeners,
+                modemStatusTracker,
+                metrics,
+                irpCount,
+                bufferPool,
+                getReadPacketSize());
+        reader.setLatencyTuner(latencyTuner);
+        reader.start();
+        asyncReader = reader;
+    }
+
+    /**
+     * Stop the asynchronous read engine and abort all queued read requests.
+     * This method has no effect if the engine is not running.
+     * <p>
+     * Developer note: This method must not be called from a
+     * {@link FTDIDataListener} callback.
+     */
+    public synchronized void stopAsyncRead() {
+        if (asyncReader != null) {
+            asyncReader.stop();
+            asyncReader = null;
+        }
+    }
+
+    /**
+     * Restart the asynchronous read engine with a clean stream: abort all
+     * queued read requests (discarding the data they hold), purge the chip
+     * receive and transmit buffers, then queue new read requests with the
+     * same request count and buffer pool.
+     * <p>
+     * Use this between acquisition sessions (e.g. after sending a STOP and
+     * before sending the next START command) so that data from the previous
+     * session is not delivered in the next. The restart costs two control
+     * transfers and the pipe abort, typically a few milliseconds, instead of
+     * reading and discarding the data in flight.
+     * <p>
+     * Developer note: This method must not be called from a
+     * {@link FTDIDataListener} callback.
+     *
+     * @throws IllegalStateException if the asynchronous read engine was never
+     * started (or has been stopped)
+     * @throws UsbException if the buffers cannot be purged or the read
+     * requests cannot be submitted
+     */
+    public synchronized void restartAsyncRead() throws UsbException {
+        if (asyncReader == null) {
+            throw new IllegalStateException("Asynchronous read is not started.");
+        }
+        int irpCount = asyncReader.getIrpCount();
+        FTDIBufferPool bufferPool = asyncReader.getBufferPool();
+        asyncReader.stop();
+        asyncReader = null;
+        purge();
+        startAsyncRead(irpCount, bufferPool);
+    }
+
+    /**
+     * Purge the chip receive and transmit buffers. Read requests already
+     * queued by the asynchronous read engine are not affected; use
+     * {@link #restartAsyncRead()} to discard them too.
+     *
+     * @throws UsbException if the device command message fails
+     * @see FTDIUtility#purgeBuffers(javax.usb.UsbDevice, com.ftdichip.usb.enumerated.PortInterfaceType)
+     */
+    public void purge() throws UsbException {
+        FTDIUtility.purgeBuffers(usbDevice, port);
+    }
+
+    /**
+     * @return TRUE if the asynchronous read engine has been started and not
+     * stopped.
+     */
+    public synchronized boolean isAsyncReadRunning() {
+        return asyncReader != null && asyncReader.isRunning();
+    }
+
+    /**
+     * Synchronous reads compete with the asynchronous read engine for device
+     * data and are therefore not allowed while the engine is running.
+     */
+    private synchronized void checkNoAsyncRead() {
+        if (asyncReader != null && asyncReader.isRunning()) {
+            throw new IllegalStateException("Synchronous read is not available while asynchronous read is running.");
+        }
+    }
+
+    /**
+     * Set the bit mode of this port.
+     *
+     * @param bitMode the bit mode. {@link BitMode#RESET} returns to the normal
+     * UART (or FIFO) function.
+     * @param pinMask the pin direction mask: a '1' bit makes the pin an output
+     * @throws UsbException if the device command message fails to set
+     * @see FTDIUtility#setBitMode(javax.usb.UsbDevice, com.ftdichip.usb.enumerated.PortInterfaceType, com.ftdichip.usb.enumerated.BitMode, byte)
+     */
+    public void setBitMode(BitMode bitMode, byte pinMask) throws UsbException {
+        FTDIUtility.setBitMode(usbDevice, port, bitMode, pinMask);
+        this.bitMode = bitMode;
+    }
+
+    /**
+     * @return the bit mode last set on this port
+     */
+    public BitMode getBitMode() {
+        return bitMode;
+    }
+
+    /**
+     * @return TRUE if the chip and port support synchronous FIFO mode: port A
+     * of an FT2232H, or an FT232H
+     */
+    public boolean isSyncFifoSupported() {
+        return chipType == ChipType.TYPE_232H
+                || chipType == ChipType.TYPE_2232H && (port == PortInterfaceType.INTERFACE_ANY || port == PortInterfaceType.INTERFACE_A);
+    }
+
+    /**
+     * @return TRUE if the chip and port have a Multi-Protocol Synchronous
+     * Serial Engine (MPSSE): port A of an FT2232C, ports A and B of an FT2232H
+     * or FT4232H, or an FT232H
+     * @see com.ftdichip.usb.mpsse.MpsseEngine
+     */
+    public boolean isMpsseSupported() {
+        switch (chipType) {
+            case TYPE_232H:
+                return true;
+            case TYPE_2232C:
+                return port == PortInterfaceType.INTERFACE_ANY || port == PortInterfaceType.INTERFACE_A;
+            case TYPE_2232H:
+            case TYPE_4232H:
+                return port == PortInterfaceType.INTERFACE_ANY || port == PortInterfaceType.INTERFACE_A
+                        || port == PortInterfaceType.INTERFACE_B;
+            default:
+                return false;
+        }
+    }
+
+    /**
+     * Switch to synchronous 245 FIFO mode and start streaming with the
+     * {@link #SYNC_FIFO_IRP_COUNT default} read queue depth and
+     * {@link #SYNC_FIFO_TRANSFER_SIZE transfer size}.
+     *
+     * @throws UsbException if the chip does not support synchronous FIFO mode
+     * or the mode cannot be set
+     * @see #startSyncFifo(int, int)
+     */
+    public void startSyncFifo() throws UsbException {
+        startSyncFifo(SYNC_FIFO_IRP_COUNT, SYNC_FIFO_TRANSFER_SIZE);
+    }
+
+    /**
+     * Switch to synchronous 245 FIFO mode and start streaming.
+     * <p>
+     * In synchronous FIFO mode the FT2232H (port A) or FT232H data bus is a
+     * parallel FIFO clocked at 60 MHz, which moves tens of MB/s in each
+     * direction. The mode is entered as described by AN_130: the bit mode is
+     * reset and set to {@link BitMode#SYNCFF} with all pins as outputs, the
+     * latency timer is set to {@link #SYNC_FIFO_LATENCY_TIMER} and RTS/CTS
+     * flow control is enabled so that the chip is not read while the host
+     * cannot accept data.
+     * <p>
+     * The asynchronous read engine is then started with a deep queue of large
+     * read requests, so the chip FIFO is drained continuously. Received data is
+     * passed to the {@link FTDIDataListener}s in pooled buffers, without
+     * copying; listeners that keep a buffer beyond the callback must retain it.
+     * Data is written with {@link #write(byte[], int, int)}.
+     *
+     * @param irpCount     the number of read requests to keep queued
+     * @param transferSize the size of each read request (bytes)
+     * @throws UsbException if the chip does not support synchronous FIFO mode
+     * or the mode cannot be set
+     */
+    public void startSyncFifo(int irpCount, int transferSize) throws UsbException {
+        if (!isSyncFifoSupported()) {
+            throw new UsbException("Synchronous FIFO mode is not supported by " + chipType + " " + port);
+        }
+        setBitMode(BitMode.RESET, (byte) 0xFF);
+        setBitMode(BitMode.SYNCFF, (byte) 0xFF);
+        setLatencyTimer(SYNC_FIFO_LATENCY_TIMER);
+        FTDIUtility.setFlowControl(usbDevice, port, FlowControl.RTS_CTS_HS);
         /**
-         * Developer note: Always initialize and use a new byte array when
-         * reading from a USB pipe!
-         * <p>
-         * The syncSubmit and presumably asyncSubmit methods do not clear the
-         * input byte array - they merely write bytes into the provided array.
-         * Reusing a previously populated byte array may produce JUNK data as
-         * new bytes are written over the old bytes. If the new USB frame is
-         * shorter than the previous then stale bytes will remain in the buffer
-         * and not be overwritten or cleared.
-         */
-        byte[] usbFrame = new byte[usbPipeRead.getUsbEndpoint().getUsbEndpointDescriptor().wMaxPacketSize()];
-        int bytesRead = usbPipeRead.syncSubmit(usbFrame);
-        /**
-         * Return an empty array if there is no data on the line. Otherwise
-         * strip the MODEM_STATUS_HEADER and return only the device data.
+         * Every read request holds one buffer; the second half of the pool
+         * covers the buffers retained by the listeners.
          */
-        return bytesRead == MODEM_STATUS_HEADER_LENGTH
-                ? new byte[0]
-                : Arrays.copyOfRange(usbFrame, MODEM_STATUS_HEADER_LENGTH, bytesRead);
+        int packetSize = getReadPacketSize();
+        int bufferSize = Math.max(packetSize, transferSize - transferSize % packetSize);
+        startAsyncRead(irpCount, new FTDIBufferPool(bufferSize, irpCount * 2));
+    }
+
+    /**
+     * Stop streaming and leave synchronous FIFO mode (reset the bit mode).
+     *
+     * @throws UsbException if the bit mode cannot be reset
+     */
+    public void stopSyncFifo() throws UsbException {
+        stopAsyncRead();
+        setBitMode(BitMode.RESET, (byte) 0);
+    }
+
+    /**
+     * @return the chip port (interface) of this instance
+     */
+    public PortInterfaceType getPort() {
+        return port;
+    }
+
+    /**
+     * @return the chip type
+     */
+    public ChipType getChipType() {
+        return chipType;
+    }
+
+    /**
+     * Get the configured baud rate, including the baud rate actually achieved
+     * by the chip and its error.
+     *
+     * @return the baud rate, null if the serial port has not been configured
+     */
+    public FTDIBaudRate getBaudRate() {
+        return baudRate;
     }
 
     @Override
     public String toString() {
-        return "FTDI " + usbDevice;
+        return port == PortInterfaceType.INTERFACE_ANY ? "FTDI " + usbDevice : "FTDI " + usbDevice + " " + port;
     }
 }
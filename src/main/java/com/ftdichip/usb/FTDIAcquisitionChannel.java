@@ -0,0 +1,324 @@
+/*
+ * Copyright 2014-2016 Key Bridge LLC.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ftdichip.usb;
+
+import com.ftdichip.usb.enumerated.PortInterfaceType;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import javax.usb.UsbException;
+
+/**
+ * One device port of an {@link FTDIAcquisitionManager}.
+ * <p>
+ * Each channel owns its FTDI port, its own buffer pool and read requests (the
+ * asynchronous read engine, serviced by the device's USB pipe thread) and its
+ * own delivery thread. The read engine hands every received buffer to a
+ * bounded delivery queue and immediately continues reading; the delivery
+ * thread passes the queued buffers to the channel listeners and then to the
+ * manager (aggregate) listeners. Channels therefore share no thread, lock or
+ * buffer: a slow consumer or a failed device affects only its own channel.
+ * <p>
+ * When the delivery queue is full the newest buffer is dropped and counted
+ * ({@link #getBuffersDropped()}) rather than stalling the device reads.
+ *
+ * @author Jesse Caulfield
+ */
+public final class FTDIAcquisitionChannel {
+
+  /**
+   * The delivery thread poll interval (milliseconds), which bounds the time
+   * to notice a failed read engine.
+   */
+  private static final long POLL_INTERVAL = 100;
+
+  private final FTDIAcquisitionManager manager;
+  private final FTDIDeviceInfo deviceInfo;
+  private final FTDI ftdi;
+  private final BlockingQueue<FTDIBuffer> queue;
+  private final List<FTDIAcquisitionListener> listeners = new CopyOnWriteArrayList<>();
+  private final Thread deliveryThread;
+  private final long startNanos = System.nanoTime();
+  private volatile boolean open = true;
+  /**
+   * The read failure that stopped the read engine.
+   */
+  private volatile UsbException failure;
+  /**
+   * Statistics. Written by a single thread (the pipe thread, respectively the
+   * delivery thread).
+   */
+  private volatile long bytesReceived;
+  private volatile long buffersReceived;
+  private volatile long buffersDropped;
+  private volatile long bytesDelivered;
+  private volatile long readErrors;
+
+  /**
+   * Construct and start a channel on an open FTDI port.
+   *
+   * @param manager       the owning manager
+   * @param deviceInfo    the device identity
+   * @param ftdi          the open and configured FTDI port
+   * @param irpCount      the number of read requests to keep queued
+   * @param transferSize  the size of each read request (bytes)
+   * @param queueCapacity the delivery queue capacity (buffers)
+   * @throws UsbException if the read engine cannot be started
+   */
+  FTDIAcquisitionChannel(FTDIAcquisitionManager manager,
+                         FTDIDeviceInfo deviceInfo,
+                         FTDI ftdi,
+                         int irpCount,
+                         int transferSize,
+                         int queueCapacity) throws UsbException {
+    this.manager = manager;
+    this.deviceInfo = deviceInfo;
+    this.ftdi = ftdi;
+    this.queue = new ArrayBlockingQueue<>(queueCapacity);
+    this.deliveryThread = new Thread(new Runnable() {
+      @Override
+      public void run() {
+        deliver();
+      }
+    }, "FTDI acquisition " + getName());
+    this.deliveryThread.setDaemon(true);
+    ftdi.addDataListener(new FTDIDataListener() {
+      @Override
+      public void dataReceived(FTDIBuffer buffer) {
+        enqueue(buffer);
+      }
+
+      @Override
+      public void errorOccurred(UsbException exception) {
+        readErrors++;
+        failure = exception;
+      }
+    });
+    /**
+     * Every queued buffer and every read request holds one pooled buffer, plus
+     * one for each buffer being delivered.
+     */
+    int packetSize = ftdi.getReadPacketSize();
+    int bufferSize = Math.max(packetSize, transferSize - transferSize % packetSize);
+    ftdi.startAsyncRead(irpCount, new FTDIBufferPool(bufferSize, irpCount + queueCapacity + 2));
+    this.deliveryThread.start();
+  }
+
+  /**
+   * Queue a received buffer for delivery. Called on the pipe thread.
+   */
+  private void enqueue(FTDIBuffer buffer) {
+    bytesReceived += buffer.getLength();
+    buffersReceived++;
+    buffer.retain();
+    if (!open || !queue.offer(buffer)) {
+      buffer.release();
+      buffersDropped++;
+    }
+  }
+
+  /**
+   * The delivery thread: deliver queued buffers until the channel is closed or
+   * the read engine fails.
+   */
+  private void deliver() {
+    try {
+      while (open) {
+        FTDIBuffer buffer = queue.poll(POLL_INTERVAL, TimeUnit.MILLISECONDS);
+        if (buffer != null) {
+          try {
+            bytesDelivered += buffer.getLength();
+            for (FTDIAcquisitionListener listener : listeners) {
+              listener.dataReceived(this, buffer);
+            }
+            manager.fireDataReceived(this, buffer);
+          } finally {
+            buffer.release();
+          }
+        } else if (failure != null && !ftdi.isAsyncReadRunning()) {
+          /**
+           * All read requests failed and the engine stopped itself (e.g. the
+           * device was unplugged).
+           */
+          manager.channelFailed(this, failure);
+          return;
+        }
+      }
+    } catch (InterruptedException ex) {
+      // closed
+    }
+  }
+
+  /**
+   * Close the channel: stop the reads, release the device and discard the
+   * undelivered data. Must not be called from a listener of this channel.
+   */
+  void close() {
+    if (!open) {
+      return;
+    }
+    open = false;
+    if (Thread.currentThread() != deliveryThread) {
+      deliveryThread.interrupt();
+      try {
+        deliveryThread.join();
+      } catch (InterruptedException ex) {
+        Thread.currentThread().interrupt();
+      }
+    }
+    try {
+      ftdi.close();
+    } catch (RuntimeException ex) {
+      /**
+       * The device is already gone (UsbDisconnectedException).
+       */
+    }
+    for (FTDIBuffer buffer = queue.poll(); buffer != null; buffer = queue.poll()) {
+      buffer.release();
+    }
+  }
+
+  /**
+   * Add a listener to this channel only.
+   *
+   * @param listener the listener
+   */
+  public void addListener(FTDIAcquisitionListener listener) {
+    listeners.add(listener);
+  }
+
+  /**
+   * Remove a channel listener.
+   *
+   * @param listener the listener
+   */
+  public void removeListener(FTDIAcquisitionListener listener) {
+    listeners.remove(listener);
+  }
+
+  /**
+   * Notify the channel listeners that the channel was closed.
+   */
+  void fireChannelClosed(Exception cause) {
+    for (FTDIAcquisitionListener listener : listeners) {
+      listener.channelClosed(this, cause);
+    }
+  }
+
+  /**
+   * @return the channel name: the device serial number, or product string if
+   *         the device has no serial number, followed by the port letter on a
+   *         multi-port chip (e.g. "FT5ABCDE B")
+   */
+  public String getName() {
+    String name = deviceInfo.getSerialNumber() != null ? deviceInfo.getSerialNumber() : String.valueOf(deviceInfo.getProduct());
+    PortInterfaceType port = ftdi.getPort();
+    return port == PortInterfaceType.INTERFACE_ANY ? name : name + " " + (char) ('A' + port.getIndex() - 1);
+  }
+
+  /**
+   * @return the device identity
+   */
+  public FTDIDeviceInfo getDeviceInfo() {
+    return deviceInfo;
+  }
+
+  /**
+   * Get the FTDI port, e.g. to send commands to the device. Developer note:
+   * The synchronous read methods may not be used; the device is read by the
+   * channel.
+   *
+   * @return the FTDI port
+   */
+  public FTDI getFTDI() {
+    return ftdi;
+  }
+
+  /**
+   * @return TRUE until the channel is closed
+   */
+  public boolean isOpen() {
+    return open;
+  }
+
+  /**
+   * @return the number of bytes received from the device
+   */
+  public long getBytesReceived() {
+    return bytesReceived;
+  }
+
+  /**
+   * @return the number of bytes delivered to the listeners
+   */
+  public long getBytesDelivered() {
+    return bytesDelivered;
+  }
+
+  /**
+   * @return the number of buffers received from the device
+   */
+  public long getBuffersReceived() {
+    return buffersReceived;
+  }
+
+  /**
+   * @return the number of buffers dropped because the delivery queue was full
+   */
+  public long getBuffersDropped() {
+    return buffersDropped;
+  }
+
+  /**
+   * @return the number of failed read requests
+   */
+  public long getReadErrors() {
+    return readErrors;
+  }
+
+  /**
+   * @return the number of packets reporting a receive buffer overrun (data
+   *         lost on the device before it was read)
+   */
+  public long getOverrunCount() {
+    return ftdi.getModemStatusTracker().getOverrunCount();
+  }
+
+  /**
+   * @return the number of buffers waiting for delivery
+   */
+  public int getQueueSize() {
+    return queue.size();
+  }
+
+  /**
+   * @return the mean receive rate since the channel was opened (bytes per
+   *         second)
+   */
+  public double getThroughput() {
+    double seconds = (System.nanoTime() - startNanos) / 1e9;
+    return seconds > 0 ? bytesReceived / seconds : 0;
+  }
+
+  @Override
+  public String toString() {
+    return String.format("%s: %d bytes received, %d buffers dropped, %d overruns, %d read errors, %.0f B/s%s",
+                         getName(), bytesReceived, buffersDropped, getOverrunCount(), readErrors, getThroughput(),
+                         open ? "" : " (closed)");
+  }
+}
@@ -0,0 +1,59 @@
+/*
+ * Copyright 2014-2016 Key Bridge LLC.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ftdichip.usb;
+
+import java.util.EventListener;
+
+/**
+ * Listener interface for data acquired by an {@link FTDIAcquisitionManager}.
+ * <p>
+ * A listener may be added to one {@link FTDIAcquisitionChannel} (per-device
+ * stream) or to the manager (aggregate stream of all devices).
+ * <p>
+ * Developer note: Listener methods are called from the delivery thread of the
+ * channel that produced the data; an aggregate listener is therefore called
+ * concurrently by several threads and must be thread safe. A slow listener
+ * only delays the channels that call it. Once a channel's delivery queue is
+ * full, new data from that channel is dropped and counted. The device reads
+ * are never stalled.
+ *
+ * @author Jesse Caulfield
+ */
+public interface FTDIAcquisitionListener extends EventListener {
+
+  /**
+   * Device data has been received. The FTDI modem status header has already
+   * been stripped.
+   * <p>
+   * The buffer is valid until this method returns. To keep it, call
+   * {@link FTDIBuffer#retain()} before returning and
+   * {@link FTDIBuffer#release()} when finished.
+   *
+   * @param channel the channel (device) that received the data
+   * @param buffer  the buffer containing the device data
+   */
+  void dataReceived(FTDIAcquisitionChannel channel, FTDIBuffer buffer);
+
+  /**
+   * A channel was closed, either by the application or because its device
+   * failed or was detached. No more data will be received from the channel.
+   *
+   * @param channel the channel
+   * @param cause   the failure that closed the channel, null if it was closed
+   *                by the application
+   */
+  void channelClosed(FTDIAcquisitionChannel channel, Exception cause);
+}
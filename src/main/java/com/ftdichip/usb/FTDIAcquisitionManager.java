@@ -0,0 +1,383 @@
+/*
+ * Copyright 2014-2016 Key Bridge LLC.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ftdichip.usb;
+
+import com.ftdichip.usb.enumerated.FlowControl;
+import com.ftdichip.usb.enumerated.LineDatabit;
+import com.ftdichip.usb.enumerated.LineParity;
+import com.ftdichip.usb.enumerated.LineStopbit;
+import com.ftdichip.usb.enumerated.PortInterfaceType;
+import java.io.Closeable;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import javax.usb.UsbDevice;
+import javax.usb.UsbException;
+import javax.usb.event.UsbServicesEvent;
+import javax.usb.event.UsbServicesListener;
+
+/**
+ * Concurrent acquisition from all attached FTDI devices.
+ * <p>
+ * {@link #open()} opens every port of every device in the
+ * {@link FTDIDeviceRegistry} (as returned by
+ * {@link FTDIUtility#findFTDIDevices()}), configures the serial ports and
+ * starts an independent {@link FTDIAcquisitionChannel} for each port, so a
+ * dual port FT2232H has two channels and a quad port FT4232H has four. While
+ * the manager is open, devices attached later are opened automatically and
+ * channels of detached or failed devices are closed.
+ * <p>
+ * Data is available per port, through the listeners of each channel, and in
+ * aggregate, through the listeners of the manager. Per-port and aggregate
+ * statistics are kept.
+ * <p>
+ * Developer note: The channels do not share threads, locks or buffers, so the
+ * acquisition throughput scales with the number of ports until the USB host
+ * controller bandwidth is exhausted, and a port that is slow or failed, or a
+ * device that is unplugged, does not affect the others. A device that cannot
+ * be opened (e.g. claimed by another application) is reported in
+ * {@link #getFailures()} and skipped; its ports are opened all or none.
+ *
+ * @author Jesse Caulfield
+ */
+public final class FTDIAcquisitionManager implements Closeable {
+
+  /**
+   * The default number of read requests queued per port.
+   */
+  public static final int DEFAULT_IRP_COUNT = 4;
+  /**
+   * The default read request size (bytes).
+   */
+  public static final int DEFAULT_TRANSFER_SIZE = 16384;
+  /**
+   * The default delivery queue capacity per port (buffers).
+   */
+  public static final int DEFAULT_QUEUE_CAPACITY = 64;
+
+  private final int baudRate;
+  private final int irpCount;
+  private final int transferSize;
+  private final int queueCapacity;
+  private final Map<PortKey, FTDIAcquisitionChannel> channels = new ConcurrentHashMap<>();
+  private final Map<FTDIDeviceInfo, Exception> failures = new ConcurrentHashMap<>();
+  private final List<FTDIAcquisitionListener> listeners = new CopyOnWriteArrayList<>();
+  private final UsbServicesListener hotplugListener = new UsbServicesListener() {
+    @Override
+    public void usbDeviceAttached(UsbServicesEvent event) {
+      FTDIDeviceInfo info = registry.getDevice(event.getUsbDevice());
+      if (info != null) {
+        openChannel(info);
+      }
+    }
+
+    @Override
+    public void usbDeviceDetached(UsbServicesEvent event) {
+      for (FTDIAcquisitionChannel channel : getChannels(event.getUsbDevice())) {
+        closeChannel(channel, new UsbException("Device detached."));
+      }
+    }
+  };
+  private FTDIDeviceRegistry registry;
+  private volatile boolean open;
+
+  /**
+   * Construct a new acquisition manager with the default read and queue
+   * settings. Each serial port is configured for the given baud rate, 8 data
+   * bits, no parity, 1 stop bit and no flow control.
+   *
+   * @param baudRate the serial port baud rate (bits per second)
+   */
+  public FTDIAcquisitionManager(int baudRate) {
+    this(baudRate, DEFAULT_IRP_COUNT, DEFAULT_TRANSFER_SIZE, DEFAULT_QUEUE_CAPACITY);
+  }
+
+  /**
+   * Construct a new acquisition manager.
+   *
+   * @param baudRate      the serial port baud rate (bits per second)
+   * @param irpCount      the number of read requests queued per port
+   * @param transferSize  the read request size (bytes)
+   * @param queueCapacity the delivery queue capacity per port (buffers)
+   */
+  public FTDIAcquisitionManager(int baudRate, int irpCount, int transferSize, int queueCapacity) {
+    if (irpCount < 1 || transferSize < 1 || queueCapacity < 1) {
+      throw new IllegalArgumentException("Read request count, transfer size and queue capacity must be positive.");
+    }
+    this.baudRate = baudRate;
+    this.irpCount = irpCount;
+    this.transferSize = transferSize;
+    this.queueCapacity = queueCapacity;
+  }
+
+  /**
+   * Open all ports of the attached FTDI devices and start acquiring.
+   *
+   * @return the number of ports opened
+   * @throws UsbException if the USB bus cannot be accessed
+   */
+  public synchronized int open() throws UsbException {
+    if (open) {
+      throw new IllegalStateException("Acquisition manager is already open.");
+    }
+    registry = FTDIDeviceRegistry.getInstance();
+    open = true;
+    registry.addListener(hotplugListener);
+    for (FTDIDeviceInfo info : registry.getDevices()) {
+      openChannel(info);
+    }
+    return channels.size();
+  }
+
+  /**
+   * Open all ports of a device and start a channel for each. Failures are
+   * recorded; if any port fails the ports already opened are closed again.
+   *
+   * @param info the device
+   */
+  private synchronized void openChannel(FTDIDeviceInfo info) {
+    if (!open || !getChannels(info.getUsbDevice()).isEmpty()) {
+      return;
+    }
+    List<FTDI> ports = Collections.emptyList();
+    List<FTDIAcquisitionChannel> started = new ArrayList<>();
+    try {
+      ports = FTDI.openPorts(info.getUsbDevice());
+      for (FTDI ftdi : ports) {
+        ftdi.configureSerialPort(baudRate, LineDatabit.BITS_8, LineStopbit.STOP_BIT_1, LineParity.NONE, FlowControl.DISABLE_FLOW_CTRL);
+      }
+      for (FTDI ftdi : ports) {
+        started.add(new FTDIAcquisitionChannel(this, info, ftdi, irpCount, transferSize, queueCapacity));
+      }
+      for (FTDIAcquisitionChannel channel : started) {
+        channels.put(PortKey.of(channel), channel);
+      }
+      failures.remove(info);
+    } catch (UsbException | RuntimeException ex) {
+      /**
+       * A started channel closes its own port.
+       */
+      for (FTDIAcquisitionChannel channel : started) {
+        channel.close();
+      }
+      for (FTDI ftdi : ports.subList(started.size(), ports.size())) {
+        try {
+          ftdi.close();
+        } catch (RuntimeException closeException) {
+          // already gone
+        }
+      }
+      failures.put(info, ex);
+    }
+  }
+
+  /**
+   * Close a channel and notify the listeners.
+   *
+   * @param channel the channel
+   * @param cause   the failure, null if closed by the application
+   */
+  private void closeChannel(FTDIAcquisitionChannel channel, Exception cause) {
+    if (channels.remove(PortKey.of(channel), channel)) {
+      channel.close();
+      channel.fireChannelClosed(cause);
+      for (FTDIAcquisitionListener listener : listeners) {
+        listener.channelClosed(channel, cause);
+      }
+    }
+  }
+
+  /**
+   * Called by a channel whose read engine failed. Called on the channel
+   * delivery thread.
+   */
+  void channelFailed(FTDIAcquisitionChannel channel, UsbException cause) {
+    closeChannel(channel, cause);
+  }
+
+  /**
+   * Deliver channel data to the aggregate listeners. Called on the channel
+   * delivery thread.
+   */
+  void fireDataReceived(FTDIAcquisitionChannel channel, FTDIBuffer buffer) {
+    for (FTDIAcquisitionListener listener : listeners) {
+      listener.dataReceived(channel, buffer);
+    }
+  }
+
+  /**
+   * Add a listener to receive the data of all channels.
+   *
+   * @param listener the listener
+   */
+  public void addListener(FTDIAcquisitionListener listener) {
+    listeners.add(listener);
+  }
+
+  /**
+   * Remove an aggregate listener.
+   *
+   * @param listener the listener
+   */
+  public void removeListener(FTDIAcquisitionListener listener) {
+    listeners.remove(listener);
+  }
+
+  /**
+   * @return TRUE while the manager is open
+   */
+  public boolean isOpen() {
+    return open;
+  }
+
+  /**
+   * @return the open channels
+   */
+  public Collection<FTDIAcquisitionChannel> getChannels() {
+    return Collections.unmodifiableCollection(channels.values());
+  }
+
+  /**
+   * Get the channels of a device.
+   *
+   * @param usbDevice the USB device
+   * @return the channels of the open ports of the device, in port order;
+   *         empty if the device is not open
+   */
+  public List<FTDIAcquisitionChannel> getChannels(UsbDevice usbDevice) {
+    List<FTDIAcquisitionChannel> deviceChannels = new ArrayList<>();
+    for (PortInterfaceType port : PortInterfaceType.values()) {
+      FTDIAcquisitionChannel channel = channels.get(new PortKey(usbDevice, port));
+      if (channel != null) {
+        deviceChannels.add(channel);
+      }
+    }
+    return deviceChannels;
+  }
+
+  /**
+   * Get the channel of a device port.
+   * <p>
+   * Developer note: {@link PortInterfaceType#INTERFACE_ANY} addresses the
+   * only port of a single port chip and port A of a multi-port chip.
+   *
+   * @param usbDevice the USB device
+   * @param port      the chip port (interface)
+   * @return the channel, null if the port is not open
+   */
+  public FTDIAcquisitionChannel getChannel(UsbDevice usbDevice, PortInterfaceType port) {
+    return channels.get(new PortKey(usbDevice, FTDI.getPortKey(usbDevice, port)));
+  }
+
+  /**
+   * @return the devices that could not be opened and the reason
+   */
+  public Map<FTDIDeviceInfo, Exception> getFailures() {
+    return Collections.unmodifiableMap(failures);
+  }
+
+  /**
+   * @return the total number of bytes received by the open channels
+   */
+  public long getBytesReceived() {
+    long total = 0;
+    for (FTDIAcquisitionChannel channel : channels.values()) {
+      total += channel.getBytesReceived();
+    }
+    return total;
+  }
+
+  /**
+   * @return the total number of buffers dropped by the open channels
+   */
+  public long getBuffersDropped() {
+    long total = 0;
+    for (FTDIAcquisitionChannel channel : channels.values()) {
+      total += channel.getBuffersDropped();
+    }
+    return total;
+  }
+
+  /**
+   * @return the total mean receive rate of the open channels (bytes per
+   *         second)
+   */
+  public double getThroughput() {
+    double total = 0;
+    for (FTDIAcquisitionChannel channel : channels.values()) {
+      total += channel.getThroughput();
+    }
+    return total;
+  }
+
+  /**
+   * Close all channels and release the devices.
+   */
+  @Override
+  public synchronized void close() {
+    if (!open) {
+      return;
+    }
+    open = false;
+    registry.removeListener(hotplugListener);
+    for (FTDIAcquisitionChannel channel : new ArrayList<>(channels.values())) {
+      closeChannel(channel, null);
+    }
+  }
+
+  @Override
+  public String toString() {
+    StringBuilder sb = new StringBuilder("FTDI acquisition: ").append(channels.size()).append(" ports");
+    for (FTDIAcquisitionChannel channel : channels.values()) {
+      sb.append("\n  ").append(channel);
+    }
+    return sb.toString();
+  }
+
+  /**
+   * A channel map key: a device port. The port is the port key of
+   * {@link FTDI#getPortKey(UsbDevice, PortInterfaceType)}, which is the port
+   * of the instances returned by {@link FTDI#openPorts(UsbDevice)}.
+   */
+  private static final class PortKey {
+
+    private final UsbDevice usbDevice;
+    private final PortInterfaceType port;
+
+    PortKey(UsbDevice usbDevice, PortInterfaceType port) {
+      this.usbDevice = usbDevice;
+      this.port = port;
+    }
+
+    static PortKey of(FTDIAcquisitionChannel channel) {
+      return new PortKey(channel.getDeviceInfo().getUsbDevice(), channel.getFTDI().getPort());
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+      if (!(obj instanceof PortKey)) {
+        return false;
+      }
+      PortKey other = (PortKey) obj;
+      return usbDevice.equals(other.usbDevice) && port == other.port;
+    }
+
+    @Override
+    public int hashCode() {
+      return 31 * usbDevice.hashCode() + port.hashCode();
+    }
+  }
+}
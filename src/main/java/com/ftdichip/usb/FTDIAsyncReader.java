@@ -0,0 +1,388 @@
+/*
+ * Copyright 2014-2016 Key Bridge LLC.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ftdichip.usb;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import javax.usb.*;
+import javax.usb.event.UsbPipeDataEvent;
+import javax.usb.event.UsbPipeErrorEvent;
+import javax.usb.event.UsbPipeListener;
+import javax.usb.util.DefaultUsbIrp;
+
+import static com.ftdichip.usb.FTDIUtility.MODEM_STATUS_HEADER_LENGTH;
+
+/**
+ * Continuous asynchronous bulk-IN read engine.
+ * <p>
+ * The engine keeps a fixed number of read requests (IRPs) queued on the FTDI
+ * READ pipe. Each request is re-submitted from the pipe completion callback so
+ * that the bulk-IN endpoint always has a request waiting and the chip output
+ * buffer is drained continuously, regardless of how fast the application
+ * consumes the data.
+ * <p>
+ * Each read request fills a buffer taken from a {@link FTDIBufferPool}. When a
+ * request completes, the filled buffer is swapped for an empty one, the request
+ * is re-submitted and the filled buffer is then handed to the listeners without
+ * copying. Buffers are returned to the pool when the listeners release them, so
+ * the engine itself does not allocate in the steady state.
+ * <p>
+ * Developer note: The javax.usb backend may allocate below the engine. The
+ * usb4java backend (1.3.0) executes each request as one synchronous libusb
+ * bulk transfer per {@code wMaxPacketSize} packet, each into a newly allocated
+ * direct buffer, so large requests do not reduce the number of USB transfers
+ * on real hardware.
+ * <p>
+ * Developer note: The pipe listener also receives completion events for
+ * requests that were not submitted by this engine (e.g. a synchronous
+ * {@link FTDI#read()}). Requests submitted by the engine are identified by
+ * their {@link ReadIrp} type and owner and all other events are ignored.
+ *
+ * @author Jesse Caulfield
+ */
+final class FTDIAsyncReader implements UsbPipeListener {
+
+  /**
+   * The USB Pipe used to READ data from the connected device.
+   */
+  private final UsbPipe usbPipe;
+  /**
+   * The (shared, thread safe) list of listeners to receive device data.
+   */
+  private final List<FTDIDataListener> listeners;
+  /**
+   * The decoder of the packet modem status headers.
+   */
+  private final FTDIModemStatusTracker modemStatusTracker;
+  /**
+   * The port I/O metrics.
+   */
+  private final FTDIMetrics metrics;
+  /**
+   * The number of read requests to keep queued on the pipe.
+   */
+  private final int irpCount;
+  /**
+   * The READ endpoint maximum packet size (bytes).
+   */
+  private final int packetSize;
+  /**
+   * The size of each read request (bytes). A whole number of packets.
+   */
+  private final int transferSize;
+  /**
+   * The pool supplying the read request buffers.
+   */
+  private final FTDIBufferPool bufferPool;
+  /**
+   * The read requests owned by this engine.
+   */
+  private final ReadIrp[] irps;
+  /**
+   * The number of read requests currently queued on the pipe.
+   */
+  private final AtomicInteger pendingCount = new AtomicInteger();
+  /**
+   * Read requests are only re-submitted while the engine is running.
+   */
+  private volatile boolean running;
+  /**
+   * The (optional) adaptive latency timer controller.
+   */
+  private volatile FTDILatencyTuner latencyTuner;
+
+  /**
+   * Construct a new asynchronous read engine.
+   *
+   * @param usbPipe    the USB pipe to read from
+   * @param listeners  the (thread safe) list of data listeners
+   * @param tracker    the decoder of the packet modem status headers
+   * @param metrics    the port I/O metrics
+   * @param irpCount   the number of read requests to keep queued
+   * @param bufferPool the pool supplying the read request buffers. Each
+   *                   read request transfers as many whole packets as fit
+   *                   in one buffer.
+   * @param packetSize the READ endpoint maximum packet size (bytes)
+   */
+  FTDIAsyncReader(UsbPipe usbPipe, List<FTDIDataListener> listeners, FTDIModemStatusTracker tracker,
+                  FTDIMetrics metrics, int irpCount, FTDIBufferPool bufferPool, int packetSize) {
+    if (irpCount < 1) {
+      throw new IllegalArgumentException("IRP count must be at least one.");
+    }
+    if (bufferPool.getBufferSize() < packetSize) {
+      throw new IllegalArgumentException("Buffer size must be at least " + packetSize + " bytes.");
+    }
+    this.packetSize = packetSize;
+    this.transferSize = bufferPool.getBufferSize() - bufferPool.getBufferSize() % packetSize;
+    this.usbPipe = usbPipe;
+    this.listeners = listeners;
+    this.modemStatusTracker = tracker;
+    this.metrics = metrics;
+    this.irpCount = irpCount;
+    this.bufferPool = bufferPool;
+    this.irps = new ReadIrp[irpCount];
+  }
+
+  /**
+   * Start the engine: open the pipe if required and queue all read requests.
+   *
+   * @throws UsbException if the pipe cannot be opened or the requests cannot
+   *                      be submitted
+   */
+  void start() throws UsbException {
+    if (!usbPipe.isOpen()) {
+      usbPipe.open();
+    }
+    running = true;
+    usbPipe.addUsbPipeListener(this);
+    try {
+      for (int i = 0; i < irpCount; i++) {
+        irps[i] = new ReadIrp(this);
+        irps[i].attach(bufferPool.acquire());
+        submit(irps[i]);
+      }
+    } catch (UsbException | RuntimeException ex) {
+      stop();
+      throw ex;
+    }
+  }
+
+  /**
+   * Stop the engine, abort all queued read requests and return their buffers
+   * to the pool.
+   * <p>
+   * Developer note: This method waits for the request currently being
+   * processed to complete. It must not be called from a listener callback.
+   */
+  void stop() {
+    running = false;
+    try {
+      usbPipe.abortAllSubmissions();
+    } catch (UsbNotActiveException | UsbNotOpenException | UsbDisconnectedException ex) {
+    }
+    usbPipe.removeUsbPipeListener(this);
+    pendingCount.set(0);
+    for (ReadIrp irp : irps) {
+      FTDIBuffer buffer = irp == null ? null : irp.detach();
+      if (buffer != null) {
+        buffer.release();
+      }
+    }
+  }
+
+  /**
+   * @return TRUE if the engine is running and has read requests queued
+   */
+  boolean isRunning() {
+    return running;
+  }
+
+  /**
+   * Set the adaptive latency timer controller to be informed of each
+   * completed transfer.
+   *
+   * @param latencyTuner the controller, or null to disable
+   */
+  void setLatencyTuner(FTDILatencyTuner latencyTuner) {
+    this.latencyTuner = latencyTuner;
+  }
+
+  /**
+   * @return the number of read requests kept queued on the pipe
+   */
+  int getIrpCount() {
+    return irpCount;
+  }
+
+  /**
+   * @return the pool supplying the read request buffers
+   */
+  FTDIBufferPool getBufferPool() {
+    return bufferPool;
+  }
+
+  /**
+   * @return the number of read requests currently queued on the pipe
+   */
+  int getPendingCount() {
+    return pendingCount.get();
+  }
+
+  /**
+   * Reset a (possibly previously completed) read request and queue it on the
+   * pipe.
+   *
+   * @param irp the read request
+   * @throws UsbException if the request cannot be submitted
+   */
+  private void submit(ReadIrp irp) throws UsbException {
+    irp.setComplete(false);
+    irp.setActualLength(0);
+    irp.setUsbException(null);
+    pendingCount.incrementAndGet();
+    try {
+      usbPipe.asyncSubmit(irp);
+    } catch (UsbException | RuntimeException ex) {
+      pendingCount.decrementAndGet();
+      throw ex;
+    }
+  }
+
+  /**
+   * Re-queue a completed read request. If the request cannot be submitted the
+   * listeners are notified and the request is retired.
+   *
+   * @param irp the completed read request
+   */
+  private void resubmit(ReadIrp irp) {
+    if (!running) {
+      return;
+    }
+    try {
+      submit(irp);
+    } catch (UsbException ex) {
+      retire(ex);
+    } catch (UsbNotActiveException | UsbNotOpenException | UsbDisconnectedException | IllegalArgumentException ex) {
+      retire(new UsbException(ex.getMessage()));
+    }
+  }
+
+  /**
+   * Notify the listeners of a failed request. The engine stops when no read
+   * requests remain queued.
+   *
+   * @param exception the USB exception
+   */
+  private void retire(UsbException exception) {
+    if (pendingCount.get() == 0) {
+      running = false;
+    }
+    for (FTDIDataListener listener : listeners) {
+      listener.errorOccurred(exception);
+    }
+  }
+
+  /**
+   * Identify read requests submitted by this engine instance.
+   *
+   * @param usbIrp the completed USB request
+   * @return the read request, or null if the request belongs to someone else
+   */
+  private ReadIrp owned(UsbIrp usbIrp) {
+    return usbIrp instanceof ReadIrp && ((ReadIrp) usbIrp).owner == this
+           ? (ReadIrp) usbIrp
+           : null;
+  }
+
+  @Override
+  public void dataEventOccurred(UsbPipeDataEvent event) {
+    ReadIrp irp = owned(event.getUsbIrp());
+    if (irp == null) {
+      return;
+    }
+    pendingCount.decrementAndGet();
+    /**
+     * Strip the MODEM_STATUS_HEADER from every packet in the transfer. A
+     * header-only transfer means there was no data on the line: the buffer is
+     * simply re-used.
+     */
+    int length = running
+                 ? FTDIUtility.stripModemStatus(irp.getData(), 0, irp.getActualLength(), packetSize,
+                                                MODEM_STATUS_HEADER_LENGTH, modemStatusTracker)
+                 : 0;
+    if (running) {
+      metrics.readCompleted(length);
+    }
+    FTDILatencyTuner tuner = latencyTuner;
+    if (tuner != null) {
+      tuner.transferCompleted(irp.getActualLength(), length, packetSize);
+    }
+    if (length == 0) {
+      resubmit(irp);
+      return;
+    }
+    /**
+     * Swap in an empty buffer and re-queue the request before notifying the
+     * listeners so the endpoint is not left idle while they run.
+     */
+    FTDIBuffer buffer = irp.detach();
+    buffer.setRange(MODEM_STATUS_HEADER_LENGTH, length);
+    irp.attach(bufferPool.acquire());
+    resubmit(irp);
+    try {
+      for (FTDIDataListener listener : listeners) {
+        listener.dataReceived(buffer);
+      }
+    } finally {
+      buffer.release();
+    }
+  }
+
+  @Override
+  public void errorEventOccurred(UsbPipeErrorEvent event) {
+    ReadIrp irp = owned(event.getUsbIrp());
+    if (irp == null) {
+      return;
+    }
+    pendingCount.decrementAndGet();
+    if (running) {
+      /**
+       * Requests aborted by stop() are not errors.
+       */
+      metrics.readFailed();
+    }
+    retire(event.getUsbException());
+  }
+
+  /**
+   * A bulk-IN read request owned by a specific read engine instance.
+   */
+  private static final class ReadIrp extends DefaultUsbIrp {
+
+    private final FTDIAsyncReader owner;
+    /**
+     * The pooled buffer currently backing this request.
+     */
+    private FTDIBuffer buffer;
+
+    ReadIrp(FTDIAsyncReader owner) {
+      this.owner = owner;
+      setAcceptShortPacket(true);
+    }
+
+    /**
+     * Back this request with a pooled buffer.
+     *
+     * @param buffer the (empty) buffer
+     */
+    void attach(FTDIBuffer buffer) {
+      this.buffer = buffer;
+      setData(buffer.getData(), 0, owner.transferSize);
+    }
+
+    /**
+     * Remove the backing buffer from this request. The caller takes over the
+     * buffer reference.
+     *
+     * @return the buffer, or null if none is attached
+     */
+    FTDIBuffer detach() {
+      FTDIBuffer detached = buffer;
+      buffer = null;
+      return detached;
+    }
+  }
+}
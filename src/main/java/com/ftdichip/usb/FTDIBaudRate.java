@@ -0,0 +1,297 @@
+/*
+ * Copyright 2014-2016 Key Bridge LLC.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ftdichip.usb;
+
+import com.ftdichip.usb.enumerated.ChipType;
+import com.ftdichip.usb.enumerated.PortInterfaceType;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * An encoded FTDI baud rate divisor: the SIO_SET_BAUDRATE_REQUEST wValue and
+ * wIndex for a requested baud rate on a given chip type, together with the
+ * baud rate actually achieved.
+ * <p>
+ * The baud rate generator divides a base clock by an integer plus a
+ * sub-integer (eighths) divisor. The base clock is 3 MHz (48 MHz / 16) on all
+ * chips; the H series chips (FT2232H, FT4232H, FT232H) can also use 12 MHz
+ * (120 MHz / 10), which is selected for all rates it can reach. The AM chip
+ * supports only the 0, 0.125, 0.25 and 0.5 sub-integer divisors. The encoding
+ * follows AN232B-05 and AN_120 and is the same as libftdi's.
+ * <p>
+ * Divisors for the common baud rates ({@link #STANDARD_BAUD_RATES}) are
+ * precomputed per chip type; other rates are calculated on request.
+ *
+ * @see See AN232B-05_BaudRates.pdf
+ * @author Jesse Caulfield
+ */
+public final class FTDIBaudRate {
+
+  /**
+   * The maximum relative error between the requested and actual baud rate for
+   * which the link should function without errors (+/- 3%).
+   */
+  public static final double TOLERANCE = 0.03;
+  /**
+   * The baud rates for which the divisors are precomputed.
+   */
+  public static final int[] STANDARD_BAUD_RATES = {300, 600, 1200, 2400, 4800, 9600, 14400, 19200, 38400, 57600,
+                                                   115200, 230400, 460800, 500000, 921600, 1000000, 1500000,
+                                                   2000000, 3000000, 6000000, 12000000};
+  /**
+   * The 48 MHz clock of the standard baud rate generator.
+   */
+  private static final int C_CLK = 48000000;
+  /**
+   * The 120 MHz clock of the H series baud rate generator.
+   */
+  private static final int H_CLK = 120000000;
+  /**
+   * The encoded divisor bit selecting the H series 120 MHz / 10 clock.
+   */
+  private static final int H_CLK_SELECT = 0x20000;
+  /**
+   * The encoding of each eighths sub-integer divisor (0, 0.125, ... 0.875).
+   */
+  private static final int[] FRACTION_CODE = {0, 3, 2, 4, 1, 5, 6, 7};
+  /**
+   * AM chips: the eighths to add (round up), respectively subtract (round
+   * down), to reach a supported sub-integer divisor.
+   */
+  private static final int[] AM_ADJUST_UP = {0, 0, 0, 1, 0, 3, 2, 1};
+  private static final int[] AM_ADJUST_DOWN = {0, 0, 0, 1, 0, 1, 2, 3};
+  /**
+   * The precomputed divisors of the standard baud rates, by chip type.
+   */
+  private static final Map<ChipType, Map<Integer, FTDIBaudRate>> STANDARD = new EnumMap<>(ChipType.class);
+
+  static {
+    for (ChipType chipType : ChipType.values()) {
+      Map<Integer, FTDIBaudRate> table = new HashMap<>();
+      for (int baudRate : STANDARD_BAUD_RATES) {
+        table.put(baudRate, encode(chipType, baudRate));
+      }
+      STANDARD.put(chipType, table);
+    }
+  }
+
+  private final ChipType chipType;
+  private final int requestedBaudRate;
+  private final int actualBaudRate;
+  /**
+   * The encoded divisor: bits 0-13 integer divisor, bits 14-16 sub-integer
+   * divisor code, bit 17 H series clock select.
+   */
+  private final int encodedDivisor;
+
+  private FTDIBaudRate(ChipType chipType, int requestedBaudRate, int actualBaudRate, int encodedDivisor) {
+    this.chipType = chipType;
+    this.requestedBaudRate = requestedBaudRate;
+    this.actualBaudRate = actualBaudRate;
+    this.encodedDivisor = encodedDivisor;
+  }
+
+  /**
+   * Get the baud rate divisor nearest to a requested baud rate.
+   *
+   * @param chipType          the FTDI chip type
+   * @param requestedBaudRate the requested baud rate (bits per second)
+   * @return the encoded divisor and the actual baud rate
+   * @throws IllegalArgumentException if the requested baud rate is not
+   *                                  positive
+   */
+  public static FTDIBaudRate getInstance(ChipType chipType, int requestedBaudRate) {
+    FTDIBaudRate baudRate = STANDARD.get(chipType).get(requestedBaudRate);
+    return baudRate != null ? baudRate : encode(chipType, requestedBaudRate);
+  }
+
+  /**
+   * Calculate the baud rate divisor nearest to a requested baud rate.
+   */
+  private static FTDIBaudRate encode(ChipType chipType, int requestedBaudRate) {
+    if (requestedBaudRate <= 0) {
+      throw new IllegalArgumentException("Invalid baud rate " + requestedBaudRate);
+    }
+    int[] divisor = new int[1];
+    int actual;
+    if (chipType == ChipType.TYPE_AM) {
+      actual = encodeAM(requestedBaudRate, divisor);
+    } else if (chipType.isHighSpeed() && requestedBaudRate * 10L > H_CLK / 0x3FFF) {
+      /**
+       * The 12 MHz base clock reaches every rate above 732 baud.
+       */
+      actual = encode(requestedBaudRate, H_CLK, 10, divisor);
+      divisor[0] |= H_CLK_SELECT;
+    } else {
+      actual = encode(requestedBaudRate, C_CLK, 16, divisor);
+    }
+    return new FTDIBaudRate(chipType, requestedBaudRate, actual, divisor[0]);
+  }
+
+  /**
+   * Calculate the divisor for a clock and pre-divisor.
+   * <p>
+   * The sub-integer divisors between 0 and 2 are not allowed: the encoded
+   * divisors 0, 1 and 2 are special cases for clock / 1, 1.5 and 2.
+   *
+   * @param baudRate the requested baud rate
+   * @param clock    the clock (Hz)
+   * @param clockDiv the clock pre-divisor (16 for 3 MHz, 10 for 12 MHz)
+   * @param encoded  receives the encoded divisor
+   * @return the actual baud rate
+   */
+  private static int encode(int baudRate, int clock, int clockDiv, int[] encoded) {
+    if (baudRate >= clock / clockDiv) {
+      encoded[0] = 0;
+      return clock / clockDiv;
+    }
+    if (baudRate >= clock / (clockDiv + clockDiv / 2)) {
+      encoded[0] = 1;
+      return clock / (clockDiv + clockDiv / 2);
+    }
+    if (baudRate >= clock / (2 * clockDiv)) {
+      encoded[0] = 2;
+      return clock / (2 * clockDiv);
+    }
+    /**
+     * The divisor in sixteenths: three fractional bits and one bit for
+     * rounding.
+     */
+    long sixteenths = (long) clock * 16 / clockDiv / baudRate;
+    int eighths = (int) Math.min((sixteenths + 1) / 2, 0x1FFFF);
+    long actual = (long) clock * 16 / clockDiv / eighths;
+    encoded[0] = (eighths >> 3) | FRACTION_CODE[eighths & 0x7] << 14;
+    return (int) ((actual + 1) / 2);
+  }
+
+  /**
+   * Calculate the divisor for an AM chip, which supports only the 0, 0.125,
+   * 0.25 and 0.5 sub-integer divisors.
+   *
+   * @param baudRate the requested baud rate
+   * @param encoded  receives the encoded divisor
+   * @return the actual baud rate
+   */
+  private static int encodeAM(int baudRate, int[] encoded) {
+    int divisor = 24000000 / baudRate;
+    divisor -= AM_ADJUST_DOWN[divisor & 7];
+    int bestDivisor = 0;
+    int bestBaudRate = 0;
+    int bestDifference = 0;
+    /**
+     * Try the rounded down divisor and the one above it.
+     */
+    for (int i = 0; i < 2; i++) {
+      int tryDivisor = divisor + i;
+      if (tryDivisor <= 8) {
+        tryDivisor = 8;
+      } else if (divisor < 16) {
+        /**
+         * The AM does not support divisors 9 through 15.
+         */
+        tryDivisor = 16;
+      } else {
+        tryDivisor += AM_ADJUST_UP[tryDivisor & 7];
+        tryDivisor = Math.min(tryDivisor, 0x1FFF8);
+      }
+      int estimate = (24000000 + tryDivisor / 2) / tryDivisor;
+      int difference = Math.abs(estimate - baudRate);
+      if (i == 0 || difference < bestDifference) {
+        bestDivisor = tryDivisor;
+        bestBaudRate = estimate;
+        bestDifference = difference;
+        if (difference == 0) {
+          break;
+        }
+      }
+    }
+    int divisorCode = (bestDivisor >> 3) | FRACTION_CODE[bestDivisor & 7] << 14;
+    /**
+     * Special cases: divisor 1 is 3 MBaud, divisor 1.5 (not an AM divisor) is
+     * encoded as 1.
+     */
+    encoded[0] = divisorCode == 1 ? 0 : divisorCode == 0x4001 ? 1 : divisorCode;
+    return bestBaudRate;
+  }
+
+  /**
+   * @return the chip type for which the divisor was calculated
+   */
+  public ChipType getChipType() {
+    return chipType;
+  }
+
+  /**
+   * @return the requested baud rate (bits per second)
+   */
+  public int getRequestedBaudRate() {
+    return requestedBaudRate;
+  }
+
+  /**
+   * @return the baud rate actually achieved by the divisor (bits per second)
+   */
+  public int getActualBaudRate() {
+    return actualBaudRate;
+  }
+
+  /**
+   * @return the relative error of the actual baud rate: (actual - requested) /
+   *         requested
+   */
+  public double getError() {
+    return (actualBaudRate - (double) requestedBaudRate) / requestedBaudRate;
+  }
+
+  /**
+   * @return TRUE if the actual baud rate is within the +/- 3%
+   *         {@link #TOLERANCE}
+   */
+  public boolean isWithinTolerance() {
+    return Math.abs(getError()) <= TOLERANCE;
+  }
+
+  /**
+   * @return the SIO_SET_BAUDRATE_REQUEST wValue: the low 16 divisor bits
+   */
+  public short getValue() {
+    return (short) encodedDivisor;
+  }
+
+  /**
+   * Get the SIO_SET_BAUDRATE_REQUEST wIndex for a port.
+   * <p>
+   * Developer note: The multi-port chips (FT2232C, FT2232H, FT4232H) and the
+   * FT232H take the port number in the wIndex low byte and the high divisor
+   * bits in the high byte; the other chips take the high divisor bits in the
+   * low byte.
+   *
+   * @param port the chip port (interface)
+   * @return the wIndex
+   */
+  public short getIndex(PortInterfaceType port) {
+    if (chipType.isHighSpeed() || chipType == ChipType.TYPE_2232C) {
+      return (short) (encodedDivisor >> 8 & 0xFF00 | FTDIUtility.getIndex(port));
+    }
+    return (short) (encodedDivisor >> 16);
+  }
+
+  @Override
+  public String toString() {
+    return String.format("%d baud (requested %d, error %+.2f%%)", actualBaudRate, requestedBaudRate, getError() * 100);
+  }
+}
@@ -0,0 +1,143 @@
+/*
+ * Copyright 2014-2016 Key Bridge LLC.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ftdichip.usb;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A reference counted, recyclable byte buffer from a {@link FTDIBufferPool}.
+ * <p>
+ * The buffer data is {@link #getLength() length} bytes starting at
+ * {@link #getOffset() offset} in the {@link #getData() data} array. Bytes
+ * outside this range are undefined and may contain stale data from a previous
+ * use of the buffer.
+ * <p>
+ * A buffer is returned to its pool when the last reference is released. A
+ * consumer that keeps a buffer beyond the scope in which it was handed over
+ * must call {@link #retain()} and later {@link #release()}. Do not access a
+ * buffer after releasing it.
+ *
+ * @author Jesse Caulfield
+ */
+public final class FTDIBuffer {
+
+  /**
+   * The pool to which this buffer is returned when released.
+   */
+  private final FTDIBufferPool pool;
+  /**
+   * The backing byte array.
+   */
+  private final byte[] data;
+  /**
+   * The number of outstanding references.
+   */
+  private final AtomicInteger referenceCount = new AtomicInteger();
+  /**
+   * The index of the first valid byte in the backing array.
+   */
+  private int offset;
+  /**
+   * The number of valid bytes in the backing array.
+   */
+  private int length;
+
+  FTDIBuffer(FTDIBufferPool pool, byte[] data) {
+    this.pool = pool;
+    this.data = data;
+  }
+
+  /**
+   * @return the backing byte array
+   */
+  public byte[] getData() {
+    return data;
+  }
+
+  /**
+   * @return the index of the first valid byte in the backing array
+   */
+  public int getOffset() {
+    return offset;
+  }
+
+  /**
+   * @return the number of valid bytes in the backing array
+   */
+  public int getLength() {
+    return length;
+  }
+
+  /**
+   * @return the size of the backing byte array
+   */
+  public int getCapacity() {
+    return data.length;
+  }
+
+  /**
+   * Set the valid data range.
+   *
+   * @param offset the index of the first valid byte
+   * @param length the number of valid bytes
+   */
+  void setRange(int offset, int length) {
+    this.offset = offset;
+    this.length = length;
+  }
+
+  /**
+   * Add a reference to this buffer. Each call must be matched by a call to
+   * {@link #release()}.
+   *
+   * @return this buffer
+   */
+  public FTDIBuffer retain() {
+    if (referenceCount.getAndIncrement() <= 0) {
+      referenceCount.getAndDecrement();
+      throw new IllegalStateException("Buffer has already been released.");
+    }
+    return this;
+  }
+
+  /**
+   * Release a reference to this buffer. The buffer is returned to its pool
+   * when the last reference is released.
+   */
+  public void release() {
+    int count = referenceCount.decrementAndGet();
+    if (count == 0) {
+      pool.recycle(this);
+    } else if (count < 0) {
+      referenceCount.incrementAndGet();
+      throw new IllegalStateException("Buffer has already been released.");
+    }
+  }
+
+  /**
+   * Called by the pool when the buffer is handed out.
+   */
+  void acquired() {
+    offset = 0;
+    length = 0;
+    referenceCount.set(1);
+  }
+
+  @Override
+  public String toString() {
+    return "FTDIBuffer offset " + offset + " length " + length + " capacity " + data.length;
+  }
+}
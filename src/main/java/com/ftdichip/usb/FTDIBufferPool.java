@@ -0,0 +1,130 @@
+/*
+ * Copyright 2014-2016 Key Bridge LLC.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ftdichip.usb;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A bounded pool of recyclable, fixed size {@link FTDIBuffer}s.
+ * <p>
+ * The pool is filled when constructed. If the pool is empty when a buffer is
+ * requested a new buffer is allocated (and counted) rather than blocking the
+ * caller: the read engine must never wait for a slow consumer. Released
+ * buffers in excess of the pool capacity are discarded.
+ * <p>
+ * Developer note: Acquiring and releasing a pooled buffer does not allocate
+ * any objects. In steady state the read path therefore produces no garbage.
+ *
+ * @author Jesse Caulfield
+ */
+public final class FTDIBufferPool {
+
+  /**
+   * The size of each buffer (bytes).
+   */
+  private final int bufferSize;
+  /**
+   * The maximum number of idle buffers held by the pool.
+   */
+  private final int capacity;
+  /**
+   * The idle buffers.
+   */
+  private final ArrayBlockingQueue<FTDIBuffer> free;
+  /**
+   * The number of buffers allocated because the pool was empty.
+   */
+  private final AtomicLong allocationCount = new AtomicLong();
+
+  /**
+   * Construct a new, full buffer pool.
+   *
+   * @param bufferSize the size of each buffer (bytes)
+   * @param capacity   the maximum number of idle buffers held by the pool
+   */
+  public FTDIBufferPool(int bufferSize, int capacity) {
+    if (bufferSize < 1 || capacity < 1) {
+      throw new IllegalArgumentException("Buffer size and capacity must be positive.");
+    }
+    this.bufferSize = bufferSize;
+    this.capacity = capacity;
+    this.free = new ArrayBlockingQueue<>(capacity);
+    for (int i = 0; i < capacity; i++) {
+      free.offer(new FTDIBuffer(this, new byte[bufferSize]));
+    }
+  }
+
+  /**
+   * Get a buffer from the pool. The returned buffer has one reference, an
+   * offset of zero and a length of zero.
+   *
+   * @return a non-null buffer
+   */
+  public FTDIBuffer acquire() {
+    FTDIBuffer buffer = free.poll();
+    if (buffer == null) {
+      allocationCount.incrementAndGet();
+      buffer = new FTDIBuffer(this, new byte[bufferSize]);
+    }
+    buffer.acquired();
+    return buffer;
+  }
+
+  /**
+   * Return a released buffer to the pool.
+   *
+   * @param buffer the released buffer
+   */
+  void recycle(FTDIBuffer buffer) {
+    free.offer(buffer);
+  }
+
+  /**
+   * @return the size of each buffer (bytes)
+   */
+  public int getBufferSize() {
+    return bufferSize;
+  }
+
+  /**
+   * @return the maximum number of idle buffers held by the pool
+   */
+  public int getCapacity() {
+    return capacity;
+  }
+
+  /**
+   * @return the number of idle buffers currently held by the pool
+   */
+  public int getAvailable() {
+    return free.size();
+  }
+
+  /**
+   * @return the number of buffers allocated because the pool was empty. A
+   *         steadily increasing value indicates the pool is too small or a
+   *         consumer does not release its buffers.
+   */
+  public long getAllocationCount() {
+    return allocationCount.get();
+  }
+
+  @Override
+  public String toString() {
+    return "FTDIBufferPool size " + bufferSize + " available " + free.size() + "/" + capacity + " allocated " + allocationCount.get();
+  }
+}
@@ -0,0 +1,56 @@
+/*
+ * Copyright 2014-2016 Key Bridge LLC.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ftdichip.usb;
+
+import java.util.EventListener;
+import javax.usb.UsbException;
+
+/**
+ * Listener interface for data produced by the asynchronous FTDI read engine.
+ * <p>
+ * Register an instance with {@link FTDI#addDataListener(FTDIDataListener)}
+ * then start the engine with {@link FTDI#startAsyncRead(int)}.
+ * <p>
+ * Developer note: Listener methods are called from the USB pipe processing
+ * thread. Implementations must return quickly and must not block: the next
+ * read request is not serviced until all listeners have returned.
+ *
+ * @author Jesse Caulfield
+ */
+public interface FTDIDataListener extends EventListener {
+
+  /**
+   * Device data has been received. The FTDI modem status header has already
+   * been stripped.
+   * <p>
+   * The buffer is handed over without copying and is valid until this method
+   * returns, after which it is returned to its pool and re-used for a later
+   * read request. To keep the buffer (e.g. to hand it to another thread) call
+   * {@link FTDIBuffer#retain()} before returning and
+   * {@link FTDIBuffer#release()} when finished.
+   *
+   * @param buffer the buffer containing the device data (the length is always
+   *               greater than zero)
+   */
+  void dataReceived(FTDIBuffer buffer);
+
+  /**
+   * A read request failed. The failed request is not re-submitted.
+   *
+   * @param exception the USB exception reported by the pipe
+   */
+  void errorOccurred(UsbException exception);
+}
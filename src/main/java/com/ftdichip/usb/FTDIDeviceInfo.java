@@ -0,0 +1,139 @@
+/*
+ * Copyright 2014-2016 Key Bridge LLC.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ftdichip.usb;
+
+import com.ftdichip.usb.enumerated.ChipType;
+import javax.usb.UsbDevice;
+import javax.usb.UsbDeviceDescriptor;
+
+/**
+ * Cached identity of an attached FTDI device: the device descriptor and the
+ * manufacturer, product and serial number strings.
+ * <p>
+ * The strings are read from the device (one USB string descriptor transfer
+ * each) once, when the device is registered with the
+ * {@link FTDIDeviceRegistry}. A string that could not be read (e.g. because of
+ * insufficient operating system permissions) is null.
+ *
+ * @author Jesse Caulfield
+ */
+public final class FTDIDeviceInfo {
+
+  private final UsbDevice usbDevice;
+  private final UsbDeviceDescriptor descriptor;
+  private final String manufacturer;
+  private final String product;
+  private final String serialNumber;
+
+  /**
+   * Read the identity of a device.
+   *
+   * @param usbDevice the USB device
+   */
+  FTDIDeviceInfo(UsbDevice usbDevice) {
+    this.usbDevice = usbDevice;
+    this.descriptor = usbDevice.getUsbDeviceDescriptor();
+    this.manufacturer = readString(usbDevice, descriptor.iManufacturer());
+    this.product = readString(usbDevice, descriptor.iProduct());
+    this.serialNumber = readString(usbDevice, descriptor.iSerialNumber());
+  }
+
+  /**
+   * Read a string descriptor.
+   *
+   * @param usbDevice the USB device
+   * @param index     the string descriptor index
+   * @return the string, or null if the device has no such string or it could
+   *         not be read
+   */
+  private static String readString(UsbDevice usbDevice, byte index) {
+    if (index == 0) {
+      return null;
+    }
+    try {
+      return usbDevice.getString(index);
+    } catch (Exception ex) {
+      return null;
+    }
+  }
+
+  /**
+   * @return the USB device
+   */
+  public UsbDevice getUsbDevice() {
+    return usbDevice;
+  }
+
+  /**
+   * @return the (cached) USB device descriptor
+   */
+  public UsbDeviceDescriptor getUsbDeviceDescriptor() {
+    return descriptor;
+  }
+
+  /**
+   * @return the USB product ID
+   */
+  public short getProductId() {
+    return descriptor.idProduct();
+  }
+
+  /**
+   * @return the device release number (BCD), which identifies the FTDI chip
+   *         type
+   */
+  public short getBcdDevice() {
+    return descriptor.bcdDevice();
+  }
+
+  /**
+   * @return the chip type, identified from the device release number
+   */
+  public ChipType getChipType() {
+    return ChipType.fromDescriptor(descriptor);
+  }
+
+  /**
+   * @return the manufacturer string, null if not available
+   */
+  public String getManufacturer() {
+    return manufacturer;
+  }
+
+  /**
+   * @return the product string, null if not available
+   */
+  public String getProduct() {
+    return product;
+  }
+
+  /**
+   * @return the serial number string, null if not available
+   */
+  public String getSerialNumber() {
+    return serialNumber;
+  }
+
+  @Override
+  public String toString() {
+    return String.format("FTDI %04x:%04x %s %s %s",
+                         descriptor.idVendor() & 0xffff,
+                         descriptor.idProduct() & 0xffff,
+                         manufacturer,
+                         product,
+                         serialNumber);
+  }
+}
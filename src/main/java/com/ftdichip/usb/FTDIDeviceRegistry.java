@@ -0,0 +1,331 @@
+/*
+ * Copyright 2014-2016 Key Bridge LLC.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ftdichip.usb;
+
+import java.util.*;
+import java.util.concurrent.CopyOnWriteArrayList;
+import javax.usb.UsbDevice;
+import javax.usb.UsbDeviceDescriptor;
+import javax.usb.UsbDisconnectedException;
+import javax.usb.UsbException;
+import javax.usb.UsbHub;
+import javax.usb.UsbServices;
+import javax.usb.event.UsbServicesEvent;
+import javax.usb.event.UsbServicesListener;
+
+/**
+ * Registry of the attached FTDI devices.
+ * <p>
+ * The registry scans the USB device tree once, when it is created, and then
+ * keeps itself current through the {@link UsbServicesListener} attach and
+ * detach events. The device descriptor and strings of every registered device
+ * are read once and cached (see {@link FTDIDeviceInfo}), so device lookups by
+ * USB device, serial number or product name are map lookups that cause no
+ * USB traffic.
+ * <p>
+ * Listeners added to the registry are notified of FTDI devices being attached
+ * or detached after the registry has been updated.
+ * <p>
+ * Developer note: The registry content is an immutable snapshot that is
+ * replaced on every change, so lookups are lock free and never observe a
+ * partial update. Attach and detach are rare; the cost of rebuilding the
+ * snapshot is irrelevant.
+ *
+ * @author Jesse Caulfield
+ */
+public final class FTDIDeviceRegistry implements UsbServicesListener {
+
+  private static FTDIDeviceRegistry instance;
+
+  /**
+   * The FTDI product IDs to register.
+   */
+  private static final Set<Short> PRODUCT_IDS = new HashSet<>(Arrays.asList(FTDIUtility.PRODUCT_ID));
+
+  private final List<UsbServicesListener> listeners = new CopyOnWriteArrayList<>();
+  private volatile Snapshot snapshot = new Snapshot(Collections.<FTDIDeviceInfo>emptyList());
+
+  /**
+   * Construct and populate a registry. Use {@link #getInstance()}.
+   *
+   * @param usbServices the USB services to monitor
+   * @throws UsbException if the USB bus cannot be accessed
+   */
+  private FTDIDeviceRegistry(UsbServices usbServices) throws UsbException {
+    /**
+     * Listen before scanning so that no device attached during the scan is
+     * missed. A device reported twice is registered once.
+     */
+    usbServices.addUsbServicesListener(this);
+    List<UsbDevice> devices = new ArrayList<>();
+    collect(usbServices.getRootUsbHub(), devices);
+    register(devices);
+  }
+
+  /**
+   * Get the registry of the devices attached to the
+   * {@link UsbHostManager#getUsbServices() USB services}, creating it on first
+   * use.
+   *
+   * @return the device registry
+   * @throws UsbException if the USB bus cannot be accessed
+   */
+  public static synchronized FTDIDeviceRegistry getInstance() throws UsbException {
+    if (instance == null) {
+      instance = new FTDIDeviceRegistry(UsbHostManager.getUsbServices());
+    }
+    return instance;
+  }
+
+  /**
+   * @param usbDevice a USB device
+   * @return TRUE if the device is a supported FTDI device
+   */
+  private static boolean isFTDIDevice(UsbDevice usbDevice) {
+    UsbDeviceDescriptor descriptor = usbDevice.getUsbDeviceDescriptor();
+    return descriptor.idVendor() == FTDIUtility.VENDOR_ID && PRODUCT_IDS.contains(descriptor.idProduct());
+  }
+
+  /**
+   * Collect the FTDI devices in a device (sub) tree.
+   *
+   * @param usbDevice the root of the tree
+   * @param devices   the list to which matching devices are added
+   */
+  private static void collect(UsbDevice usbDevice, List<UsbDevice> devices) {
+    if (isFTDIDevice(usbDevice)) {
+      devices.add(usbDevice);
+    }
+    if (usbDevice.isUsbHub()) {
+      for (Object attached : ((UsbHub) usbDevice).getAttachedUsbDevices()) {
+        collect((UsbDevice) attached, devices);
+      }
+    }
+  }
+
+  /**
+   * Read and register devices that are not yet registered.
+   *
+   * @param devices the devices
+   * @return the devices newly registered
+   */
+  private List<FTDIDeviceInfo> register(List<UsbDevice> devices) {
+    /**
+     * Read the device strings (USB transfers) outside the lock.
+     */
+    List<FTDIDeviceInfo> read = new ArrayList<>();
+    for (UsbDevice usbDevice : devices) {
+      if (getDevice(usbDevice) == null) {
+        read.add(new FTDIDeviceInfo(usbDevice));
+      }
+    }
+    List<FTDIDeviceInfo> added = new ArrayList<>();
+    synchronized (this) {
+      Snapshot current = snapshot;
+      for (FTDIDeviceInfo info : read) {
+        if (!current.byDevice.containsKey(info.getUsbDevice())) {
+          added.add(info);
+        }
+      }
+      if (!added.isEmpty()) {
+        List<FTDIDeviceInfo> infos = new ArrayList<>(current.devices);
+        infos.addAll(added);
+        snapshot = new Snapshot(infos);
+      }
+    }
+    return added;
+  }
+
+  /**
+   * Remove devices from the registry.
+   *
+   * @param devices the devices
+   * @return the devices removed
+   */
+  private List<FTDIDeviceInfo> unregister(List<UsbDevice> devices) {
+    List<FTDIDeviceInfo> removed = new ArrayList<>();
+    synchronized (this) {
+      Snapshot current = snapshot;
+      for (UsbDevice usbDevice : devices) {
+        FTDIDeviceInfo info = current.byDevice.get(usbDevice);
+        if (info != null) {
+          removed.add(info);
+        }
+      }
+      if (!removed.isEmpty()) {
+        List<FTDIDeviceInfo> infos = new ArrayList<>(current.devices);
+        infos.removeAll(removed);
+        snapshot = new Snapshot(infos);
+      }
+    }
+    return removed;
+  }
+
+  /**
+   * @return the registered devices, in order of registration
+   */
+  public List<FTDIDeviceInfo> getDevices() {
+    return snapshot.devices;
+  }
+
+  /**
+   * Get the cached identity of a device.
+   *
+   * @param usbDevice the USB device
+   * @return the device identity, null if the device is not registered
+   */
+  public FTDIDeviceInfo getDevice(UsbDevice usbDevice) {
+    return snapshot.byDevice.get(usbDevice);
+  }
+
+  /**
+   * Find a device by its serial number.
+   *
+   * @param serialNumber the serial number string
+   * @return the device, null if no such device is attached
+   */
+  public FTDIDeviceInfo findBySerialNumber(String serialNumber) {
+    return snapshot.bySerialNumber.get(serialNumber);
+  }
+
+  /**
+   * Find the devices with a product string.
+   *
+   * @param product the product string, e.g. "MIOKARD-12"
+   * @return the devices, in order of registration; empty if none is attached
+   */
+  public List<FTDIDeviceInfo> findByProduct(String product) {
+    List<FTDIDeviceInfo> devices = snapshot.byProduct.get(product);
+    return devices != null ? devices : Collections.<FTDIDeviceInfo>emptyList();
+  }
+
+  /**
+   * Add a listener to be notified when FTDI devices are attached or detached.
+   *
+   * @param listener the listener
+   */
+  public void addListener(UsbServicesListener listener) {
+    listeners.add(listener);
+  }
+
+  /**
+   * Remove a listener.
+   *
+   * @param listener the listener
+   */
+  public void removeListener(UsbServicesListener listener) {
+    listeners.remove(listener);
+  }
+
+  @Override
+  public void usbDeviceAttached(UsbServicesEvent event) {
+    List<UsbDevice> devices = new ArrayList<>();
+    collect(event.getUsbDevice(), devices);
+    for (FTDIDeviceInfo info : register(devices)) {
+      UsbServicesEvent e = new UsbServicesEvent(event.getUsbServices(), info.getUsbDevice());
+      for (UsbServicesListener listener : listeners) {
+        listener.usbDeviceAttached(e);
+      }
+    }
+  }
+
+  @Override
+  public void usbDeviceDetached(UsbServicesEvent event) {
+    /**
+     * The detached device may be a hub: remove every registered device below
+     * it. The tree of a detached hub may no longer be walked, so the
+     * registered devices are matched by their parent hub chain instead.
+     */
+    List<UsbDevice> devices = new ArrayList<>();
+    for (FTDIDeviceInfo info : snapshot.devices) {
+      if (isAttachedBelow(info.getUsbDevice(), event.getUsbDevice())) {
+        devices.add(info.getUsbDevice());
+      }
+    }
+    for (FTDIDeviceInfo info : unregister(devices)) {
+      UsbServicesEvent e = new UsbServicesEvent(event.getUsbServices(), info.getUsbDevice());
+      for (UsbServicesListener listener : listeners) {
+        listener.usbDeviceDetached(e);
+      }
+    }
+  }
+
+  /**
+   * @param usbDevice a registered device
+   * @param detached  the detached device
+   * @return TRUE if the registered device is the detached device or is
+   *         attached (directly or indirectly) to it
+   */
+  private static boolean isAttachedBelow(UsbDevice usbDevice, UsbDevice detached) {
+    if (usbDevice.equals(detached)) {
+      return true;
+    }
+    if (!detached.isUsbHub()) {
+      return false;
+    }
+    try {
+      for (UsbDevice device = usbDevice; device.getParentUsbPort() != null; ) {
+        device = device.getParentUsbPort().getUsbHub();
+        if (device.equals(detached)) {
+          return true;
+        }
+      }
+    } catch (UsbDisconnectedException ex) {
+      /**
+       * The device itself is disconnected: it was below the detached hub.
+       */
+      return true;
+    }
+    return false;
+  }
+
+  @Override
+  public String toString() {
+    return "FTDI device registry " + snapshot.devices;
+  }
+
+  /**
+   * Immutable registry content and its lookup indices.
+   */
+  private static final class Snapshot {
+
+    private final List<FTDIDeviceInfo> devices;
+    private final Map<UsbDevice, FTDIDeviceInfo> byDevice = new HashMap<>();
+    private final Map<String, FTDIDeviceInfo> bySerialNumber = new HashMap<>();
+    private final Map<String, List<FTDIDeviceInfo>> byProduct = new HashMap<>();
+
+    Snapshot(List<FTDIDeviceInfo> devices) {
+      this.devices = Collections.unmodifiableList(new ArrayList<>(devices));
+      for (FTDIDeviceInfo info : devices) {
+        byDevice.put(info.getUsbDevice(), info);
+        if (info.getSerialNumber() != null) {
+          bySerialNumber.put(info.getSerialNumber(), info);
+        }
+        if (info.getProduct() != null) {
+          List<FTDIDeviceInfo> products = byProduct.get(info.getProduct());
+          if (products == null) {
+            products = new ArrayList<>();
+            byProduct.put(info.getProduct(), products);
+          }
+          products.add(info);
+        }
+      }
+      for (Map.Entry<String, List<FTDIDeviceInfo>> entry : byProduct.entrySet()) {
+        entry.setValue(Collections.unmodifiableList(entry.getValue()));
+      }
+    }
+  }
+}
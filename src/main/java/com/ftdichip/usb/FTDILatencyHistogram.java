@@ -0,0 +1,181 @@
+/*
+ * Copyright 2014-2016 Key Bridge LLC.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ftdichip.usb;
+
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A fixed-bucket, log-scale latency histogram.
+ * <p>
+ * Bucket 0 counts latencies below 1024 ns (about 1 us); bucket {@code i}
+ * counts latencies from {@code 512 << i} to {@code 1024 << i} ns, i.e. each
+ * bucket is twice as wide as the one before. The last bucket ({@value #BUCKETS}
+ * buckets in all, from about 18 minutes) also counts all longer latencies.
+ * Percentiles are reported as the upper bound of their bucket and are
+ * therefore accurate to within a factor of two, which is ample to tell a
+ * sub-millisecond transfer from one that waited for the latency timer or a
+ * timeout.
+ * <p>
+ * Developer note: Recording is allocation free and lock free: the bucket is
+ * found with one leading-zeros instruction and the counts are striped
+ * {@link LongAdder}s, so concurrent recording threads do not contend. The
+ * statistics getters sum the stripes and are meant for monitoring (e.g. over
+ * JMX, where the getters become the items of a composite value), not for the
+ * I/O path.
+ *
+ * @author Jesse Caulfield
+ */
+public final class FTDILatencyHistogram {
+
+  /**
+   * The number of buckets.
+   */
+  public static final int BUCKETS = 32;
+  /**
+   * The width of bucket 0 as a power of two (1024 ns).
+   */
+  private static final int SHIFT = 10;
+
+  private final LongAdder[] buckets = new LongAdder[BUCKETS];
+  private final LongAdder total = new LongAdder();
+  private final LongAccumulator max = new LongAccumulator(Math::max, 0);
+
+  /**
+   * Construct a new, empty histogram.
+   */
+  public FTDILatencyHistogram() {
+    for (int i = 0; i < BUCKETS; i++) {
+      buckets[i] = new LongAdder();
+    }
+  }
+
+  /**
+   * Record a latency.
+   *
+   * @param nanos the latency (nanoseconds). Negative values are counted as
+   *              zero.
+   */
+  public void record(long nanos) {
+    long value = Math.max(nanos, 0);
+    buckets[Math.min(64 - Long.numberOfLeadingZeros(value >>> SHIFT), BUCKETS - 1)].increment();
+    total.add(value);
+    max.accumulate(value);
+  }
+
+  /**
+   * @return the number of latencies recorded
+   */
+  public long getCount() {
+    long count = 0;
+    for (LongAdder bucket : buckets) {
+      count += bucket.sum();
+    }
+    return count;
+  }
+
+  /**
+   * @return the mean latency (microseconds), 0 if none was recorded
+   */
+  public double getMeanMicros() {
+    long count = getCount();
+    return count == 0 ? 0 : total.sum() / 1000.0 / count;
+  }
+
+  /**
+   * @return the maximum latency (microseconds)
+   */
+  public double getMaxMicros() {
+    return max.get() / 1000.0;
+  }
+
+  /**
+   * @return the median latency (microseconds, bucket upper bound)
+   */
+  public double getP50Micros() {
+    return getPercentileMicros(50);
+  }
+
+  /**
+   * @return the 90th percentile latency (microseconds, bucket upper bound)
+   */
+  public double getP90Micros() {
+    return getPercentileMicros(90);
+  }
+
+  /**
+   * @return the 99th percentile latency (microseconds, bucket upper bound)
+   */
+  public double getP99Micros() {
+    return getPercentileMicros(99);
+  }
+
+  /**
+   * @return the count of each bucket
+   */
+  public long[] getBuckets() {
+    long[] counts = new long[BUCKETS];
+    for (int i = 0; i < BUCKETS; i++) {
+      counts[i] = buckets[i].sum();
+    }
+    return counts;
+  }
+
+  /**
+   * Get a latency percentile.
+   *
+   * @param percentile the percentile (0 to 100)
+   * @return the upper bound of the bucket containing the percentile
+   *         (microseconds), 0 if no latency was recorded. The last bucket
+   *         reports the maximum latency.
+   */
+  public double getPercentileMicros(double percentile) {
+    long[] counts = getBuckets();
+    long count = 0;
+    for (long c : counts) {
+      count += c;
+    }
+    if (count == 0) {
+      return 0;
+    }
+    long rank = (long) Math.ceil(count * Math.min(Math.max(percentile, 0), 100) / 100);
+    long cumulative = 0;
+    for (int i = 0; i < BUCKETS - 1; i++) {
+      cumulative += counts[i];
+      if (cumulative >= Math.max(rank, 1)) {
+        return Math.min(1024L << i, max.get()) / 1000.0;
+      }
+    }
+    return getMaxMicros();
+  }
+
+  /**
+   * Clear all counts.
+   */
+  public void reset() {
+    for (LongAdder bucket : buckets) {
+      bucket.reset();
+    }
+    total.reset();
+    max.reset();
+  }
+
+  @Override
+  public String toString() {
+    return String.format("n=%d mean=%.1f p50=%.1f p99=%.1f max=%.1f us",
+                         getCount(), getMeanMicros(), getP50Micros(), getP99Micros(), getMaxMicros());
+  }
+}
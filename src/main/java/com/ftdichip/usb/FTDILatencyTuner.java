@@ -0,0 +1,319 @@
+/*
+ * Copyright 2014-2016 Key Bridge LLC.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ftdichip.usb;
+
+import com.ftdichip.usb.enumerated.PortInterfaceType;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import javax.usb.UsbDevice;
+import javax.usb.UsbException;
+
+import static com.ftdichip.usb.FTDIUtility.*;
+
+/**
+ * Adaptive FTDI latency timer controller.
+ * <p>
+ * The latency timer trades response time against USB efficiency: a short
+ * timer returns command responses quickly but splits a continuous data stream
+ * into many partially filled packets; a long timer fills packets completely but
+ * delays every response by up to the timer value.
+ * <p>
+ * This controller drops the latency timer to its minimum as soon as a command
+ * is written to the device and holds it there while the command/response path
+ * is active. Once no command has been written for
+ * {@link #COMMAND_HOLD_MILLIS} it watches the packet fill ratio of the read
+ * path (device data bytes per available packet payload bytes) and doubles the
+ * latency timer, up to the maximum, while packets are mostly short.
+ * <p>
+ * Developer note: Increases are requested from the read thread and are
+ * therefore submitted asynchronously. Decreases are submitted synchronously
+ * from the writing thread BEFORE the command is sent so that the response
+ * benefits from the shorter timer.
+ *
+ * @author Jesse Caulfield
+ */
+public final class FTDILatencyTuner {
+
+  /**
+   * 500 ms. The time after the last command during which the command/response
+   * path is considered active.
+   */
+  public static final long COMMAND_HOLD_MILLIS = 500;
+  /**
+   * The number of read transfers over which the fill ratio is evaluated.
+   */
+  private static final int EVALUATION_PERIOD = 32;
+  /**
+   * The fill ratio below which the latency timer is increased.
+   */
+  private static final double FILL_RATIO_THRESHOLD = 0.9;
+  /**
+   * The latency field value when the device latency timer is not known.
+   */
+  private static final int UNKNOWN_LATENCY = 0;
+
+  private final UsbDevice usbDevice;
+  private final PortInterfaceType port;
+  private final int minLatency;
+  private final int maxLatency;
+  /**
+   * The latency timer value last applied to the device.
+   */
+  private volatile int latency;
+  /**
+   * Incremented whenever a command is recorded or the minimum latency is
+   * applied, so that an asynchronous increase submitted before it does not
+   * overwrite the field.
+   */
+  private final AtomicInteger generation = new AtomicInteger();
+  /**
+   * True while an asynchronous latency increase is in flight.
+   */
+  private volatile boolean increasing;
+  /**
+   * Orders the latency timer requests: a command's reset to the minimum is
+   * always submitted after any increase already submitted, and an increase is
+   * never submitted once a command has been recorded. Only held while
+   * (asynchronously) submitting, never while waiting for a request.
+   */
+  private final Object submitLock = new Object();
+  /**
+   * The System.nanoTime() of the last command.
+   */
+  private volatile long commandNanos;
+  /**
+   * The fill ratio of the last evaluation period.
+   */
+  private volatile double fillRatio;
+  /**
+   * Evaluation period accumulators. Only accessed by the read thread.
+   */
+  private int transferCount;
+  private long payloadBytes;
+  private long capacityBytes;
+
+  /**
+   * Construct a new latency controller. The latency timer is not changed until
+   * {@link #start()} is called.
+   *
+   * @param usbDevice  the FTDI USB device
+   * @param port       the chip port (interface)
+   * @param minLatency the latency timer value used for command/response
+   *                   exchanges (ms)
+   * @param maxLatency the maximum latency timer value used when streaming (ms)
+   */
+  FTDILatencyTuner(UsbDevice usbDevice, PortInterfaceType port, int minLatency, int maxLatency) {
+    if (minLatency < MIN_LATENCY_TIMER || maxLatency > MAX_LATENCY_TIMER || minLatency > maxLatency) {
+      throw new IllegalArgumentException("Invalid latency range " + minLatency + " to " + maxLatency + " ms.");
+    }
+    this.usbDevice = usbDevice;
+    this.port = port;
+    this.minLatency = minLatency;
+    this.maxLatency = maxLatency;
+    this.commandNanos = System.nanoTime() - TimeUnit.MILLISECONDS.toNanos(COMMAND_HOLD_MILLIS);
+  }
+
+  /**
+   * Set the latency timer to the minimum value.
+   *
+   * @throws UsbException if the device command message fails to set
+   */
+  void start() throws UsbException {
+    FTDIUtility.setLatencyTimer(usbDevice, port, minLatency);
+    minLatencyApplied();
+  }
+
+  /**
+   * Record a command write. The latency timer is set to the minimum value if
+   * it is not already, or if an increase is in flight, and this method waits
+   * for the device to accept it.
+   *
+   * @throws UsbException if the device command message fails to set
+   */
+  void commandSent() throws UsbException {
+    try {
+      commandSentAsync().get();
+    } catch (ExecutionException ex) {
+      if (ex.getCause() instanceof UsbException) {
+        throw (UsbException) ex.getCause();
+      }
+      throw new UsbException("Latency timer request failed: " + ex.getCause());
+    } catch (InterruptedException ex) {
+      Thread.currentThread().interrupt();
+      throw new UsbException("Interrupted while setting the latency timer");
+    }
+  }
+
+  /**
+   * Record a command write without blocking. If the latency timer is not at
+   * the minimum value, or an increase is in flight, the minimum is submitted
+   * as an asynchronous control request.
+   * <p>
+   * Developer note: The control request is submitted before the caller
+   * submits the command write. The chip applies it long before the response
+   * to the command is due, so asynchronous writers (and the write queue,
+   * which submits on shared threads) need not wait for it.
+   *
+   * @return a future completed when the latency timer is at the minimum
+   *         value, exceptionally if the request fails
+   */
+  CompletableFuture<Void> commandSentAsync() {
+    synchronized (submitLock) {
+      commandNanos = System.nanoTime();
+      /**
+       * Invalidate an increase in flight, so that its completion does not
+       * record a latency the reset below overrides.
+       */
+      int submitted = generation.incrementAndGet();
+      if (latency == minLatency && !increasing) {
+        return CompletableFuture.completedFuture(null);
+      }
+      /**
+       * Recorded at once: the control pipe applies the reset after any
+       * increase submitted before it. A failure marks the latency unknown so
+       * the next command retries.
+       */
+      latency = minLatency;
+      CompletableFuture<Void> reset = FTDIUtility.setLatencyTimerAsync(usbDevice, port, minLatency);
+      reset.whenComplete((result, error) -> {
+        if (error != null) {
+          resetFailed(submitted);
+        }
+      });
+      return reset;
+    }
+  }
+
+  /**
+   * Record a completed read transfer. Called from the read thread.
+   *
+   * @param transferLength the number of bytes transferred, including headers
+   * @param payloadLength  the number of device data bytes
+   * @param packetSize     the READ endpoint maximum packet size
+   */
+  void transferCompleted(int transferLength, int payloadLength, int packetSize) {
+    int packets = (transferLength + packetSize - 1) / packetSize;
+    if (packets == 0) {
+      return;
+    }
+    capacityBytes += packets * (packetSize - MODEM_STATUS_HEADER_LENGTH);
+    payloadBytes += payloadLength;
+    if (++transferCount < EVALUATION_PERIOD) {
+      return;
+    }
+    double ratio = (double) payloadBytes / capacityBytes;
+    fillRatio = ratio;
+    transferCount = 0;
+    payloadBytes = 0;
+    capacityBytes = 0;
+    int current = latency;
+    if (ratio >= FILL_RATIO_THRESHOLD || current == UNKNOWN_LATENCY || current >= maxLatency || increasing) {
+      return;
+    }
+    synchronized (submitLock) {
+      /**
+       * Hold the minimum latency while the command/response path is active.
+       * Otherwise increase the latency while packets are mostly short.
+       */
+      if (System.nanoTime() - commandNanos < TimeUnit.MILLISECONDS.toNanos(COMMAND_HOLD_MILLIS)) {
+        return;
+      }
+      int next = Math.min(maxLatency, current * 2);
+      int submitted = generation.get();
+      increasing = true;
+      /**
+       * The latency field is only updated once the device has accepted the
+       * new value, and only if no command has been recorded in the meantime.
+       */
+      FTDIUtility.setLatencyTimerAsync(usbDevice, port, next).whenComplete((result, error) -> {
+        if (error == null) {
+          increaseApplied(submitted, next);
+        }
+        increasing = false;
+      });
+    }
+  }
+
+  /**
+   * Record that the minimum latency was (synchronously) applied.
+   */
+  private synchronized void minLatencyApplied() {
+    generation.incrementAndGet();
+    latency = minLatency;
+  }
+
+  /**
+   * Record that a reset to the minimum latency failed. Ignored if a later
+   * command has been recorded since.
+   *
+   * @param submitted the generation when the reset was submitted
+   */
+  private synchronized void resetFailed(int submitted) {
+    if (generation.get() == submitted) {
+      latency = UNKNOWN_LATENCY;
+    }
+  }
+
+  /**
+   * Record that an asynchronous latency increase completed. Ignored if the
+   * minimum latency was applied after the increase was submitted.
+   *
+   * @param submitted the generation when the increase was submitted
+   * @param next      the new latency timer value
+   */
+  private synchronized void increaseApplied(int submitted, int next) {
+    if (generation.get() == submitted) {
+      latency = next;
+    }
+  }
+
+  /**
+   * @return the latency timer value last applied to the device (ms), zero if
+   *         unknown (a reset to the minimum failed)
+   */
+  public int getLatency() {
+    return latency;
+  }
+
+  /**
+   * @return the latency timer value used for command/response exchanges (ms)
+   */
+  public int getMinLatency() {
+    return minLatency;
+  }
+
+  /**
+   * @return the maximum latency timer value used when streaming (ms)
+   */
+  public int getMaxLatency() {
+    return maxLatency;
+  }
+
+  /**
+   * @return the packet fill ratio (0 to 1) observed over the last evaluation
+   *         period
+   */
+  public double getFillRatio() {
+    return fillRatio;
+  }
+
+  @Override
+  public String toString() {
+    return "FTDILatencyTuner latency " + latency + " ms [" + minLatency + ", " + maxLatency + "] fill ratio " + fillRatio;
+  }
+}
@@ -0,0 +1,404 @@
+/*
+ * Copyright 2014-2016 Key Bridge LLC.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ftdichip.usb;
+
+import com.ftdichip.usb.enumerated.PortInterfaceType;
+import java.lang.management.ManagementFactory;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+import javax.management.*;
+import javax.usb.UsbDevice;
+import javax.usb.event.UsbDeviceDataEvent;
+import javax.usb.event.UsbDeviceErrorEvent;
+import javax.usb.event.UsbDeviceEvent;
+import javax.usb.event.UsbDeviceListener;
+
+/**
+ * I/O metrics of one FTDI port: bulk read and write counters, control
+ * transfer counters and latency histograms.
+ * <p>
+ * One instance exists per port of each USB device (see
+ * {@link #getInstance(UsbDevice, PortInterfaceType)}) and is registered with
+ * the platform MBean server as
+ * {@code com.ftdichip.usb:type=FTDIMetrics,serial=<serial number>,port=<port>}
+ * when created, and unregistered when the port is closed or the device is
+ * detached. The {@link FTDI} read and write methods, the asynchronous read
+ * engine and the {@link FTDIUtility} control requests to an open port record
+ * into it.
+ * <p>
+ * Developer note: Recording must not slow the I/O path. Counters are striped
+ * {@link LongAdder}s and latencies go to fixed-bucket
+ * {@link FTDILatencyHistogram}s, so recording neither allocates nor locks and
+ * costs a few tens of nanoseconds (two {@link System#nanoTime()} calls and a
+ * handful of uncontended adds) per transfer. The per-device lookup is only
+ * made for control requests, which take a millisecond or more anyway.
+ *
+ * @author Jesse Caulfield
+ */
+public final class FTDIMetrics implements FTDIMetricsMXBean {
+
+  /**
+   * The JMX domain of the metrics MBeans.
+   */
+  public static final String JMX_DOMAIN = "com.ftdichip.usb";
+  /**
+   * The metrics of each device, indexed by port.
+   */
+  private static final Map<UsbDevice, FTDIMetrics[]> INSTANCES = new HashMap<>();
+  /**
+   * Forgets the metrics of a device when it is detached, so that a detached
+   * device is neither pinned in memory nor left registered.
+   */
+  private static final UsbDeviceListener DETACH_LISTENER = new UsbDeviceListener() {
+    @Override
+    public void usbDeviceDetached(UsbDeviceEvent event) {
+      removeAll(event.getUsbDevice());
+    }
+
+    @Override
+    public void errorEventOccurred(UsbDeviceErrorEvent event) {
+    }
+
+    @Override
+    public void dataEventOccurred(UsbDeviceDataEvent event) {
+    }
+  };
+
+  private final LongAdder bytesRead = new LongAdder();
+  private final LongAdder readTransfers = new LongAdder();
+  private final LongAdder emptyReads = new LongAdder();
+  private final LongAdder readErrors = new LongAdder();
+  private final LongAdder bytesWritten = new LongAdder();
+  private final LongAdder writeTransfers = new LongAdder();
+  private final LongAdder writeErrors = new LongAdder();
+  private final LongAdder controlTransfers = new LongAdder();
+  private final LongAdder controlErrors = new LongAdder();
+  private final FTDILatencyHistogram readLatency = new FTDILatencyHistogram();
+  private final FTDILatencyHistogram writeLatency = new FTDILatencyHistogram();
+  private final FTDILatencyHistogram controlLatency = new FTDILatencyHistogram();
+  /**
+   * The registered MBean name. Null if the MBean could not be registered.
+   */
+  private volatile ObjectName objectName;
+
+  /**
+   * Construct a new, unregistered metrics instance.
+   */
+  public FTDIMetrics() {
+  }
+
+  /**
+   * Get the metrics of a device port, creating and registering them on first
+   * use. The metrics are unregistered and forgotten when the port is closed
+   * (see {@link #remove(UsbDevice, PortInterfaceType)}) or the device is
+   * detached.
+   * <p>
+   * Developer note: {@link PortInterfaceType#INTERFACE_ANY} addresses the
+   * only port of a single port chip and port A of a multi-port chip, so it
+   * shares the metrics of that port.
+   *
+   * @param usbDevice the USB device
+   * @param port      the chip port (interface)
+   * @return the metrics
+   */
+  public static FTDIMetrics getInstance(UsbDevice usbDevice, PortInterfaceType port) {
+    PortInterfaceType key = FTDI.getPortKey(usbDevice, port);
+    synchronized (INSTANCES) {
+      FTDIMetrics[] ports = INSTANCES.get(usbDevice);
+      if (ports == null) {
+        ports = new FTDIMetrics[PortInterfaceType.values().length];
+        INSTANCES.put(usbDevice, ports);
+        usbDevice.addUsbDeviceListener(DETACH_LISTENER);
+      }
+      FTDIMetrics metrics = ports[key.ordinal()];
+      if (metrics == null) {
+        metrics = new FTDIMetrics();
+        metrics.register(usbDevice, key);
+        ports[key.ordinal()] = metrics;
+      }
+      return metrics;
+    }
+  }
+
+  /**
+   * Get the metrics of a device port if they exist. Unlike
+   * {@link #getInstance(UsbDevice, PortInterfaceType)} this never creates
+   * (and registers) metrics, so requests to a port that is not open are not
+   * recorded.
+   *
+   * @param usbDevice the USB device
+   * @param port      the chip port (interface)
+   * @return the metrics, null if there are none
+   */
+  static FTDIMetrics find(UsbDevice usbDevice, PortInterfaceType port) {
+    PortInterfaceType key = FTDI.getPortKey(usbDevice, port);
+    synchronized (INSTANCES) {
+      FTDIMetrics[] ports = INSTANCES.get(usbDevice);
+      return ports == null ? null : ports[key.ordinal()];
+    }
+  }
+
+  /**
+   * Unregister and forget the metrics of a device port (e.g. when the port is
+   * closed). This method has no effect if there are no metrics.
+   *
+   * @param usbDevice the USB device
+   * @param port      the chip port (interface)
+   */
+  public static void remove(UsbDevice usbDevice, PortInterfaceType port) {
+    PortInterfaceType key = FTDI.getPortKey(usbDevice, port);
+    FTDIMetrics metrics;
+    synchronized (INSTANCES) {
+      FTDIMetrics[] ports = INSTANCES.get(usbDevice);
+      if (ports == null) {
+        return;
+      }
+      metrics = ports[key.ordinal()];
+      ports[key.ordinal()] = null;
+      if (Arrays.stream(ports).allMatch(m -> m == null)) {
+        INSTANCES.remove(usbDevice);
+        usbDevice.removeUsbDeviceListener(DETACH_LISTENER);
+      }
+    }
+    if (metrics != null) {
+      metrics.unregister();
+    }
+  }
+
+  /**
+   * Unregister and forget the metrics of all ports of a device.
+   *
+   * @param usbDevice the USB device
+   */
+  private static void removeAll(UsbDevice usbDevice) {
+    FTDIMetrics[] ports;
+    synchronized (INSTANCES) {
+      ports = INSTANCES.remove(usbDevice);
+    }
+    if (ports != null) {
+      usbDevice.removeUsbDeviceListener(DETACH_LISTENER);
+      for (FTDIMetrics metrics : ports) {
+        if (metrics != null) {
+          metrics.unregister();
+        }
+      }
+    }
+  }
+
+  /**
+   * Register the MBean. A registration failure is ignored: the metrics are
+   * still recorded and available through the API.
+   */
+  private void register(UsbDevice usbDevice, PortInterfaceType port) {
+    String serialNumber;
+    try {
+      serialNumber = usbDevice.getSerialNumberString();
+    } catch (Exception ex) {
+      serialNumber = null;
+    }
+    if (serialNumber == null) {
+      serialNumber = Integer.toHexString(System.identityHashCode(usbDevice));
+    }
+    MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+    try {
+      ObjectName name = new ObjectName(JMX_DOMAIN + ":type=FTDIMetrics,serial=" + ObjectName.quote(serialNumber)
+                                       + ",port=" + port.name());
+      if (server.isRegistered(name)) {
+        /**
+         * Another device reports the same serial number.
+         */
+        name = new ObjectName(name + ",id=" + Integer.toHexString(System.identityHashCode(usbDevice)));
+      }
+      server.registerMBean(this, name);
+      objectName = name;
+    } catch (JMException ex) {
+      objectName = null;
+    }
+  }
+
+  /**
+   * Unregister the MBean.
+   */
+  private void unregister() {
+    ObjectName name = objectName;
+    if (name != null) {
+      objectName = null;
+      try {
+        ManagementFactory.getPlatformMBeanServer().unregisterMBean(name);
+      } catch (JMException ex) {
+        // already gone
+      }
+    }
+  }
+
+  /**
+   * @return the registered MBean name, null if not registered
+   */
+  public ObjectName getObjectName() {
+    return objectName;
+  }
+
+  /**
+   * Record a completed synchronous read.
+   *
+   * @param nanos the transfer latency (nanoseconds)
+   * @param bytes the number of device data bytes
+   */
+  void readCompleted(long nanos, int bytes) {
+    readLatency.record(nanos);
+    readCompleted(bytes);
+  }
+
+  /**
+   * Record a completed (asynchronous) read.
+   *
+   * @param bytes the number of device data bytes
+   */
+  void readCompleted(int bytes) {
+    readTransfers.increment();
+    if (bytes == 0) {
+      emptyReads.increment();
+    } else {
+      bytesRead.add(bytes);
+    }
+  }
+
+  /**
+   * Record a failed read.
+   */
+  void readFailed() {
+    readErrors.increment();
+  }
+
+  /**
+   * Record a completed write.
+   *
+   * @param nanos the transfer latency (nanoseconds)
+   * @param bytes the number of bytes written
+   */
+  void writeCompleted(long nanos, int bytes) {
+    writeLatency.record(nanos);
+    writeTransfers.increment();
+    bytesWritten.add(bytes);
+  }
+
+  /**
+   * Record a failed write.
+   */
+  void writeFailed() {
+    writeErrors.increment();
+  }
+
+  /**
+   * Record a completed control transfer.
+   *
+   * @param nanos the transfer latency (nanoseconds)
+   */
+  void controlCompleted(long nanos) {
+    controlLatency.record(nanos);
+    controlTransfers.increment();
+  }
+
+  /**
+   * Record a failed control transfer.
+   */
+  void controlFailed() {
+    controlErrors.increment();
+  }
+
+  @Override
+  public long getBytesRead() {
+    return bytesRead.sum();
+  }
+
+  @Override
+  public long getReadTransfers() {
+    return readTransfers.sum();
+  }
+
+  @Override
+  public long getEmptyReads() {
+    return emptyReads.sum();
+  }
+
+  @Override
+  public long getReadErrors() {
+    return readErrors.sum();
+  }
+
+  @Override
+  public long getBytesWritten() {
+    return bytesWritten.sum();
+  }
+
+  @Override
+  public long getWriteTransfers() {
+    return writeTransfers.sum();
+  }
+
+  @Override
+  public long getWriteErrors() {
+    return writeErrors.sum();
+  }
+
+  @Override
+  public long getControlTransfers() {
+    return controlTransfers.sum();
+  }
+
+  @Override
+  public long getControlErrors() {
+    return controlErrors.sum();
+  }
+
+  @Override
+  public FTDILatencyHistogram getReadLatency() {
+    return readLatency;
+  }
+
+  @Override
+  public FTDILatencyHistogram getWriteLatency() {
+    return writeLatency;
+  }
+
+  @Override
+  public FTDILatencyHistogram getControlLatency() {
+    return controlLatency;
+  }
+
+  @Override
+  public void reset() {
+    for (LongAdder adder : new LongAdder[]{bytesRead, readTransfers, emptyReads, readErrors, bytesWritten,
+                                           writeTransfers, writeErrors, controlTransfers, controlErrors}) {
+      adder.reset();
+    }
+    readLatency.reset();
+    writeLatency.reset();
+    controlLatency.reset();
+  }
+
+  @Override
+  public String toString() {
+    return String.format("read %d bytes in %d transfers (%d empty, %d errors) [%s]; "
+                         + "wrote %d bytes in %d transfers (%d errors) [%s]; "
+                         + "%d control transfers (%d errors) [%s]",
+                         getBytesRead(), getReadTransfers(), getEmptyReads(), getReadErrors(), readLatency,
+                         getBytesWritten(), getWriteTransfers(), getWriteErrors(), writeLatency,
+                         getControlTransfers(), getControlErrors(), controlLatency);
+  }
+}
@@ -0,0 +1,96 @@
+/*
+ * Copyright 2014-2016 Key Bridge LLC.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ftdichip.usb;
+
+/**
+ * JMX management interface of the {@link FTDIMetrics} of one FTDI port.
+ * <p>
+ * The latency histograms are published as composite values with the count,
+ * mean, percentiles, maximum and bucket counts of each.
+ *
+ * @author Jesse Caulfield
+ */
+public interface FTDIMetricsMXBean {
+
+  /**
+   * @return the number of device data bytes read (modem status headers
+   *         excluded)
+   */
+  long getBytesRead();
+
+  /**
+   * @return the number of completed bulk-IN transfers, synchronous and
+   *         asynchronous
+   */
+  long getReadTransfers();
+
+  /**
+   * @return the number of bulk-IN transfers that contained only modem status
+   *         headers (no device data)
+   */
+  long getEmptyReads();
+
+  /**
+   * @return the number of failed bulk-IN transfers
+   */
+  long getReadErrors();
+
+  /**
+   * @return the number of bytes written
+   */
+  long getBytesWritten();
+
+  /**
+   * @return the number of completed bulk-OUT transfers, synchronous and
+   *         asynchronous
+   */
+  long getWriteTransfers();
+
+  /**
+   * @return the number of failed bulk-OUT transfers
+   */
+  long getWriteErrors();
+
+  /**
+   * @return the number of completed control transfers addressed to the port
+   */
+  long getControlTransfers();
+
+  /**
+   * @return the number of failed control transfers addressed to the port
+   */
+  long getControlErrors();
+
+  /**
+   * @return the latency of the synchronous bulk-IN transfers
+   */
+  FTDILatencyHistogram getReadLatency();
+
+  /**
+   * @return the latency of the bulk-OUT transfers (submission to completion)
+   */
+  FTDILatencyHistogram getWriteLatency();
+
+  /**
+   * @return the latency of the control transfers
+   */
+  FTDILatencyHistogram getControlLatency();
+
+  /**
+   * Clear all counters and histograms.
+   */
+  void reset();
+}
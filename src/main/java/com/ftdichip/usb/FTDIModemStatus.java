@@ -0,0 +1,234 @@
+/*
+ * Copyright 2014-2016 Key Bridge LLC.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ftdichip.usb;
+
+/**
+ * The modem and line status of an FTDI serial port, as reported in the two
+ * byte header of every bulk-IN packet (and by the SIO_POLL_MODEM_STATUS
+ * request).
+ * <p>
+ * The first byte is the modem status: bits 0-3 are reserved (reported as
+ * 0001), bits 4-7 the CTS, DSR, RI and DCD input lines. The second byte is
+ * the line status:
+ * <pre>
+ * bit 0  DR    data ready
+ * bit 1  OE    overrun error: receive buffer full, data was lost
+ * bit 2  PE    parity error
+ * bit 3  FE    framing error
+ * bit 4  BI    break interrupt
+ * bit 5  THRE  transmitter holding register empty
+ * bit 6  TEMT  transmitter empty
+ * bit 7  RCVR  error in receiver FIFO
+ * </pre>
+ * Instances are immutable.
+ *
+ * @see FTDIModemStatusTracker
+ * @author Jesse Caulfield
+ */
+public final class FTDIModemStatus {
+
+  /**
+   * Modem status: Clear To Send.
+   */
+  public static final int CTS = 0x10;
+  /**
+   * Modem status: Data Set Ready.
+   */
+  public static final int DSR = 0x20;
+  /**
+   * Modem status: Ring Indicator.
+   */
+  public static final int RI = 0x40;
+  /**
+   * Modem status: Data Carrier Detect.
+   */
+  public static final int DCD = 0x80;
+  /**
+   * The modem status input line bits.
+   */
+  public static final int MODEM_LINES = CTS | DSR | RI | DCD;
+  /**
+   * Line status: data ready.
+   */
+  public static final int DATA_READY = 0x01;
+  /**
+   * Line status: overrun error.
+   */
+  public static final int OVERRUN_ERROR = 0x02;
+  /**
+   * Line status: parity error.
+   */
+  public static final int PARITY_ERROR = 0x04;
+  /**
+   * Line status: framing error.
+   */
+  public static final int FRAMING_ERROR = 0x08;
+  /**
+   * Line status: break interrupt.
+   */
+  public static final int BREAK_INTERRUPT = 0x10;
+  /**
+   * Line status: transmitter holding register empty.
+   */
+  public static final int TX_HOLDING_EMPTY = 0x20;
+  /**
+   * Line status: transmitter empty.
+   */
+  public static final int TX_EMPTY = 0x40;
+  /**
+   * Line status: error in receiver FIFO.
+   */
+  public static final int FIFO_ERROR = 0x80;
+  /**
+   * The line status error bits.
+   */
+  public static final int LINE_ERRORS = OVERRUN_ERROR | PARITY_ERROR | FRAMING_ERROR | BREAK_INTERRUPT | FIFO_ERROR;
+
+  private final int modemStatus;
+  private final int lineStatus;
+
+  /**
+   * Construct a new modem status.
+   *
+   * @param modemStatus the modem status byte
+   * @param lineStatus  the line status byte
+   */
+  public FTDIModemStatus(byte modemStatus, byte lineStatus) {
+    this.modemStatus = modemStatus & 0xFF;
+    this.lineStatus = lineStatus & 0xFF;
+  }
+
+  /**
+   * @return the modem status byte (unsigned)
+   */
+  public int getModemStatus() {
+    return modemStatus;
+  }
+
+  /**
+   * @return the line status byte (unsigned)
+   */
+  public int getLineStatus() {
+    return lineStatus;
+  }
+
+  /**
+   * @return the Clear To Send line state
+   */
+  public boolean isCts() {
+    return (modemStatus & CTS) != 0;
+  }
+
+  /**
+   * @return the Data Set Ready line state
+   */
+  public boolean isDsr() {
+    return (modemStatus & DSR) != 0;
+  }
+
+  /**
+   * @return the Ring Indicator line state
+   */
+  public boolean isRi() {
+    return (modemStatus & RI) != 0;
+  }
+
+  /**
+   * @return the Data Carrier Detect line state
+   */
+  public boolean isDcd() {
+    return (modemStatus & DCD) != 0;
+  }
+
+  /**
+   * @return TRUE if received data was lost because the chip receive buffer
+   *         was full
+   */
+  public boolean isOverrunError() {
+    return (lineStatus & OVERRUN_ERROR) != 0;
+  }
+
+  /**
+   * @return TRUE if a character with a parity error was received
+   */
+  public boolean isParityError() {
+    return (lineStatus & PARITY_ERROR) != 0;
+  }
+
+  /**
+   * @return TRUE if a character with a framing error (missing stop bit) was
+   *         received
+   */
+  public boolean isFramingError() {
+    return (lineStatus & FRAMING_ERROR) != 0;
+  }
+
+  /**
+   * @return TRUE if a break condition was received
+   */
+  public boolean isBreakInterrupt() {
+    return (lineStatus & BREAK_INTERRUPT) != 0;
+  }
+
+  /**
+   * @return TRUE if there is an error in the receiver FIFO
+   */
+  public boolean isFifoError() {
+    return (lineStatus & FIFO_ERROR) != 0;
+  }
+
+  /**
+   * @return TRUE if any line status error bit is set
+   */
+  public boolean hasErrors() {
+    return (lineStatus & LINE_ERRORS) != 0;
+  }
+
+  @Override
+  public int hashCode() {
+    return modemStatus | lineStatus << 8;
+  }
+
+  @Override
+  public boolean equals(Object obj) {
+    if (!(obj instanceof FTDIModemStatus)) {
+      return false;
+    }
+    FTDIModemStatus other = (FTDIModemStatus) obj;
+    return modemStatus == other.modemStatus && lineStatus == other.lineStatus;
+  }
+
+  @Override
+  public String toString() {
+    StringBuilder sb = new StringBuilder(String.format("0x%02x 0x%02x", modemStatus, lineStatus));
+    String[] names = {"CTS", "DSR", "RI", "DCD"};
+    for (int bit = 0; bit < names.length; bit++) {
+      if ((modemStatus & CTS << bit) != 0) {
+        sb.append(' ').append(names[bit]);
+      }
+    }
+    String[] errors = {"OE", "PE", "FE", "BI"};
+    for (int bit = 0; bit < errors.length; bit++) {
+      if ((lineStatus & OVERRUN_ERROR << bit) != 0) {
+        sb.append(' ').append(errors[bit]);
+      }
+    }
+    if (isFifoError()) {
+      sb.append(" RCVR");
+    }
+    return sb.toString();
+  }
+}
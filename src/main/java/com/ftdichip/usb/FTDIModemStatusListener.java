@@ -0,0 +1,41 @@
+/*
+ * Copyright 2014-2016 Key Bridge LLC.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ftdichip.usb;
+
+import java.util.EventListener;
+
+/**
+ * Listener interface for modem and line status transitions decoded by a
+ * {@link FTDIModemStatusTracker}.
+ * <p>
+ * Developer note: Listener methods are called from the thread reading the
+ * port (the USB pipe processing thread when the asynchronous read engine is
+ * running). Implementations must return quickly and must not block or read
+ * from the port.
+ *
+ * @author Jesse Caulfield
+ */
+public interface FTDIModemStatusListener extends EventListener {
+
+  /**
+   * A modem status line (CTS, DSR, RI, DCD) or a line status error flag
+   * (overrun, parity, framing, break, FIFO error) changed.
+   *
+   * @param previous the previous status
+   * @param current  the new status
+   */
+  void modemStatusChanged(FTDIModemStatus previous, FTDIModemStatus current);
+}
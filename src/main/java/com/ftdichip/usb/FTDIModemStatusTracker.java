@@ -0,0 +1,187 @@
+/*
+ * Copyright 2014-2016 Key Bridge LLC.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ftdichip.usb;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import static com.ftdichip.usb.FTDIModemStatus.*;
+
+/**
+ * Decodes the modem status header of every bulk-IN packet read from an FTDI
+ * port: keeps the latest modem and line status, counts the line errors and
+ * notifies {@link FTDIModemStatusListener}s of transitions.
+ * <p>
+ * The header is decoded while it is stripped from the read data (see
+ * {@link FTDIUtility#stripModemStatus(byte[], int, int, int, int, FTDIModemStatusTracker)}),
+ * so overrun and other line errors are detected without polling the chip
+ * with a SIO_POLL_MODEM_STATUS control request. The per-packet cost is one
+ * compare and no memory writes: counters are only written for packets
+ * reporting errors, and an event (and a {@link FTDIModemStatus} instance) is
+ * only created when a modem line or an error flag changes. The data ready and
+ * transmitter empty bits, which follow the data flow, are ignored for
+ * transitions.
+ * <p>
+ * Developer note: {@link #update(byte, byte)} is called by the single thread
+ * reading the port (reads are serialized by the FTDI port); the counters and
+ * the status may be read from any thread.
+ *
+ * @author Jesse Caulfield
+ */
+public final class FTDIModemStatusTracker {
+
+  /**
+   * The (thread safe) list of transition listeners.
+   */
+  private final List<FTDIModemStatusListener> listeners = new CopyOnWriteArrayList<>();
+  /**
+   * The modem lines and error flags of the last packet: modem status in bits
+   * 0-7, line status in bits 8-15. -1 before the first packet.
+   */
+  private int state = -1;
+  private volatile FTDIModemStatus status;
+  private volatile long transitionCount;
+  private volatile long overrunCount;
+  private volatile long parityErrorCount;
+  private volatile long framingErrorCount;
+  private volatile long breakCount;
+  private volatile long fifoErrorCount;
+
+  /**
+   * Decode the modem status header of one packet.
+   *
+   * @param modemStatus the first header byte (modem status)
+   * @param lineStatus  the second header byte (line status)
+   */
+  public void update(byte modemStatus, byte lineStatus) {
+    int newState = (modemStatus & MODEM_LINES) | (lineStatus & LINE_ERRORS) << 8;
+    /**
+     * A packet without errors and without a change needs a single compare.
+     */
+    if (newState != state || newState > 0xFF) {
+      changed(newState, modemStatus, lineStatus);
+    }
+  }
+
+  /**
+   * Count the error flags of a packet, record a new status and notify the
+   * listeners of a transition.
+   */
+  private void changed(int newState, byte modemStatus, byte lineStatus) {
+    if ((lineStatus & OVERRUN_ERROR) != 0) {
+      overrunCount++;
+    }
+    if ((lineStatus & PARITY_ERROR) != 0) {
+      parityErrorCount++;
+    }
+    if ((lineStatus & FRAMING_ERROR) != 0) {
+      framingErrorCount++;
+    }
+    if ((lineStatus & BREAK_INTERRUPT) != 0) {
+      breakCount++;
+    }
+    if ((lineStatus & FIFO_ERROR) != 0) {
+      fifoErrorCount++;
+    }
+    if (newState == state) {
+      return;
+    }
+    state = newState;
+    FTDIModemStatus previous = status;
+    FTDIModemStatus current = new FTDIModemStatus(modemStatus, lineStatus);
+    status = current;
+    transitionCount++;
+    for (FTDIModemStatusListener listener : listeners) {
+      listener.modemStatusChanged(previous, current);
+    }
+  }
+
+  /**
+   * Add a listener to be notified of status transitions. The first packet
+   * read is reported as a transition from a null status.
+   *
+   * @param listener the listener
+   */
+  public void addListener(FTDIModemStatusListener listener) {
+    listeners.add(listener);
+  }
+
+  /**
+   * Remove a transition listener.
+   *
+   * @param listener the listener
+   */
+  public void removeListener(FTDIModemStatusListener listener) {
+    listeners.remove(listener);
+  }
+
+  /**
+   * @return the status of the last transition, null if no packet has been
+   *         read
+   */
+  public FTDIModemStatus getStatus() {
+    return status;
+  }
+
+  /**
+   * @return the number of status transitions
+   */
+  public long getTransitionCount() {
+    return transitionCount;
+  }
+
+  /**
+   * @return the number of packets reporting an overrun error
+   */
+  public long getOverrunCount() {
+    return overrunCount;
+  }
+
+  /**
+   * @return the number of packets reporting a parity error
+   */
+  public long getParityErrorCount() {
+    return parityErrorCount;
+  }
+
+  /**
+   * @return the number of packets reporting a framing error
+   */
+  public long getFramingErrorCount() {
+    return framingErrorCount;
+  }
+
+  /**
+   * @return the number of packets reporting a break interrupt
+   */
+  public long getBreakCount() {
+    return breakCount;
+  }
+
+  /**
+   * @return the number of packets reporting a receiver FIFO error
+   */
+  public long getFifoErrorCount() {
+    return fifoErrorCount;
+  }
+
+  @Override
+  public String toString() {
+    return String.format("%s: %d transitions, %d overrun, %d parity, %d framing, %d break, %d FIFO errors",
+                         status, transitionCount, overrunCount, parityErrorCount, framingErrorCount,
+                         breakCount, fifoErrorCount);
+  }
+}
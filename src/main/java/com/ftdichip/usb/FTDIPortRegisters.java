@@ -0,0 +1,392 @@
+/*
+ * Copyright 2014-2016 Key Bridge LLC.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ftdichip.usb;
+
+import com.ftdichip.usb.enumerated.*;
+import java.util.Collections;
+import java.util.Map;
+import java.util.WeakHashMap;
+import javax.usb.UsbDevice;
+import javax.usb.UsbException;
+
+import static com.ftdichip.usb.FTDIUtility.*;
+
+/**
+ * Shadow registers of the serial configuration of one FTDI port: the last
+ * baud rate divisor, line property word, flow control, DTR and RTS line
+ * states and latency timer written to the chip.
+ * <p>
+ * Every control request sent through {@link FTDIUtility} updates the shadow
+ * after it succeeds (and marks the register unknown if it fails), so the
+ * shadow always holds what the chip was last told, whichever API was used.
+ * A configuration is staged with the setters and {@link #apply(UsbDevice)} then sends
+ * only the registers whose staged value differs from the shadow: reopening
+ * or reconfiguring a port with an unchanged configuration costs no control
+ * transfers at all, instead of one (about 1 ms round trip) per register.
+ * <p>
+ * One instance exists per port of each USB device (see
+ * {@link #getInstance(UsbDevice, PortInterfaceType)}) and outlives the
+ * {@link FTDI} instances opened on it. A device that is unplugged and
+ * attached again is a new UsbDevice and starts with all registers unknown;
+ * a port reset (SIO_RESET_SIO) also clears the shadow. Call
+ * {@link #invalidate()} if the chip may have been configured by other means.
+ * <p>
+ * Developer note: Staging and the shadow are guarded by this object, so
+ * concurrent {@link #apply(UsbDevice)} calls on one port are serialized.
+ *
+ * @author Jesse Caulfield
+ */
+public final class FTDIPortRegisters {
+
+  /**
+   * Marks an unknown (never written, or failed) register.
+   */
+  private static final int UNKNOWN = -1;
+  /**
+   * The registers of each device, indexed by port. Weak keys: the registers
+   * of a detached device are dropped with it.
+   * <p>
+   * Developer note: The registers must not reference their device, or the
+   * key would stay reachable; {@link #apply(UsbDevice)} takes the device.
+   */
+  private static final Map<UsbDevice, FTDIPortRegisters[]> INSTANCES = Collections.synchronizedMap(new WeakHashMap<>());
+
+  private final PortInterfaceType port;
+  private final ChipType chipType;
+  /**
+   * The shadow: the register values last written to the chip.
+   */
+  private int baudValue = UNKNOWN;
+  private int baudIndex = UNKNOWN;
+  /**
+   * The baud rate last applied, null if unknown.
+   */
+  private FTDIBaudRate baudRate;
+  private int lineProperty = UNKNOWN;
+  private int flowControl = UNKNOWN;
+  private int dtr = UNKNOWN;
+  private int rts = UNKNOWN;
+  private int latencyTimer = UNKNOWN;
+  /**
+   * The staged register values. Null (or UNKNOWN) if not staged.
+   */
+  private FTDIBaudRate stagedBaudRate;
+  private int stagedLineProperty = UNKNOWN;
+  private FlowControl stagedFlowControl;
+  private int stagedDtr = UNKNOWN;
+  private int stagedRts = UNKNOWN;
+  private int stagedLatencyTimer = UNKNOWN;
+
+  private FTDIPortRegisters(UsbDevice usbDevice, PortInterfaceType port) {
+    this.port = port;
+    this.chipType = ChipType.fromDescriptor(usbDevice.getUsbDeviceDescriptor());
+  }
+
+  /**
+   * Get the shadow registers of a device port.
+   * <p>
+   * Developer note: {@link PortInterfaceType#INTERFACE_ANY} addresses the
+   * only port of a single port chip and port A of a multi-port chip, so it
+   * shares the registers of that port.
+   *
+   * @param usbDevice the USB device
+   * @param port      the chip port (interface)
+   * @return the shadow registers
+   */
+  public static FTDIPortRegisters getInstance(UsbDevice usbDevice, PortInterfaceType port) {
+    PortInterfaceType key = FTDI.getPortKey(usbDevice, port);
+    synchronized (INSTANCES) {
+      FTDIPortRegisters[] ports = INSTANCES.computeIfAbsent(usbDevice, d -> new FTDIPortRegisters[PortInterfaceType.values().length]);
+      FTDIPortRegisters registers = ports[key.ordinal()];
+      if (registers == null) {
+        registers = new FTDIPortRegisters(usbDevice, port);
+        ports[key.ordinal()] = registers;
+      }
+      return registers;
+    }
+  }
+
+  /**
+   * Stage a baud rate.
+   *
+   * @param requestedBaudRate the requested baud rate (bits per second)
+   * @return this instance
+   * @throws IllegalArgumentException if the chip cannot achieve the requested
+   *                                  baud rate within +/- 3%
+   */
+  public synchronized FTDIPortRegisters setBaudRate(int requestedBaudRate) {
+    FTDIBaudRate baudRate = FTDIBaudRate.getInstance(chipType, requestedBaudRate);
+    if (!baudRate.isWithinTolerance()) {
+      throw new IllegalArgumentException("Unsupported baud rate for " + chipType + ": " + baudRate);
+    }
+    stagedBaudRate = baudRate;
+    return this;
+  }
+
+  /**
+   * Stage the line properties.
+   *
+   * @param bits      Number of bits
+   * @param stopbits  Number of stop bits
+   * @param parity    LineParity mode
+   * @param breaktype Break type
+   * @return this instance
+   */
+  public synchronized FTDIPortRegisters setLineProperty(LineDatabit bits, LineStopbit stopbits, LineParity parity, LineBreak breaktype) {
+    stagedLineProperty = getLineProperty(bits, stopbits, parity, breaktype) & 0xFFFF;
+    return this;
+  }
+
+  /**
+   * Stage the flow control.
+   *
+   * @param flowControl flow control to use
+   * @return this instance
+   */
+  public synchronized FTDIPortRegisters setFlowControl(FlowControl flowControl) {
+    stagedFlowControl = flowControl;
+    return this;
+  }
+
+  /**
+   * Stage the DTR line state.
+   *
+   * @param state the DTR line state
+   * @return this instance
+   */
+  public synchronized FTDIPortRegisters setDtr(boolean state) {
+    stagedDtr = state ? 1 : 0;
+    return this;
+  }
+
+  /**
+   * Stage the RTS line state.
+   *
+   * @param state the RTS line state
+   * @return this instance
+   */
+  public synchronized FTDIPortRegisters setRts(boolean state) {
+    stagedRts = state ? 1 : 0;
+    return this;
+  }
+
+  /**
+   * Stage the latency timer.
+   *
+   * @param latency the latency timer value in milliseconds (1 to 255)
+   * @return this instance
+   */
+  public synchronized FTDIPortRegisters setLatencyTimer(int latency) {
+    if (latency < MIN_LATENCY_TIMER || latency > MAX_LATENCY_TIMER) {
+      throw new IllegalArgumentException("Latency timer must be between " + MIN_LATENCY_TIMER + " and " + MAX_LATENCY_TIMER);
+    }
+    stagedLatencyTimer = latency;
+    return this;
+  }
+
+  /**
+   * Send the staged registers that differ from the shadow, then clear the
+   * staged values. DTR and RTS are set in one request when both changed.
+   *
+   * @param usbDevice the USB device of these registers (see
+   *                  {@link #getInstance(UsbDevice, PortInterfaceType)})
+   * @return the number of control transfers sent (zero if nothing changed)
+   * @throws UsbException if a control request fails. The registers sent
+   *                      before the failure are applied; the staged values
+   *                      are cleared.
+   */
+  public synchronized int apply(UsbDevice usbDevice) throws UsbException {
+    int count = 0;
+    try {
+      if (stagedBaudRate != null) {
+        if ((stagedBaudRate.getValue() & 0xFFFF) != baudValue || (stagedBaudRate.getIndex(port) & 0xFFFF) != baudIndex) {
+          FTDIUtility.setBaudRate(usbDevice, port, stagedBaudRate);
+          count++;
+        }
+        baudRate = stagedBaudRate;
+      }
+      if (stagedLineProperty != UNKNOWN && stagedLineProperty != lineProperty) {
+        FTDIUtility.setLineProperty(usbDevice, port, (short) stagedLineProperty);
+        count++;
+      }
+      if (stagedFlowControl != null && (stagedFlowControl.getBytecode() & 0xFF00) != flowControl) {
+        FTDIUtility.setFlowControl(usbDevice, port, stagedFlowControl);
+        count++;
+      }
+      boolean dtrChanged = stagedDtr != UNKNOWN && stagedDtr != dtr;
+      boolean rtsChanged = stagedRts != UNKNOWN && stagedRts != rts;
+      if (dtrChanged && rtsChanged) {
+        FTDIUtility.setDTRRTS(usbDevice, port, stagedDtr == 1, stagedRts == 1);
+        count++;
+      } else if (dtrChanged) {
+        FTDIUtility.setDTR(usbDevice, port, stagedDtr == 1);
+        count++;
+      } else if (rtsChanged) {
+        FTDIUtility.setRTS(usbDevice, port, stagedRts == 1);
+        count++;
+      }
+      if (stagedLatencyTimer != UNKNOWN && stagedLatencyTimer != latencyTimer) {
+        FTDIUtility.setLatencyTimer(usbDevice, port, stagedLatencyTimer);
+        count++;
+      }
+    } finally {
+      clearStaged();
+    }
+    return count;
+  }
+
+  /**
+   * Discard the staged values.
+   */
+  public synchronized void clearStaged() {
+    stagedBaudRate = null;
+    stagedLineProperty = UNKNOWN;
+    stagedFlowControl = null;
+    stagedDtr = UNKNOWN;
+    stagedRts = UNKNOWN;
+    stagedLatencyTimer = UNKNOWN;
+  }
+
+  /**
+   * Mark all registers unknown, so the next {@link #apply(UsbDevice)} sends every
+   * staged register.
+   */
+  public synchronized void invalidate() {
+    baudValue = UNKNOWN;
+    baudIndex = UNKNOWN;
+    baudRate = null;
+    lineProperty = UNKNOWN;
+    flowControl = UNKNOWN;
+    dtr = UNKNOWN;
+    rts = UNKNOWN;
+    latencyTimer = UNKNOWN;
+  }
+
+  /**
+   * Record a control request written to the port.
+   *
+   * @param request the request code
+   * @param value   the request wValue
+   * @param index   the request wIndex
+   */
+  synchronized void written(byte request, short value, short index) {
+    switch (request) {
+      case SIO_RESET_REQUEST:
+        /**
+         * Purging the buffers does not change the configuration.
+         */
+        if (value == SIO_RESET_SIO) {
+          invalidate();
+        }
+        break;
+      case SIO_SET_BAUDRATE_REQUEST:
+        if ((value & 0xFFFF) != baudValue || (index & 0xFFFF) != baudIndex) {
+          baudRate = null;
+        }
+        baudValue = value & 0xFFFF;
+        baudIndex = index & 0xFFFF;
+        break;
+      case SIO_SET_DATA_REQUEST:
+        lineProperty = value & 0xFFFF;
+        break;
+      case SIO_SET_FLOW_CTRL_REQUEST:
+        flowControl = index & 0xFF00;
+        break;
+      case SIO_SET_MODEM_CTRL_REQUEST:
+        if ((value & SIO_SET_DTR_MASK << 8) != 0) {
+          dtr = value & SIO_SET_DTR_MASK;
+        }
+        if ((value & SIO_SET_RTS_MASK << 8) != 0) {
+          rts = (value & SIO_SET_RTS_MASK) >> 1;
+        }
+        break;
+      case SIO_SET_LATENCY_TIMER_REQUEST:
+        latencyTimer = value & 0xFF;
+        break;
+      default:
+        break;
+    }
+  }
+
+  /**
+   * Record a failed control request: the chip may or may not have applied it.
+   *
+   * @param request the request code
+   */
+  synchronized void failed(byte request) {
+    switch (request) {
+      case SIO_SET_BAUDRATE_REQUEST:
+        baudValue = UNKNOWN;
+        baudIndex = UNKNOWN;
+        baudRate = null;
+        break;
+      case SIO_SET_DATA_REQUEST:
+        lineProperty = UNKNOWN;
+        break;
+      case SIO_SET_FLOW_CTRL_REQUEST:
+        flowControl = UNKNOWN;
+        break;
+      case SIO_SET_MODEM_CTRL_REQUEST:
+        dtr = UNKNOWN;
+        rts = UNKNOWN;
+        break;
+      case SIO_SET_LATENCY_TIMER_REQUEST:
+        latencyTimer = UNKNOWN;
+        break;
+      case SIO_RESET_REQUEST:
+        invalidate();
+        break;
+      default:
+        break;
+    }
+  }
+
+  /**
+   * @return the baud rate last set by {@link #apply(UsbDevice)}, null if unknown or
+   *         since changed by other means
+   */
+  public synchronized FTDIBaudRate getBaudRate() {
+    return baudRate;
+  }
+
+  /**
+   * @return the last latency timer value written (ms), -1 if unknown
+   */
+  public synchronized int getLatencyTimer() {
+    return latencyTimer;
+  }
+
+  /**
+   * @return the last DTR line state written, null if unknown
+   */
+  public synchronized Boolean getDtr() {
+    return dtr == UNKNOWN ? null : dtr == 1;
+  }
+
+  /**
+   * @return the last RTS line state written, null if unknown
+   */
+  public synchronized Boolean getRts() {
+    return rts == UNKNOWN ? null : rts == 1;
+  }
+
+  @Override
+  public synchronized String toString() {
+    return String.format("%s %s: baud 0x%04x/0x%04x, line 0x%04x, flow 0x%04x, DTR %d, RTS %d, latency %d",
+                         chipType, port, baudValue & 0xFFFF, baudIndex & 0xFFFF, lineProperty & 0xFFFF, flowControl & 0xFFFF,
+                         dtr, rts, latencyTimer);
+  }
+}
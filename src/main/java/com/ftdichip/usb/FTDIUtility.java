@@ -16,10 +16,14 @@
 package com.ftdichip.usb;
 
 import com.ftdichip.usb.enumerated.*;
-import java.util.Arrays;
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import javax.usb.UsbControlIrp;
 import javax.usb.UsbDevice;
 import javax.usb.UsbException;
+import javax.usb.util.DefaultUsbControlIrp;
 
 /**
  * Utility class to detect and configure FTDI UART chips via the USB bus.
@@ -53,15 +57,28 @@ public class FTDIUtility {
    */
   public static final short VENDOR_ID = 0x0403;
   /**
-   * The FT232R, FT2232 and FT232B USB to serial converter chip sets.
+   * The FT232R, FT2232, FT4232H, FT232H and FT-X (FT230X etc.) USB to serial
+   * converter chip sets. The AM, BM and R chips share 6001.
    * <p>
-   * [6001, 6010, 6011]
+   * [6001, 6010, 6011, 6014, 6015]
    */
-  public static final Short[] PRODUCT_ID = new Short[]{0x6001, 0x6010, 0x6011};
+  public static final Short[] PRODUCT_ID = new Short[]{0x6001, 0x6010, 0x6011, 0x6014, 0x6015};
   /**
    * 115200 bps. The default baud rate for most FTDI chips.
    */
   public static final int DEFAULT_BAUD_RATE = 115200;
+  /**
+   * 16 ms. The factory default latency timer value for most FTDI chips.
+   */
+  public static final int DEFAULT_LATENCY_TIMER = 16;
+  /**
+   * 1 ms. The minimum latency timer value.
+   */
+  public static final int MIN_LATENCY_TIMER = 1;
+  /**
+   * 255 ms. The maximum latency timer value.
+   */
+  public static final int MAX_LATENCY_TIMER = 255;
 
   //<editor-fold defaultstate="collapsed" desc="Static FTDI Byte Constant Declarations">
   /**
@@ -110,42 +127,280 @@ public class FTDIUtility {
    * Set the data characteristics of the port. Definition for flow control.
    */
   public static final byte SIO_SET_DATA_REQUEST = 0x04;
+  /**
+   * Read the modem and line status (two bytes, see {@link FTDIModemStatus}).
+   * The same status is also sent in the header of every bulk-IN packet and is
+   * decoded there by the {@link FTDIModemStatusTracker} at no extra cost.
+   */
   public static final byte SIO_POLL_MODEM_STATUS_REQUEST = 0x05;
 //  public static final byte SIO_SET_EVENT_CHAR_REQUEST = 0x06;
 //  public static final byte SIO_SET_ERROR_CHAR_REQUEST = 0x07;
 
-//  public static final byte SIO_SET_LATENCY_TIMER_REQUEST = 0x09;
-//  public static final byte SIO_GET_LATENCY_TIMER_REQUEST = 0x0A;
-//  public static final byte SIO_SET_BITMODE_REQUEST = 0x0B;
-//  public static final byte SIO_READ_PINS_REQUEST = 0x0C;
+  /**
+   * Set the latency timer. The chip sends a (short) packet to the host when
+   * the latency timer expires, even if the packet is not full.
+   */
+  public static final byte SIO_SET_LATENCY_TIMER_REQUEST = 0x09;
+  /**
+   * Get the latency timer value.
+   */
+  public static final byte SIO_GET_LATENCY_TIMER_REQUEST = 0x0A;
+  /**
+   * Set the bit mode (bitbang, MPSSE, synchronous FIFO, ...). wValue high byte
+   * is the mode, low byte the pin direction mask.
+   */
+  public static final byte SIO_SET_BITMODE_REQUEST = 0x0B;
+  /**
+   * Read the data bus pins immediately.
+   */
+  public static final byte SIO_READ_PINS_REQUEST = 0x0C;
 //  public static final byte SIO_READ_EEPROM_REQUEST = (byte) 0x90;
 //  public static final byte SIO_WRITE_EEPROM_REQUEST = (byte) 0x91;
 //  public static final byte SIO_ERASE_EEPROM_REQUEST = (byte) 0x92;
-//  public static final byte SIO_RESET_SIO = 0;
-//  public static final byte SIO_RESET_PURGE_RX = 1;
-//  public static final byte SIO_RESET_PURGE_TX = 2;
+  // SIO_RESET_REQUEST wValue
+  /**
+   * Reset the port: purge both buffers and restore the default serial line
+   * configuration.
+   */
+  public static final short SIO_RESET_SIO = 0;
+  /**
+   * Historic (libftdi) name of wValue 1. Despite the name, the chip then
+   * purges the data written by the host and not yet sent to the device: see
+   * {@link #SIO_TCOFLUSH}.
+   */
+  public static final short SIO_RESET_PURGE_RX = 1;
+  /**
+   * Historic (libftdi) name of wValue 2. Despite the name, the chip then
+   * purges the data received from the device and not yet read by the host:
+   * see {@link #SIO_TCIFLUSH}.
+   */
+  public static final short SIO_RESET_PURGE_TX = 2;
+  /**
+   * Purge the data received from the device and not yet read by the host
+   * (device to host), as termios TCIFLUSH.
+   */
+  public static final short SIO_TCIFLUSH = 2;
+  /**
+   * Purge the data written by the host and not yet sent to the device (host
+   * to device), as termios TCOFLUSH.
+   */
+  public static final short SIO_TCOFLUSH = 1;
   // DTR and RTS lines
-  public static final byte SIO_SET_DTR_MASK = 0x1;
-  public static final byte SIO_SET_DTR_HIGH = (byte) (1 | (SIO_SET_DTR_MASK << 8));
-  public static final byte SIO_SET_DTR_LOW = (byte) ((SIO_SET_DTR_MASK << 8));
-  public static final byte SIO_SET_RTS_MASK = 0x2;
-  public static final byte SIO_SET_RTS_HIGH = (byte) (2 | (SIO_SET_RTS_MASK << 8));
-  public static final byte SIO_SET_RTS_LOW = (byte) ((SIO_SET_RTS_MASK << 8));
+  /**
+   * The SIO_SET_MODEM_CTRL wValue holds the line states in the low byte and
+   * the mask of the lines to set in the high byte.
+   */
+  public static final short SIO_SET_DTR_MASK = 0x1;
+  public static final short SIO_SET_DTR_HIGH = (short) (1 | (SIO_SET_DTR_MASK << 8));
+  public static final short SIO_SET_DTR_LOW = (short) ((SIO_SET_DTR_MASK << 8));
+  public static final short SIO_SET_RTS_MASK = 0x2;
+  public static final short SIO_SET_RTS_HIGH = (short) (2 | (SIO_SET_RTS_MASK << 8));
+  public static final short SIO_SET_RTS_LOW = (short) ((SIO_SET_RTS_MASK << 8));
 //</editor-fold>
 
   // FTDI USB Utility Methods
   /**
-   * Search the USB device tree and return all detected FTDI devices.
+   * Return all detected FTDI devices.
    * <p>
-   * This method scans the USB tree for any device having a FTDI vendor ID
-   * (0403) and a recognized UART product ID (6001, 6010, 6011).
+   * The devices are those having a FTDI vendor ID (0403) and a recognized UART
+   * product ID (6001, 6010, 6011, 6014, 6015). They are taken from the
+   * {@link FTDIDeviceRegistry}, which scans the USB tree once and then tracks
+   * attached and detached devices, so this method causes no USB traffic after
+   * the first call.
    *
    * @return a non-null (but possibly empty) list of FTDI devices attached to
    *         the USB
    * @throws UsbException if the USB port cannot be read
    */
   public static Collection<UsbDevice> findFTDIDevices() throws UsbException {
-    return UsbHostManager.getUsbDeviceList(VENDOR_ID, Arrays.asList(PRODUCT_ID));
+    List<UsbDevice> devices = new ArrayList<>();
+    for (FTDIDeviceInfo info : FTDIDeviceRegistry.getInstance().getDevices()) {
+      devices.add(info.getUsbDevice());
+    }
+    return devices;
+  }
+
+  /**
+   * Strip the modem status header from every USB packet of a bulk-IN transfer.
+   * <p>
+   * A bulk-IN transfer larger than the endpoint {@code wMaxPacketSize} is
+   * received as a sequence of USB packets. The FTDI chip prefixes EVERY packet
+   * with a {@link #MODEM_STATUS_HEADER_LENGTH two byte} modem status header,
+   * so the headers appear at each packet boundary (every 64 bytes on FT232R,
+   * every 512 bytes on FT2232H). Only the final packet of a transfer may be
+   * short.
+   * <p>
+   * This method compacts the device data in place, in a single pass, so that
+   * it is contiguous starting at {@code target}. A {@code target} of
+   * {@code offset + MODEM_STATUS_HEADER_LENGTH} leaves the first packet data in
+   * place and is the cheapest choice.
+   *
+   * @param data       the transfer buffer
+   * @param offset     the index of the first transfer byte (the first header)
+   * @param length     the number of bytes transferred
+   * @param packetSize the READ endpoint {@code wMaxPacketSize}
+   * @param target     the index at which to place the first data byte. Must
+   *                   not be greater than
+   *                   {@code offset + MODEM_STATUS_HEADER_LENGTH}.
+   * @return the number of device data bytes (zero if the transfer contained
+   *         only headers)
+   */
+  public static int stripModemStatus(byte[] data, int offset, int length, int packetSize, int target) {
+    return stripModemStatus(data, offset, length, packetSize, target, null);
+  }
+
+  /**
+   * Strip the modem status header from every USB packet of a bulk-IN transfer
+   * and decode each header with a modem status tracker, in the same pass.
+   *
+   * @param data       the transfer buffer
+   * @param offset     the index of the first transfer byte (the first header)
+   * @param length     the number of bytes transferred
+   * @param packetSize the READ endpoint {@code wMaxPacketSize}
+   * @param target     the index at which to place the first data byte. Must
+   *                   not be greater than
+   *                   {@code offset + MODEM_STATUS_HEADER_LENGTH}.
+   * @param tracker    the tracker to receive every header, null to discard
+   *                   the headers
+   * @return the number of device data bytes (zero if the transfer contained
+   *         only headers)
+   * @see #stripModemStatus(byte[], int, int, int, int)
+   */
+  public static int stripModemStatus(byte[] data, int offset, int length, int packetSize, int target, FTDIModemStatusTracker tracker) {
+    if (packetSize <= MODEM_STATUS_HEADER_LENGTH || target > offset + MODEM_STATUS_HEADER_LENGTH) {
+      throw new IllegalArgumentException("Invalid packet size " + packetSize + " or target " + target);
+    }
+    int end = offset + length;
+    int write = target;
+    for (int packet = offset; packet < end; packet += packetSize) {
+      int source = packet + MODEM_STATUS_HEADER_LENGTH;
+      if (tracker != null && source <= end) {
+        /**
+         * Decode the header before the packet data is moved over it.
+         */
+        tracker.update(data[packet], data[packet + 1]);
+      }
+      int count = Math.min(packet + packetSize, end) - source;
+      if (count > 0) {
+        if (source != write) {
+          System.arraycopy(data, source, data, write, count);
+        }
+        write += count;
+      }
+    }
+    return write - target;
+  }
+
+  /**
+   * Submit a control request and record it in the {@link FTDIPortRegisters
+   * shadow registers} and, if the port is open, the {@link FTDIMetrics} of the
+   * addressed port.
+   *
+   * @param usbDevice the FTDI USB device
+   * @param port      the chip port (interface) addressed by the request
+   * @param irp       the control request
+   * @throws UsbException if the request fails
+   */
+  private static void submit(UsbDevice usbDevice, PortInterfaceType port, UsbControlIrp irp) throws UsbException {
+    FTDIMetrics metrics = FTDIMetrics.find(usbDevice, port);
+    FTDIPortRegisters registers = FTDIPortRegisters.getInstance(usbDevice, port);
+    long start = System.nanoTime();
+    try {
+      usbDevice.syncSubmit(irp);
+    } catch (UsbException | RuntimeException ex) {
+      if (metrics != null) {
+        metrics.controlFailed();
+      }
+      registers.failed(irp.bRequest());
+      throw ex;
+    }
+    if (metrics != null) {
+      metrics.controlCompleted(System.nanoTime() - start);
+    }
+    registers.written(irp.bRequest(), irp.wValue(), irp.wIndex());
+  }
+
+  /**
+   * Submit a control request asynchronously. When it completes it is recorded
+   * in the {@link FTDIMetrics} and the {@link FTDIPortRegisters shadow
+   * registers} of the addressed port, as by
+   * {@link #submit(UsbDevice, PortInterfaceType, UsbControlIrp)}.
+   *
+   * @param usbDevice     the FTDI USB device
+   * @param port          the chip port (interface) addressed by the request
+   * @param bmRequestType the request type
+   * @param bRequest      the request code
+   * @param wValue        the request wValue
+   * @return a future completed when the request completes, exceptionally if
+   *         it fails
+   */
+  private static CompletableFuture<Void> submitAsync(UsbDevice usbDevice, PortInterfaceType port, byte bmRequestType, byte bRequest, short wValue) {
+    ControlIrp irp = new ControlIrp(FTDIMetrics.find(usbDevice, port),
+                                    FTDIPortRegisters.getInstance(usbDevice, port),
+                                    bmRequestType, bRequest, wValue, getIndex(port));
+    try {
+      usbDevice.asyncSubmit(irp);
+    } catch (UsbException | RuntimeException ex) {
+      if (irp.metrics != null) {
+        irp.metrics.controlFailed();
+      }
+      irp.registers.failed(bRequest);
+      irp.future.completeExceptionally(ex);
+    }
+    return irp.future;
+  }
+
+  /**
+   * An asynchronous control request that records its completion (or failure)
+   * in the port metrics and shadow registers and completes its future.
+   */
+  private static final class ControlIrp extends DefaultUsbControlIrp {
+
+    private final FTDIMetrics metrics;
+    private final FTDIPortRegisters registers;
+    private final CompletableFuture<Void> future = new CompletableFuture<>();
+    private final long submitted = System.nanoTime();
+
+    ControlIrp(FTDIMetrics metrics, FTDIPortRegisters registers, byte bmRequestType, byte bRequest, short wValue, short wIndex) {
+      super(bmRequestType, bRequest, wValue, wIndex);
+      this.metrics = metrics;
+      this.registers = registers;
+    }
+
+    @Override
+    public void complete() {
+      if (isUsbException()) {
+        if (metrics != null) {
+          metrics.controlFailed();
+        }
+        registers.failed(bRequest());
+      } else {
+        if (metrics != null) {
+          metrics.controlCompleted(System.nanoTime() - submitted);
+        }
+        registers.written(bRequest(), wValue(), wIndex());
+      }
+      super.complete();
+      if (isUsbException()) {
+        future.completeExceptionally(getUsbException());
+      } else {
+        future.complete(null);
+      }
+    }
+  }
+
+  /**
+   * Get the control request wIndex that addresses a chip port.
+   * <p>
+   * Multi-port chips (FT2232, FT4232) select the port with the wIndex low
+   * byte: 1 for port A through 4 for port D. Single port chips ignore it
+   * ({@link PortInterfaceType#INTERFACE_ANY} is 0).
+   *
+   * @param port the chip port (interface)
+   * @return the wIndex value
+   */
+  static short getIndex(PortInterfaceType port) {
+    return (short) port.getIndex();
   }
 
   /**
@@ -155,41 +410,147 @@ public class FTDIUtility {
    * @param usbDevice the USB Device to send the control message to
    * @throws UsbException if the control message cannot be set
    */
-  public void reset(UsbDevice usbDevice) throws UsbException {
-    usbDevice.syncSubmit(usbDevice.createUsbControlIrp(FTDI_USB_CONFIGURATION_WRITE,
-                                                       SIO_RESET_REQUEST,
-                                                       (short) 0,
-                                                       (short) 0));
+  public static void reset(UsbDevice usbDevice) throws UsbException {
+    reset(usbDevice, PortInterfaceType.INTERFACE_ANY);
   }
 
   /**
-   * Set the link data rate (bits per second).
+   * Rest the UART configuration of one port of a multi-port FTDI chip.
+   *
+   * @param usbDevice the USB Device to send the control message to
+   * @param port      the chip port (interface)
+   * @throws UsbException if the control message cannot be set
+   */
+  public static void reset(UsbDevice usbDevice, PortInterfaceType port) throws UsbException {
+    reset(usbDevice, port, SIO_RESET_SIO);
+  }
+
+  /**
+   * Purge the chip receive buffer. Data received by the chip from the device
+   * and not yet sent to the host is discarded.
    * <p>
-   * The maximum Baud rate achievable with FTDI's current devices is 3M Baud.
+   * Developer note: This does not affect read requests already queued on the
+   * host, which may hold data from before the purge. See
+   * {@link FTDI#restartAsyncRead()}.
+   *
+   * @param usbDevice the USB Device to send the control message to
+   * @param port      the chip port (interface)
+   * @throws UsbException if the control message cannot be set
+   */
+  public static void purgeRx(UsbDevice usbDevice, PortInterfaceType port) throws UsbException {
+    reset(usbDevice, port, SIO_TCIFLUSH);
+  }
+
+  /**
+   * Purge the chip transmit buffer. Data written by the host and not yet sent
+   * by the chip to the device is discarded.
+   *
+   * @param usbDevice the USB Device to send the control message to
+   * @param port      the chip port (interface)
+   * @throws UsbException if the control message cannot be set
+   */
+  public static void purgeTx(UsbDevice usbDevice, PortInterfaceType port) throws UsbException {
+    reset(usbDevice, port, SIO_TCOFLUSH);
+  }
+
+  /**
+   * Purge the chip receive and transmit buffers. The serial line
+   * configuration is not changed.
+   *
+   * @param usbDevice the USB Device to send the control message to
+   * @param port      the chip port (interface)
+   * @throws UsbException if the control message cannot be set
+   */
+  public static void purgeBuffers(UsbDevice usbDevice, PortInterfaceType port) throws UsbException {
+    purgeRx(usbDevice, port);
+    purgeTx(usbDevice, port);
+  }
+
+  /**
+   * Send a SIO_RESET_REQUEST.
+   *
+   * @param usbDevice the USB Device to send the control message to
+   * @param port      the chip port (interface)
+   * @param value     SIO_RESET_SIO, SIO_TCIFLUSH or SIO_TCOFLUSH
+   * @throws UsbException if the control message cannot be set
+   */
+  private static void reset(UsbDevice usbDevice, PortInterfaceType port, short value) throws UsbException {
+    submit(usbDevice, port, usbDevice.createUsbControlIrp(FTDI_USB_CONFIGURATION_WRITE,
+                                                          SIO_RESET_REQUEST,
+                                                          value,
+                                                          getIndex(port)));
+  }
+
+  /**
+   * Set the link data rate (bits per second).
    * <p>
    * The FT232R, FT2232 and FT232B chip sets support all standard baud rates and
    * non-standard baud rates from 300 Baud up to 3 Megabaud. The achievable baud
-   * rates range is 183.1 baud to 3,000,000 baud.
+   * rates range is 183.1 baud to 3,000,000 baud. The H series chips (FT2232H,
+   * FT4232H, FT232H) also support rates up to 12 Megabaud.
+   * <p>
+   * The exact Baud rate may not be achievable - however as long as the actual
+   * Baud rate used is within +/-3% of the required Baud rate then the link
+   * should function without errors. The closest possible Baud rate divisor for
+   * the chip type (identified from the device descriptor) is used as long as
+   * that divisor gives a Baud rate which is within +/- 3% of the Baud rate
+   * requested.
    *
    * @param usbDevice         the USB Device to send the control message to
    * @param requestedBaudRate the requested baud rate (bits per second). e.g.
    *                          115200.
-   * @throws UsbException if the baud rate cannot be set
+   * @return the actual baud rate assigned to the port
+   * @throws UsbException             if the baud rate cannot be set
+   * @throws IllegalArgumentException if the chip cannot achieve the requested
+   *                                  baud rate within +/- 3%
+   * @see FTDIBaudRate
+   */
+  public static FTDIBaudRate setBaudRate(UsbDevice usbDevice, int requestedBaudRate) throws UsbException {
+    return setBaudRate(usbDevice, PortInterfaceType.INTERFACE_ANY, requestedBaudRate);
+  }
+
+  /**
+   * Set the link data rate (bits per second) of one port of a multi-port FTDI
+   * chip.
+   *
+   * @param usbDevice         the USB Device to send the control message to
+   * @param port              the chip port (interface)
+   * @param requestedBaudRate the requested baud rate (bits per second). e.g.
+   *                          115200.
+   * @return the actual baud rate assigned to the port
+   * @throws UsbException             if the baud rate cannot be set
+   * @throws IllegalArgumentException if the chip cannot achieve the requested
+   *                                  baud rate within +/- 3%
+   */
+  public static FTDIBaudRate setBaudRate(UsbDevice usbDevice, PortInterfaceType port, int requestedBaudRate) throws UsbException {
+    FTDIBaudRate baudRate = FTDIBaudRate.getInstance(ChipType.fromDescriptor(usbDevice.getUsbDeviceDescriptor()), requestedBaudRate);
+    if (!baudRate.isWithinTolerance()) {
+      throw new IllegalArgumentException("Unsupported baud rate for " + baudRate.getChipType() + ": " + baudRate);
+    }
+    setBaudRate(usbDevice, port, baudRate);
+    return baudRate;
+  }
+
+  /**
+   * Set an encoded baud rate divisor on one port of an FTDI chip.
+   *
+   * @param usbDevice the FTDI USB device
+   * @param port      the chip port (interface)
+   * @param baudRate  the baud rate divisor, encoded for the chip type
+   * @throws UsbException if the device command message fails to set
    */
-  public static void setBaudRate(UsbDevice usbDevice, int requestedBaudRate) throws UsbException, UsbException, UsbException {
-    usbDevice.syncSubmit(usbDevice.createUsbControlIrp(FTDI_USB_CONFIGURATION_WRITE,
-                                                       SIO_SET_BAUDRATE_REQUEST,
-                                                       calculateBaudRate(requestedBaudRate),
-                                                       (short) 0));
+  static void setBaudRate(UsbDevice usbDevice, PortInterfaceType port, FTDIBaudRate baudRate) throws UsbException {
+    submit(usbDevice, port, usbDevice.createUsbControlIrp(FTDI_USB_CONFIGURATION_WRITE,
+                                                          SIO_SET_BAUDRATE_REQUEST,
+                                                          baudRate.getValue(),
+                                                          baudRate.getIndex(port)));
   }
 
   /**
    * A general method to set the baud rate for most all FTDI UART chip types.
    * <p>
-   * This method uses the more general/generic baud rate calculator. It it
-   * functionally identical to
-   * the{@link #setBaudRate(javax.usb.IUsbDevice, int)} method and is included
-   * in this class only for reference and code completeness..
+   * Unlike {@link #setBaudRate(javax.usb.UsbDevice, int)} this method sets the
+   * nearest achievable baud rate even if it is outside the +/- 3% tolerance.
    *
    * @param usbDevice         the USB Device to send the control message to
    * @param requestedBaudRate the requested baud rate (bits per second). e.g.
@@ -198,16 +559,27 @@ public class FTDIUtility {
    * @throws UsbException if the baud rate cannot be set
    */
   public static int setBaudRate_General(UsbDevice usbDevice, int requestedBaudRate) throws UsbException {
-    /**
-     * Convert the requested baud rate into an device configuration parameter.
-     * Return the actual configured baud rate.
-     */
-    short[] baudRateConverted = convertBaudrate(requestedBaudRate);
-    usbDevice.syncSubmit(usbDevice.createUsbControlIrp(FTDI_USB_CONFIGURATION_WRITE,
-                                                       SIO_SET_BAUDRATE_REQUEST,
-                                                       baudRateConverted[2],
-                                                       baudRateConverted[1]));
-    return baudRateConverted[0];
+    return setBaudRate_General(usbDevice, PortInterfaceType.INTERFACE_ANY, requestedBaudRate);
+  }
+
+  /**
+   * A general method to set the baud rate of one port of a multi-port FTDI
+   * chip.
+   *
+   * @param usbDevice         the USB Device to send the control message to
+   * @param port              the chip port (interface)
+   * @param requestedBaudRate the requested baud rate (bits per second). e.g.
+   *                          115200.
+   * @return the actual baud rate assigned to the port
+   * @throws UsbException if the baud rate cannot be set
+   */
+  public static int setBaudRate_General(UsbDevice usbDevice, PortInterfaceType port, int requestedBaudRate) throws UsbException {
+    FTDIBaudRate baudRate = FTDIBaudRate.getInstance(ChipType.fromDescriptor(usbDevice.getUsbDeviceDescriptor()), requestedBaudRate);
+    submit(usbDevice, port, usbDevice.createUsbControlIrp(FTDI_USB_CONFIGURATION_WRITE,
+                                                          SIO_SET_BAUDRATE_REQUEST,
+                                                          baudRate.getValue(),
+                                                          baudRate.getIndex(port)));
+    return baudRate.getActualBaudRate();
   }
 
   /**
@@ -218,10 +590,22 @@ public class FTDIUtility {
    * @throws UsbException if the device command message fails to set
    */
   public static void setDTR(UsbDevice usbDevice, boolean state) throws UsbException {
-    usbDevice.syncSubmit(usbDevice.createUsbControlIrp(FTDI_USB_CONFIGURATION_WRITE,
-                                                       SIO_SET_MODEM_CTRL_REQUEST,
-                                                       state ? SIO_SET_DTR_HIGH : SIO_SET_DTR_LOW,
-                                                       (short) 0));
+    setDTR(usbDevice, PortInterfaceType.INTERFACE_ANY, state);
+  }
+
+  /**
+   * Set the DTR line of one port of a multi-port FTDI chip.
+   *
+   * @param usbDevice the FTDI USB device
+   * @param port      the chip port (interface)
+   * @param state     TRUE to set high, FALSE to set low.
+   * @throws UsbException if the device command message fails to set
+   */
+  public static void setDTR(UsbDevice usbDevice, PortInterfaceType port, boolean state) throws UsbException {
+    submit(usbDevice, port, usbDevice.createUsbControlIrp(FTDI_USB_CONFIGURATION_WRITE,
+                                                          SIO_SET_MODEM_CTRL_REQUEST,
+                                                          state ? SIO_SET_DTR_HIGH : SIO_SET_DTR_LOW,
+                                                          getIndex(port)));
   }
 
   /**
@@ -232,10 +616,22 @@ public class FTDIUtility {
    * @throws UsbException if the device command message fails to set
    */
   public static void setRTS(UsbDevice usbDevice, boolean state) throws UsbException {
-    usbDevice.syncSubmit(usbDevice.createUsbControlIrp(FTDI_USB_CONFIGURATION_WRITE,
-                                                       SIO_SET_MODEM_CTRL_REQUEST,
-                                                       state ? SIO_SET_RTS_HIGH : SIO_SET_RTS_LOW,
-                                                       (short) 0));
+    setRTS(usbDevice, PortInterfaceType.INTERFACE_ANY, state);
+  }
+
+  /**
+   * Set the RTS line of one port of a multi-port FTDI chip.
+   *
+   * @param usbDevice the FTDI USB device
+   * @param port      the chip port (interface)
+   * @param state     TRUE to set high, FALSE to set low.
+   * @throws UsbException if the device command message fails to set
+   */
+  public static void setRTS(UsbDevice usbDevice, PortInterfaceType port, boolean state) throws UsbException {
+    submit(usbDevice, port, usbDevice.createUsbControlIrp(FTDI_USB_CONFIGURATION_WRITE,
+                                                          SIO_SET_MODEM_CTRL_REQUEST,
+                                                          state ? SIO_SET_RTS_HIGH : SIO_SET_RTS_LOW,
+                                                          getIndex(port)));
   }
 
   /**
@@ -247,12 +643,175 @@ public class FTDIUtility {
    * @throws UsbException if the device command message fails to set
    */
   public static void setDTRRTS(UsbDevice usbDevice, boolean dtrState, boolean rtsState) throws UsbException {
+    setDTRRTS(usbDevice, PortInterfaceType.INTERFACE_ANY, dtrState, rtsState);
+  }
+
+  /**
+   * Set the DTR and RTS lines of one port of a multi-port FTDI chip.
+   *
+   * @param usbDevice the FTDI USB device
+   * @param port      the chip port (interface)
+   * @param dtrState  TRUE to set high, FALSE to set low.
+   * @param rtsState  TRUE to set high, FALSE to set low.
+   * @throws UsbException if the device command message fails to set
+   */
+  public static void setDTRRTS(UsbDevice usbDevice, PortInterfaceType port, boolean dtrState, boolean rtsState) throws UsbException {
     short dtrValue = dtrState ? SIO_SET_DTR_HIGH : SIO_SET_DTR_LOW;
     short rtsValue = rtsState ? SIO_SET_RTS_HIGH : SIO_SET_RTS_LOW;
-    usbDevice.syncSubmit(usbDevice.createUsbControlIrp(FTDI_USB_CONFIGURATION_WRITE,
-                                                       SIO_SET_MODEM_CTRL_REQUEST,
-                                                       (short) (dtrValue | rtsValue),
-                                                       (short) 0));
+    submit(usbDevice, port, usbDevice.createUsbControlIrp(FTDI_USB_CONFIGURATION_WRITE,
+                                                          SIO_SET_MODEM_CTRL_REQUEST,
+                                                          (short) (dtrValue | rtsValue),
+                                                          getIndex(port)));
+  }
+
+  /**
+   * Set the latency timer.
+   * <p>
+   * The FTDI chip buffers data received from the serial line and sends it to
+   * the host when a USB packet is full or when the latency timer expires,
+   * whichever comes first. A short latency timer reduces the response time for
+   * command/response exchanges; a long latency timer reduces the number of
+   * short (partially filled) packets when streaming. The factory default is
+   * {@link #DEFAULT_LATENCY_TIMER 16 ms}.
+   *
+   * @param usbDevice the FTDI USB device
+   * @param latency   the latency timer value in milliseconds (1 to 255)
+   * @throws UsbException if the device command message fails to set
+   */
+  public static void setLatencyTimer(UsbDevice usbDevice, int latency) throws UsbException {
+    setLatencyTimer(usbDevice, PortInterfaceType.INTERFACE_ANY, latency);
+  }
+
+  /**
+   * Set the latency timer of one port of a multi-port FTDI chip.
+   *
+   * @param usbDevice the FTDI USB device
+   * @param port      the chip port (interface)
+   * @param latency   the latency timer value in milliseconds (1 to 255)
+   * @throws UsbException if the device command message fails to set
+   */
+  public static void setLatencyTimer(UsbDevice usbDevice, PortInterfaceType port, int latency) throws UsbException {
+    if (latency < MIN_LATENCY_TIMER || latency > MAX_LATENCY_TIMER) {
+      throw new IllegalArgumentException("Latency timer must be between " + MIN_LATENCY_TIMER + " and " + MAX_LATENCY_TIMER + " ms.");
+    }
+    submit(usbDevice, port, usbDevice.createUsbControlIrp(FTDI_USB_CONFIGURATION_WRITE,
+                                                          SIO_SET_LATENCY_TIMER_REQUEST,
+                                                          (short) latency,
+                                                          getIndex(port)));
+  }
+  /**
+   * Set the latency timer of one port without waiting for the device. Used
+   * where a blocking request is not acceptable (e.g. from the read thread).
+   *
+   * @param usbDevice the FTDI USB device
+   * @param port      the chip port (interface)
+   * @param latency   the latency timer value in milliseconds (1 to 255)
+   * @return a future completed when the device has accepted the value,
+   *         exceptionally if the request fails
+   */
+  static CompletableFuture<Void> setLatencyTimerAsync(UsbDevice usbDevice, PortInterfaceType port, int latency) {
+    if (latency < MIN_LATENCY_TIMER || latency > MAX_LATENCY_TIMER) {
+      throw new IllegalArgumentException("Latency timer must be between " + MIN_LATENCY_TIMER + " and " + MAX_LATENCY_TIMER + " ms.");
+    }
+    return submitAsync(usbDevice, port, FTDI_USB_CONFIGURATION_WRITE, SIO_SET_LATENCY_TIMER_REQUEST, (short) latency);
+  }
+
+  /**
+   * Get the latency timer value.
+   *
+   * @param usbDevice the FTDI USB device
+   * @return the latency timer value in milliseconds (1 to 255)
+   * @throws UsbException if the device command message fails
+   */
+  public static int getLatencyTimer(UsbDevice usbDevice) throws UsbException {
+    return getLatencyTimer(usbDevice, PortInterfaceType.INTERFACE_ANY);
+  }
+
+  /**
+   * Get the latency timer value of one port of a multi-port FTDI chip.
+   *
+   * @param usbDevice the FTDI USB device
+   * @param port      the chip port (interface)
+   * @return the latency timer value in milliseconds (1 to 255)
+   * @throws UsbException if the device command message fails
+   */
+  public static int getLatencyTimer(UsbDevice usbDevice, PortInterfaceType port) throws UsbException {
+    UsbControlIrp usbControlIrp = usbDevice.createUsbControlIrp(FTDI_USB_CONFIGURATION_READ,
+                                                                SIO_GET_LATENCY_TIMER_REQUEST,
+                                                                (short) 0,
+                                                                getIndex(port));
+    usbControlIrp.setData(new byte[1]);
+    submit(usbDevice, port, usbControlIrp);
+    if (usbControlIrp.getActualLength() < 1) {
+      throw new UsbException("Latency timer value not returned.");
+    }
+    return usbControlIrp.getData()[0] & 0xff;
+  }
+
+  /**
+   * Set the bit mode of the FTDI chip.
+   * <p>
+   * The bit modes replace the normal UART (or FIFO) function of the chip: see
+   * {@link BitMode}. The pin mask sets the direction of the eight data bus
+   * pins: a '1' bit makes the pin an output, a '0' bit an input. Set
+   * {@link BitMode#RESET} to return to the normal function.
+   *
+   * @param usbDevice the FTDI USB device
+   * @param bitMode   the bit mode
+   * @param pinMask   the pin direction mask
+   * @throws UsbException if the device command message fails to set
+   */
+  public static void setBitMode(UsbDevice usbDevice, BitMode bitMode, byte pinMask) throws UsbException {
+    setBitMode(usbDevice, PortInterfaceType.INTERFACE_ANY, bitMode, pinMask);
+  }
+
+  /**
+   * Set the bit mode of one port of a multi-port FTDI chip.
+   *
+   * @param usbDevice the FTDI USB device
+   * @param port      the chip port (interface)
+   * @param bitMode   the bit mode
+   * @param pinMask   the pin direction mask
+   * @throws UsbException if the device command message fails to set
+   */
+  public static void setBitMode(UsbDevice usbDevice, PortInterfaceType port, BitMode bitMode, byte pinMask) throws UsbException {
+    submit(usbDevice, port, usbDevice.createUsbControlIrp(FTDI_USB_CONFIGURATION_WRITE,
+                                                          SIO_SET_BITMODE_REQUEST,
+                                                          (short) ((bitMode.getBytecode() & 0xff) << 8 | pinMask & 0xff),
+                                                          getIndex(port)));
+  }
+
+  /**
+   * Read the current state of the data bus pins, bypassing the read buffer.
+   *
+   * @param usbDevice the FTDI USB device
+   * @return the pin states
+   * @throws UsbException if the device command message fails
+   */
+  public static byte readPins(UsbDevice usbDevice) throws UsbException {
+    return readPins(usbDevice, PortInterfaceType.INTERFACE_ANY);
+  }
+
+  /**
+   * Read the current state of the data bus pins of one port of a multi-port
+   * FTDI chip.
+   *
+   * @param usbDevice the FTDI USB device
+   * @param port      the chip port (interface)
+   * @return the pin states
+   * @throws UsbException if the device command message fails
+   */
+  public static byte readPins(UsbDevice usbDevice, PortInterfaceType port) throws UsbException {
+    UsbControlIrp usbControlIrp = usbDevice.createUsbControlIrp(FTDI_USB_CONFIGURATION_READ,
+                                                                SIO_READ_PINS_REQUEST,
+                                                                (short) 0,
+                                                                getIndex(port));
+    usbControlIrp.setData(new byte[1]);
+    submit(usbDevice, port, usbControlIrp);
+    if (usbControlIrp.getActualLength() < 1) {
+      throw new UsbException("Pin states not returned.");
+    }
+    return usbControlIrp.getData()[0];
   }
 
   /**
@@ -268,10 +827,25 @@ public class FTDIUtility {
    * @throws UsbException if the device command message fails to set
    */
   public static void setFlowControl(UsbDevice usbDevice, FlowControl flowcontrol) throws UsbException {
-    usbDevice.syncSubmit(usbDevice.createUsbControlIrp(FTDI_USB_CONFIGURATION_WRITE,
-                                                       SIO_SET_FLOW_CTRL_REQUEST,
-                                                       flowcontrol.getBytecode(),
-                                                       (short) 0));
+    setFlowControl(usbDevice, PortInterfaceType.INTERFACE_ANY, flowcontrol);
+  }
+
+  /**
+   * Set flow control for one port of a multi-port FTDI chip.
+   * <p>
+   * Developer note: The flow control word is sent in the wIndex high byte,
+   * the port number in the wIndex low byte.
+   *
+   * @param usbDevice   the FTDI USB device
+   * @param port        the chip port (interface)
+   * @param flowcontrol flow control to use.
+   * @throws UsbException if the device command message fails to set
+   */
+  public static void setFlowControl(UsbDevice usbDevice, PortInterfaceType port, FlowControl flowcontrol) throws UsbException {
+    submit(usbDevice, port, usbDevice.createUsbControlIrp(FTDI_USB_CONFIGURATION_WRITE,
+                                                          SIO_SET_FLOW_CTRL_REQUEST,
+                                                          (short) 0,
+                                                          (short) (flowcontrol.getBytecode() | getIndex(port))));
   }
 
   /**
@@ -285,7 +859,22 @@ public class FTDIUtility {
    * @throws UsbException if the device command message fails to set
    */
   public static void setLineProperty(UsbDevice usbDevice, LineDatabit bits, LineStopbit stopbits, LineParity parity) throws UsbException {
-    setLineProperty(usbDevice, bits, stopbits, parity, LineBreak.BREAK_OFF);
+    setLineProperty(usbDevice, PortInterfaceType.INTERFACE_ANY, bits, stopbits, parity, LineBreak.BREAK_OFF);
+  }
+
+  /**
+   * Set (RS232) line characteristics of one port of a multi-port FTDI chip.
+   * The break type defaults to "BREAK_OFF".
+   *
+   * @param usbDevice the FTDI USB device
+   * @param port      the chip port (interface)
+   * @param bits      Number of bits
+   * @param stopbits  Number of stop bits
+   * @param parity    LineParity mode
+   * @throws UsbException if the device command message fails to set
+   */
+  public static void setLineProperty(UsbDevice usbDevice, PortInterfaceType port, LineDatabit bits, LineStopbit stopbits, LineParity parity) throws UsbException {
+    setLineProperty(usbDevice, port, bits, stopbits, parity, LineBreak.BREAK_OFF);
   }
 
   /**
@@ -301,6 +890,51 @@ public class FTDIUtility {
    * @throws UsbException if the device command message fails to set
    */
   public static void setLineProperty(UsbDevice usbDevice, LineDatabit bits, LineStopbit stopbits, LineParity parity, LineBreak breaktype) throws UsbException {
+    setLineProperty(usbDevice, PortInterfaceType.INTERFACE_ANY, bits, stopbits, parity, breaktype);
+  }
+
+  /**
+   * Set (RS232) line characteristics of one port of a multi-port FTDI chip.
+   *
+   * @param usbDevice the FTDI USB device
+   * @param port      the chip port (interface)
+   * @param bits      Number of bits
+   * @param stopbits  Number of stop bits
+   * @param parity    LineParity mode
+   * @param breaktype Break type (default is BREAK_OFF)
+   * @throws UsbException if the device command message fails to set
+   */
+  public static void setLineProperty(UsbDevice usbDevice, PortInterfaceType port, LineDatabit bits, LineStopbit stopbits, LineParity parity, LineBreak breaktype) throws UsbException {
+    setLineProperty(usbDevice, port, getLineProperty(bits, stopbits, parity, breaktype));
+  }
+
+  /**
+   * Set the line property word of one port of an FTDI chip.
+   *
+   * @param usbDevice the FTDI USB device
+   * @param port      the chip port (interface)
+   * @param value     the line property word (see
+   *                  {@link #getLineProperty(LineDatabit, LineStopbit, LineParity, LineBreak)})
+   * @throws UsbException if the device command message fails to set
+   */
+  static void setLineProperty(UsbDevice usbDevice, PortInterfaceType port, short value) throws UsbException {
+    submit(usbDevice, port, usbDevice.createUsbControlIrp(FTDI_USB_CONFIGURATION_WRITE,
+                                                          SIO_SET_DATA_REQUEST,
+                                                          value,
+                                                          getIndex(port)));
+  }
+
+  /**
+   * Encode the SIO_SET_DATA line property word: data bits in bits 0-7, parity
+   * in bits 8-10, stop bits in bits 11-12 and break in bit 14.
+   *
+   * @param bits      Number of bits
+   * @param stopbits  Number of stop bits
+   * @param parity    LineParity mode
+   * @param breaktype Break type
+   * @return the line property word
+   */
+  static short getLineProperty(LineDatabit bits, LineStopbit stopbits, LineParity parity, LineBreak breaktype) {
     short value = (short) bits.getBits();
     switch (parity) {
       case NONE:
@@ -329,7 +963,7 @@ public class FTDIUtility {
         value = (short) (value | (0x01 << 11));
         break;
       case STOP_BIT_2:
-        value = (short) (value | (0x01 << 11));
+        value = (short) (value | (0x02 << 11));
         break;
       default:
         throw new AssertionError(stopbits.name());
@@ -344,443 +978,36 @@ public class FTDIUtility {
       default:
         throw new AssertionError(breaktype.name());
     }
-    usbDevice.syncSubmit(usbDevice.createUsbControlIrp(FTDI_USB_CONFIGURATION_WRITE,
-                                                       SIO_SET_DATA_REQUEST,
-                                                       value,
-                                                       (short) 0));
-  }
-
-  /**
-   * FTDI Baud Rate Calculation.
-   * <p>
-   * A Baud rate for the FT232R, FT2232 (UART mode) or FT232B is generated using
-   * the chips internal 48MHz clock. This is input to Baud rate generator
-   * circuitry where it is then divided by 16 and fed into a prescaler as a 3MHz
-   * reference clock. This 3MHz reference clock is then divided down to provide
-   * the required Baud rate for the device's on chip UART. The value of the Baud
-   * rate divisor is an integer plus a sub-integer prescaler. The original
-   * FT8U232AM only allowed 3 sub- integer prescalers - 0.125, 0.25 or 0.5. The
-   * FT232R, FT2232 (UART mode) and FT232B support a further 4 additional
-   * sub-integer prescalers - 0.375, 0.625, 0.75, and 0.875. Thus, allowed
-   * values for the Baud rate divisor are:
-   * <p>
-   * Divisor = n + 0, 0.125, 0.25, 0.375, 0.5, 0.625, 0.75, 0.875; where n is an
-   * integer between 2 and 16384 (214).
-   * <p>
-   * Note: Divisor = 1 and Divisor = 0 are special cases. A divisor of 0 will
-   * give 3 MBaud, and a divisor of 1 will give 2 MBaud. Sub-integer divisors
-   * between 0 and 2 are not allowed. Therefore the value of the divisor needed
-   * for a given Baud rate is found by dividing 3000000 by the required Baud
-   * rate.
-   * <p>
-   * The exact Baud rate may not be achievable - however as long as the actual
-   * Baud rate used is within +/-3% of the required Baud rate then the link
-   * should function without errors. When a Baud rate is passed to the driver
-   * where the exact divisor required is not achievable the closest possible
-   * Baud rate divisor will be used as long as that divisor gives a Baud rate
-   * which is within +/- 3% of the Baud rate originally set.
-   * <p>
-   * For example: A non-standard Baud rate of 490000 Baud is required.
-   * <p>
-   * Required divisor = 3000000 / 490000 = 6.122
-   * <p>
-   * The closest achievable divisor is 6.125, which gives a baud rate of
-   * 489795.9, which is well within the allowed +/- 3% margin of error.
-   * Therefore 490000 can be passed to the driver and the device will
-   * communicate without errors.
-   *
-   * @see See AN232B-05_BaudRates.pdf, page 7.
-   *
-   * @param requestedBaudRate the (possibly non-standard) requested baud rate
-   *                          (bits per second)
-   * @return the nearest supported baud rate (bits per second)
-   */
-  private static short calculateBaudRate(int requestedBaudRate) {
-    /**
-     * Developer note: The maximum Baud rate achievable with FTDI's current
-     * devices is 3M Baud. the Baud rate divisor must be calculated using the
-     * following formula:
-     * <p>
-     * {@code Integer Divisor + Sub-Integer Divisor = 3000000/Baud Rate}
-     * <p>
-     * where the Integer Divisor is any integer between 2 and 16384 and the
-     * Sub-Integer Divisor can be any one of 0, 0.125, 0.25, 0.375, 0.5, 0.625,
-     * 0.75 or 0.875. Note that the FT8U232AM device will only support
-     * Sub-Integer Divisors of 0, 0.125, 0.25 and 0.5.
-     * <p>
-     * This 3MHz reference clock is then divided down to provide the required
-     * Baud rate for the device's on chip UART. The value of the Baud rate
-     * divisor is an integer plus a sub-integer pre-scaler.
-     * <p>
-     * Allowed values for the Baud rate divisor are: Divisor = n + 0, 0.125,
-     * 0.25, 0.375, 0.5, 0.625, 0.75, 0.875; where n is an integer between 2 and
-     * 16384 (2^14). n > 2.
-     * <p>
-     * The value of the divisor needed for a given Baud rate is found by
-     * dividing 3000000 (= 3 MHz) by the required Baud rate.
-     */
-    int divisor = 3000000 / requestedBaudRate;
-    /**
-     * The exact Baud rate may not be achievable - however as long as the actual
-     * Baud rate used is within +/-3% of the required Baud rate then the link
-     * should function without errors. When a Baud rate is passed to the driver
-     * where the exact divisor required is not achievable the closest possible
-     * Baud rate divisor will be used as long as that divisor gives a Baud rate
-     * which is within +/- 3% of the Baud rate originally set.
-     */
-    return (short) ((divisor << 16) >> 16);
+    return value;
   }
 
   //<editor-fold defaultstate="collapsed" desc="Deprecated Native Translations">
   /**
-   * Convert the requested baud rate into an device configuration parameter.
-   * Return the actual configured baud rate.
-   *
-   * @param baudrate the requested baud rate (bits per second). e.g. 115200.
-   * @return the FTDI baudrate configuration value (two bytes)
-   */
-  private static short[] convertBaudrate(int baudrate) {
-    // TODO(mikey): Braindead transcription of libfti method.  Clean up,
-    // using more idiomatic Java where possible.
-    int divisor = 24000000 / baudrate;
-    int bestDivisor = 0;
-    Integer bestBaud = 0;
-    int bestBaudDiff = 0;
-    int fracCode[] = {0, 3, 2, 4, 1, 5, 6, 7};
-
-    for (int i = 0; i < 2; i++) {
-      int tryDivisor = divisor + i;
-      int baudEstimate;
-      int baudDiff;
-
-      if (tryDivisor <= 8) {
-        // Round up to minimum supported divisor
-        tryDivisor = 8;
-//            } else if (mType != DeviceType.TYPE_AM && tryDivisor < 12) {
-//                // BM doesn't support divisors 9 through 11 inclusive
-//                tryDivisor = 12;
-//            } else if (divisor < 16) {
-//                // AM doesn't support divisors 9 through 15 inclusive
-//                tryDivisor = 16;
-//            } else {
-//                if (mType == DeviceType.TYPE_AM) {
-//                    // TODO
-//                } else {
-//                    if (tryDivisor > 0x1FFFF) {
-//                        // Round down to maximum supported divisor value (for
-//                        // BM)
-//                        tryDivisor = 0x1FFFF;
-//                    }
-//                }
-      }
-
-      // Get estimated baud rate (to nearest integer)
-      baudEstimate = (24000000 + (tryDivisor / 2)) / tryDivisor;
-
-      // Get absolute difference from requested baud rate
-      if (baudEstimate < baudrate) {
-        baudDiff = baudrate - baudEstimate;
-      } else {
-        baudDiff = baudEstimate - baudrate;
-      }
-
-      if (i == 0 || baudDiff < bestBaudDiff) {
-        // Closest to requested baud rate so far
-        bestDivisor = tryDivisor;
-        bestBaud = baudEstimate;
-        bestBaudDiff = baudDiff;
-        if (baudDiff == 0) {
-          // Spot on! No point trying
-          break;
-        }
-      }
-    }
-
-    // Encode the best divisor value
-    long encodedDivisor = (bestDivisor >> 3) | (fracCode[bestDivisor & 7] << 14);
-    // Deal with special cases for encoded value
-    if (encodedDivisor == 1) {
-      encodedDivisor = 0; // 3000000 baud
-    } else if (encodedDivisor == 0x4001) {
-      encodedDivisor = 1; // 2000000 baud (BM only)
-    }
-
-    // Split into "value" and "index" values
-    Long value = encodedDivisor & 0xFFFF;
-    Long index;
-//        if (mType == DeviceType.TYPE_2232C || mType == DeviceType.TYPE_2232H
-//                || mType == DeviceType.TYPE_4232H) {
-//            index = (encodedDivisor >> 8) & 0xffff;
-//            index &= 0xFF00;
-//            index |= 0 /* TODO mIndex */;
-//        } else {
-    index = (encodedDivisor >> 16) & 0xffff;
-//        }
-
-    // Return the nearest baud rate
-    return new short[]{bestBaud.shortValue(), index.shortValue(), value.shortValue()};
-  }
-
-  /**
-   * Sets the chip baud rate. Method copied directly from "ftdi.c"
+   * Sets the chip baud rate. Translated from "ftdi.c"; the chip type is
+   * identified from the device descriptor and the baud rate must be within
+   * libftdi's (about 5%) tolerance.
    *
    * @param iUsbDevice the FTDI USB device
    * @param baudrate   baud rate to set
-   * @throws Exception if the command fails to set
+   * @throws Exception if the baud rate is not supported or the command fails
+   *                   to set
    *
-   * @deprecated 04/28/14 this method does not set the correct baud rate divisor
-   * value (it is always zero). This and the supporting private calculator
-   * method were translated from C but the original included an EEPROM query is
-   * not available from JAVA. Use
-   * {@link #setBaudRate(javax.usb.IUsbDevice, int)} or
-   * {@link #setBaudRate_General(javax.usb.IUsbDevice, int)} instead.
+   * @deprecated use {@link #setBaudRate(javax.usb.UsbDevice, int)}, which
+   * reports the actual baud rate.
    */
   public static void ftdi_set_baudrate(UsbDevice iUsbDevice, int baudrate) throws Exception {
-    short value = 0;
-    short index = 0;
-    int actual_baudrate;
+    FTDIBaudRate actual = FTDIBaudRate.getInstance(ChipType.fromDescriptor(iUsbDevice.getUsbDeviceDescriptor()), baudrate);
     /**
-     * Developer note: bitbang availability/enablement is identified from an
-     * EEPROM query.
+     * Check within tolerance (about 5%).
      */
-//    if (ftdi -> bitbang_enabled) {      baudrate = baudrate * 4;    }
-    /**
-     * Developer notes: ftdi_convert_baudrate updates the value but not the
-     * index.
-     */
-    actual_baudrate = ftdi_convert_baudrate(baudrate, value, index);
-    if (actual_baudrate <= 0) {
-      throw new Exception("Bogus baudrate <= 0.");
-    }
-    /**
-     * Check within tolerance (about 5%) and Catch overflows
-     */
-    if ((actual_baudrate * 2 < baudrate) || ((actual_baudrate < baudrate)
-                                             ? (actual_baudrate * 21 < baudrate * 20)
-                                             : (baudrate * 21 < actual_baudrate * 20))) {
-      throw new Exception("Unsupported baudrate. Note: bitbang baudrates are automatically multiplied by 4");
-    }
-    //    device.syncSubmit(device.createUsbControlIrp(bmRequestType, SET_BAUDRATE_REQUEST, value, index));
-    iUsbDevice.syncSubmit(iUsbDevice.createUsbControlIrp(FTDI_USB_CONFIGURATION_WRITE,
-                                                         SIO_SET_BAUDRATE_REQUEST,
-                                                         value,
-                                                         index));
-  }
-
-  /**
-   * ftdi_convert_baudrate returns nearest supported baud rate to that
-   * requested. Function is only used internally \internal
-   *
-   * @param baudrate the baud rate to set
-   * @param value    a short value
-   * @param index    an index value
-   * @return the baudrate value
-   * @deprecated see ftdi_set_baudrate for details.
-   */
-  private static int ftdi_convert_baudrate(int baudrate, short value, short index) {
-    int best_baud;
-    long encoded_divisor = 0;
-
-    if (baudrate <= 0) {
-      // Return error
-      return -1;
-    }
-    int H_CLK = 120000000; // 120 MHz clock
-    int C_CLK = 48000000; // 48 MHz clock
-
-    ChipType type = ChipType.TYPE_2232H;
-
-    switch (type) {
-      case TYPE_2232H:
-      case TYPE_4232H:
-      case TYPE_232H:
-        if (baudrate * 10 > H_CLK / 0x3fff) {
-          /*
-           * On H Devices, use 12 000 000 Baudrate when possible. We have a 14
-           * bit divisor, a 1 bit divisor switch (10 or 16) three fractional
-           * bits and a 120 MHz clock Assume AN_120 "Sub-integer divisors
-           * between 0 and 2 are not allowed" holds for DIV/10 CLK too, so /1,
-           * /1.5 and /2 can be handled the same
-           */
-          best_baud = ftdi_to_clkbits(baudrate, H_CLK, 10, encoded_divisor);
-          encoded_divisor |= 0x20000;
-          /**
-           * switch on CLK/10
-           */
-        } else {
-          best_baud = ftdi_to_clkbits(baudrate, C_CLK, 16, encoded_divisor);
-        }
-        break;
-      case TYPE_BM:
-      case TYPE_2232C:
-      case TYPE_R:
-        best_baud = ftdi_to_clkbits(baudrate, C_CLK, 16, encoded_divisor);
-        break;
-      default:
-        best_baud = ftdi_to_clkbits_AM(baudrate, encoded_divisor);
-        break;
-    }
-    // Split into "value" and "index" values
-    value = (short) (encoded_divisor & 0xFFFF);
-    System.out.println("debug ftdi_convert_baudrate encoded_divisor " + encoded_divisor + " value " + value);
-    if (type.equals(ChipType.TYPE_2232H) || type.equals(ChipType.TYPE_4232H) || type.equals(ChipType.TYPE_232H)) {
-      index = (short) (encoded_divisor >> 8);
-      index &= 0xFF00;
-//      index |= ftdi -> index;
-    } else {
-      index = (short) (encoded_divisor >> 16);
-    }
-    // Return the nearest baud rate
-    System.out.println("debug ftdi_convert_baudrate best_baud " + best_baud + " value " + value + " index " + index);
-    return best_baud;
-  }
-
-  /**
-   * ftdi_to_clkbits Convert a requested baudrate for a given system clock and
-   * predivisor to encoded divisor and the achievable baudrate Function is only
-   * used internally \internal
-   * <p>
-   * See AN120 clk/1 -> 0 clk/1.5 -> 1 clk/2 -> 2 From /2, 0.125 steps may be
-   * taken. The fractional part has frac_code encoding
-   * <p>
-   * value[13:0] of value is the divisor index[9] mean 12 MHz Base(120 MHz/10)
-   * rate versus 3 MHz (48 MHz/16) else
-   * <p>
-   * H Type have all features above with {index[8],value[15:14]} is the encoded
-   * subdivisor
-   * <p>
-   * FT232R, FT2232 and FT232BM have no option for 12 MHz and with
-   * {index[0],value[15:14]} is the encoded subdivisor
-   * <p>
-   * AM Type chips have only four fractional subdivisors at value[15:14] for
-   * subdivisors 0, 0.5, 0.25, 0.125
-   *
-   * @param baudrate        the baudrate
-   * @param clk             a clock rate
-   * @param clk_div         a clock divisor
-   * @param encoded_divisor the encoded divisor
-   * @return a clock bit
-   * @deprecated see ftdi_set_baudrate for details.
-   */
-  private static int ftdi_to_clkbits(int baudrate, int clk, int clk_div, long encoded_divisor) {
-    byte frac_code[] = {0, 3, 2, 4, 1, 5, 6, 7};
-    int best_baud, divisor, best_divisor;
-    if (baudrate >= clk / clk_div) {
-      encoded_divisor = 0;
-      best_baud = clk / clk_div;
-    } else if (baudrate >= clk / (clk_div + clk_div / 2)) {
-      encoded_divisor = 1;
-      best_baud = clk / (clk_div + clk_div / 2);
-    } else if (baudrate >= clk / (2 * clk_div)) {
-      encoded_divisor = 2;
-      best_baud = clk / (2 * clk_div);
-    } else {
-      /*
-       * We divide by 16 to have 3 fractional bits and one bit for rounding
-       */
-      divisor = clk * 16 / clk_div / baudrate;
-      /**
-       * Decide if to round up or down
-       */
-      if ((divisor & 1) == 1) {
-        best_divisor = divisor / 2 + 1;
-      } else {
-        best_divisor = divisor / 2;
-      }
-      if (best_divisor > 0x20000) {
-        best_divisor = 0x1ffff;
-      }
-      best_baud = clk * 16 / clk_div / best_divisor;
-      /**
-       * Decide if to round up or down
-       */
-      if ((best_baud & 1) == 1) {
-        best_baud = best_baud / 2 + 1;
-      } else {
-        best_baud /= 2;
-      }
-      encoded_divisor = (best_divisor >> 3) | (frac_code[best_divisor & 0x7] << 14);
-    }
-    return best_baud;
-  }
-
-  /**
-   * ftdi_to_clkbits_AM For the AM device, convert a requested baudrate to
-   * encoded divisor and the achievable baudrate Function is only used
-   * internally \internal
-   * <p>
-   * See AN120 clk/1 -> 0 clk/1.5 -> 1 clk/2 -> 2 From /2, 0.125/ 0.25 and 0.5
-   * steps may be taken The fractional part has frac_code encoding
-   *
-   * @param baudrate        the baudrate
-   * @param encoded_divisor the encoded divisor
-   * @return a int value
-   * @deprecated see ftdi_set_baudrate for details.
-   */
-  @SuppressWarnings({"AssignmentToMethodParameter", "UnusedAssignment"})
-  private static int ftdi_to_clkbits_AM(int baudrate, long encoded_divisor) {
-    byte frac_code[] = {0, 3, 2, 4, 1, 5, 6, 7};
-    byte am_adjust_up[] = {0, 0, 0, 1, 0, 3, 2, 1};
-    byte am_adjust_dn[] = {0, 0, 0, 1, 0, 1, 2, 3};
-    int best_divisor, best_baud, best_baud_diff;
-    int divisor = 24000000 / baudrate;
-    int i;
-
-    // Round down to supported fraction (AM only)
-    divisor -= am_adjust_dn[divisor & 7];
-
-    // Try this divisor and the one above it (because division rounds down)
-    best_divisor = 0;
-    best_baud = 0;
-    best_baud_diff = 0;
-    for (i = 0; i < 2; i++) {
-      int try_divisor = divisor + i;
-      int baud_estimate;
-      int baud_diff;
-
-      // Round up to supported divisor value
-      if (try_divisor <= 8) {
-        // Round up to minimum supported divisor
-        try_divisor = 8;
-      } else if (divisor < 16) {
-        // AM doesn't support divisors 9 through 15 inclusive
-        try_divisor = 16;
-      } else {
-        // Round up to supported fraction (AM only)
-        try_divisor += am_adjust_up[try_divisor & 7];
-        if (try_divisor > 0x1FFF8) {
-          // Round down to maximum supported divisor value (for AM)
-          try_divisor = 0x1FFF8;
-        }
-      }
-      // Get estimated baud rate (to nearest integer)
-      baud_estimate = (24000000 + (try_divisor / 2)) / try_divisor;
-      // Get absolute difference from requested baud rate
-      if (baud_estimate < baudrate) {
-        baud_diff = baudrate - baud_estimate;
-      } else {
-        baud_diff = baud_estimate - baudrate;
-      }
-      if (i == 0 || baud_diff < best_baud_diff) {
-        // Closest to requested baud rate so far
-        best_divisor = try_divisor;
-        best_baud = baud_estimate;
-        best_baud_diff = baud_diff;
-        if (baud_diff == 0) {
-          // Spot on! No point trying
-          break;
-        }
-      }
-    }
-    // Encode the best divisor value
-    encoded_divisor = (best_divisor >> 3) | (frac_code[best_divisor & 7] << 14);
-    // Deal with special cases for encoded value
-    if (encoded_divisor == 1) {
-      encoded_divisor = 0;    // 3000000 baud
-    } else if (encoded_divisor == 0x4001) {
-      encoded_divisor = 1;    // 2000000 baud (BM only)
+    if (Math.abs(actual.getError()) > 0.05) {
+      throw new Exception("Unsupported baudrate " + actual);
     }
-    return best_baud;
+    PortInterfaceType port = PortInterfaceType.INTERFACE_ANY;
+    submit(iUsbDevice, port, iUsbDevice.createUsbControlIrp(FTDI_USB_CONFIGURATION_WRITE,
+                                                           SIO_SET_BAUDRATE_REQUEST,
+                                                           actual.getValue(),
+                                                           actual.getIndex(port)));
   }//</editor-fold>
 
 }
@@ -0,0 +1,381 @@
+/*
+ * Copyright 2014-2016 Key Bridge LLC.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ftdichip.usb;
+
+import java.io.Closeable;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.*;
+import javax.usb.UsbException;
+
+/**
+ * Coalescing write queue of one FTDI port.
+ * <p>
+ * Every bulk-OUT transfer costs a USB transaction and, with the synchronous
+ * {@link FTDI#write(byte[])}, a full round trip, however few bytes it
+ * carries. The queue merges small writes (e.g. two byte device commands) into
+ * one transfer of up to the WRITE endpoint {@code wMaxPacketSize} (64 bytes
+ * for full speed, 512 for high speed chips). The pending data is sent when
+ * <ul>
+ * <li>the next write would not fit the packet (or fills it exactly),</li>
+ * <li>the {@link #setDeadline(long) deadline} after the first pending write
+ * expires, or</li>
+ * <li>{@link #flush()} is called.</li>
+ * </ul>
+ * Writes larger than one packet are sent directly, after the pending data.
+ * <p>
+ * Each write returns a future completed when its transfer completes, with the
+ * number of its bytes transferred. Data is transferred in the order written.
+ * <p>
+ * Developer note: Ordering is only guaranteed among the writes through this
+ * queue. Call {@link #flush()} before writing to the port directly. The data
+ * is copied, so the caller may re-use its array at once.
+ *
+ * @author Jesse Caulfield
+ */
+public final class FTDIWriteQueue implements Closeable {
+
+  /**
+   * The default deadline after the first pending write (microseconds).
+   */
+  public static final long DEFAULT_DEADLINE_MICROS = 250;
+  /**
+   * The backlog retry interval when no transfer of the queue is in flight
+   * (ms).
+   */
+  private static final long RETRY_MILLIS = 1;
+  /**
+   * Sends the data pending at the deadline. Shared by all queues.
+   */
+  private static final ScheduledThreadPoolExecutor TIMER = new ScheduledThreadPoolExecutor(1, runnable -> {
+    Thread thread = new Thread(runnable, "FTDI write queue deadline");
+    thread.setDaemon(true);
+    return thread;
+  });
+
+  static {
+    TIMER.setRemoveOnCancelPolicy(true);
+  }
+
+  private final FTDI ftdi;
+  /**
+   * The WRITE endpoint maximum packet size (bytes).
+   */
+  private final int packetSize;
+  /**
+   * The pending data and the number of bytes in it. Guarded by this object.
+   */
+  private byte[] packet;
+  private int fill;
+  /**
+   * The futures and lengths of the pending writes. Guarded by this object.
+   */
+  private final List<CompletableFuture<Integer>> futures = new ArrayList<>();
+  private final List<Integer> lengths = new ArrayList<>();
+  /**
+   * The deadline task of the pending data. Null if none.
+   */
+  private ScheduledFuture<?> deadlineTask;
+  /**
+   * The transfers not yet accepted by the port, in order. Guarded by this
+   * object.
+   */
+  private final Deque<Transfer> backlog = new ArrayDeque<>();
+  /**
+   * The number of transfers submitted and not yet completed. Guarded by this
+   * object.
+   */
+  private int inFlight;
+  /**
+   * The backlog retry task. Null if none.
+   */
+  private ScheduledFuture<?> retryTask;
+  private volatile long deadlineMicros = DEFAULT_DEADLINE_MICROS;
+  private volatile boolean open = true;
+  /**
+   * Counters. Written under the lock.
+   */
+  private volatile long writeCount;
+  private volatile long transferCount;
+
+  /**
+   * Construct a new write queue. Created by {@link FTDI#getWriteQueue()}.
+   *
+   * @param ftdi       the port
+   * @param packetSize the WRITE endpoint maximum packet size (bytes)
+   */
+  FTDIWriteQueue(FTDI ftdi, int packetSize) {
+    this.ftdi = ftdi;
+    this.packetSize = packetSize;
+    this.packet = new byte[packetSize];
+  }
+
+  /**
+   * Queue a write.
+   *
+   * @param data the data to write
+   * @return a future completed with the number of bytes transferred, or with
+   *         the UsbException if the transfer fails
+   */
+  public CompletableFuture<Integer> write(byte[] data) {
+    return write(data, 0, data.length);
+  }
+
+  /**
+   * Queue a write.
+   *
+   * @param data   the buffer containing the data to write
+   * @param offset the index of the first byte to write
+   * @param length the number of bytes to write
+   * @return a future completed with the number of bytes transferred, or with
+   *         the UsbException if the transfer fails
+   */
+  public synchronized CompletableFuture<Integer> write(byte[] data, int offset, int length) {
+    if (!open) {
+      throw new IllegalStateException("Write queue is closed.");
+    }
+    writeCount++;
+    CompletableFuture<Integer> future = new CompletableFuture<>();
+    if (length > packetSize - fill) {
+      flush();
+    }
+    if (length >= packetSize) {
+      /**
+       * Too large to merge: send directly, in order after the pending data.
+       */
+      byte[] copy = new byte[length];
+      System.arraycopy(data, offset, copy, 0, length);
+      send(copy, length, future);
+      return future;
+    }
+    System.arraycopy(data, offset, packet, fill, length);
+    fill += length;
+    futures.add(future);
+    lengths.add(length);
+    if (fill == packetSize) {
+      flush();
+    } else if (deadlineTask == null) {
+      long deadline = deadlineMicros;
+      if (deadline <= 0) {
+        flush();
+      } else {
+        deadlineTask = TIMER.schedule(this::flush, deadline, TimeUnit.MICROSECONDS);
+      }
+    }
+    return future;
+  }
+
+  /**
+   * Send the pending data now.
+   */
+  public synchronized void flush() {
+    if (deadlineTask != null) {
+      deadlineTask.cancel(false);
+      deadlineTask = null;
+    }
+    if (fill == 0) {
+      return;
+    }
+    List<CompletableFuture<Integer>> batchFutures = new ArrayList<>(futures);
+    List<Integer> batchLengths = new ArrayList<>(lengths);
+    CompletableFuture<Integer> transfer = new CompletableFuture<>();
+    transfer.whenComplete((actual, exception) -> {
+      int remaining = actual == null ? 0 : actual;
+      for (int i = 0; i < batchFutures.size(); i++) {
+        if (exception != null) {
+          batchFutures.get(i).completeExceptionally(exception);
+        } else {
+          int length = Math.min(batchLengths.get(i), remaining);
+          remaining -= length;
+          batchFutures.get(i).complete(length);
+        }
+      }
+    });
+    send(packet, fill, transfer);
+    packet = new byte[packetSize];
+    fill = 0;
+    futures.clear();
+    lengths.clear();
+  }
+
+  /**
+   * Queue one transfer and submit it, in order, when the port accepts it.
+   * Called with the lock held.
+   *
+   * @param data   the data, owned by the transfer
+   * @param length the number of bytes
+   * @param future completed with the transfer result
+   */
+  private void send(byte[] data, int length, CompletableFuture<Integer> future) {
+    transferCount++;
+    backlog.add(new Transfer(data, length, future));
+    drain();
+  }
+
+  /**
+   * Submit the backlog until the port rejects a transfer.
+   * <p>
+   * Developer note: When the port already has its maximum number of
+   * outstanding asynchronous writes the transfer stays in the backlog and is
+   * retried when one of this queue's transfers completes, or shortly on the
+   * timer if none is in flight (the outstanding writes are someone else's).
+   * Writing synchronously instead would block the writer, or the shared timer
+   * thread, and with it every other queue.
+   */
+  private synchronized void drain() {
+    if (retryTask != null) {
+      retryTask.cancel(false);
+      retryTask = null;
+    }
+    Transfer transfer;
+    while ((transfer = backlog.poll()) != null) {
+      CompletableFuture<Integer> written;
+      try {
+        written = ftdi.writeAsync(transfer.data, 0, transfer.length);
+      } catch (RejectedExecutionException ex) {
+        backlog.addFirst(transfer);
+        if (inFlight == 0) {
+          retryTask = TIMER.schedule(this::drain, RETRY_MILLIS, TimeUnit.MILLISECONDS);
+        }
+        return;
+      } catch (UsbException | RuntimeException ex) {
+        transfer.future.completeExceptionally(ex);
+        continue;
+      }
+      inFlight++;
+      CompletableFuture<Integer> future = transfer.future;
+      written.whenComplete((actual, exception) -> {
+        transferCompleted();
+        if (exception != null) {
+          future.completeExceptionally(exception);
+        } else {
+          future.complete(actual);
+        }
+      });
+    }
+  }
+
+  /**
+   * Record a completed transfer and submit the backlog it made room for.
+   */
+  private synchronized void transferCompleted() {
+    inFlight--;
+    if (!backlog.isEmpty()) {
+      drain();
+    }
+  }
+
+  /**
+   * @return TRUE if transfers are waiting for the port to accept them
+   */
+  synchronized boolean hasBacklog() {
+    return !backlog.isEmpty();
+  }
+
+  /**
+   * Fail the transfers the port has not accepted. Called when the port is
+   * closed.
+   *
+   * @param ex the failure
+   */
+  synchronized void abort(UsbException ex) {
+    if (retryTask != null) {
+      retryTask.cancel(false);
+      retryTask = null;
+    }
+    Transfer transfer;
+    while ((transfer = backlog.poll()) != null) {
+      transfer.future.completeExceptionally(ex);
+    }
+  }
+
+  /**
+   * Set the deadline after the first pending write at which the pending data
+   * is sent. A longer deadline merges more writes but delays them.
+   *
+   * @param deadlineMicros the deadline (microseconds). Zero sends every write
+   *                       immediately (no merging).
+   */
+  public void setDeadline(long deadlineMicros) {
+    if (deadlineMicros < 0) {
+      throw new IllegalArgumentException("Deadline must not be negative.");
+    }
+    this.deadlineMicros = deadlineMicros;
+  }
+
+  /**
+   * @return the deadline after the first pending write (microseconds)
+   */
+  public long getDeadline() {
+    return deadlineMicros;
+  }
+
+  /**
+   * @return the WRITE endpoint maximum packet size (bytes): the largest
+   *         merged transfer
+   */
+  public int getPacketSize() {
+    return packetSize;
+  }
+
+  /**
+   * @return the number of writes queued
+   */
+  public long getWriteCount() {
+    return writeCount;
+  }
+
+  /**
+   * @return the number of transfers sent. The ratio of writes to transfers is
+   *         the coalescing factor.
+   */
+  public long getTransferCount() {
+    return transferCount;
+  }
+
+  /**
+   * Send the pending data and reject further writes. Transfers not yet
+   * accepted by the port are submitted as earlier ones complete.
+   */
+  @Override
+  public synchronized void close() {
+    flush();
+    open = false;
+  }
+
+  /**
+   * A transfer waiting for the port to accept it.
+   */
+  private static final class Transfer {
+
+    private final byte[] data;
+    private final int length;
+    private final CompletableFuture<Integer> future;
+
+    Transfer(byte[] data, int length, CompletableFuture<Integer> future) {
+      this.data = data;
+      this.length = length;
+      this.future = future;
+    }
+  }
+
+  @Override
+  public String toString() {
+    return "FTDIWriteQueue " + writeCount + " writes in " + transferCount + " transfers, deadline " + deadlineMicros + " us";
+  }
+}
@@ -23,9 +23,11 @@ import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 import java.util.Properties;
 import javax.usb.UsbDevice;
+import javax.usb.UsbDeviceDescriptor;
 import javax.usb.UsbException;
 import javax.usb.UsbHub;
 import javax.usb.UsbServices;
@@ -91,7 +93,10 @@ public final class UsbHostManager {
      * Create the UsbServices implementation instance.
      * <p>
      * This creates the UsbServices implementation instance based on the class
-     * named in the properties file.
+     * named in the properties file. A {@code javax.usb.services} system
+     * property overrides the properties file, e.g. to select the device
+     * simulator ({@code com.ftdichip.usb.simulator.SimulatorServices}) for a
+     * test run.
      *
      * @return The UsbServices implementation instance.
      * @exception UsbException If the UsbServices class could not be
@@ -99,7 +104,10 @@ public final class UsbHostManager {
      * @exception SecurityException If the caller does not have security access.
      */
     private static UsbServices createUsbServices() throws UsbException, SecurityException {
-        String className = getProperties().getProperty(JAVAX_USB_USBSERVICES_PROPERTY);
+        String className = System.getProperty(JAVAX_USB_USBSERVICES_PROPERTY);
+        if (null == className) {
+            className = getProperties().getProperty(JAVAX_USB_USBSERVICES_PROPERTY);
+        }
 
         if (null == className) {
             throw new UsbException(USBSERVICES_PROPERTY_NOT_DEFINED());
@@ -310,31 +318,15 @@ public final class UsbHostManager {
    * @since 3.1
    */
   public static List<UsbDevice> getUsbDeviceList(UsbDevice usbDevice, short vendorId, short productId) throws UsbException {
-    List<UsbDevice> iUsbDeviceList = new ArrayList<>();
     /**
      * If the usbDevice is null then get initialize the search at the virtual
      * ROOT hub.
      */
     if (usbDevice == null) {
-      return getUsbDeviceList(getUsbServices().getRootUsbHub(), vendorId, productId);
-    }
-    /*
-     * A device's descriptor is always available. All descriptor field names and
-     * types match exactly what is in the USB specification.
-     */
-    if (vendorId == usbDevice.getUsbDeviceDescriptor().idVendor()
-      && (productId == -1 || productId == usbDevice.getUsbDeviceDescriptor().idProduct())) {
-      iUsbDeviceList.add(usbDevice);
-    }
-    /*
-     * If the device is a HUB then recurse and scan the hub connected devices.
-     * This is just normal recursion: Nothing special.
-     */
-    if (usbDevice.isUsbHub()) {
-      for (Object usbDeviceTemp : ((UsbHub) usbDevice).getAttachedUsbDevices()) {
-        iUsbDeviceList.addAll(getUsbDeviceList((UsbDevice)usbDeviceTemp, vendorId, productId));
-      }
+      usbDevice = getUsbServices().getRootUsbHub();
     }
+    List<UsbDevice> iUsbDeviceList = new ArrayList<>();
+    collectUsbDevices(usbDevice, vendorId, productId == -1 ? Collections.<Short>emptyList() : Collections.singletonList(productId), iUsbDeviceList);
     return iUsbDeviceList;
   }
 
@@ -372,12 +364,28 @@ public final class UsbHostManager {
    */
   public static List<UsbDevice> getUsbDeviceList(UsbDevice usbDevice, short vendorId, List<Short> productId) {
     List<UsbDevice> iUsbDeviceList = new ArrayList<>();
+    collectUsbDevices(usbDevice, vendorId, productId, iUsbDeviceList);
+    return iUsbDeviceList;
+  }
+
+  /**
+   * Recursively collect all devices that match the specified vendor and
+   * product id into a single list.
+   *
+   * @param usbDevice      The IUsbDevice to check.
+   * @param vendorId       The vendor ID to match.
+   * @param productId      A non-null list of product IDs to match. Provide an
+   *                       empty list to match all product IDs.
+   * @param iUsbDeviceList The list to which matching devices are added.
+   */
+  private static void collectUsbDevices(UsbDevice usbDevice, short vendorId, List<Short> productId, List<UsbDevice> iUsbDeviceList) {
     /*
      * A device's descriptor is always available. All descriptor field names and
      * types match exactly what is in the USB specification.
      */
-    if (vendorId == usbDevice.getUsbDeviceDescriptor().idVendor()
-      && (productId.isEmpty() || productId.contains(usbDevice.getUsbDeviceDescriptor().idProduct()))) {
+    UsbDeviceDescriptor descriptor = usbDevice.getUsbDeviceDescriptor();
+    if (vendorId == descriptor.idVendor()
+      && (productId.isEmpty() || productId.contains(descriptor.idProduct()))) {
       iUsbDeviceList.add(usbDevice);
     }
     /*
@@ -386,10 +394,9 @@ public final class UsbHostManager {
      */
     if (usbDevice.isUsbHub()) {
       for (Object usbDeviceTemp : ((UsbHub) usbDevice).getAttachedUsbDevices()) {
-        iUsbDeviceList.addAll(getUsbDeviceList((UsbDevice)usbDeviceTemp, vendorId, productId));
+        collectUsbDevices((UsbDevice) usbDeviceTemp, vendorId, productId, iUsbDeviceList);
       }
     }
-    return iUsbDeviceList;
   }
 
 }
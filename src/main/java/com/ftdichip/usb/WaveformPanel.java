@@ -0,0 +1,350 @@
+/*
+ * Copyright 2014-2016 Key Bridge LLC.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ftdichip.usb;
+
+import com.ftdichip.usb.miocard.MiocardLead;
+import com.ftdichip.usb.miocard.MiocardSampleRing;
+import com.ftdichip.usb.miocard.MiocardWorkMode;
+import java.awt.*;
+import java.awt.event.ActionEvent;
+import java.awt.event.ActionListener;
+import java.awt.image.BufferedImage;
+import java.util.Arrays;
+import javax.swing.JComponent;
+import javax.swing.Timer;
+
+/**
+ * Real-time scrolling twelve lead ECG waveform display.
+ * <p>
+ * The panel renders the leads from a shared {@link MiocardSampleRing} at a
+ * fixed frame rate, independent of the device sample rate. The traces sweep at
+ * a fixed number of pixels per second; each new pixel column is drawn as a
+ * vertical line spanning the minimum and maximum of the samples falling in
+ * that column (min/max decimation), so no peak is lost however many samples
+ * map onto one pixel.
+ * <p>
+ * Each frame only draws the new pixel columns: the traces are kept in a back
+ * buffer image that is scrolled left by the number of new columns with a
+ * single block copy, the new columns are drawn at the right edge and the
+ * back buffer is then blitted to the screen. The cost of a frame is therefore
+ * proportional to the number of new samples, not to the panel size.
+ * <p>
+ * Developer note: All rendering is performed on the event dispatch thread.
+ * The frame timer only runs while the panel is displayable.
+ *
+ * @author Jesse Caulfield
+ */
+public class WaveformPanel extends JComponent {
+
+  private static final long serialVersionUID = 1L;
+  /**
+   * The default frame rate (frames per second).
+   */
+  public static final int DEFAULT_FRAME_RATE = 30;
+  /**
+   * The default sweep speed (pixels per second): 25 mm/s at 5 pixels/mm.
+   */
+  public static final int DEFAULT_SWEEP_SPEED = 125;
+  /**
+   * The default amplitude range of each lead trace (millivolt, peak to
+   * peak).
+   */
+  public static final double DEFAULT_RANGE = 4.0;
+
+  private static final Color BACKGROUND = Color.BLACK;
+  private static final Color BASELINE = new Color(0, 64, 0);
+  private static final Color TRACE = new Color(0, 230, 0);
+  private static final Color LABEL = Color.LIGHT_GRAY;
+  private static final MiocardLead[] LEADS = MiocardLead.values();
+
+  private final MiocardSampleRing ring;
+  private final Timer timer;
+  private int sweepSpeed = DEFAULT_SWEEP_SPEED;
+  private double range = DEFAULT_RANGE;
+  /**
+   * The back buffer holding the traces.
+   */
+  private BufferedImage backBuffer;
+  /**
+   * The work mode of the rendered samples; the display restarts when the ring
+   * work mode changes.
+   */
+  private MiocardWorkMode workMode;
+  /**
+   * The sample number at the left edge of pixel column zero and the number of
+   * pixel columns drawn since. Pixel column {@code n} covers the samples from
+   * {@code origin + floor(n * samplesPerPixel)} (inclusive) to
+   * {@code origin + floor((n + 1) * samplesPerPixel)} (exclusive).
+   */
+  private long origin;
+  private long pixels;
+  private double samplesPerPixel;
+  /**
+   * The vertical scale (pixels per sample count).
+   */
+  private double scale;
+  /**
+   * The trace y position of the last drawn sample of each lead, or -1 after
+   * a restart.
+   */
+  private final int[] lastY = new int[LEADS.length];
+
+  /**
+   * Construct a new waveform panel with the default frame rate.
+   *
+   * @param ring the sample ring buffer to display
+   */
+  public WaveformPanel(MiocardSampleRing ring) {
+    this(ring, DEFAULT_FRAME_RATE);
+  }
+
+  /**
+   * Construct a new waveform panel.
+   *
+   * @param ring      the sample ring buffer to display
+   * @param frameRate the display frame rate (frames per second)
+   */
+  public WaveformPanel(MiocardSampleRing ring, int frameRate) {
+    if (frameRate < 1 || frameRate > 1000) {
+      throw new IllegalArgumentException("Frame rate must be between 1 and 1000.");
+    }
+    this.ring = ring;
+    this.timer = new Timer(1000 / frameRate, new ActionListener() {
+      @Override
+      public void actionPerformed(ActionEvent e) {
+        renderFrame();
+      }
+    });
+    this.timer.setCoalesce(true);
+    setOpaque(true);
+    setPreferredSize(new Dimension(620, 12 * 40));
+  }
+
+  /**
+   * Set the sweep speed. The display restarts.
+   *
+   * @param sweepSpeed the sweep speed (pixels per second)
+   */
+  public void setSweepSpeed(int sweepSpeed) {
+    if (sweepSpeed < 1) {
+      throw new IllegalArgumentException("Sweep speed must be positive.");
+    }
+    this.sweepSpeed = sweepSpeed;
+    this.workMode = null;
+  }
+
+  /**
+   * Set the amplitude range of each lead trace. The display restarts.
+   *
+   * @param range the amplitude range (millivolt, peak to peak)
+   */
+  public void setRange(double range) {
+    if (range <= 0) {
+      throw new IllegalArgumentException("Range must be positive.");
+    }
+    this.range = range;
+    this.workMode = null;
+  }
+
+  @Override
+  public void addNotify() {
+    super.addNotify();
+    timer.start();
+  }
+
+  @Override
+  public void removeNotify() {
+    timer.stop();
+    super.removeNotify();
+  }
+
+  /**
+   * Restart the display at the newest sample with an empty back buffer.
+   */
+  private void restart() {
+    workMode = ring.getWorkMode();
+    samplesPerPixel = (double) workMode.getSampleRate() / sweepSpeed;
+    /**
+     * ADS129x: full scale (+/- 2.4 V at a gain of 6) is the full sample
+     * range.
+     */
+    double countsPerMillivolt = (1 << (workMode.getSampleBytes() * 8 - 1)) * 6 / 2400.0;
+    scale = getBandHeight() / (range * countsPerMillivolt);
+    origin = ring.getSampleCount();
+    pixels = 0;
+    Arrays.fill(lastY, -1);
+    backBuffer = getGraphicsConfiguration() != null
+                 ? getGraphicsConfiguration().createCompatibleImage(Math.max(1, getWidth()), Math.max(1, getHeight()))
+                 : new BufferedImage(Math.max(1, getWidth()), Math.max(1, getHeight()), BufferedImage.TYPE_INT_RGB);
+    Graphics2D g = backBuffer.createGraphics();
+    try {
+      clear(g, 0, backBuffer.getWidth());
+    } finally {
+      g.dispose();
+    }
+  }
+
+  /**
+   * @return the height of each lead band (pixels)
+   */
+  private double getBandHeight() {
+    return (double) getHeight() / LEADS.length;
+  }
+
+  /**
+   * Clear a range of pixel columns and draw the lead baselines.
+   */
+  private void clear(Graphics2D g, int x, int width) {
+    g.setColor(BACKGROUND);
+    g.fillRect(x, 0, width, backBuffer.getHeight());
+    g.setColor(BASELINE);
+    double band = getBandHeight();
+    for (int lead = 0; lead < LEADS.length; lead++) {
+      int y = (int) (band * lead + band / 2);
+      g.drawLine(x, y, x + width - 1, y);
+    }
+  }
+
+  /**
+   * Draw the pixel columns completed since the previous frame and schedule a
+   * repaint.
+   */
+  private void renderFrame() {
+    if (getWidth() <= 0 || getHeight() <= 0) {
+      return;
+    }
+    long sampleCount = ring.getSampleCount();
+    if (workMode != ring.getWorkMode()
+        || backBuffer == null
+        || backBuffer.getWidth() != getWidth()
+        || backBuffer.getHeight() != getHeight()
+        || sampleCount < origin) {
+      restart();
+    }
+    int width = backBuffer.getWidth();
+    long available = (long) ((sampleCount - origin) / samplesPerPixel);
+    int count = (int) Math.min(available - pixels, width);
+    if (count <= 0) {
+      return;
+    }
+    /**
+     * Skip the columns that would scroll out of view immediately, and the
+     * samples already overwritten in the ring.
+     */
+    pixels = available - count;
+    long firstSample = ring.getFirstSample();
+    while (count > 0 && getColumnStart(pixels) < firstSample) {
+      pixels++;
+      count--;
+    }
+    Graphics2D g = backBuffer.createGraphics();
+    try {
+      if (count < width) {
+        g.copyArea(count, 0, width - count, backBuffer.getHeight(), -count, 0);
+      }
+      int x = width - count;
+      clear(g, x, count);
+      g.setColor(TRACE);
+      for (; count > 0; count--, x++, pixels++) {
+        drawColumn(g, x, getColumnStart(pixels), getColumnStart(pixels + 1));
+      }
+    } finally {
+      g.dispose();
+    }
+    repaint();
+  }
+
+  /**
+   * @param pixel the pixel column number
+   * @return the number of the first sample drawn in the pixel column
+   */
+  private long getColumnStart(long pixel) {
+    return origin + (long) (pixel * samplesPerPixel);
+  }
+
+  /**
+   * Draw one pixel column of every lead: a vertical line from the minimum to
+   * the maximum sample in the column, extended to join the previous column.
+   *
+   * @param g    the back buffer graphics
+   * @param x    the pixel column
+   * @param from the first sample (inclusive)
+   * @param to   the last sample (exclusive)
+   */
+  private void drawColumn(Graphics2D g, int x, long from, long to) {
+    if (to <= from) {
+      return;
+    }
+    double band = getBandHeight();
+    for (int lead = 0; lead < LEADS.length; lead++) {
+      int min = Integer.MAX_VALUE;
+      int max = Integer.MIN_VALUE;
+      int value = 0;
+      for (long sample = from; sample < to; sample++) {
+        value = ring.getSample(lead, sample);
+        if (value < min) {
+          min = value;
+        }
+        if (value > max) {
+          max = value;
+        }
+      }
+      double center = band * lead + band / 2;
+      int top = toY(max, center, band * lead);
+      int bottom = toY(min, center, band * lead);
+      int last = toY(value, center, band * lead);
+      if (lastY[lead] >= 0) {
+        top = Math.min(top, lastY[lead]);
+        bottom = Math.max(bottom, lastY[lead]);
+      }
+      g.drawLine(x, top, x, bottom);
+      lastY[lead] = last;
+    }
+  }
+
+  /**
+   * Convert a sample value to a y position, clipped to the lead band.
+   */
+  private int toY(int value, double center, double bandTop) {
+    double y = center - value * scale;
+    return (int) Math.max(bandTop, Math.min(bandTop + getBandHeight() - 1, y));
+  }
+
+  @Override
+  protected void paintComponent(Graphics g) {
+    if (backBuffer == null || backBuffer.getWidth() != getWidth() || backBuffer.getHeight() != getHeight()) {
+      g.setColor(BACKGROUND);
+      g.fillRect(0, 0, getWidth(), getHeight());
+    } else {
+      g.drawImage(backBuffer, 0, 0, null);
+    }
+    g.setColor(LABEL);
+    double band = getBandHeight();
+    int ascent = g.getFontMetrics().getAscent();
+    for (int lead = 0; lead < LEADS.length; lead++) {
+      g.drawString(getLabel(LEADS[lead]), 4, (int) (band * lead) + ascent);
+    }
+  }
+
+  /**
+   * @param lead the lead
+   * @return the conventional lead label, e.g. "aVR"
+   */
+  private static String getLabel(MiocardLead lead) {
+    String name = lead.name();
+    return name.startsWith("AV") ? "aV" + name.substring(2) : name;
+  }
+}
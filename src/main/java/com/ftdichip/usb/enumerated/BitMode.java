@@ -106,4 +106,26 @@ public enum BitMode {
     this.mask = mask;
   }
 
+  /**
+   * @return the mode byte of the SIO_SET_BITMODE_REQUEST (wValue high byte)
+   */
+  public byte getBytecode() {
+    return mask;
+  }
+
+  /**
+   * Get the bit mode with a mode byte.
+   *
+   * @param bytecode the mode byte
+   * @return the bit mode, null if unknown
+   */
+  public static BitMode fromBytecode(byte bytecode) {
+    for (BitMode bitMode : values()) {
+      if (bitMode.mask == bytecode) {
+        return bitMode;
+      }
+    }
+    return null;
+  }
+
 }
@@ -15,6 +15,8 @@
  */
 package com.ftdichip.usb.enumerated;
 
+import javax.usb.UsbDeviceDescriptor;
+
 /**
  * Enumerated list of recognized FTDI chip types supported in this library.
  *
@@ -40,4 +42,47 @@ public enum ChipType {
     return chipType;
   }
 
+  /**
+   * Identify the chip type of an FTDI device from its device release number
+   * (bcdDevice). This is the same identification as used by libftdi.
+   * <p>
+   * Developer note: The BM and AM chips both report release 2.00 when the BM
+   * EEPROM is blank; a BM is then recognized by the missing serial number
+   * string. Unknown release numbers are reported as {@link #TYPE_BM}, which
+   * has the baud rate generator common to most chips.
+   *
+   * @param descriptor the USB device descriptor
+   * @return the chip type
+   */
+  public static ChipType fromDescriptor(UsbDeviceDescriptor descriptor) {
+    switch (descriptor.bcdDevice()) {
+      case 0x0200:
+        return descriptor.iSerialNumber() == 0 ? TYPE_BM : TYPE_AM;
+      case 0x0400:
+        return TYPE_BM;
+      case 0x0500:
+        return TYPE_2232C;
+      case 0x0600:
+        return TYPE_R;
+      case 0x0700:
+        return TYPE_2232H;
+      case 0x0800:
+        return TYPE_4232H;
+      case 0x0900:
+        return TYPE_232H;
+      case 0x1000:
+        return TYPE_230X;
+      default:
+        return TYPE_BM;
+    }
+  }
+
+  /**
+   * @return TRUE for the high speed (H series) chips, whose baud rate
+   *         generator also runs from a 120 MHz clock
+   */
+  public boolean isHighSpeed() {
+    return this == TYPE_2232H || this == TYPE_4232H || this == TYPE_232H;
+  }
+
 }
@@ -42,30 +42,34 @@ public enum FlowControl {
   /**
    * None - this may result in data loss at high speeds.
    */
-  DISABLE_FLOW_CTRL((byte) 0x0),
+  DISABLE_FLOW_CTRL((short) 0x0),
   /**
    * RTS/CTS - 2 wire handshake. The device will transmit if CTS is active and
    * will drop RTS if it cannot receive any more.
    */
-  RTS_CTS_HS((byte) (0x1 << 8)),
+  RTS_CTS_HS((short) (0x1 << 8)),
   /**
    * DTR/DSR - 2 wire handshake. The device will transmit if DSR is active and
    * will drop DTR if it cannot receive any more.
    */
-  DTR_DSR_HS((byte) (0x2 << 8)),
+  DTR_DSR_HS((short) (0x2 << 8)),
   /**
    * XON/XOFF - flow control is done by sending or receiving special characters.
    * One is XOn (transmit on) the other is XOff (transmit off). They are
    * individually programmable to any value.
    */
-  XON_XOFF_HS((byte) (0x4 << 8));
-  private final byte bytecode;
+  XON_XOFF_HS((short) (0x4 << 8));
+  private final short bytecode;
 
-  private FlowControl(byte bytecode) {
+  private FlowControl(short bytecode) {
     this.bytecode = bytecode;
   }
 
-  public byte getBytecode() {
+  /**
+   * @return the flow control word, sent in the high byte of the request
+   *         wIndex
+   */
+  public short getBytecode() {
     return bytecode;
   }
 }
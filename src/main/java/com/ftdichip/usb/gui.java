@@ -4,13 +4,16 @@ import com.ftdichip.usb.enumerated.FlowControl;
 import com.ftdichip.usb.enumerated.LineDatabit;
 import com.ftdichip.usb.enumerated.LineParity;
 import com.ftdichip.usb.enumerated.LineStopbit;
+import com.ftdichip.usb.miocard.MiocardCommand;
+import com.ftdichip.usb.miocard.MiocardCommandChannel;
+import com.ftdichip.usb.miocard.MiocardSampleRing;
+import com.ftdichip.usb.miocard.MiocardWorkMode;
 import net.miginfocom.swing.MigLayout;
 
 import javax.swing.*;
 import javax.swing.border.EmptyBorder;
 import javax.swing.filechooser.FileNameExtensionFilter;
 import javax.usb.UsbClaimException;
-import javax.usb.UsbDevice;
 import javax.usb.UsbException;
 import java.awt.*;
 import java.awt.event.ActionEvent;
@@ -18,8 +21,8 @@ import java.awt.event.ActionListener;
 import java.io.*;
 import java.math.BigInteger;
 import java.text.SimpleDateFormat;
-import java.util.Collection;
 import java.util.Date;
+import java.util.concurrent.ExecutionException;
 
 
 
@@ -28,25 +31,14 @@ public class gui {
     private static final String FTDeviceName1 = "ECG";
     private static final char[] HEX_ARRAY = "0123456789ABCDEF".toCharArray();
     private static FTDI device = null;
+    // decoded samples shared by the stream reader and the waveform display
+    private static final MiocardSampleRing samples = new MiocardSampleRing(MiocardWorkMode.DEFAULT);
+    // the single reader of the device: routes command responses and sample frames
+    private static MiocardCommandChannel commands = null;
+    private static boolean streaming = false;
 
     private static PrintStream standardOut;
 
-    public static class CustomOutputStream extends OutputStream {
-        private JTextArea textArea;
-
-        public CustomOutputStream(JTextArea textArea) {
-            this.textArea = textArea;
-        }
-
-        @Override
-        public void write(int b) throws IOException {
-            // redirects data to the text area
-            textArea.append(String.valueOf((char)b));
-            // scrolls the text area to the end of data
-            textArea.setCaretPosition(textArea.getDocument().getLength());
-        }
-    }
-
     public static void main(String[] args) {
         try {
             Connect();
@@ -125,9 +117,13 @@ public class gui {
         JScrollPane scrollPane2 = new JScrollPane(LogField);
         panel4.add(scrollPane1); panel4.add(scrollPane2);
 
+//        Creating the 12-lead waveform display
+        WaveformPanel waveform = new WaveformPanel(samples);
+
 //        relocate standart output stream to textarea
 /////////////////////////////////////////
-        PrintStream printStream = new PrintStream(new CustomOutputStream(LogField));
+        // output is buffered and appended to the text area in batches on the EDT
+        PrintStream printStream = new PrintStream(new ConsoleOutputStream(LogField));
         // keeps reference of standard output stream
         standardOut = System.out;
 
@@ -138,11 +134,12 @@ public class gui {
 
 
         frame.add(panel4, "wrap");
+        frame.add(waveform, "grow, push, wrap");
 
         frame.pack();
-        frame.setSize(650, 400);
+        frame.setSize(650, 880);
         frame.setLocationRelativeTo(null);
-        frame.setMinimumSize(new Dimension(650, 400));
+        frame.setMinimumSize(new Dimension(650, 600));
         frame.setVisible(true);
 
         SerialNO.addActionListener(new ActionListener() {
@@ -150,8 +147,7 @@ public class gui {
             public void actionPerformed(ActionEvent e) {
                 byte[] res = new byte[0];
                 try {
-                    sendRequest((byte) 0x07);
-                    res = device.read();
+                    res = sendRequest((byte) 0x07, MiocardCommandChannel.UNKNOWN_LENGTH);
                 } catch (UsbException ex) {
                     ex.printStackTrace();
                 }
@@ -165,8 +161,7 @@ public class gui {
             public void actionPerformed(ActionEvent e) {
                 byte[] res = new byte[0];
                 try {
-                    sendRequest((byte) 0x0F);
-                    res = device.read();
+                    res = sendRequest((byte) 0x0F, MiocardCommandChannel.UNKNOWN_LENGTH);
                 } catch (UsbException ex) {
                     ex.printStackTrace();
                 }
@@ -276,10 +271,10 @@ public class gui {
             public void actionPerformed(ActionEvent e) {
                 byte[] res = new byte[0];
                 try {
-                    sendRequest((byte) 0x02);
-                    res = device.read();
+                    res = sendRequest((byte) 0x02, MiocardCommand.MODE_INFO.getResponseLength());
                 } catch (UsbException ex) {
                     ex.printStackTrace();
+                    return;
                 }
 
                 String str = DecodeWorkMode(res);
@@ -288,62 +283,13 @@ public class gui {
         });
 
         Start.addActionListener(new ActionListener() {
-
             @Override
             public void actionPerformed(ActionEvent e) {
-//                try {
-//                    sendRequest((byte) 0x09);
-//                } catch (UsbException ex) {
-//                    ex.printStackTrace();
-//                }
-
-                printLog();
-
-//                byte[] usbFrame = new byte[0];
-//                try {
-//                    usbFrame = device.read();
-//                } catch (UsbException ex) {
-//                    ex.printStackTrace();
-//                }
-//
-//                while (usbFrame.length > 0) {
-//                    String str = StringWithSpaces(bytesToHex(usbFrame));
-//                    //LogField.repaint();
-//                    System.out.println(str);
-//                }
-
-            }
-
-            private void printLog() {
-                Thread thread = new Thread(new Runnable() {
-                    @Override
-                    public void run() {
-
-                        try {
-                            sendRequest((byte) 0x09);
-                        } catch (UsbException ex) {
-                            ex.printStackTrace();
-                        }
-
-                        byte[] usbFrame = new byte[0];
-                        try {
-                            usbFrame = device.read();
-                        } catch (UsbException ex) {
-                            ex.printStackTrace();
-                        }
-
-                        while (usbFrame.length > 0) {
-                            String str = StringWithSpaces(bytesToHex(usbFrame));
-                            System.out.println(str);
-                            try {
-                                Thread.sleep(1000);
-                            } catch (InterruptedException ex) {
-                                ex.printStackTrace();
-                            }
-                        }
-                    }
-                });
-                thread.start();
+                try {
+                    startStreaming();
+                } catch (UsbException ex) {
+                    ex.printStackTrace();
+                }
             }
         });
 
@@ -356,6 +302,7 @@ public class gui {
                 } catch (UsbException ex) {
                     ex.printStackTrace();
                 }
+                stopStreaming();
             }
         });
 
@@ -412,21 +359,27 @@ public class gui {
     public static void Connect() throws IOException, Exception {
         device = null;
         try {
-            Collection<UsbDevice> Devices = FTDIUtility.findFTDIDevices();
-            for (UsbDevice Device : Devices) {
-                String DeviceName;
-                try {
-                    DeviceName = Device.getProductString();
-                } catch (Exception E) {
-                    device = FTDI.getInstance(Device);
+            // cached device lookup: no USB traffic per candidate
+            FTDIDeviceRegistry registry = FTDIDeviceRegistry.getInstance();
+            FTDIDeviceInfo found = null;
+            for (String name : new String[]{FTDeviceName0, FTDeviceName1}) {
+                if (!registry.findByProduct(name).isEmpty()) {
+                    found = registry.findByProduct(name).get(0);
                     break;
                 }
-
-                if (DeviceName.equals(FTDeviceName0) || DeviceName.equals(FTDeviceName1)) {
-                    device = FTDI.getInstance(Device);
-                    break;
+            }
+            // a device whose product string cannot be read is assumed to be ours
+            if (found == null) {
+                for (FTDIDeviceInfo info : registry.getDevices()) {
+                    if (info.getProduct() == null) {
+                        found = info;
+                        break;
+                    }
                 }
             }
+            if (found != null) {
+                device = FTDI.getInstance(found.getUsbDevice());
+            }
         } catch (UsbClaimException UCE) {
             throw UCE;
         } catch (Exception E) {
@@ -443,12 +396,19 @@ public class gui {
                                     LineParity.NONE,
                                     FlowControl.DISABLE_FLOW_CTRL );
 
+        commands = new MiocardCommandChannel(device, MiocardWorkMode.DEFAULT, samples);
+        commands.open();
+
 //        start program with sending empty command
         sendRequest((byte) 0x08);
 
     }
 
     public static void Disconnect() {
+        if (commands != null) {
+            commands.close();
+            commands = null;
+        }
         if (device != null) {
             try {
                 device.close();
@@ -470,10 +430,45 @@ public class gui {
         return new String(hexChars);
     }
 
+//     start streaming: frames are read asynchronously and decoded into the sample ring
+    public static synchronized void startStreaming() throws UsbException {
+        if (streaming) {
+            return;
+        }
+        MiocardWorkMode mode = MiocardWorkMode.fromResponse(sendRequest((byte) 0x02, MiocardCommand.MODE_INFO.getResponseLength()));
+        samples.setWorkMode(mode);
+        commands.setWorkMode(mode);
+        sendRequest((byte) 0x09);
+        streaming = true;
+    }
+
+//     stop streaming and report the frame statistics to the log
+    public static synchronized void stopStreaming() {
+        if (!streaming) {
+            return;
+        }
+        System.out.println(commands);
+        streaming = false;
+    }
+
 //     method for sending command to COM-port
     public static void sendRequest(byte value2) throws UsbException {
-        byte[] request = {(byte) 0x55, value2};
-        device.write(request);
+        sendRequest(value2, MiocardCommandChannel.NO_RESPONSE);
+    }
+
+//     method for sending command to COM-port and waiting for its response (the reader thread keeps streaming)
+    public static byte[] sendRequest(byte value2, int responseLength) throws UsbException {
+        try {
+            return commands.send(value2, responseLength).get();
+        } catch (ExecutionException ex) {
+            if (ex.getCause() instanceof UsbException) {
+                throw (UsbException) ex.getCause();
+            }
+            throw new UsbException("Command 0x" + bytesToHex(new byte[]{value2}) + " failed: " + ex.getCause().getMessage());
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new UsbException("Command 0x" + bytesToHex(new byte[]{value2}) + " interrupted.");
+        }
     }
 
 //    method to split string by bytes
@@ -490,63 +485,14 @@ public class gui {
 
 //    method to decode work mode
     public static String DecodeWorkMode(byte[] arr) {
-        String result[] = new String[6];
-        byte HighByte = arr[2];
-        byte LowByte = arr[1];
-//    Range
-        if (HighByte - 0x08 >= 0x00) {
-            result[0] = "Wide (+/- 20.46 mV)\n";
-            HighByte -= 0x08;
-        } else {
-            result[0] = "Narrow (+/- 10,23 mV)\n";
-            HighByte -= 0x04;
-        }
-//    Speed
-        if (HighByte - 0x02 == 0x00) {
-            result[1] = "High\n";
-        } else {
-            result[1] = "Normal\n";
-        }
-//    Frequency
-        if (LowByte - 0x80 >= 0x00) {
-            result[2] = "2000Hz\n";
-            LowByte -= 0x80;
-        } else if (LowByte - 0x40 >= 0x00) {
-            result[2] = "1000Hz\n";
-            LowByte -= 0x40;
-        } else {
-            result[2] = "500Hz\n";
-            LowByte -= 0x20;
-        }
-//    ADS model
-        if (LowByte - 0x10 >= 0x00) {
-            result[3] = "ADS1298 (24 bits)\n";
-            LowByte -= 0x10;
-        } else {
-            result[3] = "ADS1198 (16 bits)\n";
-            LowByte -= 0x08;
-        }
-//    Control mode
-        if (LowByte - 0x04 >= 0x00) {
-            result[4] = "On\n";
-            LowByte -= 0x04;
-        } else {
-            result[4] = "Off\n";
-        }
-//    Electrode break monitoring
-        if (LowByte - 0x02 == 0x01) {
-            result[5] = "On\n";
-        } else {
-            result[5] = "Off\n";
-        }
-
+        MiocardWorkMode mode = MiocardWorkMode.fromResponse(arr);
         return  "Miocard-12 works in mode:\n" +
-                "Electrode break monitoring range: " + result[0] +
-                "Isoline alignment speed: " + result[1] +
-                "Frequency: " + result[2] +
-                "ADS model: " + result[3] +
-                "Control mode: " + result[4] +
-                "Isoline output to zero: " + result[5] +
+                "Electrode break monitoring range: " + (mode.isWideRange() ? "Wide (+/- 20.46 mV)\n" : "Narrow (+/- 10,23 mV)\n") +
+                "Isoline alignment speed: " + (mode.isHighSpeed() ? "High\n" : "Normal\n") +
+                "Frequency: " + mode.getSampleRate() + "Hz\n" +
+                "ADS model: " + (mode.isAds1298() ? "ADS1298 (24 bits)\n" : "ADS1198 (16 bits)\n") +
+                "Control mode: " + (mode.isControlMode() ? "On\n" : "Off\n") +
+                "Isoline output to zero: " + (mode.isIsolineToZero() ? "On\n" : "Off\n") +
                 "Electrode break monitoring: On\n";
     }
 
@@ -0,0 +1,88 @@
+/*
+ * Copyright 2014-2016 Key Bridge LLC.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ftdichip.usb.miocard;
+
+/**
+ * Enumerated list of Miocard-12 commands.
+ * <p>
+ * Each command is sent as the {@link MiocardProtocol#COMMAND_PREFIX} followed
+ * by the command code. Commands that return information answer with the
+ * command code (echo) followed by the response payload.
+ *
+ * @author Jesse Caulfield
+ */
+public enum MiocardCommand {
+
+  /**
+   * Report the work mode. The response payload is the two byte work mode (see
+   * {@link MiocardWorkMode}).
+   */
+  MODE_INFO((byte) 0x02, 2),
+  /**
+   * Stop streaming. Also sent as an empty command to synchronize the device
+   * command parser.
+   */
+  STOP((byte) 0x08, -1),
+  /**
+   * Start streaming sample frames.
+   */
+  START((byte) 0x09, -1);
+
+  private final byte code;
+  private final int responseLength;
+
+  private MiocardCommand(byte code, int responseLength) {
+    this.code = code;
+    this.responseLength = responseLength;
+  }
+
+  /**
+   * @return the command code (the second command byte)
+   */
+  public byte getCode() {
+    return code;
+  }
+
+  /**
+   * @return the response payload length, excluding the echoed command code, or
+   *         -1 if the command has no response
+   */
+  public int getResponseLength() {
+    return responseLength;
+  }
+
+  /**
+   * @return the two command bytes to send to the device
+   */
+  public byte[] toBytes() {
+    return new byte[]{MiocardProtocol.COMMAND_PREFIX, code};
+  }
+
+  /**
+   * Get the command for a command code.
+   *
+   * @param code the command code
+   * @return the command, or null if the code is not known
+   */
+  public static MiocardCommand fromCode(byte code) {
+    for (MiocardCommand command : values()) {
+      if (command.code == code) {
+        return command;
+      }
+    }
+    return null;
+  }
+}
@@ -0,0 +1,400 @@
+/*
+ * Copyright 2014-2016 Key Bridge LLC.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ftdichip.usb.miocard;
+
+import com.ftdichip.usb.FTDI;
+import com.ftdichip.usb.FTDIBuffer;
+import com.ftdichip.usb.FTDIDataListener;
+import java.io.Closeable;
+import java.util.Arrays;
+import java.util.Queue;
+import java.util.concurrent.*;
+import javax.usb.UsbException;
+
+/**
+ * Correlated Miocard-12 command / response channel over a single
+ * asynchronous reader.
+ * <p>
+ * The channel is the only reader of its {@link FTDI} port. Every received
+ * byte goes through one {@link MiocardFramer}, which passes the sample frames
+ * to the frame listener and the command responses, which the device inserts
+ * between the frames, back to this channel. Each response completes the
+ * future returned when its command was sent, so the work mode (or any other
+ * query) can be requested while streaming, several queries may be in flight
+ * at once, and no caller ever reads the port directly.
+ * <p>
+ * The device answers commands in order. Responses are matched to the oldest
+ * outstanding command by their echoed command code; a command that is not
+ * answered within the timeout fails with a {@link TimeoutException} and is
+ * forgotten.
+ * <p>
+ * Developer note: Futures are completed on the read thread; dependent actions
+ * registered with {@code thenApply} etc. run there too and must not block.
+ * Response lengths must be known to separate a response from the following
+ * frames; a response of {@link #UNKNOWN_LENGTH unknown length} can only be
+ * read while the device is not streaming.
+ *
+ * @author Jesse Caulfield
+ */
+public final class MiocardCommandChannel implements FTDIDataListener, Closeable {
+
+  /**
+   * The response length of a command that is not answered.
+   */
+  public static final int NO_RESPONSE = -1;
+  /**
+   * The response length of a command whose response is not known in advance:
+   * the response is the rest of the received transfer. Only allowed while not
+   * streaming.
+   */
+  public static final int UNKNOWN_LENGTH = -2;
+  /**
+   * The default response timeout (milliseconds).
+   */
+  public static final long DEFAULT_TIMEOUT = 1000;
+  /**
+   * The number of read requests and their size (bytes).
+   */
+  private static final int IRP_COUNT = 4;
+  private static final int TRANSFER_SIZE = 16384;
+  /**
+   * Fails the commands that are not answered in time. Shared by all channels.
+   */
+  private static final ScheduledThreadPoolExecutor TIMER = new ScheduledThreadPoolExecutor(1, runnable -> {
+    Thread thread = new Thread(runnable, "Miocard command timeout");
+    thread.setDaemon(true);
+    return thread;
+  });
+
+  static {
+    TIMER.setRemoveOnCancelPolicy(true);
+  }
+
+  private final FTDI ftdi;
+  private final MiocardFramer framer;
+  /**
+   * The commands awaiting a response, in the order sent.
+   */
+  private final Queue<Pending> pending = new ConcurrentLinkedQueue<>();
+  /**
+   * Serializes the command writes so that the pending queue order is the
+   * order in which the device receives the commands.
+   */
+  private final Object writeLock = new Object();
+  /**
+   * Guards the framer, which is not thread safe. Not this object: close()
+   * waits for the read callback to return.
+   */
+  private final Object framerLock = new Object();
+  private volatile long timeout = DEFAULT_TIMEOUT;
+  /**
+   * TRUE after a START and before a STOP command was sent.
+   */
+  private volatile boolean streaming;
+  private volatile boolean open;
+  /**
+   * Counters.
+   */
+  private volatile long responseCount;
+  private volatile long timeoutCount;
+
+  /**
+   * Construct a new command channel. Call {@link #open()} to start reading.
+   *
+   * @param ftdi     the FTDI port to which the device is attached
+   * @param workMode the device work mode, which sets the sample frame format
+   * @param listener the listener to receive the sample frames
+   */
+  public MiocardCommandChannel(FTDI ftdi, MiocardWorkMode workMode, MiocardFrameListener listener) {
+    this.ftdi = ftdi;
+    this.framer = new MiocardFramer(workMode, listener);
+    this.framer.setCommandChannel(this);
+  }
+
+  /**
+   * Start the asynchronous reader of the port.
+   *
+   * @throws UsbException if the read requests cannot be submitted
+   */
+  public synchronized void open() throws UsbException {
+    if (open) {
+      return;
+    }
+    ftdi.addDataListener(this);
+    try {
+      ftdi.startAsyncRead(IRP_COUNT, TRANSFER_SIZE);
+    } catch (UsbException | RuntimeException ex) {
+      ftdi.removeDataListener(this);
+      throw ex;
+    }
+    open = true;
+  }
+
+  /**
+   * Stop the asynchronous reader. Outstanding commands are cancelled.
+   */
+  @Override
+  public synchronized void close() {
+    if (!open) {
+      return;
+    }
+    open = false;
+    ftdi.stopAsyncRead();
+    ftdi.removeDataListener(this);
+    for (Pending command = pending.poll(); command != null; command = pending.poll()) {
+      command.future.cancel(false);
+    }
+  }
+
+  /**
+   * Send a command.
+   *
+   * @param command the command
+   * @return a future completed with the response (the echoed command code
+   *         followed by the response payload) or, for a command without
+   *         response, with an empty array when the command has been written
+   */
+  public CompletableFuture<byte[]> send(MiocardCommand command) {
+    return send(command.getCode(), command.getResponseLength());
+  }
+
+  /**
+   * Send a command by its code. This supports the device commands not (yet)
+   * listed in {@link MiocardCommand}.
+   *
+   * @param code           the command code
+   * @param responseLength the response payload length, excluding the echoed
+   *                       command code, {@link #NO_RESPONSE} or
+   *                       {@link #UNKNOWN_LENGTH}
+   * @return a future completed with the response (the echoed command code
+   *         followed by the response payload) or, for a command without
+   *         response, with an empty array when the command has been written
+   */
+  public CompletableFuture<byte[]> send(byte code, int responseLength) {
+    CompletableFuture<byte[]> future = new CompletableFuture<>();
+    if (!open) {
+      future.completeExceptionally(new IllegalStateException("Command channel is not open."));
+      return future;
+    }
+    if (responseLength == UNKNOWN_LENGTH && streaming) {
+      future.completeExceptionally(new IllegalStateException("A response of unknown length cannot be read while streaming."));
+      return future;
+    }
+    Pending command = responseLength == NO_RESPONSE ? null : new Pending(code, responseLength, future);
+    synchronized (writeLock) {
+      if (command != null) {
+        pending.add(command);
+      }
+      try {
+        ftdi.write(new byte[]{MiocardProtocol.COMMAND_PREFIX, code});
+      } catch (UsbException | RuntimeException ex) {
+        if (command != null) {
+          pending.remove(command);
+        }
+        future.completeExceptionally(ex);
+        return future;
+      }
+      if (code == MiocardCommand.START.getCode()) {
+        streaming = true;
+      } else if (code == MiocardCommand.STOP.getCode()) {
+        streaming = false;
+      }
+    }
+    if (command == null) {
+      future.complete(new byte[0]);
+    } else {
+      ScheduledFuture<?> expiry = TIMER.schedule(() -> expire(command), timeout, TimeUnit.MILLISECONDS);
+      future.whenComplete((response, exception) -> expiry.cancel(false));
+    }
+    return future;
+  }
+
+  /**
+   * Query the device work mode.
+   *
+   * @return a future completed with the work mode
+   */
+  public CompletableFuture<MiocardWorkMode> queryWorkMode() {
+    return send(MiocardCommand.MODE_INFO).thenApply(MiocardWorkMode::fromResponse);
+  }
+
+  /**
+   * Fail a command that was not answered in time.
+   * <p>
+   * The command stays in the pending queue as a tombstone for one more
+   * timeout period (at least the {@link #DEFAULT_TIMEOUT}), so that a late
+   * response is recognized and discarded instead of being taken for the
+   * response of a later command (or left in the stream).
+   */
+  private void expire(Pending command) {
+    if (command.future.completeExceptionally(new TimeoutException(String.format("No response to command 0x%02x within %d ms.", command.code, timeout)))) {
+      command.expired = true;
+      timeoutCount++;
+      TIMER.schedule(() -> pending.remove(command), Math.max(timeout, DEFAULT_TIMEOUT), TimeUnit.MILLISECONDS);
+    }
+  }
+
+  /**
+   * Called by the framer for each byte at a frame boundary (or while hunting)
+   * that is not a frame start.
+   *
+   * @param data  the buffer
+   * @param start the index of the byte
+   * @param end   the index after the last available byte
+   * @return the number of response bytes consumed, zero if the byte does not
+   *         start the response of the oldest outstanding command (or of an
+   *         expired command before it), or -1 if it does but the response is
+   *         not complete
+   */
+  int responseReceived(byte[] data, int start, int end) {
+    /**
+     * The device answers in order: a response may belong to an expired
+     * command (a late response) or to the oldest live command. The expired
+     * commands before the one answered will not be answered any more.
+     */
+    Pending command = null;
+    for (Pending candidate : pending) {
+      if (data[start] == candidate.code) {
+        command = candidate;
+        break;
+      }
+      if (!candidate.expired) {
+        return 0;
+      }
+    }
+    if (command == null) {
+      return 0;
+    }
+    int length = command.responseLength == UNKNOWN_LENGTH ? end - start : 1 + command.responseLength;
+    if (end - start < length) {
+      return -1;
+    }
+    Pending head;
+    do {
+      head = pending.poll();
+    } while (head != null && head != command);
+    if (!command.expired) {
+      responseCount++;
+      command.future.complete(Arrays.copyOfRange(data, start, start + length));
+    }
+    return length;
+  }
+
+  /**
+   * Set the work mode. This sets the sample frame format expected when
+   * streaming next starts.
+   *
+   * @param workMode the device work mode
+   */
+  public void setWorkMode(MiocardWorkMode workMode) {
+    synchronized (framerLock) {
+      framer.setWorkMode(workMode);
+    }
+  }
+
+  /**
+   * Set the response timeout.
+   *
+   * @param timeout the timeout (milliseconds)
+   */
+  public void setTimeout(long timeout) {
+    if (timeout < 1) {
+      throw new IllegalArgumentException("Timeout must be positive.");
+    }
+    this.timeout = timeout;
+  }
+
+  @Override
+  public void dataReceived(FTDIBuffer buffer) {
+    synchronized (framerLock) {
+      framer.dataReceived(buffer);
+    }
+  }
+
+  @Override
+  public void errorOccurred(UsbException exception) {
+    synchronized (framerLock) {
+      framer.errorOccurred(exception);
+    }
+  }
+
+  /**
+   * @return the framer (for its statistics)
+   */
+  public MiocardFramer getFramer() {
+    return framer;
+  }
+
+  /**
+   * @return TRUE after a START and before a STOP command was sent
+   */
+  public boolean isStreaming() {
+    return streaming;
+  }
+
+  /**
+   * @return the number of commands awaiting a response (not counting the
+   *         expired commands)
+   */
+  public int getPendingCount() {
+    int count = 0;
+    for (Pending command : pending) {
+      if (!command.expired) {
+        count++;
+      }
+    }
+    return count;
+  }
+
+  /**
+   * @return the number of responses received
+   */
+  public long getResponseCount() {
+    return responseCount;
+  }
+
+  /**
+   * @return the number of commands not answered in time
+   */
+  public long getTimeoutCount() {
+    return timeoutCount;
+  }
+
+  @Override
+  public String toString() {
+    return "MiocardCommandChannel " + (streaming ? "streaming" : "idle") + " pending " + getPendingCount() + " responses " + responseCount + " timeouts " + timeoutCount + ", " + framer;
+  }
+
+  /**
+   * A command awaiting its response.
+   */
+  private static final class Pending {
+
+    private final byte code;
+    private final int responseLength;
+    private final CompletableFuture<byte[]> future;
+    /**
+     * TRUE once timed out: the command is kept to discard its late response.
+     */
+    private volatile boolean expired;
+
+    private Pending(byte code, int responseLength, CompletableFuture<byte[]> future) {
+      this.code = code;
+      this.responseLength = responseLength;
+      this.future = future;
+    }
+  }
+}
@@ -0,0 +1,183 @@
+/*
+ * Copyright 2014-2016 Key Bridge LLC.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ftdichip.usb.miocard;
+
+import static com.ftdichip.usb.miocard.MiocardProtocol.*;
+
+/**
+ * Miocard-12 sample frame decoder.
+ * <p>
+ * Decodes raw sample frames (see {@link MiocardProtocol}) into signed integer
+ * samples stored in per-lead column buffers: {@code columns[lead][row]}. The
+ * column buffers may be sized either for
+ * <ul>
+ * <li>{@link MiocardLead#COUNT twelve} leads in standard lead order
+ * ({@code columns[MiocardLead.V1.ordinal()]}), in which case the four limb
+ * leads III, aVR, aVL and aVF are derived from I and II, or</li>
+ * <li>{@link MiocardProtocol#CHANNEL_COUNT eight} channels in analog front
+ * end channel order, in which case no leads are derived.</li>
+ * </ul>
+ * <p>
+ * Developer note: The decoder does not allocate any objects per frame. It is
+ * NOT thread safe; use one decoder per stream.
+ *
+ * @author Jesse Caulfield
+ */
+public final class MiocardFrameDecoder {
+
+  /**
+   * The lead (column) index for each analog front end channel.
+   */
+  private static final int[] CHANNEL_LEAD = new int[CHANNEL_COUNT];
+
+  static {
+    for (MiocardLead lead : MiocardLead.values()) {
+      if (!lead.isDerived()) {
+        CHANNEL_LEAD[lead.getChannel()] = lead.ordinal();
+      }
+    }
+  }
+
+  private static final int LEAD_I = MiocardLead.I.ordinal();
+  private static final int LEAD_II = MiocardLead.II.ordinal();
+  private static final int LEAD_III = MiocardLead.III.ordinal();
+  private static final int LEAD_AVR = MiocardLead.AVR.ordinal();
+  private static final int LEAD_AVL = MiocardLead.AVL.ordinal();
+  private static final int LEAD_AVF = MiocardLead.AVF.ordinal();
+
+  /**
+   * The number of bytes per sample (2 or 3).
+   */
+  private final int sampleBytes;
+  /**
+   * The sample frame length (bytes).
+   */
+  private final int frameLength;
+  /**
+   * The status word of the last decoded frame.
+   */
+  private int status;
+
+  /**
+   * Construct a decoder for the sample format of the given work mode.
+   *
+   * @param workMode the device work mode
+   */
+  public MiocardFrameDecoder(MiocardWorkMode workMode) {
+    this(workMode.getSampleBytes());
+  }
+
+  /**
+   * Construct a decoder.
+   *
+   * @param sampleBytes the number of bytes per sample: 3 for the ADS1298 (24
+   *                    bit), 2 for the ADS1198 (16 bit)
+   */
+  public MiocardFrameDecoder(int sampleBytes) {
+    if (sampleBytes != SAMPLE_BYTES_24 && sampleBytes != SAMPLE_BYTES_16) {
+      throw new IllegalArgumentException("Unsupported sample size " + sampleBytes + " bytes.");
+    }
+    this.sampleBytes = sampleBytes;
+    this.frameLength = MiocardProtocol.getFrameLength(sampleBytes);
+  }
+
+  /**
+   * Allocate column buffers for twelve leads.
+   *
+   * @param rows the number of samples per lead
+   * @return a new {@code int[12][rows]} array
+   */
+  public static int[][] createColumns(int rows) {
+    return new int[MiocardLead.COUNT][rows];
+  }
+
+  /**
+   * @return the number of bytes per sample (2 or 3)
+   */
+  public int getSampleBytes() {
+    return sampleBytes;
+  }
+
+  /**
+   * @return the sample frame length (bytes)
+   */
+  public int getFrameLength() {
+    return frameLength;
+  }
+
+  /**
+   * @return the 24 bit ADS status word of the last decoded frame (sync bits,
+   *         lead-off status and GPIO)
+   */
+  public int getStatus() {
+    return status;
+  }
+
+  /**
+   * Decode one sample frame.
+   *
+   * @param data    the buffer containing the frame
+   * @param offset  the index of the first frame byte (the status word)
+   * @param columns the per-lead (or per-channel) column buffers
+   * @param row     the index within each column at which to store the samples
+   */
+  public void decode(byte[] data, int offset, int[][] columns, int row) {
+    status = (data[offset] & 0xff) << 16 | (data[offset + 1] & 0xff) << 8 | (data[offset + 2] & 0xff);
+    int p = offset + STATUS_LENGTH;
+    boolean leads = columns.length >= MiocardLead.COUNT;
+    if (sampleBytes == SAMPLE_BYTES_24) {
+      for (int channel = 0; channel < CHANNEL_COUNT; channel++, p += 3) {
+        /**
+         * The signed shift of the most significant byte sign-extends the
+         * sample.
+         */
+        columns[leads ? CHANNEL_LEAD[channel] : channel][row] = data[p] << 16 | (data[p + 1] & 0xff) << 8 | (data[p + 2] & 0xff);
+      }
+    } else {
+      for (int channel = 0; channel < CHANNEL_COUNT; channel++, p += 2) {
+        columns[leads ? CHANNEL_LEAD[channel] : channel][row] = data[p] << 8 | (data[p + 1] & 0xff);
+      }
+    }
+    if (leads) {
+      int i = columns[LEAD_I][row];
+      int ii = columns[LEAD_II][row];
+      columns[LEAD_III][row] = ii - i;
+      columns[LEAD_AVR][row] = -(i + ii) / 2;
+      columns[LEAD_AVL][row] = i - ii / 2;
+      columns[LEAD_AVF][row] = ii - i / 2;
+    }
+  }
+
+  /**
+   * Decode consecutive sample frames. Decoding stops at the last whole frame
+   * in the buffer or when the column buffers are full, whichever comes first.
+   *
+   * @param data    the buffer containing the frames
+   * @param offset  the index of the first frame byte
+   * @param length  the number of bytes available
+   * @param columns the per-lead (or per-channel) column buffers
+   * @param row     the index within each column at which to store the first
+   *                frame samples
+   * @return the number of frames decoded
+   */
+  public int decode(byte[] data, int offset, int length, int[][] columns, int row) {
+    int frames = Math.min(length / frameLength, columns[0].length - row);
+    for (int n = 0; n < frames; n++, offset += frameLength) {
+      decode(data, offset, columns, row + n);
+    }
+    return frames;
+  }
+}
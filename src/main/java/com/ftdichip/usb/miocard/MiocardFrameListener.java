@@ -0,0 +1,38 @@
+/*
+ * Copyright 2014-2016 Key Bridge LLC.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ftdichip.usb.miocard;
+
+import java.util.EventListener;
+
+/**
+ * Listener interface for complete, aligned sample frames produced by a
+ * {@link MiocardFramer}.
+ *
+ * @author Jesse Caulfield
+ */
+public interface MiocardFrameListener extends EventListener {
+
+  /**
+   * A complete sample frame has been received.
+   * <p>
+   * The frame is {@link MiocardFramer#getFrameLength()} bytes long starting at
+   * {@code offset}. The buffer is only valid until this method returns.
+   *
+   * @param data   the buffer containing the frame
+   * @param offset the index of the first frame byte (the status word)
+   */
+  void frameReceived(byte[] data, int offset);
+}
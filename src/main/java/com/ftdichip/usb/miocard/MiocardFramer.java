@@ -0,0 +1,307 @@
+/*
+ * Copyright 2014-2016 Key Bridge LLC.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ftdichip.usb.miocard;
+
+import com.ftdichip.usb.FTDIBuffer;
+import com.ftdichip.usb.FTDIDataListener;
+import javax.usb.UsbException;
+
+import static com.ftdichip.usb.miocard.MiocardProtocol.isFrameStart;
+
+/**
+ * Incremental Miocard-12 sample frame resynchronizer.
+ * <p>
+ * USB reads split the device byte stream at arbitrary positions and a buffer
+ * overrun leaves the stream misaligned. The framer consumes the stream chunk
+ * by chunk and passes complete, aligned frames to a
+ * {@link MiocardFrameListener}.
+ * <p>
+ * The framer is either <em>locked</em> or <em>hunting</em>:
+ * <ul>
+ * <li>When locked every frame is expected to start exactly one frame length
+ * after the previous one. A frame that does not start with the status word
+ * sync pattern (see {@link MiocardProtocol}) drops the lock and is counted as
+ * a resync event.</li>
+ * <li>When hunting the stream is scanned one byte at a time (counting the
+ * skipped bytes) for a position that starts with the sync pattern AND is
+ * followed exactly one frame length later by another sync pattern. This
+ * validates the frame length against the active work mode and re-locks within
+ * one frame after corruption.</li>
+ * </ul>
+ * <p>
+ * When attached to a {@link MiocardCommandChannel} the framer also passes the
+ * command responses that the device inserts between the frames to the
+ * channel, instead of skipping them as corrupt data.
+ * <p>
+ * Developer note: Complete frames are passed to the listener in place, from
+ * the chunk buffer itself. Only the (at most two) frames straddling a chunk
+ * boundary are copied into a small carry buffer. The framer is NOT thread
+ * safe; use one framer per stream.
+ *
+ * @author Jesse Caulfield
+ */
+public final class MiocardFramer implements FTDIDataListener {
+
+  /**
+   * The listener to receive the complete frames.
+   */
+  private final MiocardFrameListener listener;
+  /**
+   * The active sample frame length (bytes).
+   */
+  private int frameLength;
+  /**
+   * Holds the unconsumed bytes of the previous chunk. Never more than the
+   * hunting lookahead (one frame plus the next sync byte) remains unconsumed;
+   * the buffer is two frames long so that it can be topped up from the next
+   * chunk.
+   */
+  private byte[] carry;
+  /**
+   * The number of bytes in the carry buffer.
+   */
+  private int carryLength;
+  /**
+   * TRUE while aligned to the frame boundaries.
+   */
+  private boolean locked;
+  /**
+   * The command channel to receive the command responses inserted between
+   * the frames. Null if responses are not expected.
+   */
+  private MiocardCommandChannel commandChannel;
+  /**
+   * Counters. Written only by the stream thread.
+   */
+  private volatile long frameCount;
+  private volatile long resyncCount;
+  private volatile long skippedBytes;
+
+  /**
+   * Construct a new framer for the sample format of the given work mode.
+   *
+   * @param workMode the device work mode
+   * @param listener the listener to receive the complete frames
+   */
+  public MiocardFramer(MiocardWorkMode workMode, MiocardFrameListener listener) {
+    this(workMode.getFrameLength(), listener);
+  }
+
+  /**
+   * Construct a new framer.
+   *
+   * @param frameLength the sample frame length (bytes)
+   * @param listener    the listener to receive the complete frames
+   */
+  public MiocardFramer(int frameLength, MiocardFrameListener listener) {
+    this.listener = listener;
+    setFrameLength(frameLength);
+  }
+
+  /**
+   * Set the work mode. This changes the expected frame length and restarts the
+   * frame search.
+   *
+   * @param workMode the device work mode
+   */
+  public void setWorkMode(MiocardWorkMode workMode) {
+    setFrameLength(workMode.getFrameLength());
+  }
+
+  /**
+   * Set the expected frame length and restart the frame search.
+   *
+   * @param frameLength the sample frame length (bytes)
+   */
+  private void setFrameLength(int frameLength) {
+    if (frameLength <= MiocardProtocol.STATUS_LENGTH) {
+      throw new IllegalArgumentException("Invalid frame length " + frameLength);
+    }
+    this.frameLength = frameLength;
+    this.carry = new byte[2 * frameLength];
+    reset();
+  }
+
+  /**
+   * Discard any partial frame and restart the frame search. Call this when
+   * the stream is restarted or data is known to have been lost. The counters
+   * are not changed.
+   */
+  public void reset() {
+    carryLength = 0;
+    locked = false;
+  }
+
+  /**
+   * Process the next chunk of the device byte stream.
+   *
+   * @param data   the buffer containing the chunk
+   * @param offset the index of the first chunk byte
+   * @param length the number of bytes in the chunk
+   */
+  public void process(byte[] data, int offset, int length) {
+    int position = offset;
+    int end = offset + length;
+    if (carryLength > 0) {
+      /**
+       * Complete the frame straddling the chunk boundary in the carry buffer.
+       * Any bytes left over after scanning the carry buffer that came from
+       * this chunk are scanned again in place below.
+       */
+      int taken = Math.min(end - position, carry.length - carryLength);
+      System.arraycopy(data, position, carry, carryLength, taken);
+      int available = carryLength + taken;
+      int remaining = available - scan(carry, 0, available);
+      if (remaining > taken) {
+        System.arraycopy(carry, available - remaining, carry, 0, remaining);
+        carryLength = remaining;
+        return;
+      }
+      carryLength = 0;
+      position += taken - remaining;
+    }
+    int consumed = scan(data, position, end);
+    carryLength = end - consumed;
+    System.arraycopy(data, consumed, carry, 0, carryLength);
+  }
+
+  /**
+   * Scan a region for frames, passing each complete frame to the listener.
+   *
+   * @param data  the buffer
+   * @param start the index of the first byte to scan
+   * @param end   the index after the last byte to scan
+   * @return the index of the first byte NOT consumed (too few bytes remain to
+   *         decide)
+   */
+  private int scan(byte[] data, int start, int end) {
+    int p = start;
+    while (true) {
+      if (commandChannel != null && p < end && !isFrameStart(data[p])) {
+        /**
+         * A command response (the echoed command code never carries the
+         * status word sync pattern) may be inserted at a frame boundary.
+         */
+        int n = commandChannel.responseReceived(data, p, end);
+        if (n < 0) {
+          return p;
+        }
+        if (n > 0) {
+          p += n;
+          continue;
+        }
+        if (!commandChannel.isStreaming()) {
+          /**
+           * No frame in progress and none expected: the byte is a stray (e.g.
+           * the late response of a forgotten command). Discard it rather
+           * than hold it, and every response behind it, in the carry buffer.
+           */
+          locked = false;
+          p++;
+          skippedBytes++;
+          continue;
+        }
+      }
+      if (locked) {
+        if (end - p < frameLength) {
+          return p;
+        }
+        if (isFrameStart(data[p])) {
+          frameCount++;
+          listener.frameReceived(data, p);
+          p += frameLength;
+          continue;
+        }
+        locked = false;
+        resyncCount++;
+      }
+      if (end - p <= frameLength) {
+        return p;
+      }
+      if (isFrameStart(data[p]) && isFrameStart(data[p + frameLength])) {
+        locked = true;
+      } else {
+        p++;
+        skippedBytes++;
+      }
+    }
+  }
+
+  /**
+   * Set the command channel to receive the command responses found in the
+   * stream.
+   *
+   * @param commandChannel the command channel
+   */
+  void setCommandChannel(MiocardCommandChannel commandChannel) {
+    this.commandChannel = commandChannel;
+  }
+
+  @Override
+  public void dataReceived(FTDIBuffer buffer) {
+    process(buffer.getData(), buffer.getOffset(), buffer.getLength());
+  }
+
+  /**
+   * A read failed and data may have been lost: restart the frame search.
+   *
+   * @param exception the USB exception
+   */
+  @Override
+  public void errorOccurred(UsbException exception) {
+    reset();
+  }
+
+  /**
+   * @return the active sample frame length (bytes)
+   */
+  public int getFrameLength() {
+    return frameLength;
+  }
+
+  /**
+   * @return TRUE while aligned to the frame boundaries
+   */
+  public boolean isLocked() {
+    return locked;
+  }
+
+  /**
+   * @return the number of complete frames passed to the listener
+   */
+  public long getFrameCount() {
+    return frameCount;
+  }
+
+  /**
+   * @return the number of times the frame alignment was lost
+   */
+  public long getResyncCount() {
+    return resyncCount;
+  }
+
+  /**
+   * @return the number of bytes skipped while searching for frame alignment
+   */
+  public long getSkippedBytes() {
+    return skippedBytes;
+  }
+
+  @Override
+  public String toString() {
+    return "MiocardFramer " + (locked ? "locked" : "hunting") + " frames " + frameCount + " resyncs " + resyncCount + " skipped " + skippedBytes;
+  }
+}
@@ -0,0 +1,101 @@
+/*
+ * Copyright 2014-2016 Key Bridge LLC.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ftdichip.usb.miocard;
+
+/**
+ * Enumerated list of the twelve standard ECG leads, in standard order.
+ * <p>
+ * Eight leads are measured directly by the analog front end (channels 1 to 8
+ * carry I, II, V1 .. V6). The four remaining limb leads are derived from I and
+ * II (Einthoven and Goldberger equations).
+ *
+ * @author Jesse Caulfield
+ */
+public enum MiocardLead {
+
+  I(0),
+  II(1),
+  /**
+   * Derived: III = II - I.
+   */
+  III(-1),
+  /**
+   * Derived: aVR = -(I + II) / 2.
+   */
+  AVR(-1),
+  /**
+   * Derived: aVL = I - II / 2.
+   */
+  AVL(-1),
+  /**
+   * Derived: aVF = II - I / 2.
+   */
+  AVF(-1),
+  V1(2),
+  V2(3),
+  V3(4),
+  V4(5),
+  V5(6),
+  V6(7);
+
+  /**
+   * The number of leads.
+   */
+  public static final int COUNT = 12;
+  private final int channel;
+
+  private MiocardLead(int channel) {
+    this.channel = channel;
+  }
+
+  /**
+   * @return the zero based analog front end channel carrying this lead, or -1
+   *         if the lead is derived
+   */
+  public int getChannel() {
+    return channel;
+  }
+
+  /**
+   * @return TRUE if the lead is computed from leads I and II
+   */
+  public boolean isDerived() {
+    return channel < 0;
+  }
+
+  /**
+   * Compute a derived lead sample.
+   *
+   * @param leadI  the lead I sample
+   * @param leadII the lead II sample
+   * @return the derived lead sample
+   * @throws IllegalStateException if this lead is not derived
+   */
+  public int derive(int leadI, int leadII) {
+    switch (this) {
+      case III:
+        return leadII - leadI;
+      case AVR:
+        return -(leadI + leadII) / 2;
+      case AVL:
+        return leadI - leadII / 2;
+      case AVF:
+        return leadII - leadI / 2;
+      default:
+        throw new IllegalStateException("Lead " + name() + " is not derived.");
+    }
+  }
+}
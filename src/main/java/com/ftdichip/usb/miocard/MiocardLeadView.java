@@ -0,0 +1,92 @@
+/*
+ * Copyright 2014-2016 Key Bridge LLC.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ftdichip.usb.miocard;
+
+/**
+ * A read-only view of the samples of one lead over a range of a recording.
+ * <p>
+ * The view does not copy any samples: every {@link #get(int)} reads the memory
+ * mapped recording directly. Derived leads (III, aVR, aVL, aVF) are computed
+ * from leads I and II on access.
+ *
+ * @author Jesse Caulfield
+ */
+public final class MiocardLeadView {
+
+  private final MiocardRecordingReader reader;
+  private final MiocardLead lead;
+  private final long firstSample;
+  private final int size;
+
+  MiocardLeadView(MiocardRecordingReader reader, MiocardLead lead, long firstSample, int size) {
+    this.reader = reader;
+    this.lead = lead;
+    this.firstSample = firstSample;
+    this.size = size;
+  }
+
+  /**
+   * @return the lead
+   */
+  public MiocardLead getLead() {
+    return lead;
+  }
+
+  /**
+   * @return the recording sample number of the first view sample
+   */
+  public long getFirstSample() {
+    return firstSample;
+  }
+
+  /**
+   * @return the number of samples in the view
+   */
+  public int size() {
+    return size;
+  }
+
+  /**
+   * Get a sample.
+   *
+   * @param index the zero based index within the view
+   * @return the sample value
+   */
+  public int get(int index) {
+    if (index < 0 || index >= size) {
+      throw new IndexOutOfBoundsException("Index " + index + " outside view of " + size + " samples.");
+    }
+    return reader.getSample(lead, firstSample + index);
+  }
+
+  /**
+   * Copy samples from the view into an array, for example to decimate them
+   * for display.
+   *
+   * @param index       the index of the first view sample to copy
+   * @param destination the destination array
+   * @param offset      the index within the destination of the first sample
+   * @param count       the number of samples to copy
+   */
+  public void copyTo(int index, int[] destination, int offset, int count) {
+    if (index < 0 || count < 0 || index + count > size) {
+      throw new IndexOutOfBoundsException("Range " + index + "+" + count + " outside view of " + size + " samples.");
+    }
+    for (int n = 0; n < count; n++) {
+      destination[offset + n] = reader.getSample(lead, firstSample + index + n);
+    }
+  }
+}
@@ -0,0 +1,93 @@
+/*
+ * Copyright 2014-2016 Key Bridge LLC.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ftdichip.usb.miocard;
+
+/**
+ * Miocard-12 serial protocol constants.
+ * <p>
+ * Commands are sent to the device as two bytes: the
+ * {@link #COMMAND_PREFIX} followed by the command code.
+ * <p>
+ * While streaming, the device relays the ADS1298 / ADS1198 analog front end
+ * output unchanged. Each sample frame is the 24 bit ADS status word followed by
+ * one sample per channel for the {@link #CHANNEL_COUNT eight} channels:
+ * <pre>
+ * +---------------------------+-----------+-----------+-----+-----------+
+ * | status (3 bytes)          | channel 1 | channel 2 | ... | channel 8 |
+ * | 1100 LOFF_STATP LOFF_STATN|           |           |     |           |
+ * | GPIO                      |           |           |     |           |
+ * +---------------------------+-----------+-----------+-----+-----------+
+ * </pre> Samples are two's complement, most significant byte first: 3 bytes
+ * per sample for the ADS1298 (24 bit) and 2 bytes per sample for the ADS1198
+ * (16 bit). The four most significant bits of every status word are
+ * {@code 1100}, which is used to identify the start of a frame.
+ *
+ * @author Jesse Caulfield
+ */
+public final class MiocardProtocol {
+
+  /**
+   * 0x55. The first byte of every command sent to the device.
+   */
+  public static final byte COMMAND_PREFIX = 0x55;
+  /**
+   * The number of analog front end channels in every sample frame.
+   */
+  public static final int CHANNEL_COUNT = 8;
+  /**
+   * The length of the ADS status word at the start of every sample frame.
+   */
+  public static final int STATUS_LENGTH = 3;
+  /**
+   * The mask applied to the first status byte to identify a frame start.
+   */
+  public static final int STATUS_SYNC_MASK = 0xF0;
+  /**
+   * The value of the first status byte, after masking, at a frame start.
+   */
+  public static final int STATUS_SYNC = 0xC0;
+  /**
+   * Bytes per sample in 24 bit (ADS1298) mode.
+   */
+  public static final int SAMPLE_BYTES_24 = 3;
+  /**
+   * Bytes per sample in 16 bit (ADS1198) mode.
+   */
+  public static final int SAMPLE_BYTES_16 = 2;
+
+  private MiocardProtocol() {
+  }
+
+  /**
+   * Get the sample frame length.
+   *
+   * @param sampleBytes the number of bytes per sample (2 or 3)
+   * @return the sample frame length (bytes)
+   */
+  public static int getFrameLength(int sampleBytes) {
+    return STATUS_LENGTH + CHANNEL_COUNT * sampleBytes;
+  }
+
+  /**
+   * Determine if a byte may be the first byte of a sample frame.
+   *
+   * @param b the byte
+   * @return TRUE if the byte carries the status word sync pattern
+   */
+  public static boolean isFrameStart(byte b) {
+    return (b & STATUS_SYNC_MASK) == STATUS_SYNC;
+  }
+}
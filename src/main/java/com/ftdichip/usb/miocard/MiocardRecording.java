@@ -0,0 +1,145 @@
+/*
+ * Copyright 2014-2016 Key Bridge LLC.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ftdichip.usb.miocard;
+
+/**
+ * Miocard-12 binary recording file format constants.
+ * <p>
+ * A recording is a fixed length header followed by fixed length sample
+ * blocks. All values are big-endian.
+ * <pre>
+ * header (64 bytes):
+ *   0  int   MAGIC
+ *   4  short VERSION
+ *   6  short HEADER_LENGTH
+ *   8  byte  work mode low byte
+ *   9  byte  work mode high byte
+ *  10  short channel count (8)
+ *  12  int   sample rate (Hz)
+ *  16  int   samples per block
+ *  20  int   (reserved)
+ *  24  long  start time (epoch milliseconds)
+ *  32  long  sample count
+ *  40  long  block count
+ *  48  long  footer position (0 if the recording was not closed)
+ *  56  ...   (reserved)
+ *
+ * block (BLOCK_LENGTH bytes):
+ *   0  long  time the first block sample was received (epoch milliseconds)
+ *   8  int   number of valid samples in the block
+ *  12  int   (reserved)
+ *  16  int[BLOCK_SAMPLES] channel 1 samples
+ *      int[BLOCK_SAMPLES] channel 2 samples
+ *      ...
+ *      int[BLOCK_SAMPLES] channel 8 samples
+ *
+ * footer (written when the recording is closed):
+ *   0  int   FOOTER_MAGIC
+ *   4  int   (reserved)
+ *   8  long  block count
+ *  16  long[block count] block times (the time index)
+ * </pre> Samples are stored per channel (column) within each block so that
+ * the samples of one lead are contiguous. Only the last block may be partly
+ * filled.
+ * <p>
+ * The footer duplicates the block times so that a reader can locate any time
+ * point without touching the sample blocks. A recording that was not closed
+ * has no footer; the index is then rebuilt from the block headers.
+ *
+ * @author Jesse Caulfield
+ */
+public final class MiocardRecording {
+
+  /**
+   * "MIOR". The first four bytes of every recording file.
+   */
+  public static final int MAGIC = 0x4D494F52;
+  /**
+   * The recording file format version.
+   */
+  public static final short VERSION = 1;
+  /**
+   * "MIOX". The first four bytes of the recording footer.
+   */
+  public static final int FOOTER_MAGIC = 0x4D494F58;
+  /**
+   * The recording footer length (bytes) before the block times.
+   */
+  public static final int FOOTER_HEADER_LENGTH = 16;
+  /**
+   * The recording file header length (bytes).
+   */
+  public static final int HEADER_LENGTH = 64;
+  /**
+   * The number of samples per channel in every sample block.
+   */
+  public static final int BLOCK_SAMPLES = 1024;
+  /**
+   * The sample block header length (bytes).
+   */
+  public static final int BLOCK_HEADER_LENGTH = 16;
+  /**
+   * The sample block length (bytes).
+   */
+  public static final int BLOCK_LENGTH = BLOCK_HEADER_LENGTH + MiocardProtocol.CHANNEL_COUNT * BLOCK_SAMPLES * 4;
+  /**
+   * Header field offsets.
+   */
+  static final int HEADER_MAGIC = 0;
+  static final int HEADER_VERSION = 4;
+  static final int HEADER_HEADER_LENGTH = 6;
+  static final int HEADER_WORK_MODE = 8;
+  static final int HEADER_CHANNEL_COUNT = 10;
+  static final int HEADER_SAMPLE_RATE = 12;
+  static final int HEADER_BLOCK_SAMPLES = 16;
+  static final int HEADER_START_TIME = 24;
+  static final int HEADER_SAMPLE_COUNT = 32;
+  static final int HEADER_BLOCK_COUNT = 40;
+  static final int HEADER_FOOTER_POSITION = 48;
+  /**
+   * Sample block field offsets.
+   */
+  static final int BLOCK_TIME = 0;
+  static final int BLOCK_COUNT = 8;
+  /**
+   * Footer field offsets.
+   */
+  static final int FOOTER_MAGIC_POSITION = 0;
+  static final int FOOTER_BLOCK_COUNT = 8;
+
+  private MiocardRecording() {
+  }
+
+  /**
+   * Get the file position of a sample block.
+   *
+   * @param block the zero based block number
+   * @return the file position of the block
+   */
+  public static long getBlockPosition(long block) {
+    return HEADER_LENGTH + block * BLOCK_LENGTH;
+  }
+
+  /**
+   * Get the position of a channel sample column within a sample block.
+   *
+   * @param channel the zero based channel number
+   * @return the position of the first channel sample relative to the block
+   */
+  public static int getColumnPosition(int channel) {
+    return BLOCK_HEADER_LENGTH + channel * BLOCK_SAMPLES * 4;
+  }
+}
@@ -0,0 +1,347 @@
+/*
+ * Copyright 2014-2016 Key Bridge LLC.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ftdichip.usb.miocard;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+import static com.ftdichip.usb.miocard.MiocardRecording.*;
+
+/**
+ * Miocard-12 binary recording reader.
+ * <p>
+ * Memory maps a {@link MiocardRecording} file for random access. Any sample
+ * can be located directly from its sample number (all blocks but the last are
+ * full) and any time point through a sparse time index holding the receive
+ * time of every sample block. The index is the recording footer, or, for a
+ * recording that was not closed, is rebuilt from the block headers on first
+ * use.
+ * <p>
+ * Samples are returned as zero-copy {@link MiocardLeadView lead views} or
+ * per-block {@link IntBuffer} columns that read the mapped file directly.
+ * <p>
+ * Developer note: The reader may be shared by several threads. Pages of the
+ * file are only loaded by the operating system when they are accessed, so
+ * opening a multi-gigabyte recording is immediate.
+ *
+ * @author Jesse Caulfield
+ */
+public final class MiocardRecordingReader implements Closeable {
+
+  private static final int LEAD_I = MiocardLead.I.getChannel();
+  private static final int LEAD_II = MiocardLead.II.getChannel();
+
+  private final FileChannel channel;
+  private final MiocardWorkMode workMode;
+  private final int sampleRate;
+  private final long startTime;
+  private final long sampleCount;
+  private final long blockCount;
+  private final long footerPosition;
+  /**
+   * The mapped sample blocks, {@link MiocardRecordingWriter#SEGMENT_BLOCKS}
+   * blocks per segment.
+   */
+  private final MappedByteBuffer[] segments;
+  /**
+   * The time index: the receive time of every block. Loaded on first use.
+   */
+  private volatile LongBuffer blockTimes;
+
+  /**
+   * Open a recording file.
+   *
+   * @param path the recording file
+   * @throws IOException if the file cannot be read or is not a recording
+   */
+  public MiocardRecordingReader(Path path) throws IOException {
+    this.channel = FileChannel.open(path, StandardOpenOption.READ);
+    try {
+      if (channel.size() < HEADER_LENGTH) {
+        throw new IOException("Not a Miocard recording: " + path);
+      }
+      MappedByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0, HEADER_LENGTH);
+      if (header.getInt(HEADER_MAGIC) != MAGIC) {
+        throw new IOException("Not a Miocard recording: " + path);
+      }
+      if (header.getShort(HEADER_VERSION) != VERSION
+          || header.getShort(HEADER_HEADER_LENGTH) != HEADER_LENGTH
+          || header.getShort(HEADER_CHANNEL_COUNT) != MiocardProtocol.CHANNEL_COUNT
+          || header.getInt(HEADER_BLOCK_SAMPLES) != BLOCK_SAMPLES) {
+        throw new IOException("Unsupported Miocard recording format: " + path);
+      }
+      this.workMode = new MiocardWorkMode(header.get(HEADER_WORK_MODE), header.get(HEADER_WORK_MODE + 1));
+      this.sampleRate = header.getInt(HEADER_SAMPLE_RATE);
+      this.startTime = header.getLong(HEADER_START_TIME);
+      this.sampleCount = header.getLong(HEADER_SAMPLE_COUNT);
+      this.blockCount = header.getLong(HEADER_BLOCK_COUNT);
+      this.footerPosition = header.getLong(HEADER_FOOTER_POSITION);
+      if (getBlockPosition(blockCount) > channel.size()) {
+        throw new IOException("Truncated Miocard recording: " + path);
+      }
+      int segmentBlocks = MiocardRecordingWriter.SEGMENT_BLOCKS;
+      this.segments = new MappedByteBuffer[(int) ((blockCount + segmentBlocks - 1) / segmentBlocks)];
+      for (int n = 0; n < segments.length; n++) {
+        long blocks = Math.min(segmentBlocks, blockCount - (long) n * segmentBlocks);
+        segments[n] = channel.map(FileChannel.MapMode.READ_ONLY, getBlockPosition((long) n * segmentBlocks), blocks * BLOCK_LENGTH);
+      }
+    } catch (IOException | RuntimeException ex) {
+      channel.close();
+      throw ex;
+    }
+  }
+
+  /**
+   * @return the device work mode during the recording
+   */
+  public MiocardWorkMode getWorkMode() {
+    return workMode;
+  }
+
+  /**
+   * @return the sample rate (Hz)
+   */
+  public int getSampleRate() {
+    return sampleRate;
+  }
+
+  /**
+   * @return the recording start time (epoch milliseconds)
+   */
+  public long getStartTime() {
+    return startTime;
+  }
+
+  /**
+   * @return the number of samples (per lead)
+   */
+  public long getSampleCount() {
+    return sampleCount;
+  }
+
+  /**
+   * @return the number of sample blocks
+   */
+  public long getBlockCount() {
+    return blockCount;
+  }
+
+  /**
+   * Get the mapped segment containing a block.
+   *
+   * @param block the block number
+   * @return the segment containing the block
+   */
+  private MappedByteBuffer getSegment(long block) {
+    return segments[(int) (block / MiocardRecordingWriter.SEGMENT_BLOCKS)];
+  }
+
+  private static int getSegmentPosition(long block) {
+    return (int) (block % MiocardRecordingWriter.SEGMENT_BLOCKS) * BLOCK_LENGTH;
+  }
+
+  /**
+   * Get the time index, loading it on first use.
+   *
+   * @return the block time index
+   */
+  private LongBuffer getBlockTimes() {
+    LongBuffer index = blockTimes;
+    if (index == null) {
+      synchronized (this) {
+        index = blockTimes;
+        if (index == null) {
+          index = readFooter();
+          if (index == null) {
+            long[] times = new long[(int) blockCount];
+            for (int block = 0; block < times.length; block++) {
+              times[block] = getSegment(block).getLong(getSegmentPosition(block) + BLOCK_TIME);
+            }
+            index = LongBuffer.wrap(times);
+          }
+          blockTimes = index;
+        }
+      }
+    }
+    return index;
+  }
+
+  /**
+   * Map the time index footer.
+   *
+   * @return the footer time index, or null if the recording has no (valid)
+   *         footer
+   */
+  private LongBuffer readFooter() {
+    try {
+      long length = FOOTER_HEADER_LENGTH + blockCount * 8;
+      if (footerPosition < getBlockPosition(blockCount) || footerPosition + length > channel.size()) {
+        return null;
+      }
+      MappedByteBuffer footer = channel.map(FileChannel.MapMode.READ_ONLY, footerPosition, length);
+      if (footer.getInt(FOOTER_MAGIC_POSITION) != FOOTER_MAGIC || footer.getLong(FOOTER_BLOCK_COUNT) != blockCount) {
+        return null;
+      }
+      footer.position(FOOTER_HEADER_LENGTH);
+      return footer.slice().asLongBuffer();
+    } catch (IOException ex) {
+      return null;
+    }
+  }
+
+  /**
+   * Get the receive time of a sample block.
+   *
+   * @param block the block number
+   * @return the time the first block sample was received (epoch milliseconds)
+   */
+  public long getBlockTime(long block) {
+    return getBlockTimes().get((int) block);
+  }
+
+  /**
+   * Get the (estimated) receive time of a sample: the block time plus the
+   * sample period for every preceding sample in the block.
+   *
+   * @param sample the sample number
+   * @return the sample time (epoch milliseconds)
+   */
+  public long getSampleTime(long sample) {
+    long block = sample / BLOCK_SAMPLES;
+    return getBlockTime(block) + (sample % BLOCK_SAMPLES) * 1000 / sampleRate;
+  }
+
+  /**
+   * Find the sample recorded at a point in time. The time index is binary
+   * searched for the block and the sample position within the block is
+   * computed from the sample rate.
+   *
+   * @param time the time (epoch milliseconds)
+   * @return the sample number, clamped to the recording
+   */
+  public long findSample(long time) {
+    if (blockCount == 0) {
+      return 0;
+    }
+    LongBuffer index = getBlockTimes();
+    int low = 0;
+    int high = (int) blockCount - 1;
+    while (low < high) {
+      int middle = (low + high + 1) >>> 1;
+      if (index.get(middle) <= time) {
+        low = middle;
+      } else {
+        high = middle - 1;
+      }
+    }
+    long row = Math.max(0, (time - index.get(low)) * sampleRate / 1000);
+    long sample = (long) low * BLOCK_SAMPLES + Math.min(row, BLOCK_SAMPLES - 1);
+    return Math.min(sample, Math.max(0, sampleCount - 1));
+  }
+
+  /**
+   * Get one sample.
+   *
+   * @param lead   the lead
+   * @param sample the sample number
+   * @return the sample value
+   */
+  public int getSample(MiocardLead lead, long sample) {
+    if (lead.isDerived()) {
+      return lead.derive(getChannelSample(LEAD_I, sample), getChannelSample(LEAD_II, sample));
+    }
+    return getChannelSample(lead.getChannel(), sample);
+  }
+
+  /**
+   * Get one sample of an analog front end channel.
+   *
+   * @param channel the zero based channel number
+   * @param sample  the sample number
+   * @return the sample value
+   */
+  private int getChannelSample(int channel, long sample) {
+    if (sample < 0 || sample >= sampleCount) {
+      throw new IndexOutOfBoundsException("Sample " + sample + " outside recording of " + sampleCount + " samples.");
+    }
+    long block = sample / BLOCK_SAMPLES;
+    return getSegment(block).getInt(getSegmentPosition(block) + getColumnPosition(channel) + (int) (sample % BLOCK_SAMPLES) * 4);
+  }
+
+  /**
+   * Get the samples of one channel in a block, as stored in the file.
+   *
+   * @param block   the block number
+   * @param channel the zero based analog front end channel number
+   * @return a read-only buffer backed by the mapped file, limited to the
+   *         number of valid samples in the block
+   */
+  public IntBuffer getColumn(long block, int channel) {
+    if (block < 0 || block >= blockCount) {
+      throw new IndexOutOfBoundsException("Block " + block + " outside recording of " + blockCount + " blocks.");
+    }
+    ByteBuffer buffer = getSegment(block).duplicate();
+    int position = getSegmentPosition(block);
+    int count = buffer.getInt(position + BLOCK_COUNT);
+    position += getColumnPosition(channel);
+    buffer.limit(position + count * 4).position(position);
+    return buffer.slice().asIntBuffer();
+  }
+
+  /**
+   * Get a view of the samples of one lead.
+   *
+   * @param lead        the lead
+   * @param firstSample the first sample number
+   * @param count       the number of samples
+   * @return a zero-copy view of the samples
+   */
+  public MiocardLeadView getLeadView(MiocardLead lead, long firstSample, int count) {
+    if (firstSample < 0 || count < 0 || firstSample + count > sampleCount) {
+      throw new IndexOutOfBoundsException("Range " + firstSample + "+" + count + " outside recording of " + sampleCount + " samples.");
+    }
+    return new MiocardLeadView(this, lead, firstSample, count);
+  }
+
+  /**
+   * Get a view of the samples of one lead over a time range.
+   *
+   * @param lead the lead
+   * @param from the start time (epoch milliseconds, inclusive)
+   * @param to   the end time (epoch milliseconds, exclusive)
+   * @return a zero-copy view of the samples
+   */
+  public MiocardLeadView getLeadViewForTime(MiocardLead lead, long from, long to) {
+    long first = findSample(from);
+    long last = to > from ? findSample(to) : first;
+    if (last == sampleCount - 1 && to > getSampleTime(last)) {
+      last = sampleCount;
+    }
+    return new MiocardLeadView(this, lead, first, (int) Math.min(Integer.MAX_VALUE, last - first));
+  }
+
+  @Override
+  public void close() throws IOException {
+    channel.close();
+  }
+}
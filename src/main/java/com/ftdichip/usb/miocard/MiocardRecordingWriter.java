@@ -0,0 +1,239 @@
+/*
+ * Copyright 2014-2016 Key Bridge LLC.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ftdichip.usb.miocard;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+import static com.ftdichip.usb.miocard.MiocardRecording.*;
+
+/**
+ * Miocard-12 binary recording writer.
+ * <p>
+ * Writes a {@link MiocardRecording} file. Samples are collected into a block
+ * sized staging array and each complete block is copied into a memory mapped
+ * file segment. The file grows one {@link #SEGMENT_BLOCKS segment} at a time,
+ * so recording proceeds at memory speed and the operating system writes the
+ * data to disk in the background.
+ * <p>
+ * The writer is a {@link MiocardFrameListener}: attach it to a
+ * {@link MiocardFramer} to record the device stream directly.
+ * <p>
+ * Developer note: The header sample and block counts are updated after every
+ * block, so a recording interrupted before {@link #close()} is readable up to
+ * the last complete block. The writer is NOT thread safe.
+ *
+ * @author Jesse Caulfield
+ */
+public final class MiocardRecordingWriter implements MiocardFrameListener, Closeable {
+
+  /**
+   * The number of sample blocks mapped at a time (about 64 MB).
+   */
+  public static final int SEGMENT_BLOCKS = 2048;
+
+  private final FileChannel channel;
+  private final MappedByteBuffer header;
+  private final MiocardFrameDecoder decoder;
+  /**
+   * The per-channel staging block.
+   */
+  private final int[][] columns;
+  /**
+   * The number of samples in the staging block.
+   */
+  private int row;
+  /**
+   * The time the first staging block sample was received.
+   */
+  private long blockTime;
+  /**
+   * The currently mapped segment and its index.
+   */
+  private MappedByteBuffer segment;
+  private long segmentIndex = -1;
+  /**
+   * The time of every written block, for the footer time index.
+   */
+  private long[] blockTimes = new long[SEGMENT_BLOCKS];
+  private long blockCount;
+  private long sampleCount;
+  private boolean closed;
+
+  /**
+   * Create a new recording file. An existing file is overwritten.
+   *
+   * @param path     the recording file
+   * @param workMode the device work mode
+   * @throws IOException if the file cannot be created
+   */
+  public MiocardRecordingWriter(Path path, MiocardWorkMode workMode) throws IOException {
+    this.channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+                                    StandardOpenOption.READ, StandardOpenOption.WRITE);
+    this.decoder = new MiocardFrameDecoder(workMode);
+    this.columns = new int[MiocardProtocol.CHANNEL_COUNT][BLOCK_SAMPLES];
+    this.header = channel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_LENGTH);
+    header.putInt(HEADER_MAGIC, MAGIC);
+    header.putShort(HEADER_VERSION, VERSION);
+    header.putShort(HEADER_HEADER_LENGTH, (short) HEADER_LENGTH);
+    header.put(HEADER_WORK_MODE, workMode.getLowByte());
+    header.put(HEADER_WORK_MODE + 1, workMode.getHighByte());
+    header.putShort(HEADER_CHANNEL_COUNT, (short) MiocardProtocol.CHANNEL_COUNT);
+    header.putInt(HEADER_SAMPLE_RATE, workMode.getSampleRate());
+    header.putInt(HEADER_BLOCK_SAMPLES, BLOCK_SAMPLES);
+    header.putLong(HEADER_START_TIME, System.currentTimeMillis());
+  }
+
+  /**
+   * Record one sample frame.
+   *
+   * @param data   the buffer containing the frame
+   * @param offset the index of the first frame byte
+   * @throws UncheckedIOException if the next file segment cannot be mapped
+   */
+  @Override
+  public void frameReceived(byte[] data, int offset) {
+    if (row == 0) {
+      blockTime = System.currentTimeMillis();
+    }
+    decoder.decode(data, offset, columns, row);
+    if (++row == BLOCK_SAMPLES) {
+      try {
+        writeBlock();
+      } catch (IOException ex) {
+        throw new UncheckedIOException(ex);
+      }
+    }
+  }
+
+  /**
+   * Record decoded samples.
+   *
+   * @param samples the per-channel sample columns ({@code samples[channel][n]},
+   *                in analog front end channel order)
+   * @param offset  the index of the first sample to record in each column
+   * @param count   the number of samples to record
+   * @throws IOException if the next file segment cannot be mapped
+   */
+  public void write(int[][] samples, int offset, int count) throws IOException {
+    while (count > 0) {
+      if (row == 0) {
+        blockTime = System.currentTimeMillis();
+      }
+      int n = Math.min(count, BLOCK_SAMPLES - row);
+      for (int c = 0; c < columns.length; c++) {
+        System.arraycopy(samples[c], offset, columns[c], row, n);
+      }
+      row += n;
+      offset += n;
+      count -= n;
+      if (row == BLOCK_SAMPLES) {
+        writeBlock();
+      }
+    }
+  }
+
+  /**
+   * Copy the staging block into the mapped file and update the header.
+   *
+   * @throws IOException if the next file segment cannot be mapped
+   */
+  private void writeBlock() throws IOException {
+    long index = blockCount / SEGMENT_BLOCKS;
+    if (index != segmentIndex) {
+      segment = channel.map(FileChannel.MapMode.READ_WRITE, getBlockPosition(index * SEGMENT_BLOCKS), (long) SEGMENT_BLOCKS * BLOCK_LENGTH);
+      segmentIndex = index;
+    }
+    int position = (int) (blockCount % SEGMENT_BLOCKS) * BLOCK_LENGTH;
+    segment.putLong(position + BLOCK_TIME, blockTime);
+    segment.putInt(position + BLOCK_COUNT, row);
+    if (blockCount == blockTimes.length) {
+      blockTimes = Arrays.copyOf(blockTimes, blockTimes.length * 2);
+    }
+    blockTimes[(int) blockCount] = blockTime;
+    for (int c = 0; c < columns.length; c++) {
+      int[] column = columns[c];
+      int p = position + getColumnPosition(c);
+      for (int n = 0; n < row; n++, p += 4) {
+        segment.putInt(p, column[n]);
+      }
+    }
+    blockCount++;
+    sampleCount += row;
+    row = 0;
+    header.putLong(HEADER_SAMPLE_COUNT, sampleCount);
+    header.putLong(HEADER_BLOCK_COUNT, blockCount);
+  }
+
+  /**
+   * @return the number of samples recorded (per channel)
+   */
+  public long getSampleCount() {
+    return sampleCount + row;
+  }
+
+  /**
+   * Write the last (partial) block and the time index footer, flush the mapped
+   * file to disk and trim the unused end of the last segment.
+   *
+   * @throws IOException if the file cannot be written
+   */
+  @Override
+  public void close() throws IOException {
+    if (closed) {
+      return;
+    }
+    closed = true;
+    try {
+      if (row > 0) {
+        writeBlock();
+      }
+      if (segment != null) {
+        segment.force();
+      }
+      long footerPosition = getBlockPosition(blockCount);
+      /**
+       * Developer note: Some platforms (Windows) refuse to truncate a file
+       * while it is mapped. The footer position remains authoritative.
+       */
+      try {
+        channel.truncate(footerPosition);
+      } catch (IOException ex) {
+        // the unused end of the last segment remains
+      }
+      ByteBuffer footer = ByteBuffer.allocate(FOOTER_HEADER_LENGTH + (int) blockCount * 8);
+      footer.putInt(FOOTER_MAGIC_POSITION, FOOTER_MAGIC);
+      footer.putLong(FOOTER_BLOCK_COUNT, blockCount);
+      footer.position(FOOTER_HEADER_LENGTH);
+      footer.asLongBuffer().put(blockTimes, 0, (int) blockCount);
+      for (long position = footerPosition; footer.hasRemaining();) {
+        position += channel.write(footer, position);
+      }
+      channel.force(false);
+      header.putLong(HEADER_FOOTER_POSITION, footerPosition);
+      header.force();
+    } finally {
+      channel.close();
+    }
+  }
+}
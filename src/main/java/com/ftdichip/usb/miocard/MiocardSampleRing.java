@@ -0,0 +1,159 @@
+/*
+ * Copyright 2014-2016 Key Bridge LLC.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ftdichip.usb.miocard;
+
+/**
+ * Shared ring buffer of the most recent decoded twelve lead samples.
+ * <p>
+ * The ring is fed by a single writer, typically as the
+ * {@link MiocardFrameListener} of a {@link MiocardFramer}, and read by any
+ * number of readers (e.g. a display) at their own pace. Samples are addressed
+ * by their absolute sample number since the ring was (re)started; the ring
+ * retains the last {@link #getCapacity() capacity} samples of every lead.
+ * <p>
+ * Developer note: The writer publishes each sample by incrementing the
+ * volatile sample count after the sample is stored, so a reader that first
+ * reads the {@link #getSampleCount() count} sees every sample below it. A
+ * reader must only access samples in the range returned by
+ * {@link #getFirstSample()} and {@link #getSampleCount()}; a reader that falls
+ * more than the ring capacity behind may observe overwritten samples and
+ * should skip ahead.
+ *
+ * @author Jesse Caulfield
+ */
+public final class MiocardSampleRing implements MiocardFrameListener {
+
+  /**
+   * The default capacity: ten seconds at 2000 Hz, rounded to a power of two.
+   */
+  public static final int DEFAULT_CAPACITY = 32768;
+
+  /**
+   * The per-lead sample columns, {@code columns[lead][sample & mask]}.
+   */
+  private final int[][] columns;
+  private final int mask;
+  private volatile MiocardWorkMode workMode;
+  private volatile MiocardFrameDecoder decoder;
+  /**
+   * The number of samples written since the ring was (re)started.
+   */
+  private volatile long sampleCount;
+
+  /**
+   * Construct a new ring buffer with the default capacity.
+   *
+   * @param workMode the device work mode
+   */
+  public MiocardSampleRing(MiocardWorkMode workMode) {
+    this(workMode, DEFAULT_CAPACITY);
+  }
+
+  /**
+   * Construct a new ring buffer.
+   *
+   * @param workMode the device work mode
+   * @param capacity the number of samples retained per lead; rounded up to a
+   *                 power of two
+   */
+  public MiocardSampleRing(MiocardWorkMode workMode, int capacity) {
+    if (capacity < 1 || capacity > 1 << 30) {
+      throw new IllegalArgumentException("Invalid capacity " + capacity);
+    }
+    int size = Integer.highestOneBit(capacity);
+    if (size < capacity) {
+      size <<= 1;
+    }
+    this.columns = MiocardFrameDecoder.createColumns(size);
+    this.mask = size - 1;
+    setWorkMode(workMode);
+  }
+
+  /**
+   * Set the device work mode. The ring is restarted: the sample count is reset
+   * to zero. Developer note: Must not be called while frames are being
+   * received.
+   *
+   * @param workMode the device work mode
+   */
+  public void setWorkMode(MiocardWorkMode workMode) {
+    this.decoder = new MiocardFrameDecoder(workMode);
+    this.workMode = workMode;
+    this.sampleCount = 0;
+  }
+
+  /**
+   * @return the device work mode
+   */
+  public MiocardWorkMode getWorkMode() {
+    return workMode;
+  }
+
+  /**
+   * @return the sample rate (Hz)
+   */
+  public int getSampleRate() {
+    return workMode.getSampleRate();
+  }
+
+  /**
+   * @return the number of samples retained per lead
+   */
+  public int getCapacity() {
+    return mask + 1;
+  }
+
+  /**
+   * @return the number of samples written since the ring was (re)started; the
+   *         sample number following the newest sample
+   */
+  public long getSampleCount() {
+    return sampleCount;
+  }
+
+  /**
+   * @return the sample number of the oldest sample retained
+   */
+  public long getFirstSample() {
+    return Math.max(0, sampleCount - mask - 1);
+  }
+
+  /**
+   * Get a sample. The sample number must be between {@link #getFirstSample()}
+   * (inclusive) and {@link #getSampleCount()} (exclusive); this is not
+   * checked.
+   *
+   * @param lead   the lead index (see {@link MiocardLead#ordinal()})
+   * @param sample the sample number
+   * @return the sample value
+   */
+  public int getSample(int lead, long sample) {
+    return columns[lead][(int) sample & mask];
+  }
+
+  /**
+   * Decode a sample frame into the ring.
+   *
+   * @param data   the buffer containing the frame
+   * @param offset the index of the first frame byte
+   */
+  @Override
+  public void frameReceived(byte[] data, int offset) {
+    long count = sampleCount;
+    decoder.decode(data, offset, columns, (int) count & mask);
+    sampleCount = count + 1;
+  }
+}
@@ -0,0 +1,164 @@
+/*
+ * Copyright 2014-2016 Key Bridge LLC.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ftdichip.usb.miocard;
+
+/**
+ * The Miocard-12 work mode, as reported in response to the mode info
+ * ({@code 0x02}) command.
+ * <p>
+ * The work mode is encoded in two bytes (response index 1 is the low byte,
+ * index 2 is the high byte):
+ * <pre>
+ * low byte:  0x80 2000 Hz | 0x40 1000 Hz | 0x20 500 Hz
+ *            0x10 ADS1298 (24 bits) | 0x08 ADS1198 (16 bits)
+ *            0x04 control mode on
+ *            0x03 isoline output to zero on
+ * high byte: 0x08 wide range | 0x04 narrow range
+ *            0x02 high isoline alignment speed
+ * </pre>
+ *
+ * @author Jesse Caulfield
+ */
+public final class MiocardWorkMode {
+
+  /**
+   * The default work mode: 500 Hz, ADS1298, isoline output to zero, wide
+   * range.
+   */
+  public static final MiocardWorkMode DEFAULT = new MiocardWorkMode((byte) 0x33, (byte) 0x08);
+
+  private final byte lowByte;
+  private final byte highByte;
+
+  /**
+   * Construct a work mode from its encoded bytes.
+   *
+   * @param lowByte  the work mode low byte
+   * @param highByte the work mode high byte
+   */
+  public MiocardWorkMode(byte lowByte, byte highByte) {
+    this.lowByte = lowByte;
+    this.highByte = highByte;
+  }
+
+  /**
+   * Decode the work mode from a mode info response.
+   *
+   * @param response the mode info response (at least 3 bytes)
+   * @return the work mode
+   */
+  public static MiocardWorkMode fromResponse(byte[] response) {
+    if (response.length < 3) {
+      throw new IllegalArgumentException("Mode info response requires 3 bytes, received " + response.length);
+    }
+    return new MiocardWorkMode(response[1], response[2]);
+  }
+
+  /**
+   * @return the sampling frequency (500, 1000 or 2000 Hz)
+   */
+  public int getSampleRate() {
+    if ((lowByte & 0x80) != 0) {
+      return 2000;
+    }
+    return (lowByte & 0x40) != 0 ? 1000 : 500;
+  }
+
+  /**
+   * @return TRUE for the ADS1298 (24 bits per sample), FALSE for the ADS1198
+   *         (16 bits per sample)
+   */
+  public boolean isAds1298() {
+    return (lowByte & 0x10) != 0;
+  }
+
+  /**
+   * @return the number of bytes per sample in a sample frame (3 or 2)
+   */
+  public int getSampleBytes() {
+    return isAds1298() ? MiocardProtocol.SAMPLE_BYTES_24 : MiocardProtocol.SAMPLE_BYTES_16;
+  }
+
+  /**
+   * @return the sample frame length (bytes)
+   */
+  public int getFrameLength() {
+    return MiocardProtocol.getFrameLength(getSampleBytes());
+  }
+
+  /**
+   * @return TRUE if control mode is on
+   */
+  public boolean isControlMode() {
+    return (lowByte & 0x04) != 0;
+  }
+
+  /**
+   * @return TRUE if isoline output to zero is on
+   */
+  public boolean isIsolineToZero() {
+    return (lowByte & 0x03) == 0x03;
+  }
+
+  /**
+   * @return TRUE for the wide (+/- 20.46 mV) electrode break monitoring range,
+   *         FALSE for the narrow (+/- 10.23 mV) range
+   */
+  public boolean isWideRange() {
+    return (highByte & 0x08) != 0;
+  }
+
+  /**
+   * @return TRUE for high isoline alignment speed, FALSE for normal
+   */
+  public boolean isHighSpeed() {
+    return (highByte & 0x02) != 0;
+  }
+
+  /**
+   * @return the encoded work mode low byte
+   */
+  public byte getLowByte() {
+    return lowByte;
+  }
+
+  /**
+   * @return the encoded work mode high byte
+   */
+  public byte getHighByte() {
+    return highByte;
+  }
+
+  @Override
+  public int hashCode() {
+    return (lowByte & 0xff) | (highByte & 0xff) << 8;
+  }
+
+  @Override
+  public boolean equals(Object obj) {
+    if (!(obj instanceof MiocardWorkMode)) {
+      return false;
+    }
+    MiocardWorkMode other = (MiocardWorkMode) obj;
+    return lowByte == other.lowByte && highByte == other.highByte;
+  }
+
+  @Override
+  public String toString() {
+    return "MiocardWorkMode " + getSampleRate() + " Hz " + (isAds1298() ? "ADS1298" : "ADS1198")
+           + (isWideRange() ? " wide" : " narrow") + (isHighSpeed() ? " high" : " normal");
+  }
+}
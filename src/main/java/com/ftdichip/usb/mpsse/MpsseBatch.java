@@ -0,0 +1,378 @@
+/*
+ * Copyright 2014-2016 Key Bridge LLC.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ftdichip.usb.mpsse;
+
+import java.util.Arrays;
+
+import static com.ftdichip.usb.mpsse.MpsseProtocol.*;
+
+/**
+ * A batch of MPSSE commands, built into a single command buffer.
+ * <p>
+ * Operations are appended to the batch in order and nothing is sent until the
+ * batch is {@link MpsseEngine#execute(MpsseBatch) executed}: the whole
+ * command buffer then goes to the chip in one bulk write and the data of all
+ * read operations comes back in one bulk read. Every operation that reads
+ * returns the offset of its data in the response array returned by
+ * {@code execute}.
+ * <p>
+ * Developer note: Batching is what makes MPSSE fast. Each USB round trip
+ * costs about a millisecond (a full speed frame, or the latency timer), so
+ * one round trip per operation limits a bus to about a thousand operations
+ * per second, whereas a batch of thousands of operations costs the same
+ * single round trip. Command buffers of any length may be sent; the chip
+ * processes them as they arrive but stalls while its transmit buffer is full,
+ * so the engine reads the response while the command buffer is written.
+ *
+ * @author Jesse Caulfield
+ */
+public final class MpsseBatch {
+
+  private byte[] commands;
+  private int length;
+  private int responseLength;
+  /**
+   * TRUE once the batch ends with a {@link MpsseProtocol#SEND_IMMEDIATE}.
+   */
+  private boolean flushed;
+
+  /**
+   * Construct an empty batch.
+   */
+  public MpsseBatch() {
+    this(256);
+  }
+
+  /**
+   * Construct an empty batch.
+   *
+   * @param capacity the initial command buffer capacity (bytes)
+   */
+  public MpsseBatch(int capacity) {
+    this.commands = new byte[Math.max(capacity, 16)];
+  }
+
+  /**
+   * Make room for more command bytes.
+   */
+  private void ensureCapacity(int extra) {
+    if (length + extra > commands.length) {
+      commands = Arrays.copyOf(commands, Math.max(commands.length * 2, length + extra));
+    }
+    flushed = false;
+  }
+
+  private void put(int value) {
+    commands[length++] = (byte) value;
+  }
+
+  /**
+   * Reserve response bytes.
+   *
+   * @param count the number of bytes the command returns
+   * @return the offset of the bytes in the response
+   */
+  private int expect(int count) {
+    int offset = responseLength;
+    responseLength += count;
+    return offset;
+  }
+
+  /**
+   * Append raw command bytes.
+   *
+   * @param data          the commands
+   * @param responseCount the number of response bytes the commands return
+   * @return the offset of the response bytes
+   */
+  public int raw(byte[] data, int responseCount) {
+    ensureCapacity(data.length);
+    System.arraycopy(data, 0, commands, length, data.length);
+    length += data.length;
+    return expect(responseCount);
+  }
+
+  /**
+   * Set the low byte data bits (ADBUS 0-7).
+   *
+   * @param value     the output pin values
+   * @param direction the pin directions (a '1' bit is an output)
+   * @return this batch
+   */
+  public MpsseBatch setDataBitsLow(int value, int direction) {
+    ensureCapacity(3);
+    put(SET_BITS_LOW);
+    put(value);
+    put(direction);
+    return this;
+  }
+
+  /**
+   * Set the high byte data bits (ACBUS 0-7).
+   *
+   * @param value     the output pin values
+   * @param direction the pin directions (a '1' bit is an output)
+   * @return this batch
+   */
+  public MpsseBatch setDataBitsHigh(int value, int direction) {
+    ensureCapacity(3);
+    put(SET_BITS_HIGH);
+    put(value);
+    put(direction);
+    return this;
+  }
+
+  /**
+   * Read the low byte data bits.
+   *
+   * @return the offset of the (one byte) pin states in the response
+   */
+  public int readDataBitsLow() {
+    ensureCapacity(1);
+    put(GET_BITS_LOW);
+    return expect(1);
+  }
+
+  /**
+   * Read the high byte data bits.
+   *
+   * @return the offset of the (one byte) pin states in the response
+   */
+  public int readDataBitsHigh() {
+    ensureCapacity(1);
+    put(GET_BITS_HIGH);
+    return expect(1);
+  }
+
+  /**
+   * Set the clock divisor: the clock frequency is the master clock / ((1 +
+   * divisor) * 2).
+   *
+   * @param divisor the divisor (0 to 65535)
+   * @return this batch
+   */
+  public MpsseBatch setClockDivisor(int divisor) {
+    if (divisor < 0 || divisor > 0xFFFF) {
+      throw new IllegalArgumentException("Invalid clock divisor " + divisor);
+    }
+    ensureCapacity(3);
+    put(TCK_DIVISOR);
+    put(divisor);
+    put(divisor >> 8);
+    return this;
+  }
+
+  /**
+   * Append a command without parameters or response, e.g.
+   * {@link MpsseProtocol#ENABLE_3_PHASE}.
+   *
+   * @param opcode the command opcode
+   * @return this batch
+   */
+  public MpsseBatch command(byte opcode) {
+    ensureCapacity(1);
+    put(opcode);
+    return this;
+  }
+
+  /**
+   * Shift whole bytes.
+   * <p>
+   * Transfers longer than {@link MpsseProtocol#MAX_SHIFT_LENGTH} are split
+   * into several commands; their read data is contiguous in the response.
+   *
+   * @param flags  the {@code SHIFT_*} flags (without {@code SHIFT_BITMODE})
+   * @param data   the data to write, ignored unless {@code SHIFT_DO_WRITE}
+   * @param offset the index of the first byte to write
+   * @param count  the number of bytes to shift
+   * @return the offset of the read data in the response, or -1 if the command
+   *         does not read
+   */
+  public int shiftBytes(int flags, byte[] data, int offset, int count) {
+    if (count < 1) {
+      throw new IllegalArgumentException("Invalid byte count " + count);
+    }
+    boolean write = (flags & SHIFT_DO_WRITE) != 0;
+    boolean read = (flags & SHIFT_DO_READ) != 0;
+    int responseOffset = read ? responseLength : -1;
+    for (int done = 0; done < count; ) {
+      int chunk = Math.min(count - done, MAX_SHIFT_LENGTH);
+      ensureCapacity(3 + (write ? chunk : 0));
+      put(flags & ~SHIFT_BITMODE);
+      put(chunk - 1);
+      put((chunk - 1) >> 8);
+      if (write) {
+        System.arraycopy(data, offset + done, commands, length, chunk);
+        length += chunk;
+      }
+      if (read) {
+        expect(chunk);
+      }
+      done += chunk;
+    }
+    return responseOffset;
+  }
+
+  /**
+   * Shift 1 to 8 bits.
+   * <p>
+   * Developer note: MSB first writes send the most significant bits of the
+   * data byte; LSB first writes send the least significant bits. Read bits are
+   * shifted into the response byte from the LSB end (MSB first) or the MSB end
+   * (LSB first): the {@code count} bits read are the low bits, respectively
+   * the high bits, of the response byte.
+   *
+   * @param flags the {@code SHIFT_*} flags (without {@code SHIFT_BITMODE})
+   * @param data  the bits to write, ignored unless {@code SHIFT_DO_WRITE}
+   * @param count the number of bits to shift (1 to 8)
+   * @return the offset of the (one byte) read data in the response, or -1 if
+   *         the command does not read
+   */
+  public int shiftBits(int flags, int data, int count) {
+    if (count < 1 || count > 8) {
+      throw new IllegalArgumentException("Invalid bit count " + count);
+    }
+    boolean write = (flags & SHIFT_DO_WRITE) != 0;
+    ensureCapacity(write ? 3 : 2);
+    put(flags | SHIFT_BITMODE);
+    put(count - 1);
+    if (write) {
+      put(data);
+    }
+    return (flags & SHIFT_DO_READ) != 0 ? expect(1) : -1;
+  }
+
+  /**
+   * Clock TMS (JTAG state machine) bits, LSB first, while holding TDI.
+   *
+   * @param tms   the TMS bits, LSB first
+   * @param count the number of bits (1 to 7)
+   * @param tdi   the TDI state held during the clocks
+   * @param read  TRUE to read TDO during the clocks
+   * @return the offset of the (one byte) TDO bits in the response, which are
+   *         the {@code count} high bits, or -1 if not read
+   */
+  public int clockTms(int tms, int count, boolean tdi, boolean read) {
+    if (count < 1 || count > 7) {
+      throw new IllegalArgumentException("Invalid TMS bit count " + count);
+    }
+    ensureCapacity(3);
+    put(SHIFT_WRITE_TMS | SHIFT_LSB | SHIFT_BITMODE | SHIFT_WRITE_NEG | (read ? SHIFT_DO_READ : 0));
+    put(count - 1);
+    put((tms & 0x7F) | (tdi ? 0x80 : 0));
+    return read ? expect(1) : -1;
+  }
+
+  /**
+   * Write bytes MSB first on the falling clock edge (SPI mode 0).
+   *
+   * @param data   the data
+   * @param offset the index of the first byte
+   * @param count  the number of bytes
+   * @return this batch
+   */
+  public MpsseBatch writeBytes(byte[] data, int offset, int count) {
+    shiftBytes(SHIFT_DO_WRITE | SHIFT_WRITE_NEG, data, offset, count);
+    return this;
+  }
+
+  /**
+   * Read bytes MSB first on the rising clock edge (SPI mode 0).
+   *
+   * @param count the number of bytes
+   * @return the offset of the data in the response
+   */
+  public int readBytes(int count) {
+    return shiftBytes(SHIFT_DO_READ, null, 0, count);
+  }
+
+  /**
+   * Write and simultaneously read bytes MSB first: out on the falling, in on
+   * the rising clock edge (SPI mode 0).
+   *
+   * @param data   the data to write
+   * @param offset the index of the first byte
+   * @param count  the number of bytes
+   * @return the offset of the read data in the response
+   */
+  public int transferBytes(byte[] data, int offset, int count) {
+    return shiftBytes(SHIFT_DO_WRITE | SHIFT_DO_READ | SHIFT_WRITE_NEG, data, offset, count);
+  }
+
+  /**
+   * Ask the chip to send its read data immediately. Appended automatically
+   * by {@link MpsseEngine#execute(MpsseBatch)} to batches that read.
+   *
+   * @return this batch
+   */
+  public MpsseBatch sendImmediate() {
+    ensureCapacity(1);
+    put(SEND_IMMEDIATE);
+    flushed = true;
+    return this;
+  }
+
+  /**
+   * Finish the batch for execution: make sure the read data is flushed.
+   */
+  void finish() {
+    if (responseLength > 0 && !flushed) {
+      sendImmediate();
+    }
+  }
+
+  /**
+   * Discard all operations, keeping the command buffer for re-use.
+   */
+  public void clear() {
+    length = 0;
+    responseLength = 0;
+    flushed = false;
+  }
+
+  /**
+   * @return the command buffer; valid up to {@link #getLength()}
+   */
+  byte[] getCommands() {
+    return commands;
+  }
+
+  /**
+   * @return the command buffer length (bytes)
+   */
+  public int getLength() {
+    return length;
+  }
+
+  /**
+   * @return the total number of bytes the batch reads
+   */
+  public int getResponseLength() {
+    return responseLength;
+  }
+
+  /**
+   * @return TRUE if the batch has no operations
+   */
+  public boolean isEmpty() {
+    return length == 0;
+  }
+
+  @Override
+  public String toString() {
+    return "MPSSE batch: " + length + " command bytes, " + responseLength + " response bytes";
+  }
+}
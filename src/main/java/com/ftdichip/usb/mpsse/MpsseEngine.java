@@ -0,0 +1,340 @@
+/*
+ * Copyright 2014-2016 Key Bridge LLC.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ftdichip.usb.mpsse;
+
+import com.ftdichip.usb.FTDI;
+import com.ftdichip.usb.enumerated.BitMode;
+import java.util.Arrays;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import javax.usb.UsbException;
+
+/**
+ * Multi-Protocol Synchronous Serial Engine (MPSSE) driver for an FTDI port.
+ * <p>
+ * The engine switches the port to MPSSE mode and executes
+ * {@link MpsseBatch batches} of commands: every batch is sent in one
+ * asynchronous bulk write while its response is read back in (multi-packet)
+ * bulk reads. The protocol
+ * helpers {@link MpsseSpi}, {@link MpsseI2c} and {@link MpsseJtag} append bus
+ * operations to a batch.
+ * <p>
+ * Typical use:
+ * <pre>
+ * MpsseEngine mpsse = new MpsseEngine(ftdi);
+ * mpsse.open(1000000);
+ * MpsseSpi spi = new MpsseSpi();
+ * MpsseBatch batch = new MpsseBatch();
+ * spi.init(batch);
+ * int id = spi.transfer(batch, new byte[]{(byte) 0x9F, 0, 0, 0});
+ * byte[] response = mpsse.execute(batch);
+ * </pre>
+ * <p>
+ * Developer note: The engine uses the synchronous FTDI read method; the
+ * asynchronous read engine must not run on the port. An engine is not thread
+ * safe.
+ *
+ * @author Jesse Caulfield
+ */
+public final class MpsseEngine {
+
+  /**
+   * The latency timer in MPSSE mode (ms). Responses are flushed with
+   * {@link MpsseProtocol#SEND_IMMEDIATE}; the short timer bounds the wait for
+   * responses that are not.
+   */
+  public static final int LATENCY_TIMER = 1;
+  /**
+   * The default time to wait for a batch response (ms).
+   */
+  public static final int DEFAULT_TIMEOUT = 1000;
+
+  private final FTDI ftdi;
+  /**
+   * The MPSSE master clock (Hz).
+   */
+  private final int masterClock;
+  private int timeout = DEFAULT_TIMEOUT;
+  private int clockFrequency;
+  private byte[] readBuffer = new byte[0];
+  private boolean open;
+  /**
+   * Statistics: the number of batches executed and the command and response
+   * bytes transferred.
+   */
+  private long batchCount;
+  private long commandBytes;
+  private long responseBytes;
+
+  /**
+   * Construct an MPSSE engine on an open FTDI port.
+   *
+   * @param ftdi the FTDI port. It must support MPSSE mode: see
+   *             {@link FTDI#isMpsseSupported()}.
+   */
+  public MpsseEngine(FTDI ftdi) {
+    if (!ftdi.isMpsseSupported()) {
+      throw new IllegalArgumentException("MPSSE mode is not supported by " + ftdi.getChipType() + " " + ftdi.getPort());
+    }
+    this.ftdi = ftdi;
+    this.masterClock = ftdi.getChipType().isHighSpeed() ? MpsseProtocol.CLOCK_60MHZ : MpsseProtocol.CLOCK_12MHZ;
+  }
+
+  /**
+   * Switch the port to MPSSE mode, verify that the command processor is in
+   * sync and set the clock frequency.
+   * <p>
+   * The chip buffers are purged first, then the synchronization check sends a
+   * bad opcode (0xAA) and expects the {@link MpsseProtocol#BAD_COMMAND}
+   * response.
+   *
+   * @param clockFrequency the requested clock frequency (Hz)
+   * @return the actual clock frequency (Hz)
+   * @throws UsbException if the mode cannot be set or the command processor
+   *                      does not respond
+   */
+  public int open(int clockFrequency) throws UsbException {
+    ftdi.setBitMode(BitMode.RESET, (byte) 0);
+    ftdi.setBitMode(BitMode.MPSSE, (byte) 0);
+    ftdi.setLatencyTimer(LATENCY_TIMER);
+    /**
+     * Discard data left over from the previous mode so that it is not taken
+     * for the synchronization response.
+     */
+    ftdi.purge();
+    open = true;
+    MpsseBatch batch = new MpsseBatch();
+    batch.raw(new byte[]{(byte) 0xAA}, 2);
+    byte[] response = execute(batch);
+    if (response[0] != MpsseProtocol.BAD_COMMAND || response[1] != (byte) 0xAA) {
+      open = false;
+      throw new UsbException(String.format("MPSSE not in sync: 0x%02x 0x%02x", response[0], response[1]));
+    }
+    batch.clear();
+    batch.command(MpsseProtocol.LOOPBACK_END);
+    if (masterClock == MpsseProtocol.CLOCK_60MHZ) {
+      batch.command(MpsseProtocol.DISABLE_CLK_DIV5)
+        .command(MpsseProtocol.DISABLE_ADAPTIVE_CLOCK)
+        .command(MpsseProtocol.DISABLE_3_PHASE);
+    }
+    execute(batch);
+    return setClockFrequency(clockFrequency);
+  }
+
+  /**
+   * Set the clock (TCK / SCK / SCL) frequency to the nearest frequency not
+   * above the requested one.
+   *
+   * @param frequency the requested clock frequency (Hz)
+   * @return the actual clock frequency (Hz)
+   * @throws UsbException if the command cannot be sent
+   */
+  public int setClockFrequency(int frequency) throws UsbException {
+    MpsseBatch batch = new MpsseBatch();
+    int divisor = getClockDivisor(frequency);
+    execute(batch.setClockDivisor(divisor));
+    clockFrequency = masterClock / ((1 + divisor) * 2);
+    return clockFrequency;
+  }
+
+  /**
+   * Get the clock divisor for a frequency: frequency = master clock / ((1 +
+   * divisor) * 2).
+   *
+   * @param frequency the requested clock frequency (Hz)
+   * @return the divisor of the nearest frequency not above the requested one
+   */
+  public int getClockDivisor(int frequency) {
+    if (frequency <= 0) {
+      throw new IllegalArgumentException("Invalid clock frequency " + frequency);
+    }
+    int divisor = (masterClock / 2 + frequency - 1) / frequency - 1;
+    return Math.max(0, Math.min(divisor, 0xFFFF));
+  }
+
+  /**
+   * Execute a batch: send the command buffer in one bulk write and read the
+   * complete response.
+   * <p>
+   * Developer note: The chip stops processing commands when its transmit
+   * buffer is full and the host is not reading. The command buffer is therefore
+   * written asynchronously and the response read while it drains; a
+   * synchronous write of a batch whose response exceeds the chip buffer would
+   * stall until the USB timeout.
+   *
+   * @param batch the batch
+   * @return the response: the data of all read operations, in batch order.
+   *         Empty if the batch does not read.
+   * @throws UsbException if the batch cannot be sent or the response is not
+   *                      received within the timeout
+   */
+  public byte[] execute(MpsseBatch batch) throws UsbException {
+    if (!open) {
+      throw new IllegalStateException("MPSSE engine is not open.");
+    }
+    if (batch.isEmpty()) {
+      return new byte[0];
+    }
+    batch.finish();
+    CompletableFuture<Integer> written = ftdi.writeAsync(batch.getCommands(), 0, batch.getLength());
+    byte[] response = new byte[batch.getResponseLength()];
+    try {
+      readResponse(response);
+    } catch (UsbException | RuntimeException ex) {
+      /**
+       * Do not return (and let the caller reuse the batch) while the command
+       * buffer is still being written.
+       */
+      try {
+        awaitWrite(written);
+      } catch (UsbException writeException) {
+        ex.addSuppressed(writeException);
+      }
+      throw ex;
+    }
+    awaitWrite(written);
+    batchCount++;
+    commandBytes += batch.getLength();
+    responseBytes += response.length;
+    return response;
+  }
+
+  /**
+   * Read a complete batch response. All packets of the response are requested
+   * in one transfer; further transfers are made only if the chip has not yet
+   * produced all the data.
+   *
+   * @param response the array to fill
+   * @throws UsbException if the response is not received within the timeout
+   */
+  private void readResponse(byte[] response) throws UsbException {
+    int packetSize = ftdi.getReadPacketSize();
+    int payloadSize = packetSize - 2;
+    long deadline = System.nanoTime() + timeout * 1000000L;
+    int received = 0;
+    while (received < response.length) {
+      int packets = (response.length - received + payloadSize - 1) / payloadSize;
+      int transferSize = packets * packetSize;
+      if (readBuffer.length < transferSize) {
+        readBuffer = new byte[transferSize];
+      }
+      int count = ftdi.read(readBuffer, 0, transferSize);
+      if (received + count > response.length) {
+        throw new UsbException("Unexpected MPSSE response: " + (received + count) + " bytes, expected " + response.length
+                               + " (first bytes " + Arrays.toString(Arrays.copyOf(readBuffer, Math.min(count, 4))) + ")");
+      }
+      System.arraycopy(readBuffer, 0, response, received, count);
+      received += count;
+      if (count == 0 && System.nanoTime() > deadline) {
+        throw new UsbException("MPSSE response timed out: received " + received + " of " + response.length + " bytes");
+      }
+    }
+  }
+
+  /**
+   * Wait for the command buffer write of a batch to complete.
+   *
+   * @param written the write future
+   * @throws UsbException if the write fails or does not complete within the
+   *                      timeout
+   */
+  private void awaitWrite(CompletableFuture<Integer> written) throws UsbException {
+    try {
+      written.get(timeout, TimeUnit.MILLISECONDS);
+    } catch (ExecutionException ex) {
+      if (ex.getCause() instanceof UsbException) {
+        throw (UsbException) ex.getCause();
+      }
+      throw new UsbException("MPSSE command write failed: " + ex.getCause());
+    } catch (TimeoutException ex) {
+      throw new UsbException("MPSSE command write timed out");
+    } catch (InterruptedException ex) {
+      Thread.currentThread().interrupt();
+      throw new UsbException("MPSSE command write interrupted");
+    }
+  }
+
+  /**
+   * Set the time to wait for a batch response.
+   *
+   * @param timeout the timeout (ms)
+   */
+  public void setTimeout(int timeout) {
+    this.timeout = timeout;
+  }
+
+  /**
+   * @return the MPSSE master clock (Hz)
+   */
+  public int getMasterClock() {
+    return masterClock;
+  }
+
+  /**
+   * @return the actual clock frequency (Hz)
+   */
+  public int getClockFrequency() {
+    return clockFrequency;
+  }
+
+  /**
+   * @return the FTDI port
+   */
+  public FTDI getFTDI() {
+    return ftdi;
+  }
+
+  /**
+   * @return the number of batches executed
+   */
+  public long getBatchCount() {
+    return batchCount;
+  }
+
+  /**
+   * @return the number of command bytes sent
+   */
+  public long getCommandBytes() {
+    return commandBytes;
+  }
+
+  /**
+   * @return the number of response bytes received
+   */
+  public long getResponseBytes() {
+    return responseBytes;
+  }
+
+  /**
+   * Leave MPSSE mode (reset the bit mode). The FTDI port remains open.
+   *
+   * @throws UsbException if the bit mode cannot be reset
+   */
+  public void close() throws UsbException {
+    if (open) {
+      open = false;
+      ftdi.setBitMode(BitMode.RESET, (byte) 0);
+    }
+  }
+
+  @Override
+  public String toString() {
+    return String.format("MPSSE %s %s: %d Hz, %d batches, %d command bytes, %d response bytes",
+                         ftdi.getChipType(), ftdi.getPort(), clockFrequency, batchCount, commandBytes, responseBytes);
+  }
+}
@@ -0,0 +1,218 @@
+/*
+ * Copyright 2014-2016 Key Bridge LLC.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ftdichip.usb.mpsse;
+
+import static com.ftdichip.usb.mpsse.MpsseProtocol.*;
+
+/**
+ * I2C master operations for an {@link MpsseBatch}, as described in AN_255.
+ * <p>
+ * Pin assignment (low byte): ADBUS0 SCL, ADBUS1 SDA out and ADBUS2 SDA in,
+ * connected together and pulled up. SDA is released (made an input) to read
+ * acknowledge and data bits. On H series chips three phase clocking keeps SDA
+ * valid on both SCL edges; the effective SCL frequency is then two thirds of
+ * the {@link MpsseEngine#getClockFrequency() MPSSE clock}. The FT2232C/D has
+ * no three phase clocking: data changes on the falling SCL edge, which meets
+ * the (zero) I2C data hold time, and SCL runs at the MPSSE clock.
+ * <p>
+ * Each operation returns the offset of its response byte(s). An acknowledge
+ * response is one byte whose bit 0 is the SDA level: see
+ * {@link #isAck(byte[], int)}. A complete transaction (start, address, data,
+ * stop) is a handful of commands, so a batch can hold many transactions for
+ * one USB round trip.
+ *
+ * @author Jesse Caulfield
+ */
+public final class MpsseI2c {
+
+  /**
+   * ADBUS0: serial clock.
+   */
+  public static final int SCL = 0x01;
+  /**
+   * ADBUS1: serial data out.
+   */
+  public static final int SDA_OUT = 0x02;
+  /**
+   * ADBUS2: serial data in.
+   */
+  public static final int SDA_IN = 0x04;
+  /**
+   * The number of times the pin state commands of start and stop conditions
+   * are repeated, to meet the I2C setup and hold times at high MPSSE clock
+   * rates (each command takes one MPSSE clock cycle).
+   */
+  private static final int HOLD_REPEAT = 4;
+
+  /**
+   * Enable three phase clocking (H series chips only) and set the bus pins to
+   * their idle state (both lines high).
+   * <p>
+   * Developer note: {@link MpsseProtocol#ENABLE_3_PHASE} is a bad command on
+   * the FT2232C/D, which would answer it with
+   * {@link MpsseProtocol#BAD_COMMAND} and break the batch response.
+   *
+   * @param engine the engine that will execute the batch
+   * @param batch  the batch
+   * @return the batch
+   */
+  public MpsseBatch init(MpsseEngine engine, MpsseBatch batch) {
+    if (engine.getMasterClock() == CLOCK_60MHZ) {
+      batch.command(ENABLE_3_PHASE);
+    }
+    return batch.setDataBitsLow(SCL | SDA_OUT, SCL | SDA_OUT);
+  }
+
+  private static void repeat(MpsseBatch batch, int value) {
+    for (int i = 0; i < HOLD_REPEAT; i++) {
+      batch.setDataBitsLow(value, SCL | SDA_OUT);
+    }
+  }
+
+  /**
+   * Send a start (or repeated start) condition: SDA falls while SCL is high.
+   *
+   * @param batch the batch
+   * @return the batch
+   */
+  public MpsseBatch start(MpsseBatch batch) {
+    repeat(batch, SCL | SDA_OUT);
+    repeat(batch, SCL);
+    return batch.setDataBitsLow(0, SCL | SDA_OUT);
+  }
+
+  /**
+   * Send a stop condition: SDA rises while SCL is high.
+   *
+   * @param batch the batch
+   * @return the batch
+   */
+  public MpsseBatch stop(MpsseBatch batch) {
+    repeat(batch, 0);
+    repeat(batch, SCL);
+    repeat(batch, SCL | SDA_OUT);
+    return batch;
+  }
+
+  /**
+   * Write one byte and read the acknowledge bit.
+   *
+   * @param batch the batch
+   * @param data  the byte
+   * @return the offset of the acknowledge response byte
+   */
+  public int writeByte(MpsseBatch batch, int data) {
+    batch.shiftBytes(SHIFT_DO_WRITE | SHIFT_WRITE_NEG, new byte[]{(byte) data}, 0, 1);
+    /**
+     * Release SDA and clock in the acknowledge bit.
+     */
+    batch.setDataBitsLow(0, SCL);
+    int offset = batch.shiftBits(SHIFT_DO_READ, 0, 1);
+    batch.setDataBitsLow(SDA_OUT, SCL | SDA_OUT);
+    return offset;
+  }
+
+  /**
+   * Read one byte and send an acknowledge (more bytes to follow) or not
+   * acknowledge (last byte).
+   *
+   * @param batch the batch
+   * @param ack   TRUE to acknowledge the byte
+   * @return the offset of the data byte
+   */
+  public int readByte(MpsseBatch batch, boolean ack) {
+    batch.setDataBitsLow(0, SCL);
+    int offset = batch.shiftBytes(SHIFT_DO_READ, null, 0, 1);
+    batch.setDataBitsLow(SDA_OUT, SCL | SDA_OUT);
+    batch.shiftBits(SHIFT_DO_WRITE | SHIFT_WRITE_NEG, ack ? 0x00 : 0xFF, 1);
+    batch.setDataBitsLow(SDA_OUT, SCL | SDA_OUT);
+    return offset;
+  }
+
+  /**
+   * Write transaction: start, address (write), data bytes, stop.
+   *
+   * @param batch   the batch
+   * @param address the 7 bit device address
+   * @param data    the data bytes
+   * @return the offset of the acknowledge responses: one for the address
+   *         followed by one for each data byte
+   */
+  public int write(MpsseBatch batch, int address, byte[] data) {
+    start(batch);
+    int offset = writeByte(batch, address << 1);
+    for (byte b : data) {
+      writeByte(batch, b);
+    }
+    stop(batch);
+    return offset;
+  }
+
+  /**
+   * Read transaction: start, address (read), data bytes, stop.
+   *
+   * @param batch   the batch
+   * @param address the 7 bit device address
+   * @param count   the number of bytes to read (at least one)
+   * @return the offset of the address acknowledge response; the data bytes
+   *         follow it
+   */
+  public int read(MpsseBatch batch, int address, int count) {
+    start(batch);
+    int offset = writeByte(batch, address << 1 | 1);
+    for (int i = 0; i < count; i++) {
+      readByte(batch, i < count - 1);
+    }
+    stop(batch);
+    return offset;
+  }
+
+  /**
+   * Write-then-read transaction, e.g. a register read: start, address
+   * (write), command bytes, repeated start, address (read), data bytes, stop.
+   *
+   * @param batch   the batch
+   * @param address the 7 bit device address
+   * @param command the command (e.g. register address) bytes
+   * @param count   the number of bytes to read (at least one)
+   * @return the offset of the acknowledge responses: one for the address,
+   *         one for each command byte and one for the read address; the data
+   *         bytes follow them
+   */
+  public int writeRead(MpsseBatch batch, int address, byte[] command, int count) {
+    start(batch);
+    int offset = writeByte(batch, address << 1);
+    for (byte b : command) {
+      writeByte(batch, b);
+    }
+    start(batch);
+    writeByte(batch, address << 1 | 1);
+    for (int i = 0; i < count; i++) {
+      readByte(batch, i < count - 1);
+    }
+    stop(batch);
+    return offset;
+  }
+
+  /**
+   * @param response the batch response
+   * @param offset   the offset of an acknowledge response byte
+   * @return TRUE if the device acknowledged (pulled SDA low)
+   */
+  public static boolean isAck(byte[] response, int offset) {
+    return (response[offset] & 0x01) == 0;
+  }
+}
@@ -0,0 +1,165 @@
+/*
+ * Copyright 2014-2016 Key Bridge LLC.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ftdichip.usb.mpsse;
+
+import static com.ftdichip.usb.mpsse.MpsseProtocol.*;
+
+/**
+ * JTAG master operations for an {@link MpsseBatch}, as described in AN_129.
+ * <p>
+ * Pin assignment (low byte): ADBUS0 TCK, ADBUS1 TDI, ADBUS2 TDO, ADBUS3 TMS.
+ * <p>
+ * Every operation starts and ends in the Run-Test/Idle state: a scan moves to
+ * Shift-IR or Shift-DR, shifts the data LSB first (whole bytes, then the
+ * remaining bits) and leaves the shift state with the last bit, returning to
+ * Run-Test/Idle. Scans can therefore be chained in a batch without TAP state
+ * bookkeeping, e.g. a boundary scan sequence in one USB round trip.
+ *
+ * @author Jesse Caulfield
+ */
+public final class MpsseJtag {
+
+  /**
+   * ADBUS0: test clock.
+   */
+  public static final int TCK = 0x01;
+  /**
+   * ADBUS1: test data in (to the device).
+   */
+  public static final int TDI = 0x02;
+  /**
+   * ADBUS2: test data out (from the device).
+   */
+  public static final int TDO = 0x04;
+  /**
+   * ADBUS3: test mode select.
+   */
+  public static final int TMS = 0x08;
+  /**
+   * The data shifting flags: LSB first, TDI out on the falling, TDO in on the
+   * rising edge of TCK.
+   */
+  private static final int SHIFT_FLAGS = SHIFT_LSB | SHIFT_WRITE_NEG;
+
+  /**
+   * Set the pins to their idle state (TCK low, TMS high).
+   *
+   * @param batch the batch
+   * @return the batch
+   */
+  public MpsseBatch init(MpsseBatch batch) {
+    return batch.setDataBitsLow(TMS, TCK | TDI | TMS);
+  }
+
+  /**
+   * Reset the TAP controller (five TMS high clocks) and go to Run-Test/Idle.
+   *
+   * @param batch the batch
+   * @return the batch
+   */
+  public MpsseBatch reset(MpsseBatch batch) {
+    batch.clockTms(0x1F, 6, false, false);
+    return batch;
+  }
+
+  /**
+   * Scan the instruction register.
+   *
+   * @param batch    the batch
+   * @param data     the bits to shift in, LSB first
+   * @param bitCount the number of bits
+   * @param read     TRUE to read the bits shifted out
+   * @return the offset of the read data in the response (see
+   *         {@link #getBits(byte[], int, int)}), or -1 if not read
+   */
+  public int scanIr(MpsseBatch batch, byte[] data, int bitCount, boolean read) {
+    /**
+     * Run-Test/Idle, Select-DR, Select-IR, Capture-IR, Shift-IR.
+     */
+    batch.clockTms(0x03, 4, false, false);
+    return shift(batch, data, bitCount, read);
+  }
+
+  /**
+   * Scan the data register.
+   *
+   * @param batch    the batch
+   * @param data     the bits to shift in, LSB first
+   * @param bitCount the number of bits
+   * @param read     TRUE to read the bits shifted out
+   * @return the offset of the read data in the response (see
+   *         {@link #getBits(byte[], int, int)}), or -1 if not read
+   */
+  public int scanDr(MpsseBatch batch, byte[] data, int bitCount, boolean read) {
+    /**
+     * Run-Test/Idle, Select-DR, Capture-DR, Shift-DR.
+     */
+    batch.clockTms(0x01, 3, false, false);
+    return shift(batch, data, bitCount, read);
+  }
+
+  /**
+   * Shift the data, then leave the shift state with the last bit and return
+   * to Run-Test/Idle (Exit1, Update, Run-Test/Idle).
+   */
+  private static int shift(MpsseBatch batch, byte[] data, int bitCount, boolean read) {
+    if (bitCount < 1 || data.length * 8 < bitCount) {
+      throw new IllegalArgumentException("Invalid bit count " + bitCount);
+    }
+    int flags = SHIFT_FLAGS | SHIFT_DO_WRITE | (read ? SHIFT_DO_READ : 0);
+    int bytes = (bitCount - 1) / 8;
+    int bits = (bitCount - 1) % 8;
+    int offset = -1;
+    if (bytes > 0) {
+      offset = batch.shiftBytes(flags, data, 0, bytes);
+    }
+    if (bits > 0) {
+      int bitOffset = batch.shiftBits(flags, data[bytes], bits);
+      offset = offset < 0 ? bitOffset : offset;
+    }
+    boolean last = (data[(bitCount - 1) / 8] >> ((bitCount - 1) % 8) & 1) != 0;
+    int tmsOffset = batch.clockTms(0x03, 3, last, read);
+    return read ? (offset < 0 ? tmsOffset : offset) : -1;
+  }
+
+  /**
+   * Assemble the bits read by a scan from the batch response.
+   * <p>
+   * Developer note: A scan of n bits reads (n - 1) / 8 whole bytes, then the
+   * remaining (n - 1) % 8 bits in one byte (in its high bits, LSB first) and
+   * the last bit during the first of the three TMS clocks that leave the
+   * shift state (bit 5 of the TMS response byte).
+   *
+   * @param response the batch response
+   * @param offset   the offset returned by the scan
+   * @param bitCount the number of bits scanned
+   * @return the bits shifted out, LSB first
+   */
+  public static byte[] getBits(byte[] response, int offset, int bitCount) {
+    byte[] bitsOut = new byte[(bitCount + 7) / 8];
+    int bytes = (bitCount - 1) / 8;
+    int bits = (bitCount - 1) % 8;
+    System.arraycopy(response, offset, bitsOut, 0, bytes);
+    int index = offset + bytes;
+    if (bits > 0) {
+      bitsOut[bytes] = (byte) ((response[index++] & 0xFF) >> (8 - bits));
+    }
+    if ((response[index] >> 5 & 1) != 0) {
+      bitsOut[(bitCount - 1) / 8] |= 1 << ((bitCount - 1) % 8);
+    }
+    return bitsOut;
+  }
+}
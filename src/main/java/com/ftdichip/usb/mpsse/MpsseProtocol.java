@@ -0,0 +1,160 @@
+/*
+ * Copyright 2014-2016 Key Bridge LLC.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ftdichip.usb.mpsse;
+
+/**
+ * Multi-Protocol Synchronous Serial Engine (MPSSE) command set constants.
+ * <p>
+ * In MPSSE mode every byte written to the port is part of a command: an
+ * opcode followed by its parameters and (for the data shifting commands)
+ * data. Commands that read return their data on the read pipe in command
+ * order. A command opcode that the engine does not recognize is answered with
+ * {@link #BAD_COMMAND} followed by the offending opcode.
+ * <p>
+ * The data shifting opcodes are composed of the {@code SHIFT_*} flag bits:
+ * <pre>
+ * bit 0  WRITE_NEG  data out changes on the falling (-ve) clock edge
+ * bit 1  BITMODE    length is in bits (1 to 8) instead of bytes
+ * bit 2  READ_NEG   data in is sampled on the falling (-ve) clock edge
+ * bit 3  LSB        data is shifted LSB first instead of MSB first
+ * bit 4  DO_WRITE   data is written (TDI / MOSI)
+ * bit 5  DO_READ    data is read (TDO / MISO)
+ * bit 6  WRITE_TMS  data is written to TMS instead of TDI
+ * </pre>
+ *
+ * @see Application Note AN_108, Command Processor for MPSSE and MCU Host Bus
+ * Emulation Modes
+ * @author Jesse Caulfield
+ */
+public final class MpsseProtocol {
+
+  /**
+   * Data out changes on the falling (-ve) clock edge.
+   */
+  public static final int SHIFT_WRITE_NEG = 0x01;
+  /**
+   * The length is in bits (1 to 8) instead of bytes.
+   */
+  public static final int SHIFT_BITMODE = 0x02;
+  /**
+   * Data in is sampled on the falling (-ve) clock edge.
+   */
+  public static final int SHIFT_READ_NEG = 0x04;
+  /**
+   * Data is shifted least significant bit first.
+   */
+  public static final int SHIFT_LSB = 0x08;
+  /**
+   * Data is written (TDI / MOSI / SDA).
+   */
+  public static final int SHIFT_DO_WRITE = 0x10;
+  /**
+   * Data is read (TDO / MISO / SDA).
+   */
+  public static final int SHIFT_DO_READ = 0x20;
+  /**
+   * Data is written to TMS instead of TDI.
+   */
+  public static final int SHIFT_WRITE_TMS = 0x40;
+
+  /**
+   * Set the low byte data bits (ADBUS 0-7). Parameters: value, direction (1 =
+   * output).
+   */
+  public static final byte SET_BITS_LOW = (byte) 0x80;
+  /**
+   * Read the low byte data bits. Returns one byte.
+   */
+  public static final byte GET_BITS_LOW = (byte) 0x81;
+  /**
+   * Set the high byte data bits (ACBUS 0-7). Parameters: value, direction.
+   */
+  public static final byte SET_BITS_HIGH = (byte) 0x82;
+  /**
+   * Read the high byte data bits. Returns one byte.
+   */
+  public static final byte GET_BITS_HIGH = (byte) 0x83;
+  /**
+   * Connect TDI/DO to TDO/DI for loopback testing.
+   */
+  public static final byte LOOPBACK_START = (byte) 0x84;
+  /**
+   * Disconnect the loopback.
+   */
+  public static final byte LOOPBACK_END = (byte) 0x85;
+  /**
+   * Set the clock divisor. Parameters: divisor low byte, high byte.
+   */
+  public static final byte TCK_DIVISOR = (byte) 0x86;
+  /**
+   * Send the read data to the host immediately, without waiting for the
+   * latency timer.
+   */
+  public static final byte SEND_IMMEDIATE = (byte) 0x87;
+  /**
+   * H series: disable the clock divide by 5, for a 60 MHz master clock.
+   */
+  public static final byte DISABLE_CLK_DIV5 = (byte) 0x8A;
+  /**
+   * H series: enable the clock divide by 5, for a 12 MHz master clock.
+   */
+  public static final byte ENABLE_CLK_DIV5 = (byte) 0x8B;
+  /**
+   * H series: enable 3 phase data clocking (data valid on both clock edges),
+   * as required for I2C.
+   */
+  public static final byte ENABLE_3_PHASE = (byte) 0x8C;
+  /**
+   * H series: disable 3 phase data clocking.
+   */
+  public static final byte DISABLE_3_PHASE = (byte) 0x8D;
+  /**
+   * H series: enable adaptive (RTCK) clocking.
+   */
+  public static final byte ENABLE_ADAPTIVE_CLOCK = (byte) 0x96;
+  /**
+   * H series: disable adaptive clocking.
+   */
+  public static final byte DISABLE_ADAPTIVE_CLOCK = (byte) 0x97;
+  /**
+   * The response to an unrecognized opcode, followed by that opcode.
+   */
+  public static final byte BAD_COMMAND = (byte) 0xFA;
+
+  /**
+   * The maximum length of one data shifting command (bytes).
+   */
+  public static final int MAX_SHIFT_LENGTH = 65536;
+  /**
+   * The H series MPSSE master clock with the divide by 5 disabled (Hz).
+   */
+  public static final int CLOCK_60MHZ = 60000000;
+  /**
+   * The FT2232C (and H series divide by 5) MPSSE master clock (Hz).
+   */
+  public static final int CLOCK_12MHZ = 12000000;
+
+  private MpsseProtocol() {
+  }
+
+  /**
+   * @param opcode a data shifting command opcode
+   * @return TRUE if the opcode is a data shifting command (opcode below 0x80)
+   */
+  public static boolean isShiftCommand(int opcode) {
+    return (opcode & 0x80) == 0;
+  }
+}
@@ -0,0 +1,190 @@
+/*
+ * Copyright 2014-2016 Key Bridge LLC.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ftdichip.usb.mpsse;
+
+import static com.ftdichip.usb.mpsse.MpsseProtocol.*;
+
+/**
+ * SPI master operations for an {@link MpsseBatch}.
+ * <p>
+ * Pin assignment (low byte): ADBUS0 SCK, ADBUS1 MOSI, ADBUS2 MISO, ADBUS3 chip
+ * select (active low). ADBUS4-7 are general purpose pins (see
+ * {@link #setGpio(int, int)}).
+ * <p>
+ * Every transaction selects the device, shifts the data and deselects the
+ * device within the batch, so a batch can hold any number of transactions
+ * (e.g. a sequence of register reads) for one USB round trip.
+ *
+ * @author Jesse Caulfield
+ */
+public final class MpsseSpi {
+
+  /**
+   * ADBUS0: serial clock.
+   */
+  public static final int SCK = 0x01;
+  /**
+   * ADBUS1: master out, slave in.
+   */
+  public static final int MOSI = 0x02;
+  /**
+   * ADBUS2: master in, slave out.
+   */
+  public static final int MISO = 0x04;
+  /**
+   * ADBUS3: chip select (active low).
+   */
+  public static final int CS = 0x08;
+
+  /**
+   * The clock idle level: high for SPI modes 2 and 3.
+   */
+  private final int clockIdle;
+  /**
+   * The data shifting flags of the SPI mode (clock edges, MSB first).
+   */
+  private final int edgeFlags;
+  private int gpioValue;
+  private int gpioDirection;
+
+  /**
+   * Construct an SPI master for SPI mode 0 (CPOL 0, CPHA 0).
+   */
+  public MpsseSpi() {
+    this(0);
+  }
+
+  /**
+   * Construct an SPI master.
+   *
+   * @param mode the SPI mode (0 to 3): CPOL in bit 1, CPHA in bit 0
+   */
+  public MpsseSpi(int mode) {
+    switch (mode) {
+      case 0:
+        /**
+         * Idle low; data sampled on the rising edge, changed on the falling.
+         */
+        clockIdle = 0;
+        edgeFlags = SHIFT_WRITE_NEG;
+        break;
+      case 1:
+        clockIdle = 0;
+        edgeFlags = SHIFT_READ_NEG;
+        break;
+      case 2:
+        clockIdle = SCK;
+        edgeFlags = SHIFT_READ_NEG;
+        break;
+      case 3:
+        clockIdle = SCK;
+        edgeFlags = SHIFT_WRITE_NEG;
+        break;
+      default:
+        throw new IllegalArgumentException("Invalid SPI mode " + mode);
+    }
+  }
+
+  /**
+   * Set the general purpose pins (ADBUS4-7) driven with every chip select
+   * change.
+   *
+   * @param value     the pin values (bits 4-7)
+   * @param direction the pin directions (bits 4-7, a '1' bit is an output)
+   */
+  public void setGpio(int value, int direction) {
+    this.gpioValue = value & 0xF0;
+    this.gpioDirection = direction & 0xF0;
+  }
+
+  private MpsseBatch setPins(MpsseBatch batch, boolean selected) {
+    return batch.setDataBitsLow(clockIdle | (selected ? 0 : CS) | gpioValue, SCK | MOSI | CS | gpioDirection);
+  }
+
+  /**
+   * Set the bus pins to their idle state (device deselected).
+   *
+   * @param batch the batch
+   * @return the batch
+   */
+  public MpsseBatch init(MpsseBatch batch) {
+    return setPins(batch, false);
+  }
+
+  /**
+   * Select the device (chip select low).
+   *
+   * @param batch the batch
+   * @return the batch
+   */
+  public MpsseBatch select(MpsseBatch batch) {
+    return setPins(batch, true);
+  }
+
+  /**
+   * Deselect the device (chip select high).
+   *
+   * @param batch the batch
+   * @return the batch
+   */
+  public MpsseBatch deselect(MpsseBatch batch) {
+    return setPins(batch, false);
+  }
+
+  /**
+   * Full duplex transaction: write the data and read as many bytes.
+   *
+   * @param batch the batch
+   * @param data  the data to write
+   * @return the offset of the read data in the response
+   */
+  public int transfer(MpsseBatch batch, byte[] data) {
+    select(batch);
+    int offset = batch.shiftBytes(SHIFT_DO_WRITE | SHIFT_DO_READ | edgeFlags, data, 0, data.length);
+    deselect(batch);
+    return offset;
+  }
+
+  /**
+   * Write transaction.
+   *
+   * @param batch the batch
+   * @param data  the data to write
+   * @return the batch
+   */
+  public MpsseBatch write(MpsseBatch batch, byte[] data) {
+    select(batch);
+    batch.shiftBytes(SHIFT_DO_WRITE | edgeFlags, data, 0, data.length);
+    return deselect(batch);
+  }
+
+  /**
+   * Write-then-read transaction, e.g. a register read: write a command, then
+   * read the reply within the same chip select.
+   *
+   * @param batch   the batch
+   * @param command the command to write
+   * @param count   the number of bytes to read
+   * @return the offset of the read data in the response
+   */
+  public int writeRead(MpsseBatch batch, byte[] command, int count) {
+    select(batch);
+    batch.shiftBytes(SHIFT_DO_WRITE | edgeFlags, command, 0, command.length);
+    int offset = batch.shiftBytes(SHIFT_DO_READ | edgeFlags, null, 0, count);
+    deselect(batch);
+    return offset;
+  }
+}
@@ -0,0 +1,291 @@
+/*
+ * Copyright 2014-2016 Key Bridge LLC.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ftdichip.usb.simulator;
+
+import java.io.UnsupportedEncodingException;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import javax.usb.*;
+import javax.usb.event.UsbDeviceDataEvent;
+import javax.usb.event.UsbDeviceErrorEvent;
+import javax.usb.event.UsbDeviceEvent;
+import javax.usb.event.UsbDeviceListener;
+import javax.usb.util.DefaultUsbControlIrp;
+import org.usb4java.javax.descriptors.SimpleUsbStringDescriptor;
+
+/**
+ * Base class of the simulated USB devices.
+ * <p>
+ * Holds the device descriptor, string descriptors and the single (active)
+ * configuration. Control requests are processed synchronously by
+ * {@link #processControlIrp(UsbControlIrp)} and bulk transfers by
+ * {@link #transfer(SimulatedPipe, UsbIrp)}.
+ *
+ * @author Jesse Caulfield
+ */
+public abstract class AbstractSimulatedDevice implements UsbDevice {
+
+  private final UsbDeviceDescriptor deviceDescriptor;
+  private final Map<Byte, String> strings = new HashMap<>();
+  private final List<UsbDeviceListener> listeners = new CopyOnWriteArrayList<>();
+  private SimulatedConfiguration configuration;
+  private volatile SimulatedPort port;
+
+  /**
+   * Construct a new simulated device.
+   *
+   * @param deviceDescriptor the device descriptor
+   */
+  protected AbstractSimulatedDevice(UsbDeviceDescriptor deviceDescriptor) {
+    this.deviceDescriptor = deviceDescriptor;
+  }
+
+  /**
+   * Set the device configuration.
+   *
+   * @param configuration the (active) configuration
+   */
+  void setConfiguration(SimulatedConfiguration configuration) {
+    this.configuration = configuration;
+  }
+
+  /**
+   * Set a string descriptor.
+   *
+   * @param index  the string descriptor index
+   * @param string the string
+   */
+  protected void setString(byte index, String string) {
+    strings.put(index, string);
+  }
+
+  /**
+   * Set the port the device is attached to.
+   *
+   * @param port the parent port, null when detached
+   */
+  void setParentUsbPort(SimulatedPort port) {
+    this.port = port;
+  }
+
+  /**
+   * The device was detached: close the pipes and notify the listeners.
+   */
+  void detached() {
+    for (Object usbInterface : configuration.getUsbInterfaces()) {
+      ((SimulatedInterface) usbInterface).closePipes();
+    }
+    UsbDeviceEvent event = new UsbDeviceEvent(this);
+    for (UsbDeviceListener listener : listeners) {
+      listener.usbDeviceDetached(event);
+    }
+  }
+
+  /**
+   * Process a control request. Implementations set the actual length; the
+   * request is completed by the caller.
+   *
+   * @param irp the control request
+   * @throws UsbException if the request is not supported (stall)
+   */
+  protected abstract void processControlIrp(UsbControlIrp irp) throws UsbException;
+
+  /**
+   * Perform a bulk transfer. Implementations set the actual length; the
+   * request is completed by the pipe.
+   *
+   * @param pipe the pipe
+   * @param irp  the request
+   * @throws UsbException if the transfer fails
+   */
+  abstract void transfer(SimulatedPipe pipe, UsbIrp irp) throws UsbException;
+
+  /**
+   * Throw an exception if the device is detached.
+   *
+   * @throws UsbDisconnectedException if the device is detached
+   */
+  void checkConnected() {
+    if (port == null) {
+      throw new UsbDisconnectedException();
+    }
+  }
+
+  @Override
+  public UsbPort getParentUsbPort() {
+    checkConnected();
+    return port;
+  }
+
+  @Override
+  public boolean isUsbHub() {
+    return false;
+  }
+
+  @Override
+  public String getManufacturerString() throws UsbException, UnsupportedEncodingException {
+    return getString(deviceDescriptor.iManufacturer());
+  }
+
+  @Override
+  public String getSerialNumberString() throws UsbException, UnsupportedEncodingException {
+    return getString(deviceDescriptor.iSerialNumber());
+  }
+
+  @Override
+  public String getProductString() throws UsbException, UnsupportedEncodingException {
+    return getString(deviceDescriptor.iProduct());
+  }
+
+  @Override
+  public Object getSpeed() {
+    return UsbConst.DEVICE_SPEED_FULL;
+  }
+
+  @Override
+  public List getUsbConfigurations() {
+    return Collections.singletonList(configuration);
+  }
+
+  @Override
+  public UsbConfiguration getUsbConfiguration(byte number) {
+    return containsUsbConfiguration(number) ? configuration : null;
+  }
+
+  @Override
+  public boolean containsUsbConfiguration(byte number) {
+    return configuration.getUsbConfigurationDescriptor().bConfigurationValue() == number;
+  }
+
+  @Override
+  public byte getActiveUsbConfigurationNumber() {
+    return configuration.getUsbConfigurationDescriptor().bConfigurationValue();
+  }
+
+  @Override
+  public UsbConfiguration getActiveUsbConfiguration() {
+    return configuration;
+  }
+
+  @Override
+  public boolean isConfigured() {
+    return true;
+  }
+
+  @Override
+  public UsbDeviceDescriptor getUsbDeviceDescriptor() {
+    return deviceDescriptor;
+  }
+
+  @Override
+  public UsbStringDescriptor getUsbStringDescriptor(byte index) throws UsbException {
+    checkConnected();
+    String string = strings.get(index);
+    if (string == null) {
+      throw new UsbStallException();
+    }
+    try {
+      return new SimpleUsbStringDescriptor((byte) (2 + 2 * string.length()), UsbConst.DESCRIPTOR_TYPE_STRING, string);
+    } catch (UnsupportedEncodingException ex) {
+      throw new UsbException(ex.getMessage());
+    }
+  }
+
+  @Override
+  public String getString(byte index) throws UsbException, UnsupportedEncodingException {
+    if (index == 0) {
+      return null;
+    }
+    return getUsbStringDescriptor(index).getString();
+  }
+
+  /**
+   * Submit a control request. The request is processed and completed before
+   * this method returns.
+   *
+   * @param irp the control request
+   * @throws UsbException if the request fails
+   */
+  @Override
+  public void syncSubmit(UsbControlIrp irp) throws UsbException {
+    checkConnected();
+    try {
+      processControlIrp(irp);
+    } catch (UsbException ex) {
+      irp.setUsbException(ex);
+    }
+    irp.complete();
+    for (UsbDeviceListener listener : listeners) {
+      if (irp.isUsbException()) {
+        listener.errorEventOccurred(new UsbDeviceErrorEvent(this, irp));
+      } else {
+        listener.dataEventOccurred(new UsbDeviceDataEvent(this, irp));
+      }
+    }
+    if (irp.isUsbException()) {
+      throw irp.getUsbException();
+    }
+  }
+
+  /**
+   * Submit a control request. Developer note: The simulator has no bus
+   * latency; the request is processed and completed before this method
+   * returns.
+   *
+   * @param irp the control request
+   * @throws UsbException if the request fails
+   */
+  @Override
+  public void asyncSubmit(UsbControlIrp irp) throws UsbException {
+    try {
+      syncSubmit(irp);
+    } catch (UsbException ex) {
+      // reported through the request
+    }
+  }
+
+  @Override
+  public void syncSubmit(List list) throws UsbException {
+    for (Object irp : list) {
+      syncSubmit((UsbControlIrp) irp);
+    }
+  }
+
+  @Override
+  public void asyncSubmit(List list) throws UsbException {
+    for (Object irp : list) {
+      asyncSubmit((UsbControlIrp) irp);
+    }
+  }
+
+  @Override
+  public UsbControlIrp createUsbControlIrp(byte bmRequestType, byte bRequest, short wValue, short wIndex) {
+    return new DefaultUsbControlIrp(bmRequestType, bRequest, wValue, wIndex);
+  }
+
+  @Override
+  public void addUsbDeviceListener(UsbDeviceListener listener) {
+    listeners.add(listener);
+  }
+
+  @Override
+  public void removeUsbDeviceListener(UsbDeviceListener listener) {
+    listeners.remove(listener);
+  }
+}
@@ -0,0 +1,105 @@
+/*
+ * Copyright 2014-2016 Key Bridge LLC.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ftdichip.usb.simulator;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import javax.usb.UsbConfiguration;
+import javax.usb.UsbConfigurationDescriptor;
+import javax.usb.UsbConst;
+import javax.usb.UsbDevice;
+import javax.usb.UsbInterface;
+import org.usb4java.javax.descriptors.SimpleUsbConfigurationDescriptor;
+
+/**
+ * The single (always active) configuration of a simulated device.
+ *
+ * @author Jesse Caulfield
+ */
+final class SimulatedConfiguration implements UsbConfiguration {
+
+  private final AbstractSimulatedDevice device;
+  private final UsbConfigurationDescriptor descriptor;
+  private final List<SimulatedInterface> interfaces = new ArrayList<>();
+
+  /**
+   * Construct a configuration and set it as the device configuration.
+   *
+   * @param device         the device
+   * @param interfaceCount the number of interfaces to be added
+   */
+  SimulatedConfiguration(AbstractSimulatedDevice device, int interfaceCount) {
+    this.device = device;
+    this.descriptor = new SimpleUsbConfigurationDescriptor((byte) 9, UsbConst.DESCRIPTOR_TYPE_CONFIGURATION,
+                                                           (short) (9 + interfaceCount * 23), (byte) interfaceCount,
+                                                           (byte) 1, (byte) 0, (byte) 0x80, (byte) 45);
+    device.setConfiguration(this);
+  }
+
+  /**
+   * Add an interface.
+   *
+   * @param usbInterface the interface
+   */
+  void addUsbInterface(SimulatedInterface usbInterface) {
+    interfaces.add(usbInterface);
+  }
+
+  @Override
+  public boolean isActive() {
+    return true;
+  }
+
+  @Override
+  public List getUsbInterfaces() {
+    return Collections.unmodifiableList(interfaces);
+  }
+
+  @Override
+  public UsbInterface getUsbInterface(byte number) {
+    for (SimulatedInterface usbInterface : interfaces) {
+      if (usbInterface.getUsbInterfaceDescriptor().bInterfaceNumber() == number) {
+        return usbInterface;
+      }
+    }
+    return null;
+  }
+
+  @Override
+  public boolean containsUsbInterface(byte number) {
+    return getUsbInterface(number) != null;
+  }
+
+  @Override
+  public UsbDevice getUsbDevice() {
+    return device;
+  }
+
+  AbstractSimulatedDevice getSimulatedDevice() {
+    return device;
+  }
+
+  @Override
+  public UsbConfigurationDescriptor getUsbConfigurationDescriptor() {
+    return descriptor;
+  }
+
+  @Override
+  public String getConfigurationString() {
+    return null;
+  }
+}
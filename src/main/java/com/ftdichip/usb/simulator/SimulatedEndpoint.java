@@ -0,0 +1,75 @@
+/*
+ * Copyright 2014-2016 Key Bridge LLC.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ftdichip.usb.simulator;
+
+import javax.usb.*;
+import org.usb4java.javax.descriptors.SimpleUsbEndpointDescriptor;
+
+/**
+ * A bulk endpoint of a simulated device.
+ *
+ * @author Jesse Caulfield
+ */
+final class SimulatedEndpoint implements UsbEndpoint {
+
+  private final SimulatedInterface usbInterface;
+  private final UsbEndpointDescriptor descriptor;
+  private final SimulatedPipe pipe;
+
+  /**
+   * Construct a bulk endpoint and add it to the interface.
+   *
+   * @param usbInterface  the interface
+   * @param address       the endpoint address (direction bit included)
+   * @param maxPacketSize the maximum packet size
+   */
+  SimulatedEndpoint(SimulatedInterface usbInterface, byte address, int maxPacketSize) {
+    this.usbInterface = usbInterface;
+    this.descriptor = new SimpleUsbEndpointDescriptor((byte) 7, UsbConst.DESCRIPTOR_TYPE_ENDPOINT, address,
+                                                      UsbConst.ENDPOINT_TYPE_BULK, (short) maxPacketSize, (byte) 0);
+    this.pipe = new SimulatedPipe(this);
+    usbInterface.addUsbEndpoint(this);
+  }
+
+  SimulatedInterface getSimulatedInterface() {
+    return usbInterface;
+  }
+
+  @Override
+  public UsbInterface getUsbInterface() {
+    return usbInterface;
+  }
+
+  @Override
+  public UsbEndpointDescriptor getUsbEndpointDescriptor() {
+    return descriptor;
+  }
+
+  @Override
+  public byte getDirection() {
+    return (byte) (descriptor.bEndpointAddress() & UsbConst.ENDPOINT_DIRECTION_MASK);
+  }
+
+  @Override
+  public byte getType() {
+    return (byte) (descriptor.bmAttributes() & UsbConst.ENDPOINT_TYPE_MASK);
+  }
+
+  @Override
+  public UsbPipe getUsbPipe() {
+    return pipe;
+  }
+}
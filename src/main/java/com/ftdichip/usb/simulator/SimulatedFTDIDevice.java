@@ -0,0 +1,678 @@
+/*
+ * Copyright 2014-2016 Key Bridge LLC.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ftdichip.usb.simulator;
+
+import com.ftdichip.usb.FTDIUtility;
+import com.ftdichip.usb.enumerated.BitMode;
+import com.ftdichip.usb.enumerated.ChipType;
+import javax.usb.*;
+import org.usb4java.javax.descriptors.SimpleUsbDeviceDescriptor;
+
+/**
+ * Simulated FT232R (single port), FT2232H (two port) or FT4232H (four port)
+ * USB UART with a {@link SimulatedMiocard} attached to each serial port.
+ * <p>
+ * The simulated chip accepts the FTDI vendor control requests used by
+ * {@link FTDIUtility} (reset and purge, modem control, flow control, baud
+ * rate, line properties, modem status and latency timer) and records the
+ * resulting serial port configuration. Its bulk endpoints behave like the
+ * chip: every IN packet starts with the two byte modem status header, a packet
+ * is sent as soon as it is full or when the latency timer expires, and an IN
+ * request completes on a short packet or when full.
+ * <p>
+ * Each port of a multi-port chip is a separate USB interface (interface
+ * number 0 for port A, 1 for B, ...) with its own pair of bulk endpoints and
+ * its own serial port state. Control requests are routed to a port by the low
+ * byte of wIndex (1 for port A, 2 for B, ...; 0 addresses port A). The
+ * multi-port chips and the single port FT232H are high speed devices with 512
+ * byte bulk packets.
+ * <p>
+ * Port A of the FT2232H and the FT232H also simulate the synchronous 245 FIFO
+ * mode ({@link BitMode#SYNCFF}): the FIFO is always full of a counting byte
+ * sequence (0, 1, 2, ...) and written data is discarded, so the read and
+ * write throughput is limited only by the host.
+ * <p>
+ * Ports A and B of the multi-port chips and the FT232H also simulate the
+ * Multi-Protocol Synchronous Serial Engine ({@link BitMode#MPSSE}, see
+ * {@link SimulatedMpsse}), with nothing attached to the pins.
+ *
+ * @author Jesse Caulfield
+ */
+public final class SimulatedFTDIDevice extends AbstractSimulatedDevice {
+
+  /**
+   * The simulated product string, as reported by the Miocard-12.
+   */
+  public static final String PRODUCT = "MIOKARD-12";
+  /**
+   * The FT232R product ID.
+   */
+  public static final short PRODUCT_ID = 0x6001;
+  /**
+   * The FT2232 product ID.
+   */
+  public static final short PRODUCT_ID_FT2232 = 0x6010;
+  /**
+   * The FT4232H product ID.
+   */
+  public static final short PRODUCT_ID_FT4232 = 0x6011;
+  /**
+   * The FT232H product ID.
+   */
+  public static final short PRODUCT_ID_FT232H = 0x6014;
+  /**
+   * The full speed bulk endpoint maximum packet size.
+   */
+  public static final int MAX_PACKET_SIZE = 64;
+  /**
+   * The high speed (multi-port chip) bulk endpoint maximum packet size.
+   */
+  public static final int HIGH_SPEED_MAX_PACKET_SIZE = 512;
+  /**
+   * The bulk IN (device to host) endpoint address of port A. The endpoints of
+   * port B, C and D follow at 0x83, 0x85 and 0x87.
+   */
+  public static final byte ENDPOINT_IN = (byte) 0x81;
+  /**
+   * The bulk OUT (host to device) endpoint address of port A. The endpoints of
+   * port B, C and D follow at 0x04, 0x06 and 0x08.
+   */
+  public static final byte ENDPOINT_OUT = 0x02;
+  /**
+   * The base clock for the baud rate generator (Hz).
+   */
+  private static final int BAUD_CLOCK = 3000000;
+  /**
+   * The H series (FT2232H, FT4232H) high speed base clock (Hz), selected by
+   * the divisor clock select bit.
+   */
+  private static final int BAUD_CLOCK_H = 12000000;
+  /**
+   * The baud rate divisor fraction for each sub-integer divisor code.
+   */
+  private static final double[] BAUD_FRACTION = {0, 0.5, 0.25, 0.125, 0.375, 0.625, 0.75, 0.875};
+  /**
+   * The modem status (first header byte): CTS and DSR active.
+   */
+  private static final byte MODEM_STATUS = 0x31;
+  /**
+   * The line status (second header byte): transmitter holding register and
+   * transmitter empty.
+   */
+  private static final byte LINE_STATUS = 0x60;
+  /**
+   * The line status overrun error bit.
+   */
+  private static final byte LINE_STATUS_OVERRUN = 0x02;
+
+  private final ChipType chipType;
+  private final Channel[] channels;
+
+  /**
+   * Construct a new simulated single port (FT232R) FTDI chip.
+   *
+   * @param miocard      the Miocard-12 attached to the serial port
+   * @param serialNumber the device serial number
+   */
+  public SimulatedFTDIDevice(SimulatedMiocard miocard, String serialNumber) {
+    this(serialNumber, miocard);
+  }
+
+  /**
+   * Construct a new simulated FTDI chip with one port per Miocard-12: an
+   * FT232R for one, an FT2232H for two or an FT4232H for four devices.
+   *
+   * @param serialNumber the device serial number
+   * @param miocards     the Miocard-12 attached to port A, B, ...
+   */
+  public SimulatedFTDIDevice(String serialNumber, SimulatedMiocard... miocards) {
+    this(chipType(miocards.length), serialNumber, miocards);
+  }
+
+  /**
+   * Construct a new simulated FTDI chip of a given type with one port per
+   * Miocard-12.
+   *
+   * @param chipType     the chip type: {@link ChipType#TYPE_R} (FT232R),
+   *                     {@link ChipType#TYPE_232H},
+   *                     {@link ChipType#TYPE_2232H} or
+   *                     {@link ChipType#TYPE_4232H}
+   * @param serialNumber the device serial number
+   * @param miocards     the Miocard-12 attached to port A, B, ...; as many as
+   *                     the chip has ports
+   */
+  public SimulatedFTDIDevice(ChipType chipType, String serialNumber, SimulatedMiocard... miocards) {
+    super(new SimpleUsbDeviceDescriptor((byte) 18, UsbConst.DESCRIPTOR_TYPE_DEVICE, (short) 0x0200,
+                                        (byte) 0, (byte) 0, (byte) 0, (byte) 8,
+                                        FTDIUtility.VENDOR_ID, productId(chipType, miocards.length), bcdDevice(chipType),
+                                        (byte) 1, (byte) 2, (byte) 3, (byte) 1));
+    setString((byte) 1, "FTDI");
+    setString((byte) 2, PRODUCT);
+    setString((byte) 3, serialNumber);
+    this.chipType = chipType;
+    SimulatedConfiguration configuration = new SimulatedConfiguration(this, miocards.length);
+    this.channels = new Channel[miocards.length];
+    boolean highSpeed = chipType.isHighSpeed();
+    int packetSize = highSpeed ? HIGH_SPEED_MAX_PACKET_SIZE : MAX_PACKET_SIZE;
+    for (int index = 0; index < miocards.length; index++) {
+      boolean syncFifo = chipType == ChipType.TYPE_232H || chipType == ChipType.TYPE_2232H && index == 0;
+      boolean mpsse = highSpeed && index < 2;
+      channels[index] = new Channel(miocards[index], highSpeed, packetSize, syncFifo, mpsse);
+      SimulatedInterface usbInterface = new SimulatedInterface(configuration, (byte) index, 2);
+      new SimulatedEndpoint(usbInterface, (byte) (ENDPOINT_IN + 2 * index), packetSize);
+      new SimulatedEndpoint(usbInterface, (byte) (ENDPOINT_OUT + 2 * index), packetSize);
+    }
+  }
+
+  /**
+   * @param portCount the number of serial ports
+   * @return the chip type with that many ports: FT232R, FT2232H or FT4232H
+   */
+  private static ChipType chipType(int portCount) {
+    switch (portCount) {
+      case 1:
+        return ChipType.TYPE_R;
+      case 2:
+        return ChipType.TYPE_2232H;
+      case 4:
+        return ChipType.TYPE_4232H;
+      default:
+        throw new IllegalArgumentException("FTDI chips have 1, 2 or 4 ports, not " + portCount);
+    }
+  }
+
+  /**
+   * @param chipType  the chip type
+   * @param portCount the number of serial ports
+   * @return the product ID of the chip
+   * @throws IllegalArgumentException if the chip type is not simulated or
+   *                                  has another number of ports
+   */
+  private static short productId(ChipType chipType, int portCount) {
+    if (portCount != (chipType == ChipType.TYPE_2232H ? 2 : chipType == ChipType.TYPE_4232H ? 4 : 1)) {
+      throw new IllegalArgumentException(chipType + " does not have " + portCount + " ports");
+    }
+    switch (chipType) {
+      case TYPE_R:
+        return PRODUCT_ID;
+      case TYPE_232H:
+        return PRODUCT_ID_FT232H;
+      case TYPE_2232H:
+        return PRODUCT_ID_FT2232;
+      case TYPE_4232H:
+        return PRODUCT_ID_FT4232;
+      default:
+        throw new IllegalArgumentException(chipType + " is not simulated");
+    }
+  }
+
+  /**
+   * @param chipType the chip type
+   * @return the device release number that identifies the chip type (see
+   *         {@link ChipType#fromDescriptor(UsbDeviceDescriptor)})
+   */
+  private static short bcdDevice(ChipType chipType) {
+    switch (chipType) {
+      case TYPE_R:
+        return 0x0600;
+      case TYPE_2232H:
+        return 0x0700;
+      case TYPE_4232H:
+        return 0x0800;
+      default:
+        return 0x0900;
+    }
+  }
+
+  /**
+   * @return the simulated chip type
+   */
+  public ChipType getChipType() {
+    return chipType;
+  }
+
+  /**
+   * @return the number of serial ports
+   */
+  public int getChannelCount() {
+    return channels.length;
+  }
+
+  /**
+   * Get the serial port state of one port.
+   *
+   * @param index the port index (0 for port A, 1 for B, ...)
+   * @return the serial port
+   */
+  public Channel getChannel(int index) {
+    return channels[index];
+  }
+
+  /**
+   * @return the Miocard-12 attached to (the first) serial port
+   */
+  public SimulatedMiocard getMiocard() {
+    return channels[0].getMiocard();
+  }
+
+  /**
+   * @return the configured baud rate of (the first) serial port
+   */
+  public int getBaudRate() {
+    return channels[0].getBaudRate();
+  }
+
+  /**
+   * @return the last line property word of (the first) serial port
+   */
+  public short getLineProperty() {
+    return channels[0].getLineProperty();
+  }
+
+  /**
+   * @return the last flow control word of (the first) serial port
+   */
+  public short getFlowControl() {
+    return channels[0].getFlowControl();
+  }
+
+  /**
+   * @return the DTR line state of (the first) serial port
+   */
+  public boolean isDtr() {
+    return channels[0].isDtr();
+  }
+
+  /**
+   * @return the RTS line state of (the first) serial port
+   */
+  public boolean isRts() {
+    return channels[0].isRts();
+  }
+
+  /**
+   * @return the latency timer of (the first) serial port (milliseconds)
+   */
+  public int getLatencyTimer() {
+    return channels[0].getLatencyTimer();
+  }
+
+  /**
+   * Get the port addressed by a control request.
+   *
+   * @param wIndex the request wIndex
+   * @return the port
+   * @throws UsbStallException if the chip has no such port
+   */
+  private Channel addressedChannel(short wIndex) throws UsbStallException {
+    int index = Math.max(wIndex & 0xFF, 1) - 1;
+    if (index >= channels.length) {
+      throw new UsbStallException("Invalid port " + (wIndex & 0xFF));
+    }
+    return channels[index];
+  }
+
+  @Override
+  protected void processControlIrp(UsbControlIrp irp) throws UsbException {
+    short value = irp.wValue();
+    /**
+     * The single port chip uses the baud rate wIndex for the divisor and
+     * ignores the port number.
+     */
+    Channel channel = channels.length == 1 ? channels[0] : addressedChannel(irp.wIndex());
+    switch (irp.bRequest()) {
+      case FTDIUtility.SIO_RESET_REQUEST:
+        /**
+         * wValue 0 resets the port, 2 (TCIFLUSH) purges the data not yet read
+         * by the host, 1 (TCOFLUSH) purges the data written by the host (which
+         * is always empty).
+         */
+        if (value == FTDIUtility.SIO_RESET_SIO || value == FTDIUtility.SIO_TCIFLUSH) {
+          channel.miocard.purge();
+        }
+        break;
+      case FTDIUtility.SIO_SET_MODEM_CTRL_REQUEST:
+        /**
+         * The high byte masks which of the low byte line states are set.
+         */
+        if ((value & 0x0100) != 0) {
+          channel.dtr = (value & 0x01) != 0;
+        }
+        if ((value & 0x0200) != 0) {
+          channel.rts = (value & 0x02) != 0;
+        }
+        break;
+      case FTDIUtility.SIO_SET_FLOW_CTRL_REQUEST:
+        /**
+         * libftdi sends the flow control in the wIndex high byte. Accept it in
+         * either field.
+         */
+        channel.flowControl = (short) (value | irp.wIndex() & 0xFF00);
+        break;
+      case FTDIUtility.SIO_SET_BAUDRATE_REQUEST:
+        /**
+         * The H series chips carry the divisor high bits in the wIndex high
+         * byte, the port number in the low byte; the FT232R in the low byte.
+         */
+        channel.baudValue = value;
+        channel.baudIndex = chipType == ChipType.TYPE_R ? irp.wIndex() : (short) ((irp.wIndex() & 0xFFFF) >> 8);
+        break;
+      case FTDIUtility.SIO_SET_DATA_REQUEST:
+        channel.lineProperty = value;
+        break;
+      case FTDIUtility.SIO_POLL_MODEM_STATUS_REQUEST:
+        respond(irp, MODEM_STATUS, LINE_STATUS);
+        break;
+      case FTDIUtility.SIO_SET_LATENCY_TIMER_REQUEST:
+        int latency = value & 0xFF;
+        if (latency < FTDIUtility.MIN_LATENCY_TIMER) {
+          throw new UsbStallException("Invalid latency timer " + latency);
+        }
+        channel.latencyTimer = latency;
+        break;
+      case FTDIUtility.SIO_GET_LATENCY_TIMER_REQUEST:
+        respond(irp, (byte) channel.latencyTimer);
+        break;
+      case FTDIUtility.SIO_SET_BITMODE_REQUEST:
+        /**
+         * The high byte is the mode, the low byte the pin direction mask.
+         */
+        BitMode bitMode = BitMode.fromBytecode((byte) (value >> 8));
+        if (bitMode == null
+            || bitMode == BitMode.SYNCFF && !channel.syncFifo
+            || bitMode == BitMode.MPSSE && !channel.mpsse) {
+          throw new UsbStallException(String.format("Unsupported bit mode 0x%02x", value >> 8 & 0xFF));
+        }
+        if (bitMode == BitMode.MPSSE && channel.bitMode != BitMode.MPSSE) {
+          /**
+           * Entering MPSSE mode resets the engine.
+           */
+          channel.engine = new SimulatedMpsse();
+        }
+        channel.bitMode = bitMode;
+        channel.pinMask = (byte) value;
+        break;
+      case FTDIUtility.SIO_READ_PINS_REQUEST:
+        respond(irp, (byte) 0);
+        break;
+      default:
+        throw new UsbStallException(String.format("Unsupported request 0x%02x", irp.bRequest()));
+    }
+  }
+
+  /**
+   * Copy a control request response into the request data buffer.
+   *
+   * @param irp      the control request
+   * @param response the response bytes
+   */
+  private static void respond(UsbControlIrp irp, byte... response) {
+    int length = Math.min(response.length, irp.getLength());
+    System.arraycopy(response, 0, irp.getData(), irp.getOffset(), length);
+    irp.setActualLength(length);
+  }
+
+  @Override
+  void transfer(SimulatedPipe pipe, UsbIrp irp) throws UsbException {
+    /**
+     * The endpoint number identifies the port: 1 and 2 for port A, 3 and 4
+     * for port B, ...
+     */
+    Channel channel = channels[((pipe.getUsbEndpoint().getUsbEndpointDescriptor().bEndpointAddress() & 0x0F) - 1) / 2];
+    if (pipe.getUsbEndpoint().getDirection() == UsbConst.ENDPOINT_DIRECTION_OUT) {
+      if (channel.bitMode == BitMode.SYNCFF) {
+        channel.fifoBytesWritten += irp.getLength();
+      } else if (channel.bitMode == BitMode.MPSSE) {
+        channel.engine.write(irp.getData(), irp.getOffset(), irp.getLength());
+      } else {
+        channel.miocard.write(irp.getData(), irp.getOffset(), irp.getLength());
+      }
+      irp.setActualLength(irp.getLength());
+    } else {
+      irp.setActualLength(channel.read(pipe, irp.getData(), irp.getOffset(), irp.getLength()));
+    }
+  }
+
+  /**
+   * The state of one serial port of the simulated chip.
+   */
+  public static final class Channel {
+
+    private final SimulatedMiocard miocard;
+    private final boolean highSpeed;
+    private final int packetSize;
+    private final boolean syncFifo;
+    private final boolean mpsse;
+    private volatile SimulatedMpsse engine;
+    private volatile BitMode bitMode = BitMode.RESET;
+    private volatile byte pinMask;
+    private volatile long fifoBytesWritten;
+    private byte fifoCounter;
+    private volatile short baudValue;
+    private volatile short baudIndex;
+    private volatile short lineProperty;
+    private volatile short flowControl;
+    private volatile boolean dtr;
+    private volatile boolean rts;
+    private volatile int latencyTimer = FTDIUtility.DEFAULT_LATENCY_TIMER;
+
+    private Channel(SimulatedMiocard miocard, boolean highSpeed, int packetSize, boolean syncFifo, boolean mpsse) {
+      this.miocard = miocard;
+      this.highSpeed = highSpeed;
+      this.packetSize = packetSize;
+      this.syncFifo = syncFifo;
+      this.mpsse = mpsse;
+    }
+
+    /**
+     * @return the Miocard-12 attached to the serial port
+     */
+    public SimulatedMiocard getMiocard() {
+      return miocard;
+    }
+
+    /**
+     * @return the configured baud rate (bits per second), from the last baud
+     *         rate divisor
+     */
+    public int getBaudRate() {
+      int clock = highSpeed && (baudIndex & 0x02) != 0 ? BAUD_CLOCK_H : BAUD_CLOCK;
+      int divisor = baudValue & 0x3FFF;
+      int code = (baudValue >> 14 & 0x03) | (baudIndex & 0x01) << 2;
+      if (divisor == 0 && code == 0) {
+        return clock;
+      }
+      if (divisor == 1 && code == 0) {
+        return clock * 2 / 3;
+      }
+      return (int) Math.round(clock / (divisor + BAUD_FRACTION[code]));
+    }
+
+    /**
+     * @return the last line property word (data bits, parity, stop bits,
+     *         break)
+     */
+    public short getLineProperty() {
+      return lineProperty;
+    }
+
+    /**
+     * @return the last flow control word
+     */
+    public short getFlowControl() {
+      return flowControl;
+    }
+
+    /**
+     * @return the DTR line state
+     */
+    public boolean isDtr() {
+      return dtr;
+    }
+
+    /**
+     * @return the RTS line state
+     */
+    public boolean isRts() {
+      return rts;
+    }
+
+    /**
+     * @return the latency timer (milliseconds)
+     */
+    public int getLatencyTimer() {
+      return latencyTimer;
+    }
+
+    /**
+     * @return the bit mode last set
+     */
+    public BitMode getBitMode() {
+      return bitMode;
+    }
+
+    /**
+     * @return the pin direction mask last set with the bit mode
+     */
+    public byte getPinMask() {
+      return pinMask;
+    }
+
+    /**
+     * @return the number of bytes written to the synchronous FIFO
+     */
+    public long getFifoBytesWritten() {
+      return fifoBytesWritten;
+    }
+
+    /**
+     * Fill a bulk IN request with packets.
+     *
+     * @param pipe     the IN pipe
+     * @param data     the request buffer
+     * @param offset   the index of the first request byte
+     * @param capacity the request length
+     * @return the number of bytes transferred
+     */
+    private int read(SimulatedPipe pipe, byte[] data, int offset, int capacity) throws UsbException {
+      if (bitMode == BitMode.SYNCFF) {
+        return readFifo(data, offset, capacity);
+      }
+      if (bitMode == BitMode.MPSSE) {
+        return readMpsse(pipe, data, offset, capacity);
+      }
+      int header = FTDIUtility.MODEM_STATUS_HEADER_LENGTH;
+      int length = 0;
+      while (capacity - length > header) {
+        int room = Math.min(packetSize, capacity - length) - header;
+        /**
+         * Wait until the packet can be filled or the latency timer expires.
+         */
+        long deadline = System.nanoTime() + latencyTimer * 1000000L;
+        try {
+          while (miocard.available() < room && !pipe.isAborting()) {
+            long remaining = (deadline - System.nanoTime()) / 1000000L;
+            if (remaining <= 0) {
+              break;
+            }
+            miocard.await(Math.min(remaining, 1));
+          }
+        } catch (InterruptedException ex) {
+          Thread.currentThread().interrupt();
+          throw new UsbAbortException();
+        }
+        data[offset + length] = MODEM_STATUS;
+        data[offset + length + 1] = miocard.takeOverrun() ? (byte) (LINE_STATUS | LINE_STATUS_OVERRUN) : LINE_STATUS;
+        int count = miocard.read(data, offset + length + header, room);
+        length += header + count;
+        if (count < packetSize - header) {
+          /**
+           * A short packet ends the transfer.
+           */
+          break;
+        }
+      }
+      return length;
+    }
+
+    /**
+     * Fill a bulk IN request with MPSSE responses. Responses are sent as soon
+     * as they are available; when there are none a header-only packet is sent
+     * after the latency timer expires.
+     *
+     * @param pipe     the IN pipe
+     * @param data     the request buffer
+     * @param offset   the index of the first request byte
+     * @param capacity the request length
+     * @return the number of bytes transferred
+     */
+    private int readMpsse(SimulatedPipe pipe, byte[] data, int offset, int capacity) throws UsbException {
+      SimulatedMpsse mpsseEngine = engine;
+      int header = FTDIUtility.MODEM_STATUS_HEADER_LENGTH;
+      long deadline = System.nanoTime() + latencyTimer * 1000000L;
+      try {
+        while (mpsseEngine.available() == 0 && !pipe.isAborting()) {
+          long remaining = (deadline - System.nanoTime()) / 1000000L;
+          if (remaining <= 0) {
+            break;
+          }
+          mpsseEngine.await(Math.min(remaining, 1));
+        }
+      } catch (InterruptedException ex) {
+        Thread.currentThread().interrupt();
+        throw new UsbAbortException();
+      }
+      int length = 0;
+      while (capacity - length > header) {
+        int room = Math.min(packetSize, capacity - length) - header;
+        data[offset + length] = MODEM_STATUS;
+        data[offset + length + 1] = LINE_STATUS;
+        int count = mpsseEngine.read(data, offset + length + header, room);
+        length += header + count;
+        if (count < room) {
+          break;
+        }
+      }
+      return length;
+    }
+
+    /**
+     * Fill a bulk IN request with full packets from the (always full)
+     * synchronous FIFO.
+     *
+     * @param data     the request buffer
+     * @param offset   the index of the first request byte
+     * @param capacity the request length
+     * @return the number of bytes transferred
+     */
+    private int readFifo(byte[] data, int offset, int capacity) {
+      int header = FTDIUtility.MODEM_STATUS_HEADER_LENGTH;
+      int length = 0;
+      byte counter = fifoCounter;
+      while (capacity - length > header) {
+        int count = Math.min(packetSize, capacity - length) - header;
+        data[offset + length] = MODEM_STATUS;
+        data[offset + length + 1] = LINE_STATUS;
+        for (int n = offset + length + header, end = n + count; n < end; n++) {
+          data[n] = counter++;
+        }
+        length += header + count;
+      }
+      fifoCounter = counter;
+      return length;
+    }
+  }
+}
@@ -0,0 +1,138 @@
+/*
+ * Copyright 2014-2016 Key Bridge LLC.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ftdichip.usb.simulator;
+
+import java.util.ArrayList;
+import java.util.List;
+import javax.usb.UsbConst;
+import javax.usb.UsbControlIrp;
+import javax.usb.UsbDevice;
+import javax.usb.UsbHub;
+import javax.usb.UsbIrp;
+import javax.usb.UsbPort;
+import javax.usb.UsbStallException;
+import org.usb4java.javax.descriptors.SimpleUsbDeviceDescriptor;
+
+/**
+ * The virtual root hub of the simulator. Simulated devices are attached to and
+ * detached from its ports.
+ *
+ * @author Jesse Caulfield
+ */
+final class SimulatedHub extends AbstractSimulatedDevice implements UsbHub {
+
+  /**
+   * The ports. A port is added whenever all ports are in use. Guarded by
+   * this.
+   */
+  private final List<SimulatedPort> ports = new ArrayList<>();
+
+  SimulatedHub() {
+    super(new SimpleUsbDeviceDescriptor((byte) 18, UsbConst.DESCRIPTOR_TYPE_DEVICE, (short) 0x0200,
+                                        UsbConst.HUB_CLASSCODE, (byte) 0, (byte) 0, (byte) 64,
+                                        (short) 0, (short) 0, (short) 0, (byte) 0, (byte) 0, (byte) 0, (byte) 1));
+    new SimulatedConfiguration(this, 0);
+    /**
+     * The virtual root hub is never detached.
+     */
+    setParentUsbPort(new SimulatedPort(this, (byte) 0));
+  }
+
+  /**
+   * Attach a device to the first free port.
+   *
+   * @param device the device
+   */
+  synchronized void attach(AbstractSimulatedDevice device) {
+    SimulatedPort port = null;
+    for (SimulatedPort candidate : ports) {
+      if (!candidate.isUsbDeviceAttached()) {
+        port = candidate;
+        break;
+      }
+    }
+    if (port == null) {
+      port = new SimulatedPort(this, (byte) (ports.size() + 1));
+      ports.add(port);
+    }
+    port.setUsbDevice(device);
+    device.setParentUsbPort(port);
+  }
+
+  /**
+   * Detach a device.
+   *
+   * @param device the device
+   * @return TRUE if the device was attached
+   */
+  synchronized boolean detach(AbstractSimulatedDevice device) {
+    for (SimulatedPort port : ports) {
+      if (port.getUsbDevice() == device) {
+        port.setUsbDevice(null);
+        device.setParentUsbPort(null);
+        device.detached();
+        return true;
+      }
+    }
+    return false;
+  }
+
+  @Override
+  public boolean isUsbHub() {
+    return true;
+  }
+
+  @Override
+  public synchronized byte getNumberOfPorts() {
+    return (byte) ports.size();
+  }
+
+  @Override
+  public synchronized List getUsbPorts() {
+    return new ArrayList<>(ports);
+  }
+
+  @Override
+  public synchronized UsbPort getUsbPort(byte number) {
+    return number > 0 && number <= ports.size() ? ports.get(number - 1) : null;
+  }
+
+  @Override
+  public synchronized List getAttachedUsbDevices() {
+    List<UsbDevice> devices = new ArrayList<>();
+    for (SimulatedPort port : ports) {
+      if (port.isUsbDeviceAttached()) {
+        devices.add(port.getUsbDevice());
+      }
+    }
+    return devices;
+  }
+
+  @Override
+  public boolean isRootUsbHub() {
+    return true;
+  }
+
+  @Override
+  protected void processControlIrp(UsbControlIrp irp) throws UsbStallException {
+    throw new UsbStallException("The simulated root hub does not accept control requests.");
+  }
+
+  @Override
+  void transfer(SimulatedPipe pipe, UsbIrp irp) throws UsbStallException {
+    throw new UsbStallException("The simulated root hub has no endpoints.");
+  }
+}
@@ -0,0 +1,174 @@
+/*
+ * Copyright 2014-2016 Key Bridge LLC.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ftdichip.usb.simulator;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import javax.usb.*;
+import org.usb4java.javax.descriptors.SimpleUsbInterfaceDescriptor;
+
+/**
+ * An interface (with a single setting) of a simulated device.
+ *
+ * @author Jesse Caulfield
+ */
+final class SimulatedInterface implements UsbInterface {
+
+  private final SimulatedConfiguration configuration;
+  private final UsbInterfaceDescriptor descriptor;
+  private final List<SimulatedEndpoint> endpoints = new ArrayList<>();
+  private volatile boolean claimed;
+
+  /**
+   * Construct an interface and add it to the configuration.
+   *
+   * @param configuration the configuration
+   * @param number        the interface number
+   * @param endpointCount the number of endpoints to be added
+   */
+  SimulatedInterface(SimulatedConfiguration configuration, byte number, int endpointCount) {
+    this.configuration = configuration;
+    this.descriptor = new SimpleUsbInterfaceDescriptor((byte) 9, UsbConst.DESCRIPTOR_TYPE_INTERFACE, number, (byte) 0,
+                                                       (byte) endpointCount, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0);
+    configuration.addUsbInterface(this);
+  }
+
+  /**
+   * Add an endpoint.
+   *
+   * @param endpoint the endpoint
+   */
+  void addUsbEndpoint(SimulatedEndpoint endpoint) {
+    endpoints.add(endpoint);
+  }
+
+  AbstractSimulatedDevice getSimulatedDevice() {
+    return configuration.getSimulatedDevice();
+  }
+
+  /**
+   * Close all open pipes.
+   */
+  void closePipes() {
+    for (SimulatedEndpoint endpoint : endpoints) {
+      ((SimulatedPipe) endpoint.getUsbPipe()).shutdown();
+    }
+  }
+
+  @Override
+  public void claim() throws UsbException {
+    claim(null);
+  }
+
+  @Override
+  public synchronized void claim(UsbInterfacePolicy policy) throws UsbException {
+    getSimulatedDevice().checkConnected();
+    if (claimed) {
+      throw new UsbClaimException("Interface " + descriptor.bInterfaceNumber() + " is already claimed.");
+    }
+    claimed = true;
+  }
+
+  /**
+   * Release the interface. Open pipes are closed.
+   *
+   * @throws UsbException if the interface is not claimed
+   */
+  @Override
+  public synchronized void release() throws UsbException {
+    if (!claimed) {
+      throw new UsbClaimException("Interface " + descriptor.bInterfaceNumber() + " is not claimed.");
+    }
+    closePipes();
+    claimed = false;
+  }
+
+  @Override
+  public boolean isClaimed() {
+    return claimed;
+  }
+
+  @Override
+  public boolean isActive() {
+    return true;
+  }
+
+  @Override
+  public int getNumSettings() {
+    return 1;
+  }
+
+  @Override
+  public byte getActiveSettingNumber() {
+    return descriptor.bAlternateSetting();
+  }
+
+  @Override
+  public UsbInterface getActiveSetting() {
+    return this;
+  }
+
+  @Override
+  public UsbInterface getSetting(byte number) {
+    return containsSetting(number) ? this : null;
+  }
+
+  @Override
+  public boolean containsSetting(byte number) {
+    return descriptor.bAlternateSetting() == number;
+  }
+
+  @Override
+  public List getSettings() {
+    return Collections.singletonList(this);
+  }
+
+  @Override
+  public List getUsbEndpoints() {
+    return Collections.unmodifiableList(endpoints);
+  }
+
+  @Override
+  public UsbEndpoint getUsbEndpoint(byte address) {
+    for (SimulatedEndpoint endpoint : endpoints) {
+      if (endpoint.getUsbEndpointDescriptor().bEndpointAddress() == address) {
+        return endpoint;
+      }
+    }
+    return null;
+  }
+
+  @Override
+  public boolean containsUsbEndpoint(byte address) {
+    return getUsbEndpoint(address) != null;
+  }
+
+  @Override
+  public UsbConfiguration getUsbConfiguration() {
+    return configuration;
+  }
+
+  @Override
+  public UsbInterfaceDescriptor getUsbInterfaceDescriptor() {
+    return descriptor;
+  }
+
+  @Override
+  public String getInterfaceString() {
+    return null;
+  }
+}
@@ -0,0 +1,413 @@
+/*
+ * Copyright 2014-2016 Key Bridge LLC.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ftdichip.usb.simulator;
+
+import com.ftdichip.usb.miocard.MiocardCommand;
+import com.ftdichip.usb.miocard.MiocardLead;
+import com.ftdichip.usb.miocard.MiocardProtocol;
+import com.ftdichip.usb.miocard.MiocardWorkMode;
+
+/**
+ * Simulated Miocard-12 electrocardiograph, attached to the serial port of a
+ * {@link SimulatedFTDIDevice}.
+ * <p>
+ * The simulator answers the {@link MiocardCommand} commands and, once started,
+ * streams sample frames of a synthetic twelve lead ECG at the work mode sample
+ * rate. One heart beat of frames is generated when streaming starts and
+ * replayed cyclically, so streaming costs no more than a memory copy.
+ * <p>
+ * The stream is paced by the {@link #setSpeed(double) speed} factor: 1.0 is
+ * real time, 10.0 ten times faster than real time and 0 (or less) unthrottled,
+ * where every read is filled completely. When the host does not read fast
+ * enough the oldest bytes in the {@link #RX_BUFFER_SIZE receive buffer} are
+ * dropped and an overrun is reported, exactly as the FTDI chip does.
+ * <p>
+ * Developer note: All methods are synchronized on this object. The bulk IN
+ * pipe waits on this object for data.
+ *
+ * @author Jesse Caulfield
+ */
+public final class SimulatedMiocard {
+
+  /**
+   * The default (power on) work mode.
+   */
+  public static final MiocardWorkMode DEFAULT_WORK_MODE = MiocardWorkMode.DEFAULT;
+  /**
+   * The FTDI chip receive buffer size (bytes). Unread stream data beyond this
+   * is lost.
+   */
+  public static final int RX_BUFFER_SIZE = 4096;
+  /**
+   * The default heart rate (beats per minute).
+   */
+  public static final int DEFAULT_HEART_RATE = 72;
+  /**
+   * Amplitude of each channel, in millivolt, for an R wave of 1.0.
+   */
+  private static final double[] CHANNEL_AMPLITUDE = new double[MiocardProtocol.CHANNEL_COUNT];
+
+  static {
+    CHANNEL_AMPLITUDE[MiocardLead.I.getChannel()] = 0.6;
+    CHANNEL_AMPLITUDE[MiocardLead.II.getChannel()] = 1.0;
+    CHANNEL_AMPLITUDE[MiocardLead.V1.getChannel()] = -0.5;
+    CHANNEL_AMPLITUDE[MiocardLead.V2.getChannel()] = 0.8;
+    CHANNEL_AMPLITUDE[MiocardLead.V3.getChannel()] = 1.2;
+    CHANNEL_AMPLITUDE[MiocardLead.V4.getChannel()] = 1.5;
+    CHANNEL_AMPLITUDE[MiocardLead.V5.getChannel()] = 1.3;
+    CHANNEL_AMPLITUDE[MiocardLead.V6.getChannel()] = 1.0;
+  }
+
+  private MiocardWorkMode workMode = DEFAULT_WORK_MODE;
+  private double speed = 1.0;
+  private int heartRate = DEFAULT_HEART_RATE;
+  /**
+   * TRUE after the command prefix was received.
+   */
+  private boolean prefixReceived;
+  /**
+   * The pending command responses and the index of the next byte.
+   */
+  private byte[] response;
+  private int responsePosition;
+  /**
+   * One heart beat of encoded sample frames and the next byte to send.
+   */
+  private byte[] beat;
+  private int beatPosition;
+  /**
+   * The frame length and sample rate of the stream, from the work mode when
+   * streaming started.
+   */
+  private int frameLength;
+  private int sampleRate;
+  private boolean streaming;
+  /**
+   * The stream bytes produced before the STOP command and not yet read. The
+   * device always completes the frame in progress.
+   */
+  private long drainBytes;
+  private long streamStartNanos;
+  /**
+   * The number of stream bytes produced (sent or dropped) since the start.
+   */
+  private long streamBytes;
+  private boolean overrun;
+  private long overrunCount;
+
+  /**
+   * @return the work mode
+   */
+  public synchronized MiocardWorkMode getWorkMode() {
+    return workMode;
+  }
+
+  /**
+   * Set the work mode. The sample format and rate change when streaming is
+   * next started.
+   *
+   * @param workMode the work mode
+   */
+  public synchronized void setWorkMode(MiocardWorkMode workMode) {
+    this.workMode = workMode;
+  }
+
+  /**
+   * @return the stream speed factor
+   */
+  public synchronized double getSpeed() {
+    return speed;
+  }
+
+  /**
+   * Set the stream speed factor.
+   *
+   * @param speed 1.0 for real time, greater for faster than real time, 0 for
+   *              unthrottled
+   */
+  public synchronized void setSpeed(double speed) {
+    if (streaming) {
+      /**
+       * Restart the pacing clock so that the produced data is not re-timed.
+       */
+      streamStartNanos = System.nanoTime();
+      streamBytes = 0;
+    }
+    this.speed = speed;
+  }
+
+  /**
+   * Set the heart rate. Takes effect when streaming is next started.
+   *
+   * @param heartRate the heart rate (beats per minute)
+   */
+  public synchronized void setHeartRate(int heartRate) {
+    if (heartRate < 20 || heartRate > 300) {
+      throw new IllegalArgumentException("Heart rate must be between 20 and 300 bpm.");
+    }
+    this.heartRate = heartRate;
+  }
+
+  /**
+   * @return TRUE while streaming sample frames
+   */
+  public synchronized boolean isStreaming() {
+    return streaming;
+  }
+
+  /**
+   * @return the number of times unread stream data was dropped
+   */
+  public synchronized long getOverrunCount() {
+    return overrunCount;
+  }
+
+  /**
+   * Receive bytes from the serial port.
+   *
+   * @param data   the buffer
+   * @param offset the index of the first byte
+   * @param length the number of bytes
+   */
+  public synchronized void write(byte[] data, int offset, int length) {
+    for (int n = offset; n < offset + length; n++) {
+      if (!prefixReceived) {
+        prefixReceived = data[n] == MiocardProtocol.COMMAND_PREFIX;
+        continue;
+      }
+      prefixReceived = false;
+      MiocardCommand command = MiocardCommand.fromCode(data[n]);
+      if (command != null) {
+        execute(command);
+      }
+    }
+    notifyAll();
+  }
+
+  /**
+   * Execute a command.
+   *
+   * @param command the command
+   */
+  private void execute(MiocardCommand command) {
+    switch (command) {
+      case MODE_INFO:
+        respond(new byte[]{command.getCode(), workMode.getLowByte(), workMode.getHighByte()});
+        break;
+      case START:
+        if (!streaming) {
+          beat = createBeat(workMode, heartRate);
+          beatPosition = 0;
+          frameLength = workMode.getFrameLength();
+          sampleRate = workMode.getSampleRate();
+          streamBytes = 0;
+          streamStartNanos = System.nanoTime();
+          drainBytes = 0;
+          streaming = true;
+        }
+        break;
+      case STOP:
+        if (streaming) {
+          drainBytes = speed <= 0
+                       ? (frameLength - beatPosition % frameLength) % frameLength
+                       : getStreamBytesDue();
+          streaming = false;
+        }
+        break;
+      default:
+        throw new AssertionError(command.name());
+    }
+  }
+
+  /**
+   * Queue a command response after the responses not yet read.
+   *
+   * @param bytes the response
+   */
+  private void respond(byte[] bytes) {
+    if (response == null) {
+      response = bytes;
+    } else {
+      byte[] queued = new byte[response.length - responsePosition + bytes.length];
+      System.arraycopy(response, responsePosition, queued, 0, response.length - responsePosition);
+      System.arraycopy(bytes, 0, queued, response.length - responsePosition, bytes.length);
+      response = queued;
+    }
+    responsePosition = 0;
+  }
+
+  /**
+   * Discard all unread bytes (purge the receive buffer).
+   */
+  public synchronized void purge() {
+    response = null;
+    if (streaming && speed > 0) {
+      skip(getStreamBytesDue());
+    }
+    drainBytes = 0;
+  }
+
+  /**
+   * Get the number of bytes available to read.
+   *
+   * @return the number of bytes available
+   */
+  public synchronized int available() {
+    long count = getStreamBytesDue();
+    if (response != null) {
+      count += response.length - responsePosition;
+    }
+    return (int) Math.min(Integer.MAX_VALUE, count);
+  }
+
+  /**
+   * Send bytes to the serial port. Command responses are inserted between
+   * sample frames.
+   *
+   * @param data   the buffer
+   * @param offset the index at which to store the first byte
+   * @param length the maximum number of bytes
+   * @return the number of bytes stored
+   */
+  public synchronized int read(byte[] data, int offset, int length) {
+    long due = getStreamBytesDue();
+    int count = 0;
+    while (count < length) {
+      if (response != null && (!streaming && drainBytes == 0 || beatPosition % frameLength == 0)) {
+        int n = Math.min(length - count, response.length - responsePosition);
+        System.arraycopy(response, responsePosition, data, offset + count, n);
+        count += n;
+        responsePosition += n;
+        if (responsePosition == response.length) {
+          response = null;
+        }
+        continue;
+      }
+      if (due <= 0) {
+        break;
+      }
+      int n = (int) Math.min(Math.min(length - count, due), beat.length - beatPosition);
+      if (response != null) {
+        n = Math.min(n, frameLength - beatPosition % frameLength);
+      }
+      System.arraycopy(beat, beatPosition, data, offset + count, n);
+      count += n;
+      due -= n;
+      skip(n);
+    }
+    return count;
+  }
+
+  /**
+   * Get and clear the receive buffer overrun flag.
+   *
+   * @return TRUE if stream data was dropped since the last call
+   */
+  public synchronized boolean takeOverrun() {
+    boolean result = overrun;
+    overrun = false;
+    return result;
+  }
+
+  /**
+   * Wait for data to arrive.
+   *
+   * @param millis the maximum time to wait (milliseconds)
+   * @throws InterruptedException if interrupted
+   */
+  synchronized void await(long millis) throws InterruptedException {
+    wait(millis);
+  }
+
+  /**
+   * Get the number of stream bytes due but not yet read, dropping the bytes
+   * that do not fit the receive buffer.
+   *
+   * @return the number of stream bytes available
+   */
+  private long getStreamBytesDue() {
+    if (!streaming) {
+      return drainBytes;
+    }
+    if (speed <= 0) {
+      return Long.MAX_VALUE;
+    }
+    long frames = (long) ((System.nanoTime() - streamStartNanos) * sampleRate * speed / 1e9);
+    long due = frames * frameLength - streamBytes;
+    if (due > RX_BUFFER_SIZE) {
+      skip(due - RX_BUFFER_SIZE);
+      overrun = true;
+      overrunCount++;
+      due = RX_BUFFER_SIZE;
+    }
+    return due;
+  }
+
+  /**
+   * Advance the stream.
+   *
+   * @param count the number of bytes to advance
+   */
+  private void skip(long count) {
+    beatPosition = (int) ((beatPosition + count) % beat.length);
+    streamBytes += count;
+    if (!streaming) {
+      drainBytes -= count;
+    }
+  }
+
+  /**
+   * Generate the encoded sample frames of one heart beat. The ECG is modelled
+   * as the sum of five Gaussian waves (P, Q, R, S and T).
+   *
+   * @param workMode  the work mode
+   * @param heartRate the heart rate (beats per minute)
+   * @return the encoded frames
+   */
+  private static byte[] createBeat(MiocardWorkMode workMode, int heartRate) {
+    int sampleBytes = workMode.getSampleBytes();
+    int frameLength = workMode.getFrameLength();
+    int samples = workMode.getSampleRate() * 60 / heartRate;
+    /**
+     * ADS129x full scale is 2.4 V at a gain of 6.
+     */
+    double countsPerMillivolt = (1 << (sampleBytes * 8 - 1)) * 6 / 2400.0;
+    byte[] beat = new byte[samples * frameLength];
+    for (int s = 0; s < samples; s++) {
+      double t = (double) s / samples;
+      double ecg = wave(t, 0.15, 0.20, 0.025)
+                   + wave(t, -0.15, 0.36, 0.010)
+                   + wave(t, 1.00, 0.39, 0.012)
+                   + wave(t, -0.25, 0.42, 0.010)
+                   + wave(t, 0.30, 0.65, 0.050);
+      int p = s * frameLength;
+      beat[p] = (byte) MiocardProtocol.STATUS_SYNC;
+      p += MiocardProtocol.STATUS_LENGTH;
+      for (int channel = 0; channel < MiocardProtocol.CHANNEL_COUNT; channel++) {
+        int value = (int) Math.round(ecg * CHANNEL_AMPLITUDE[channel] * countsPerMillivolt);
+        for (int b = sampleBytes - 1; b >= 0; b--) {
+          beat[p++] = (byte) (value >> (b * 8));
+        }
+      }
+    }
+    return beat;
+  }
+
+  private static double wave(double t, double amplitude, double center, double width) {
+    double x = (t - center) / width;
+    return amplitude * Math.exp(-0.5 * x * x);
+  }
+}
@@ -0,0 +1,314 @@
+/*
+ * Copyright 2014-2016 Key Bridge LLC.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ftdichip.usb.simulator;
+
+import static com.ftdichip.usb.mpsse.MpsseProtocol.*;
+import java.util.Arrays;
+
+/**
+ * Simulated Multi-Protocol Synchronous Serial Engine (MPSSE) of one port of a
+ * {@link SimulatedFTDIDevice}, with nothing attached to its pins.
+ * <p>
+ * The engine parses the commands written to the port, which may be split
+ * across bulk transfers, and queues their responses for the bulk IN pipe. It
+ * implements the GPIO, loopback, clock divisor and clock configuration
+ * commands and the data shifting commands. In loopback mode data read is the
+ * data written (TDI / MOSI connected to TDO / MISO); otherwise the inputs are
+ * pulled up and read as ones. Unknown opcodes are answered with
+ * {@link com.ftdichip.usb.mpsse.MpsseProtocol#BAD_COMMAND} and the opcode.
+ * <p>
+ * Developer note: All methods are synchronized on this object. The bulk IN
+ * pipe waits on this object for responses.
+ *
+ * @author Jesse Caulfield
+ */
+final class SimulatedMpsse {
+
+  /**
+   * Command bytes received but not yet executed (an incomplete command).
+   */
+  private byte[] pending = new byte[256];
+  private int pendingLength;
+  /**
+   * Responses not yet read.
+   */
+  private byte[] response = new byte[256];
+  private int responseStart;
+  private int responseEnd;
+  private boolean loopback;
+  private int lowValue;
+  private int lowDirection;
+  private int highValue;
+  private int highDirection;
+  private int clockDivisor;
+  private long commandCount;
+
+  /**
+   * Execute the complete commands in a bulk OUT transfer.
+   *
+   * @param data   the transfer buffer
+   * @param offset the index of the first byte
+   * @param length the number of bytes
+   */
+  synchronized void write(byte[] data, int offset, int length) {
+    if (pending.length < pendingLength + length) {
+      pending = Arrays.copyOf(pending, Math.max(pending.length * 2, pendingLength + length));
+    }
+    System.arraycopy(data, offset, pending, pendingLength, length);
+    pendingLength += length;
+    int position = 0;
+    int commandLength;
+    while (position < pendingLength && (commandLength = execute(position)) > 0) {
+      position += commandLength;
+      commandCount++;
+    }
+    System.arraycopy(pending, position, pending, 0, pendingLength - position);
+    pendingLength -= position;
+    notifyAll();
+  }
+
+  /**
+   * Execute the command at a position of the pending buffer.
+   *
+   * @param position the index of the opcode
+   * @return the command length, 0 if the command is incomplete
+   */
+  private int execute(int position) {
+    int available = pendingLength - position;
+    int opcode = pending[position] & 0xFF;
+    if (isShiftCommand(opcode)) {
+      return shift(position, opcode, available);
+    }
+    switch ((byte) opcode) {
+      case SET_BITS_LOW:
+      case SET_BITS_HIGH:
+        if (available < 3) {
+          return 0;
+        }
+        if ((byte) opcode == SET_BITS_LOW) {
+          lowValue = pending[position + 1] & 0xFF;
+          lowDirection = pending[position + 2] & 0xFF;
+        } else {
+          highValue = pending[position + 1] & 0xFF;
+          highDirection = pending[position + 2] & 0xFF;
+        }
+        return 3;
+      case GET_BITS_LOW:
+        respond(pins(lowValue, lowDirection));
+        return 1;
+      case GET_BITS_HIGH:
+        respond(pins(highValue, highDirection));
+        return 1;
+      case LOOPBACK_START:
+      case LOOPBACK_END:
+        loopback = (byte) opcode == LOOPBACK_START;
+        return 1;
+      case TCK_DIVISOR:
+        if (available < 3) {
+          return 0;
+        }
+        clockDivisor = (pending[position + 1] & 0xFF) | (pending[position + 2] & 0xFF) << 8;
+        return 3;
+      case SEND_IMMEDIATE:
+      case DISABLE_CLK_DIV5:
+      case ENABLE_CLK_DIV5:
+      case ENABLE_3_PHASE:
+      case DISABLE_3_PHASE:
+      case ENABLE_ADAPTIVE_CLOCK:
+      case DISABLE_ADAPTIVE_CLOCK:
+        return 1;
+      default:
+        respond(BAD_COMMAND & 0xFF);
+        respond(opcode);
+        return 1;
+    }
+  }
+
+  /**
+   * Execute a data shifting command.
+   *
+   * @param position  the index of the opcode
+   * @param opcode    the opcode
+   * @param available the number of pending bytes from the opcode on
+   * @return the command length, 0 if the command is incomplete
+   */
+  private int shift(int position, int opcode, int available) {
+    boolean write = (opcode & SHIFT_DO_WRITE) != 0;
+    boolean read = (opcode & SHIFT_DO_READ) != 0;
+    boolean lsb = (opcode & SHIFT_LSB) != 0;
+    if ((opcode & SHIFT_WRITE_TMS) != 0) {
+      /**
+       * TMS shifting: bit length, then the TMS bits (LSB first) with the TDI
+       * level in bit 7. Read bits are shifted in from the top.
+       */
+      if (available < 3) {
+        return 0;
+      }
+      int count = (pending[position + 1] & 0x07) + 1;
+      int data = pending[position + 2] & 0xFF;
+      if (read) {
+        respond(readBits(data >> 7 != 0 ? 0xFF : 0x00, count, true));
+      }
+      return 3;
+    }
+    if ((opcode & SHIFT_BITMODE) != 0) {
+      int length = write ? 3 : 2;
+      if (available < length) {
+        return 0;
+      }
+      int count = (pending[position + 1] & 0x07) + 1;
+      if (read) {
+        int data = write ? pending[position + 2] & 0xFF : 0;
+        /**
+         * The written bits in shifting order: from bit 7 down (MSB first) or
+         * from bit 0 up (LSB first).
+         */
+        int out = lsb ? Integer.reverse(data) >>> 24 : data;
+        respond(readBits(out, count, lsb));
+      }
+      return length;
+    }
+    if (available < 3) {
+      return 0;
+    }
+    int count = ((pending[position + 1] & 0xFF) | (pending[position + 2] & 0xFF) << 8) + 1;
+    int length = 3 + (write ? count : 0);
+    if (available < length) {
+      return 0;
+    }
+    if (read) {
+      for (int n = 0; n < count; n++) {
+        respond(loopback && write ? pending[position + 3 + n] & 0xFF : 0xFF);
+      }
+    }
+    return length;
+  }
+
+  /**
+   * Get the response byte of a bit shift.
+   *
+   * @param out   the bits written, first bit in bit 7
+   * @param count the number of bits
+   * @param lsb   TRUE if the bits are shifted in from the top (LSB first),
+   *              FALSE from the bottom (MSB first)
+   * @return the response byte
+   */
+  private int readBits(int out, int count, boolean lsb) {
+    int in = loopback ? out : 0xFF;
+    /**
+     * The first count bits, in bits 7 downwards.
+     */
+    int bits = in >> (8 - count) & ((1 << count) - 1);
+    return lsb ? Integer.reverse(bits) >>> (32 - count) << (8 - count) & 0xFF : bits;
+  }
+
+  /**
+   * @return the pin levels: output pins as driven, input pins pulled up
+   */
+  private static int pins(int value, int direction) {
+    return (value & direction | ~direction) & 0xFF;
+  }
+
+  /**
+   * Queue a response byte.
+   */
+  private void respond(int value) {
+    if (responseEnd == response.length) {
+      if (responseStart > 0) {
+        System.arraycopy(response, responseStart, response, 0, responseEnd - responseStart);
+        responseEnd -= responseStart;
+        responseStart = 0;
+      } else {
+        response = Arrays.copyOf(response, response.length * 2);
+      }
+    }
+    response[responseEnd++] = (byte) value;
+  }
+
+  /**
+   * @return the number of response bytes available to read
+   */
+  synchronized int available() {
+    return responseEnd - responseStart;
+  }
+
+  /**
+   * Read queued response bytes.
+   *
+   * @param data   the buffer
+   * @param offset the index at which to store the first byte
+   * @param length the maximum number of bytes
+   * @return the number of bytes stored
+   */
+  synchronized int read(byte[] data, int offset, int length) {
+    int count = Math.min(length, responseEnd - responseStart);
+    System.arraycopy(response, responseStart, data, offset, count);
+    responseStart += count;
+    if (responseStart == responseEnd) {
+      responseStart = responseEnd = 0;
+    }
+    return count;
+  }
+
+  /**
+   * Wait for responses.
+   *
+   * @param millis the maximum time to wait (milliseconds)
+   * @throws InterruptedException if interrupted
+   */
+  synchronized void await(long millis) throws InterruptedException {
+    if (responseEnd == responseStart) {
+      wait(millis);
+    }
+  }
+
+  /**
+   * @return TRUE if the loopback (TDI / MOSI to TDO / MISO) is connected
+   */
+  synchronized boolean isLoopback() {
+    return loopback;
+  }
+
+  /**
+   * @return the low byte GPIO value and direction: value in bits 0-7,
+   *         direction in bits 8-15
+   */
+  synchronized int getDataBitsLow() {
+    return lowValue | lowDirection << 8;
+  }
+
+  /**
+   * @return the high byte GPIO value and direction: value in bits 0-7,
+   *         direction in bits 8-15
+   */
+  synchronized int getDataBitsHigh() {
+    return highValue | highDirection << 8;
+  }
+
+  /**
+   * @return the last clock divisor set
+   */
+  synchronized int getClockDivisor() {
+    return clockDivisor;
+  }
+
+  /**
+   * @return the number of commands executed
+   */
+  synchronized long getCommandCount() {
+    return commandCount;
+  }
+}
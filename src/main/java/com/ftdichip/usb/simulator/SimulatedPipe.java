@@ -0,0 +1,252 @@
+/*
+ * Copyright 2014-2016 Key Bridge LLC.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ftdichip.usb.simulator;
+
+import java.util.ArrayDeque;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import javax.usb.*;
+import javax.usb.event.UsbPipeDataEvent;
+import javax.usb.event.UsbPipeErrorEvent;
+import javax.usb.event.UsbPipeListener;
+import javax.usb.util.DefaultUsbControlIrp;
+import javax.usb.util.DefaultUsbIrp;
+
+/**
+ * A pipe to a simulated bulk endpoint.
+ * <p>
+ * Requests are queued and processed in order by one worker thread per open
+ * pipe. A completed request is marked complete BEFORE the pipe listeners are
+ * notified on the worker thread, as in the usb4java implementation.
+ * <p>
+ * Developer note: As in usb4java, {@link #abortAllSubmissions()} discards the
+ * queued requests without completing them and waits for the request in
+ * progress to finish.
+ *
+ * @author Jesse Caulfield
+ */
+final class SimulatedPipe implements UsbPipe {
+
+  private final SimulatedEndpoint endpoint;
+  private final List<UsbPipeListener> listeners = new CopyOnWriteArrayList<>();
+  /**
+   * The submitted requests and the request in progress. Guarded by this.
+   */
+  private final Queue<UsbIrp> queue = new ArrayDeque<>();
+  private UsbIrp current;
+  private Thread worker;
+  private volatile boolean open;
+  private volatile boolean aborting;
+
+  SimulatedPipe(SimulatedEndpoint endpoint) {
+    this.endpoint = endpoint;
+  }
+
+  /**
+   * @return TRUE while the submissions are being aborted. A transfer waiting
+   *         for data should finish immediately.
+   */
+  boolean isAborting() {
+    return aborting || !open;
+  }
+
+  private AbstractSimulatedDevice getDevice() {
+    return endpoint.getSimulatedInterface().getSimulatedDevice();
+  }
+
+  @Override
+  public synchronized void open() throws UsbException {
+    getDevice().checkConnected();
+    if (!endpoint.getSimulatedInterface().isClaimed()) {
+      throw new UsbNotClaimedException();
+    }
+    if (open) {
+      throw new UsbException("Pipe is already open.");
+    }
+    open = true;
+    worker = new Thread(this::process, String.format("Simulated pipe 0x%02x", endpoint.getUsbEndpointDescriptor().bEndpointAddress()));
+    worker.setDaemon(true);
+    worker.start();
+  }
+
+  @Override
+  public void close() throws UsbException {
+    if (!open) {
+      throw new UsbNotOpenException();
+    }
+    shutdown();
+  }
+
+  /**
+   * Abort all submissions and stop the worker thread, if open.
+   */
+  void shutdown() {
+    if (open) {
+      abortAllSubmissions();
+      synchronized (this) {
+        open = false;
+        notifyAll();
+      }
+    }
+  }
+
+  @Override
+  public boolean isActive() {
+    return true;
+  }
+
+  @Override
+  public boolean isOpen() {
+    return open;
+  }
+
+  @Override
+  public UsbEndpoint getUsbEndpoint() {
+    return endpoint;
+  }
+
+  @Override
+  public int syncSubmit(byte[] data) throws UsbException {
+    UsbIrp irp = new DefaultUsbIrp(data);
+    syncSubmit(irp);
+    return irp.getActualLength();
+  }
+
+  @Override
+  public UsbIrp asyncSubmit(byte[] data) throws UsbException {
+    UsbIrp irp = new DefaultUsbIrp(data);
+    asyncSubmit(irp);
+    return irp;
+  }
+
+  @Override
+  public void syncSubmit(UsbIrp irp) throws UsbException {
+    asyncSubmit(irp);
+    irp.waitUntilComplete();
+    if (irp.isUsbException()) {
+      throw irp.getUsbException();
+    }
+  }
+
+  @Override
+  public synchronized void asyncSubmit(UsbIrp irp) throws UsbException {
+    if (irp == null) {
+      throw new IllegalArgumentException("IRP must not be null.");
+    }
+    getDevice().checkConnected();
+    if (!open) {
+      throw new UsbNotOpenException();
+    }
+    queue.add(irp);
+    notifyAll();
+  }
+
+  @Override
+  public void syncSubmit(List list) throws UsbException {
+    for (Object irp : list) {
+      syncSubmit((UsbIrp) irp);
+    }
+  }
+
+  @Override
+  public void asyncSubmit(List list) throws UsbException {
+    for (Object irp : list) {
+      asyncSubmit((UsbIrp) irp);
+    }
+  }
+
+  @Override
+  public void abortAllSubmissions() {
+    if (!open) {
+      throw new UsbNotOpenException();
+    }
+    synchronized (this) {
+      queue.clear();
+      aborting = true;
+      try {
+        while (current != null && Thread.currentThread() != worker) {
+          wait();
+        }
+      } catch (InterruptedException ex) {
+        Thread.currentThread().interrupt();
+      } finally {
+        aborting = false;
+      }
+    }
+  }
+
+  @Override
+  public UsbIrp createUsbIrp() {
+    return new DefaultUsbIrp();
+  }
+
+  @Override
+  public UsbControlIrp createUsbControlIrp(byte bmRequestType, byte bRequest, short wValue, short wIndex) {
+    return new DefaultUsbControlIrp(bmRequestType, bRequest, wValue, wIndex);
+  }
+
+  @Override
+  public void addUsbPipeListener(UsbPipeListener listener) {
+    listeners.add(listener);
+  }
+
+  @Override
+  public void removeUsbPipeListener(UsbPipeListener listener) {
+    listeners.remove(listener);
+  }
+
+  /**
+   * The worker thread: process the submitted requests in order.
+   */
+  private void process() {
+    while (true) {
+      UsbIrp irp;
+      synchronized (this) {
+        try {
+          while (open && queue.isEmpty()) {
+            wait();
+          }
+        } catch (InterruptedException ex) {
+          return;
+        }
+        if (!open) {
+          return;
+        }
+        irp = current = queue.poll();
+      }
+      try {
+        getDevice().transfer(this, irp);
+      } catch (UsbException ex) {
+        irp.setUsbException(ex);
+      } catch (UsbDisconnectedException ex) {
+        irp.setUsbException(new UsbException(ex.getMessage()));
+      }
+      irp.complete();
+      for (UsbPipeListener listener : listeners) {
+        if (irp.isUsbException()) {
+          listener.errorEventOccurred(new UsbPipeErrorEvent(this, irp));
+        } else {
+          listener.dataEventOccurred(new UsbPipeDataEvent(this, irp));
+        }
+      }
+      synchronized (this) {
+        current = null;
+        notifyAll();
+      }
+    }
+  }
+}
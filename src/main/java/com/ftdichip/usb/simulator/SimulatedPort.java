@@ -0,0 +1,66 @@
+/*
+ * Copyright 2014-2016 Key Bridge LLC.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ftdichip.usb.simulator;
+
+import javax.usb.UsbDevice;
+import javax.usb.UsbHub;
+import javax.usb.UsbPort;
+
+/**
+ * A port of the simulated root hub.
+ *
+ * @author Jesse Caulfield
+ */
+final class SimulatedPort implements UsbPort {
+
+  private final SimulatedHub hub;
+  private final byte portNumber;
+  private volatile AbstractSimulatedDevice device;
+
+  SimulatedPort(SimulatedHub hub, byte portNumber) {
+    this.hub = hub;
+    this.portNumber = portNumber;
+  }
+
+  /**
+   * Attach or detach a device.
+   *
+   * @param device the device, null to detach
+   */
+  void setUsbDevice(AbstractSimulatedDevice device) {
+    this.device = device;
+  }
+
+  @Override
+  public byte getPortNumber() {
+    return portNumber;
+  }
+
+  @Override
+  public UsbHub getUsbHub() {
+    return hub;
+  }
+
+  @Override
+  public UsbDevice getUsbDevice() {
+    return device;
+  }
+
+  @Override
+  public boolean isUsbDeviceAttached() {
+    return device != null;
+  }
+}
@@ -0,0 +1,208 @@
+/*
+ * Copyright 2014-2016 Key Bridge LLC.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ftdichip.usb.simulator;
+
+import com.ftdichip.usb.enumerated.ChipType;
+import com.ftdichip.usb.miocard.MiocardWorkMode;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import javax.usb.UsbHub;
+import javax.usb.UsbServices;
+import javax.usb.event.UsbServicesEvent;
+import javax.usb.event.UsbServicesListener;
+
+/**
+ * In-process {@code javax.usb} implementation simulating FTDI chips with an
+ * attached Miocard-12, for testing and benchmarking without hardware.
+ * <p>
+ * Select the simulator in {@code javax.usb.properties}:
+ * <pre>
+ * javax.usb.services = com.ftdichip.usb.simulator.SimulatorServices
+ * </pre> or with the {@code javax.usb.services} system property, which
+ * overrides the properties file (see {@link com.ftdichip.usb.UsbHostManager}).
+ * <p>
+ * The simulated devices are configured with system properties, read when the
+ * services are created:
+ * <ul>
+ * <li>{@value #DEVICES_PROPERTY}: the number of devices attached at start
+ * (default 1)</li>
+ * <li>{@value #SPEED_PROPERTY}: the stream speed factor, 1.0 for real time, 0
+ * for unthrottled (default 1.0)</li>
+ * <li>{@value #SAMPLE_RATE_PROPERTY}: the work mode sample rate, 500, 1000 or
+ * 2000 Hz (default 500)</li>
+ * </ul>
+ * Devices may also be attached and detached at run time, which notifies the
+ * {@link UsbServicesListener}s.
+ *
+ * @author Jesse Caulfield
+ */
+public final class SimulatorServices implements UsbServices {
+
+  /**
+   * System property: the number of devices attached at start.
+   */
+  public static final String DEVICES_PROPERTY = "com.ftdichip.usb.simulator.devices";
+  /**
+   * System property: the stream speed factor.
+   */
+  public static final String SPEED_PROPERTY = "com.ftdichip.usb.simulator.speed";
+  /**
+   * System property: the work mode sample rate (Hz).
+   */
+  public static final String SAMPLE_RATE_PROPERTY = "com.ftdichip.usb.simulator.rate";
+
+  private final SimulatedHub rootHub = new SimulatedHub();
+  private final List<UsbServicesListener> listeners = new CopyOnWriteArrayList<>();
+  /**
+   * The number of devices created, for the serial numbers.
+   */
+  private int deviceCount;
+
+  /**
+   * Construct the simulator and attach the configured number of devices.
+   */
+  public SimulatorServices() {
+    int devices = Integer.getInteger(DEVICES_PROPERTY, 1);
+    for (int n = 0; n < devices; n++) {
+      attachMiocard();
+    }
+  }
+
+  @Override
+  public UsbHub getRootUsbHub() {
+    return rootHub;
+  }
+
+  /**
+   * Create a simulated FTDI chip with a Miocard-12, configured from the system
+   * properties, and attach it to the root hub.
+   *
+   * @return the new device
+   */
+  public synchronized SimulatedFTDIDevice attachMiocard() {
+    return attachMiocards(1);
+  }
+
+  /**
+   * Create a simulated FTDI chip with one Miocard-12 per serial port,
+   * configured from the system properties, and attach it to the root hub.
+   *
+   * @param portCount the number of serial ports: 1 (FT232R), 2 (FT2232H) or
+   *                  4 (FT4232H)
+   * @return the new device
+   */
+  public synchronized SimulatedFTDIDevice attachMiocards(int portCount) {
+    SimulatedMiocard[] miocards = new SimulatedMiocard[portCount];
+    for (int index = 0; index < portCount; index++) {
+      miocards[index] = createMiocard();
+    }
+    SimulatedFTDIDevice device = new SimulatedFTDIDevice(String.format("SIM%05d", ++deviceCount), miocards);
+    attach(device);
+    return device;
+  }
+
+  /**
+   * Create a simulated single port FT232H with a Miocard-12, configured from
+   * the system properties, and attach it to the root hub.
+   *
+   * @return the new device
+   */
+  public synchronized SimulatedFTDIDevice attachFT232H() {
+    SimulatedFTDIDevice device = new SimulatedFTDIDevice(ChipType.TYPE_232H, String.format("SIM%05d", ++deviceCount), createMiocard());
+    attach(device);
+    return device;
+  }
+
+  /**
+   * @return a new Miocard-12, configured from the system properties
+   */
+  private static SimulatedMiocard createMiocard() {
+    SimulatedMiocard miocard = new SimulatedMiocard();
+    miocard.setSpeed(Double.parseDouble(System.getProperty(SPEED_PROPERTY, "1.0")));
+    int rate = Integer.getInteger(SAMPLE_RATE_PROPERTY, 500);
+    byte rateBits = (byte) (rate >= 2000 ? 0x80 : rate >= 1000 ? 0x40 : 0x20);
+    MiocardWorkMode defaultMode = SimulatedMiocard.DEFAULT_WORK_MODE;
+    miocard.setWorkMode(new MiocardWorkMode((byte) (defaultMode.getLowByte() & 0x1F | rateBits), defaultMode.getHighByte()));
+    return miocard;
+  }
+
+  /**
+   * Attach a device to the root hub.
+   *
+   * @param device the device
+   */
+  public void attach(AbstractSimulatedDevice device) {
+    rootHub.attach(device);
+    UsbServicesEvent event = new UsbServicesEvent(this, device);
+    for (UsbServicesListener listener : listeners) {
+      listener.usbDeviceAttached(event);
+    }
+  }
+
+  /**
+   * Detach (unplug) a device. Its pipes are closed and further requests fail
+   * with a {@link javax.usb.UsbDisconnectedException}.
+   *
+   * @param device the device
+   */
+  public void detach(AbstractSimulatedDevice device) {
+    if (rootHub.detach(device)) {
+      UsbServicesEvent event = new UsbServicesEvent(this, device);
+      for (UsbServicesListener listener : listeners) {
+        listener.usbDeviceDetached(event);
+      }
+    }
+  }
+
+  /**
+   * @return the attached simulated FTDI devices
+   */
+  public List<SimulatedFTDIDevice> getSimulatedDevices() {
+    List<SimulatedFTDIDevice> devices = new ArrayList<>();
+    for (Object device : rootHub.getAttachedUsbDevices()) {
+      if (device instanceof SimulatedFTDIDevice) {
+        devices.add((SimulatedFTDIDevice) device);
+      }
+    }
+    return devices;
+  }
+
+  @Override
+  public void addUsbServicesListener(UsbServicesListener listener) {
+    listeners.add(listener);
+  }
+
+  @Override
+  public void removeUsbServicesListener(UsbServicesListener listener) {
+    listeners.remove(listener);
+  }
+
+  @Override
+  public String getApiVersion() {
+    return "1.0.2";
+  }
+
+  @Override
+  public String getImpVersion() {
+    return "1.0";
+  }
+
+  @Override
+  public String getImpDescription() {
+    return "FTDI / Miocard-12 device simulator";
+  }
+}
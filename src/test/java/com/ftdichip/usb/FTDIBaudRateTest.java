@@ -0,0 +1,131 @@
+/*
+ * Copyright 2014-2016 Key Bridge LLC.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ftdichip.usb;
+
+import com.ftdichip.usb.enumerated.ChipType;
+import com.ftdichip.usb.enumerated.PortInterfaceType;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * {@link FTDIBaudRate} divisor encoding, against the values libftdi's
+ * ftdi_convert_baudrate produces for the same chip type and baud rate.
+ *
+ * @author Jesse Caulfield
+ */
+public class FTDIBaudRateTest {
+
+  /**
+   * Assert the encoded divisor of a baud rate.
+   *
+   * @param chipType the chip type
+   * @param port     the chip port (interface)
+   * @param baudRate the requested baud rate
+   * @param actual   the expected actual baud rate
+   * @param value    the expected wValue
+   * @param index    the expected wIndex
+   */
+  private static void assertDivisor(ChipType chipType, PortInterfaceType port, int baudRate, int actual, int value, int index) {
+    FTDIBaudRate divisor = FTDIBaudRate.getInstance(chipType, baudRate);
+    String message = chipType + " " + baudRate + " baud";
+    assertEquals(message + " actual", actual, divisor.getActualBaudRate());
+    assertEquals(message + " wValue", (short) value, divisor.getValue());
+    assertEquals(message + " wIndex", (short) index, divisor.getIndex(port));
+  }
+
+  /**
+   * The AM supports only the 0, 0.125, 0.25 and 0.5 sub-integer divisors and
+   * none between 1 and 2.
+   */
+  @Test
+  public void testAM() {
+    PortInterfaceType any = PortInterfaceType.INTERFACE_ANY;
+    assertDivisor(ChipType.TYPE_AM, any, 300, 300, 0x2710, 0x0000);
+    assertDivisor(ChipType.TYPE_AM, any, 9600, 9600, 0x4138, 0x0000);
+    assertDivisor(ChipType.TYPE_AM, any, 19200, 19200, 0x809C, 0x0000);
+    assertDivisor(ChipType.TYPE_AM, any, 38400, 38400, 0xC04E, 0x0000);
+    assertDivisor(ChipType.TYPE_AM, any, 115200, 115385, 0x001A, 0x0000);
+    assertDivisor(ChipType.TYPE_AM, any, 921600, 923077, 0x8003, 0x0000);
+    assertDivisor(ChipType.TYPE_AM, any, 3000000, 3000000, 0x0000, 0x0000);
+    /**
+     * 6.375 is not an AM divisor: 6.5 is nearer than 6.25.
+     */
+    assertDivisor(ChipType.TYPE_AM, any, 470588, 461538, 0x4006, 0x0000);
+    /**
+     * 1.5 is not an AM divisor: 2 MBaud falls back to divisor 2.
+     */
+    assertDivisor(ChipType.TYPE_AM, any, 2000000, 1500000, 0x0002, 0x0000);
+  }
+
+  /**
+   * The BM supports all eighths; the 0.375 and larger sub-integer codes set
+   * divisor bit 16, which goes to the wIndex low byte.
+   */
+  @Test
+  public void testBM() {
+    PortInterfaceType any = PortInterfaceType.INTERFACE_ANY;
+    assertDivisor(ChipType.TYPE_BM, any, 300, 300, 0x2710, 0x0000);
+    assertDivisor(ChipType.TYPE_BM, any, 9600, 9600, 0x4138, 0x0000);
+    assertDivisor(ChipType.TYPE_BM, any, 115200, 115385, 0x001A, 0x0000);
+    assertDivisor(ChipType.TYPE_BM, any, 460800, 461538, 0x4006, 0x0000);
+    assertDivisor(ChipType.TYPE_BM, any, 470588, 470588, 0x0006, 0x0001);
+    assertDivisor(ChipType.TYPE_BM, any, 183206, 183206, 0x0010, 0x0001);
+    assertDivisor(ChipType.TYPE_BM, any, 1000000, 1000000, 0x0003, 0x0000);
+    assertDivisor(ChipType.TYPE_BM, any, 1500000, 1500000, 0x0002, 0x0000);
+    assertDivisor(ChipType.TYPE_BM, any, 2000000, 2000000, 0x0001, 0x0000);
+    assertDivisor(ChipType.TYPE_BM, any, 3000000, 3000000, 0x0000, 0x0000);
+  }
+
+  /**
+   * The FT2232C divisors are the BM divisors; the wIndex carries the port in
+   * its low byte and divisor bit 16 in its high byte.
+   */
+  @Test
+  public void test2232C() {
+    assertDivisor(ChipType.TYPE_2232C, PortInterfaceType.INTERFACE_A, 9600, 9600, 0x4138, 0x0001);
+    assertDivisor(ChipType.TYPE_2232C, PortInterfaceType.INTERFACE_B, 9600, 9600, 0x4138, 0x0002);
+    assertDivisor(ChipType.TYPE_2232C, PortInterfaceType.INTERFACE_A, 183206, 183206, 0x0010, 0x0101);
+    assertDivisor(ChipType.TYPE_2232C, PortInterfaceType.INTERFACE_B, 183206, 183206, 0x0010, 0x0102);
+    assertDivisor(ChipType.TYPE_2232C, PortInterfaceType.INTERFACE_B, 3000000, 3000000, 0x0000, 0x0002);
+  }
+
+  /**
+   * The H series chips use the 12 MHz clock (clock select bit 17, in the
+   * wIndex high byte) above 732 baud and the 3 MHz clock below.
+   */
+  @Test
+  public void testH() {
+    assertDivisor(ChipType.TYPE_2232H, PortInterfaceType.INTERFACE_A, 300, 300, 0x2710, 0x0001);
+    assertDivisor(ChipType.TYPE_2232H, PortInterfaceType.INTERFACE_B, 300, 300, 0x2710, 0x0002);
+    assertDivisor(ChipType.TYPE_2232H, PortInterfaceType.INTERFACE_A, 9600, 9600, 0x04E2, 0x0201);
+    assertDivisor(ChipType.TYPE_4232H, PortInterfaceType.INTERFACE_D, 9600, 9600, 0x04E2, 0x0204);
+    assertDivisor(ChipType.TYPE_4232H, PortInterfaceType.INTERFACE_C, 115200, 115246, 0xC068, 0x0203);
+    assertDivisor(ChipType.TYPE_232H, PortInterfaceType.INTERFACE_ANY, 3000000, 3000000, 0x0004, 0x0200);
+    assertDivisor(ChipType.TYPE_232H, PortInterfaceType.INTERFACE_ANY, 12000000, 12000000, 0x0000, 0x0200);
+  }
+
+  /**
+   * Rates outside the standard table are calculated on request.
+   */
+  @Test
+  public void testCalculated() {
+    FTDIBaudRate divisor = FTDIBaudRate.getInstance(ChipType.TYPE_R, 250000);
+    assertEquals(250000, divisor.getActualBaudRate());
+    assertEquals(0x000C, divisor.getValue());
+    assertTrue(divisor.isWithinTolerance());
+  }
+}
@@ -0,0 +1,167 @@
+/*
+ * Copyright 2014-2016 Key Bridge LLC.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ftdichip.usb;
+
+import com.ftdichip.usb.enumerated.ChipType;
+import com.ftdichip.usb.enumerated.PortInterfaceType;
+import com.ftdichip.usb.miocard.MiocardCommand;
+import com.ftdichip.usb.simulator.SimulatedFTDIDevice;
+import com.ftdichip.usb.simulator.SimulatorServices;
+import java.util.Arrays;
+import org.junit.*;
+
+import static org.junit.Assert.*;
+
+/**
+ * {@link FTDIUtility} control requests, against the simulated FTDI chip, and
+ * modem status header stripping.
+ *
+ * @author Jesse Caulfield
+ */
+public class FTDIUtilityTest {
+
+  private static SimulatorServices services;
+  private SimulatedFTDIDevice device;
+  private FTDI ftdi;
+
+  @BeforeClass
+  public static void setUpClass() throws Exception {
+    System.setProperty("javax.usb.services", SimulatorServices.class.getName());
+    services = (SimulatorServices) UsbHostManager.getUsbServices();
+  }
+
+  @Before
+  public void setUp() throws Exception {
+    device = services.attachMiocards(1);
+    ftdi = FTDI.openPorts(device).get(0);
+  }
+
+  @After
+  public void tearDown() {
+    ftdi.close();
+    services.detach(device);
+  }
+
+  /**
+   * purgeRx discards the data not yet read by the host (SIO_TCIFLUSH);
+   * purgeTx leaves it alone (SIO_TCOFLUSH).
+   */
+  @Test
+  public void testPurgeDirections() throws Exception {
+    ftdi.write(MiocardCommand.MODE_INFO.toBytes());
+    int pending = device.getMiocard().available();
+    assertTrue("no response to purge", pending > 0);
+    FTDIUtility.purgeTx(device, PortInterfaceType.INTERFACE_ANY);
+    assertEquals("purgeTx discarded device data", pending, device.getMiocard().available());
+    FTDIUtility.purgeRx(device, PortInterfaceType.INTERFACE_ANY);
+    assertEquals("purgeRx kept device data", 0, device.getMiocard().available());
+  }
+
+  /**
+   * An FT232H is found, identified and configured with its high speed baud
+   * rate generator.
+   */
+  @Test
+  public void testFindsFT232H() throws Exception {
+    SimulatedFTDIDevice ft232h = services.attachFT232H();
+    try {
+      assertTrue("FT232H not found", FTDIUtility.findFTDIDevices().contains(ft232h));
+      FTDI port = FTDI.openPorts(ft232h).get(0);
+      try {
+        assertEquals(ChipType.TYPE_232H, port.getChipType());
+        assertTrue(port.isSyncFifoSupported());
+        assertTrue(port.isMpsseSupported());
+        FTDIUtility.setBaudRate(ft232h, PortInterfaceType.INTERFACE_ANY, 3000000);
+        assertEquals(3000000, ft232h.getBaudRate());
+      } finally {
+        port.close();
+      }
+    } finally {
+      services.detach(ft232h);
+    }
+  }
+
+  /**
+   * Build a bulk-IN transfer: each packet is a modem status header followed
+   * by its data bytes, numbered consecutively from 1.
+   *
+   * @param offset     the index of the first transfer byte
+   * @param lineStatus the line status byte of every header
+   * @param counts     the number of data bytes in each packet
+   * @return the transfer buffer
+   */
+  private static byte[] transfer(int offset, byte lineStatus, int... counts) {
+    byte[] data = new byte[offset + counts.length * FTDIUtility.MODEM_STATUS_HEADER_LENGTH + Arrays.stream(counts).sum()];
+    int index = offset;
+    int value = 1;
+    for (int count : counts) {
+      data[index++] = 0x01;
+      data[index++] = lineStatus;
+      for (int i = 0; i < count; i++) {
+        data[index++] = (byte) value++;
+      }
+    }
+    return data;
+  }
+
+  /**
+   * Assert that the device data is 1, 2, 3 ... starting at an index.
+   */
+  private static void assertData(byte[] data, int target, int length) {
+    for (int i = 0; i < length; i++) {
+      assertEquals("data byte " + i, (byte) (i + 1), data[target + i]);
+    }
+  }
+
+  /**
+   * Headers are stripped from full packets and from a short last packet, and
+   * every header reaches the tracker.
+   */
+  @Test
+  public void testStripShortLastPacket() {
+    byte[] data = transfer(3, (byte) 0x02, 6, 6, 3);
+    FTDIModemStatusTracker tracker = new FTDIModemStatusTracker();
+    int length = FTDIUtility.stripModemStatus(data, 3, data.length - 3, 8, 5, tracker);
+    assertEquals(15, length);
+    assertData(data, 5, length);
+    assertEquals("overrun headers", 3, tracker.getOverrunCount());
+    /**
+     * Moving the first packet too.
+     */
+    data = transfer(0, (byte) 0, 6, 6, 3);
+    length = FTDIUtility.stripModemStatus(data, 0, data.length, 8, 0);
+    assertEquals(15, length);
+    assertData(data, 0, length);
+  }
+
+  /**
+   * A transfer of headers only carries no data, and a header-only last packet
+   * adds none; the headers still reach the tracker.
+   */
+  @Test
+  public void testStripHeaderOnlyPackets() {
+    byte[] data = transfer(0, (byte) 0x02, 0);
+    FTDIModemStatusTracker tracker = new FTDIModemStatusTracker();
+    assertEquals(0, FTDIUtility.stripModemStatus(data, 0, data.length, 64, 2, tracker));
+    assertEquals(1, tracker.getOverrunCount());
+    data = transfer(0, (byte) 0x02, 62, 0);
+    assertEquals(62, FTDIUtility.stripModemStatus(data, 0, data.length, 64, 2, tracker));
+    assertData(data, 2, 62);
+    assertEquals(3, tracker.getOverrunCount());
+    assertEquals(0, FTDIUtility.stripModemStatus(data, 0, 0, 64, 2, tracker));
+    assertEquals(3, tracker.getOverrunCount());
+  }
+}
@@ -0,0 +1,117 @@
+/*
+ * Copyright 2014-2016 Key Bridge LLC.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ftdichip.usb.miocard;
+
+import com.ftdichip.usb.FTDI;
+import com.ftdichip.usb.UsbHostManager;
+import com.ftdichip.usb.simulator.SimulatedFTDIDevice;
+import com.ftdichip.usb.simulator.SimulatorServices;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import org.junit.*;
+
+import static org.junit.Assert.*;
+
+/**
+ * Command / response correlation of the {@link MiocardCommandChannel},
+ * against the simulated Miocard.
+ *
+ * @author Jesse Caulfield
+ */
+public class MiocardCommandChannelTest {
+
+  /**
+   * A work mode other than the simulator default, to tell the responses
+   * apart.
+   */
+  private static final MiocardWorkMode OTHER_WORK_MODE = new MiocardWorkMode((byte) 0x73, (byte) 0x08);
+
+  private static SimulatorServices services;
+  private SimulatedFTDIDevice device;
+  private FTDI ftdi;
+  private MiocardCommandChannel channel;
+
+  @BeforeClass
+  public static void setUpClass() throws Exception {
+    System.setProperty("javax.usb.services", SimulatorServices.class.getName());
+    services = (SimulatorServices) UsbHostManager.getUsbServices();
+  }
+
+  @Before
+  public void setUp() throws Exception {
+    device = services.attachMiocards(1);
+    ftdi = FTDI.openPorts(device).get(0);
+    channel = new MiocardCommandChannel(ftdi, MiocardWorkMode.DEFAULT, (data, offset) -> {
+    });
+    channel.open();
+  }
+
+  @After
+  public void tearDown() {
+    channel.close();
+    ftdi.close();
+    services.detach(device);
+  }
+
+  /**
+   * The late response of a timed out command must not complete the next
+   * command with the same code.
+   */
+  @Test
+  public void testLateResponseOfExpiredCommandIsDiscarded() throws Exception {
+    /**
+     * Hold the responses in the device until the first command has expired.
+     */
+    ftdi.stopAsyncRead();
+    channel.setTimeout(50);
+    CompletableFuture<byte[]> first = channel.send(MiocardCommand.MODE_INFO);
+    try {
+      first.get(2, TimeUnit.SECONDS);
+      fail("The first command must time out.");
+    } catch (ExecutionException ex) {
+      assertTrue(ex.getCause() instanceof TimeoutException);
+    }
+    device.getMiocard().setWorkMode(OTHER_WORK_MODE);
+    channel.setTimeout(MiocardCommandChannel.DEFAULT_TIMEOUT);
+    CompletableFuture<MiocardWorkMode> second = channel.queryWorkMode();
+    ftdi.startAsyncRead(4, 16384);
+
+    assertEquals(OTHER_WORK_MODE, second.get(2, TimeUnit.SECONDS));
+    assertEquals(0, channel.getPendingCount());
+    assertEquals(1, channel.getResponseCount());
+    assertEquals(OTHER_WORK_MODE, channel.queryWorkMode().get(2, TimeUnit.SECONDS));
+  }
+
+  /**
+   * A response nobody waits for, received while idle, must be discarded and
+   * not held in front of the next response.
+   */
+  @Test
+  public void testUnmatchedBytesAreDiscardedWhileIdle() throws Exception {
+    ftdi.write(MiocardCommand.MODE_INFO.toBytes());
+    long deadline = System.currentTimeMillis() + 2000;
+    while (channel.getFramer().getSkippedBytes() < 3 && System.currentTimeMillis() < deadline) {
+      Thread.sleep(5);
+    }
+    assertEquals(3, channel.getFramer().getSkippedBytes());
+
+    device.getMiocard().setWorkMode(OTHER_WORK_MODE);
+    assertEquals(OTHER_WORK_MODE, channel.queryWorkMode().get(2, TimeUnit.SECONDS));
+    assertEquals(0, channel.getPendingCount());
+  }
+}
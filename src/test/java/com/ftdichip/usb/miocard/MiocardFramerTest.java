@@ -0,0 +1,188 @@
+/*
+ * Copyright 2014-2016 Key Bridge LLC.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ftdichip.usb.miocard;
+
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.*;
+
+import static org.junit.Assert.*;
+
+/**
+ * Frame resynchronization of the {@link MiocardFramer}. Every stream is fed in
+ * every chunk size from one byte to more than two frames, so that the frames
+ * and the corruption straddle the chunk boundaries at every position.
+ *
+ * @author Jesse Caulfield
+ */
+public class MiocardFramerTest {
+
+  private static final int FRAME_LENGTH = 10;
+  /**
+   * A byte that never carries the status word sync pattern.
+   */
+  private static final byte NOISE = 0x11;
+
+  private List<Integer> frames;
+  private MiocardFramer framer;
+
+  @Before
+  public void setUp() {
+    newFramer();
+  }
+
+  /**
+   * Start over with a new framer and no frames received.
+   */
+  private void newFramer() {
+    frames = new ArrayList<>();
+    framer = new MiocardFramer(FRAME_LENGTH, (data, offset) -> {
+      for (int i = 2; i < FRAME_LENGTH; i++) {
+        assertEquals("frame content", data[offset + 1], data[offset + i]);
+      }
+      frames.add((int) data[offset + 1]);
+    });
+  }
+
+  /**
+   * Write a frame: the sync byte followed by the frame number.
+   */
+  private static void frame(ByteArrayOutputStream stream, int number) {
+    stream.write(MiocardProtocol.STATUS_SYNC);
+    for (int i = 1; i < FRAME_LENGTH; i++) {
+      stream.write(number);
+    }
+  }
+
+  /**
+   * Write noise bytes.
+   */
+  private static void noise(ByteArrayOutputStream stream, int count) {
+    for (int i = 0; i < count; i++) {
+      stream.write(NOISE);
+    }
+  }
+
+  /**
+   * Feed a stream to a new framer in chunks of every size and assert the
+   * frames received and the counters.
+   *
+   * @param stream   the device byte stream
+   * @param expected the numbers of the frames expected, in order
+   * @param resyncs  the expected number of lock losses
+   * @param skipped  the expected number of skipped bytes
+   */
+  private void assertFrames(byte[] stream, int[] expected, long resyncs, long skipped) {
+    for (int chunk = 1; chunk <= 2 * FRAME_LENGTH + 3; chunk++) {
+      newFramer();
+      for (int offset = 0; offset < stream.length; offset += chunk) {
+        framer.process(stream, offset, Math.min(chunk, stream.length - offset));
+      }
+      String message = "chunk size " + chunk;
+      assertEquals(message + " frames", expected.length, frames.size());
+      for (int i = 0; i < expected.length; i++) {
+        assertEquals(message + " frame " + i, expected[i], (int) frames.get(i));
+      }
+      assertEquals(message + " frame count", expected.length, framer.getFrameCount());
+      assertEquals(message + " resyncs", resyncs, framer.getResyncCount());
+      assertEquals(message + " skipped", skipped, framer.getSkippedBytes());
+      assertTrue(message + " not locked", framer.isLocked());
+    }
+  }
+
+  /**
+   * Leading noise is skipped and the framer locks on the first frame that is
+   * followed by another.
+   */
+  @Test
+  public void testLockAfterNoise() {
+    ByteArrayOutputStream stream = new ByteArrayOutputStream();
+    noise(stream, 3);
+    for (int i = 0; i < 8; i++) {
+      frame(stream, i);
+    }
+    assertFrames(stream.toByteArray(), new int[]{0, 1, 2, 3, 4, 5, 6, 7}, 0, 3);
+  }
+
+  /**
+   * Noise inserted between two frames drops the lock, which is recovered at
+   * the next frame without losing one.
+   */
+  @Test
+  public void testResyncAfterInsertedNoise() {
+    ByteArrayOutputStream stream = new ByteArrayOutputStream();
+    for (int i = 0; i < 8; i++) {
+      if (i == 4) {
+        noise(stream, 4);
+      }
+      frame(stream, i);
+    }
+    assertFrames(stream.toByteArray(), new int[]{0, 1, 2, 3, 4, 5, 6, 7}, 1, 4);
+  }
+
+  /**
+   * A frame with a corrupt status word drops the lock and is skipped; the
+   * framer re-locks on the next frame.
+   */
+  @Test
+  public void testResyncAfterCorruptFrame() {
+    ByteArrayOutputStream stream = new ByteArrayOutputStream();
+    for (int i = 0; i < 8; i++) {
+      if (i == 4) {
+        noise(stream, FRAME_LENGTH);
+      } else {
+        frame(stream, i);
+      }
+    }
+    assertFrames(stream.toByteArray(), new int[]{0, 1, 2, 3, 5, 6, 7}, 1, FRAME_LENGTH);
+  }
+
+  /**
+   * Two lock losses, the second one frame after the recovery from the first,
+   * are both recovered.
+   */
+  @Test
+  public void testRepeatedLockLoss() {
+    ByteArrayOutputStream stream = new ByteArrayOutputStream();
+    for (int i = 0; i < 10; i++) {
+      if (i == 3 || i == 5) {
+        noise(stream, 7);
+      }
+      frame(stream, i);
+    }
+    assertFrames(stream.toByteArray(), new int[]{0, 1, 2, 3, 4, 5, 6, 7, 8, 9}, 2, 14);
+  }
+
+  /**
+   * After a reset the framer hunts again and discards the partial frame.
+   */
+  @Test
+  public void testReset() {
+    ByteArrayOutputStream stream = new ByteArrayOutputStream();
+    for (int i = 0; i < 3; i++) {
+      frame(stream, i);
+    }
+    byte[] data = stream.toByteArray();
+    framer.process(data, 0, data.length - 4);
+    assertTrue(framer.isLocked());
+    assertEquals(2, frames.size());
+    framer.reset();
+    assertFalse(framer.isLocked());
+    framer.process(data, data.length - 4, 4);
+    assertEquals(2, frames.size());
+  }
+}